@@ -0,0 +1,333 @@
+package dev.jbang;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinate;
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinates;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import dev.jbang.cli.BaseCommand;
+import dev.jbang.cli.ExitException;
+import dev.jbang.dependencies.ArtifactInfo;
+import dev.jbang.dependencies.DependencyCache;
+import dev.jbang.dependencies.LockFile;
+import dev.jbang.dependencies.ModularClassPath;
+import dev.jbang.dependencies.RepositoryLayers;
+import dev.jbang.net.JdkManager;
+import dev.jbang.source.BuildFingerprint;
+import dev.jbang.source.Source;
+import dev.jbang.util.UnpackUtil;
+import dev.jbang.util.Util;
+
+/**
+ * A bundle is a zip file with everything needed to run a script on a machine
+ * without network access: the jar that was built for the script, all of its
+ * dependencies in Maven repository layout, the dependency cache entry for them
+ * and, optionally, a JDK. Importing a bundle puts all of that where jbang would
+ * have put it itself, so running the script afterwards doesn't need to resolve
+ * or compile anything.
+ */
+public class Bundle {
+	public static final String BUNDLE_EXT = ".bundle.zip";
+
+	private static final String INFO_FILE = "bundle.json";
+	private static final String JARS_DIR = "jars";
+	private static final String REPOSITORY_DIR = "repository";
+	private static final String JDKS_DIR = "jdks";
+
+	private String jar;
+	private String deps;
+	private List<Artifact> artifacts = new ArrayList<>();
+	private Integer jdk;
+
+	private static class Artifact {
+		String gav;
+		String path;
+		String sha256;
+
+		Artifact(String gav, String path, String sha256) {
+			this.gav = gav;
+			this.path = path;
+			this.sha256 = sha256;
+		}
+	}
+
+	/**
+	 * Writes a bundle for a script
+	 *
+	 * @param bundleFile The bundle to create
+	 * @param jarFile    The jar that was built for the script
+	 * @param depsKey    The dependency cache key of the script's dependencies
+	 * @param classPath  The resolved dependencies of the script
+	 * @param jdkVersion The version of the managed JDK to include or
+	 *                   <code>null</code> to not include any
+	 */
+	public static void write(Path bundleFile, File jarFile, String depsKey, ModularClassPath classPath,
+			Integer jdkVersion) throws IOException {
+		Bundle bundle = new Bundle();
+		bundle.jar = jarFile.getName();
+		bundle.deps = depsKey;
+		bundle.jdk = jdkVersion;
+		for (ArtifactInfo art : classPath.getArtifacts()) {
+			if (art.getCoordinate() == null) {
+				throw new ExitException(BaseCommand.EXIT_INVALID_INPUT,
+						"Can't bundle " + art.getFile() + " because it's not a Maven artifact");
+			}
+			bundle.artifacts.add(new Artifact(art.getCoordinate().toCanonicalForm(), getRepositoryPath(art),
+					LockFile.sha256(art.getFile())));
+		}
+
+		Path jdkDir = jdkVersion != null ? JdkManager.getInstalledJdk(jdkVersion) : null;
+		try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(bundleFile.toFile())) {
+			zip.putArchiveEntry(new ZipArchiveEntry(INFO_FILE));
+			zip.write(new GsonBuilder().setPrettyPrinting().create().toJson(bundle).getBytes(StandardCharsets.UTF_8));
+			zip.closeArchiveEntry();
+			addFile(zip, jarFile.toPath(), JARS_DIR + "/" + bundle.jar);
+			for (int i = 0; i < bundle.artifacts.size(); i++) {
+				addFile(zip, classPath.getArtifacts().get(i).getFile().toPath(),
+						REPOSITORY_DIR + "/" + bundle.artifacts.get(i).path);
+			}
+			if (jdkDir != null) {
+				addTree(zip, jdkDir, JDKS_DIR + "/" + jdkVersion);
+			}
+		}
+	}
+
+	/**
+	 * Returns the location of the artifact relative to the root of a Maven
+	 * repository, using '/' as the separator
+	 */
+	private static String getRepositoryPath(ArtifactInfo art) {
+		Path file = art.getFile().getAbsoluteFile().toPath();
+		List<File> repos = new ArrayList<>(Settings.getLocalMavenRepoLayers());
+		repos.add(Settings.getLocalMavenRepo());
+		for (File repo : repos) {
+			if (file.startsWith(repo.toPath())) {
+				return toEntryName(repo.toPath().relativize(file));
+			}
+		}
+		MavenCoordinate coord = art.getCoordinate();
+		return RepositoryLayers	.getPath(coord.getGroupId(), coord.getArtifactId(), coord.getVersion(),
+										coord.getClassifier(), coord.getType().getExtension())
+								.replace(File.separatorChar, '/');
+	}
+
+	private static String toEntryName(Path path) {
+		return StreamSupport.stream(path.spliterator(), false)
+							.map(Path::toString)
+							.collect(Collectors.joining("/"));
+	}
+
+	private static void addFile(ZipArchiveOutputStream zip, Path file, String name) throws IOException {
+		ZipArchiveEntry entry = new ZipArchiveEntry(file.toFile(), name);
+		if (!Util.isWindows()) {
+			entry.setUnixMode(getUnixMode(file));
+		}
+		zip.putArchiveEntry(entry);
+		Files.copy(file, zip);
+		zip.closeArchiveEntry();
+	}
+
+	private static void addTree(ZipArchiveOutputStream zip, Path dir, String name) throws IOException {
+		List<Path> files;
+		try (Stream<Path> s = Files.walk(dir)) {
+			files = s.filter(p -> !p.equals(dir)).sorted().collect(Collectors.toList());
+		}
+		for (Path file : files) {
+			String entryName = name + "/" + toEntryName(dir.relativize(file));
+			if (Files.isSymbolicLink(file)) {
+				// Stored the same way as Info-ZIP does so it can be unpacked by UnpackUtil
+				ZipArchiveEntry entry = new ZipArchiveEntry(entryName);
+				entry.setUnixMode(UnixStat.LINK_FLAG | UnixStat.DEFAULT_LINK_PERM);
+				zip.putArchiveEntry(entry);
+				zip.write(Files.readSymbolicLink(file).toString().getBytes(StandardCharsets.UTF_8));
+				zip.closeArchiveEntry();
+			} else if (Files.isDirectory(file)) {
+				zip.putArchiveEntry(new ZipArchiveEntry(file.toFile(), entryName + "/"));
+				zip.closeArchiveEntry();
+			} else {
+				addFile(zip, file, entryName);
+			}
+		}
+	}
+
+	private static int getUnixMode(Path file) throws IOException {
+		int mode = 0;
+		for (PosixFilePermission perm : Files.getPosixFilePermissions(file)) {
+			// The enum constants are in the same order as the bits of the octal mode
+			mode |= 1 << (8 - perm.ordinal());
+		}
+		return mode;
+	}
+
+	/**
+	 * Imports the given bundle: its artifacts are added to the local Maven
+	 * repository, its JDK (if any) gets installed, the script jar is put in the jar
+	 * cache and a dependency cache entry is created for the script's dependencies.
+	 * Artifacts and JDKs that are already present are left alone, the artifacts
+	 * that get added must match the checksums in the bundle.
+	 *
+	 * @return The jar that was imported
+	 */
+	public static File install(Path bundleFile) throws IOException {
+		try (ZipFile zip = new ZipFile(bundleFile.toFile())) {
+			Bundle bundle = readInfo(zip, bundleFile);
+
+			File localRepo = Settings.getLocalMavenRepo();
+			List<ArtifactInfo> arts = new ArrayList<>();
+			for (Artifact a : bundle.artifacts) {
+				Path file = localRepo.toPath().resolve(a.path).normalize();
+				if (!file.startsWith(localRepo.toPath())) {
+					throw new IOException("Entry is outside of the local repository: " + a.path);
+				}
+				if (!Files.isRegularFile(file)) {
+					Util.verboseMsg("Importing " + a.gav + " to " + file);
+					extract(zip, REPOSITORY_DIR + "/" + a.path, file, a.sha256);
+				}
+				MavenCoordinate coord = MavenCoordinates.createCoordinate(a.gav);
+				arts.add(new ArtifactInfo(coord, file.toFile()));
+			}
+			ModularClassPath classPath = new ModularClassPath(arts);
+
+			if (bundle.jdk != null) {
+				if (JdkManager.isInstalledJdk(bundle.jdk)) {
+					Util.verboseMsg("JDK " + bundle.jdk + " is already installed");
+				} else {
+					Util.infoMsg("Installing JDK " + bundle.jdk);
+					Path jdkDir = JdkManager.getJdkPath(bundle.jdk);
+					Path jdkTmpDir = jdkDir.getParent().resolve(jdkDir.getFileName().toString() + ".tmp");
+					Util.deletePath(jdkTmpDir, false);
+					UnpackUtil.unzip(bundleFile, jdkTmpDir, false, Paths.get(JDKS_DIR, bundle.jdk.toString()));
+					Files.move(jdkTmpDir, jdkDir);
+				}
+			}
+
+			File jar = Settings.getCacheDir(Cache.CacheClass.jars).resolve(bundle.jar).toFile();
+			Files.createDirectories(jar.toPath().getParent());
+			// The fingerprint of a jar that was built here doesn't apply to this one
+			BuildFingerprint.delete(jar);
+			writeJar(zip, JARS_DIR + "/" + bundle.jar, jar, classPath);
+
+			if (bundle.deps != null && !arts.isEmpty()) {
+				DependencyCache.cache(bundle.deps, arts);
+			}
+			return jar;
+		}
+	}
+
+	private static Bundle readInfo(ZipFile zip, Path bundleFile) throws IOException {
+		ZipArchiveEntry entry = zip.getEntry(INFO_FILE);
+		if (entry == null) {
+			throw new ExitException(BaseCommand.EXIT_INVALID_INPUT, "Not a jbang bundle: " + bundleFile);
+		}
+		try (InputStream in = zip.getInputStream(entry)) {
+			Bundle bundle = new Gson().fromJson(new InputStreamReader(in, StandardCharsets.UTF_8), Bundle.class);
+			if (bundle == null || bundle.jar == null || Paths.get(bundle.jar).getNameCount() != 1) {
+				throw new ExitException(BaseCommand.EXIT_INVALID_INPUT, "Invalid jbang bundle: " + bundleFile);
+			}
+			if (bundle.artifacts == null) {
+				bundle.artifacts = new ArrayList<>();
+			}
+			return bundle;
+		} catch (JsonParseException e) {
+			throw new ExitException(BaseCommand.EXIT_INVALID_INPUT, "Invalid jbang bundle: " + bundleFile, e);
+		}
+	}
+
+	private static void extract(ZipFile zip, String name, Path file, String sha256) throws IOException {
+		ZipArchiveEntry entry = zip.getEntry(name);
+		if (entry == null) {
+			throw new ExitException(BaseCommand.EXIT_INVALID_INPUT, "Bundle is missing " + name);
+		}
+		Files.createDirectories(file.getParent());
+		Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		try (InputStream in = zip.getInputStream(entry)) {
+			Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+			// The local repository is trusted as is, so only verified files go in
+			if (sha256 == null || !sha256.equals(LockFile.sha256(tmp.toFile()))) {
+				throw new ExitException(BaseCommand.EXIT_INVALID_INPUT,
+						"Checksum of " + name + " doesn't match the one in the bundle");
+			}
+			Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Copies the script jar from the bundle while pointing its class path to the
+	 * artifacts in the local repository of this machine
+	 */
+	private static void writeJar(ZipFile zip, String name, File jar, ModularClassPath classPath)
+			throws IOException {
+		ZipArchiveEntry entry = zip.getEntry(name);
+		if (entry == null) {
+			throw new ExitException(BaseCommand.EXIT_INVALID_INPUT, "Bundle is missing " + name);
+		}
+		try (JarInputStream in = new JarInputStream(zip.getInputStream(entry))) {
+			Manifest manifest = in.getManifest();
+			if (manifest == null) {
+				manifest = new Manifest();
+				manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+			}
+			Attributes attrs = manifest.getMainAttributes();
+			if (attrs.containsKey(Attributes.Name.CLASS_PATH)) {
+				attrs.put(Attributes.Name.CLASS_PATH, classPath.getManifestPath());
+				String gavs = classPath.getManifestGavs();
+				if (gavs != null) {
+					attrs.putValue(Source.ATTR_JBANG_CLASS_PATH_GAVS, gavs);
+					attrs.putValue(Source.ATTR_JBANG_CLASS_PATH_TIMESTAMPS, classPath.getManifestTimestamps());
+				}
+			}
+			if (attrs.getValue(Source.ATTR_BOOT_CLASS_PATH) != null) {
+				attrs.putValue(Source.ATTR_BOOT_CLASS_PATH, classPath.getManifestPath());
+			}
+			Path tmp = Files.createTempFile(jar.getParentFile().toPath(), jar.getName(), ".tmp");
+			try {
+				try (OutputStream out = Files.newOutputStream(tmp);
+						JarOutputStream jout = new JarOutputStream(out, manifest)) {
+					JarEntry je;
+					while ((je = in.getNextJarEntry()) != null) {
+						jout.putNextEntry(new JarEntry(je.getName()));
+						byte[] buf = new byte[8192];
+						int n;
+						while ((n = in.read(buf)) > 0) {
+							jout.write(buf, 0, n);
+						}
+						jout.closeEntry();
+					}
+				}
+				Files.move(tmp, jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		}
+	}
+}
@@ -5,13 +5,15 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 
 import dev.jbang.cli.ExitException;
+import dev.jbang.dependencies.DependencyCache;
+import dev.jbang.dependencies.ModuleDescriptorCache;
 import dev.jbang.net.JdkManager;
 import dev.jbang.util.Util;
 
 public class Cache {
 
 	public enum CacheClass {
-		urls, jars, jdks, projects, scripts, stdins, deps
+		urls, jars, jdks, projects, scripts, stdins, deps, cds, plans
 	}
 
 	static void setupCache(Path dir) {
@@ -39,9 +41,10 @@ public class Cache {
 					throw new ExitException(-1,
 							"Could not delete dependency cache " + Settings.getCacheDependencyFile().toString(), io);
 				}
-			} else {
-				Util.deletePath(Settings.getCacheDir(cc), true);
+				DependencyCache.clear();
+				ModuleDescriptorCache.clear();
 			}
+			Util.deletePath(Settings.getCacheDir(cc), true);
 		}
 	}
 }
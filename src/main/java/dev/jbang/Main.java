@@ -3,15 +3,24 @@ package dev.jbang;
 import java.util.ArrayList;
 import java.util.List;
 
+import dev.jbang.cli.BaseCommand;
 import dev.jbang.cli.Jbang;
+import dev.jbang.util.CdsArchive;
+import dev.jbang.util.LaunchPlan;
 
 import picocli.CommandLine;
 
 public class Main {
 	public static void main(String... args) {
 		CommandLine cli = Jbang.getCommandLine();
+		LaunchPlan.setLauncherArguments(args);
 		args = handleDefaultRun(cli.getCommandSpec(), args);
 		int exitcode = cli.execute(args);
+		if (Settings.getLauncherCdsArchive() != null
+				&& (exitcode == BaseCommand.EXIT_OK || exitcode == BaseCommand.EXIT_EXECUTE)) {
+			// Failed commands shouldn't leave a background process behind as well
+			CdsArchive.updateLauncherArchive();
+		}
 		System.exit(exitcode);
 	}
 
@@ -3,6 +3,10 @@ package dev.jbang;
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import dev.jbang.catalog.Catalog;
 import dev.jbang.util.Util;
@@ -20,9 +24,32 @@ public class Settings {
 
 	public static final String ENV_DEFAULT_JAVA_VERSION = "JBANG_DEFAULT_JAVA_VERSION";
 	public static final String ENV_NO_VERSION_CHECK = "JBANG_NO_VERSION_CHECK";
+	public static final String ENV_RESOLVER_THREADS = "JBANG_RESOLVER_THREADS";
+	public static final String ENV_DEPS_CACHE_MAX_ENTRIES = "JBANG_DEPS_CACHE_MAX_ENTRIES";
+	public static final String ENV_DEPS_CACHE_MAX_AGE = "JBANG_DEPS_CACHE_MAX_AGE";
+	public static final String ENV_DEPS_VALIDATION_WINDOW = "JBANG_DEPS_VALIDATION_WINDOW";
+	public static final String ENV_NO_LOCAL_RESOLVER = "JBANG_NO_LOCAL_RESOLVER";
+	public static final String ENV_SHRINKWRAP_RESOLVER = "JBANG_SHRINKWRAP_RESOLVER";
+	public static final String ENV_REPO_ROUTES_TTL = "JBANG_REPO_ROUTES_TTL";
+	public static final String ENV_REPO_LAYERS = "JBANG_REPO_LAYERS";
+	public static final String ENV_NO_INPROCESS_COMPILER = "JBANG_NO_INPROCESS_COMPILER";
+	public static final String ENV_COMPILE_DAEMON = "JBANG_COMPILE_DAEMON";
+	public static final String ENV_COMPILE_DAEMON_IDLE = "JBANG_COMPILE_DAEMON_IDLE";
+	public static final String ENV_CDS_TRAINING_TIMEOUT = "JBANG_CDS_TRAINING_TIMEOUT";
+	public static final String ENV_LAUNCHER_CDS = "JBANG_LAUNCHER_CDS";
+	public static final String ENV_LAUNCH_PLANS = "JBANG_LAUNCH_PLANS";
+	public static final String ENV_WARM_IDLE = "JBANG_WARM_IDLE";
+	public static final String ENV_WARM_MAX = "JBANG_WARM_MAX";
 
 	public static final int DEFAULT_JAVA_VERSION = 11;
 	public static final int DEFAULT_ALPINE_JAVA_VERSION = 16;
+	public static final int DEFAULT_DEPS_CACHE_MAX_ENTRIES = 1000;
+	public static final int DEFAULT_DEPS_VALIDATION_WINDOW = 600;
+	public static final int DEFAULT_REPO_ROUTES_TTL = 24;
+	public static final int DEFAULT_COMPILE_DAEMON_IDLE = 15;
+	public static final int DEFAULT_CDS_TRAINING_TIMEOUT = 10;
+	public static final int DEFAULT_WARM_IDLE = 15;
+	public static final int DEFAULT_WARM_MAX = 4;
 
 	final public static String CP_SEPARATOR = File.pathSeparator;
 
@@ -31,6 +58,22 @@ public class Settings {
 																														.getAbsoluteFile();
 	}
 
+	/**
+	 * The read-only local Maven repositories that get searched, in order, before
+	 * the local repository returned by <code>getLocalMavenRepo()</code>.
+	 */
+	public static List<File> getLocalMavenRepoLayers() {
+		String v = System.getenv(ENV_REPO_LAYERS);
+		if (v == null) {
+			return Collections.emptyList();
+		}
+		return Arrays	.stream(v.split(File.pathSeparator))
+						.map(String::trim)
+						.filter(p -> !p.isEmpty())
+						.map(p -> new File(p).getAbsoluteFile())
+						.collect(Collectors.toList());
+	}
+
 	public static Path getCacheDependencyFile() {
 		return getCacheDir(true).resolve(DEPENDENCY_CACHE_JSON);
 	}
@@ -106,6 +149,181 @@ public class Settings {
 		}
 	}
 
+	/**
+	 * The number of threads used to fetch dependencies, by default they get fetched
+	 * one at a time.
+	 */
+	public static int getResolverThreads() {
+		String v = System.getenv(ENV_RESOLVER_THREADS);
+		if (v != null) {
+			return Integer.parseInt(v);
+		}
+		return 1;
+	}
+
+	/**
+	 * The maximum number of entries kept in the dependency cache, 0 means there's
+	 * no maximum.
+	 */
+	public static int getDependencyCacheMaxEntries() {
+		String v = System.getenv(ENV_DEPS_CACHE_MAX_ENTRIES);
+		if (v != null) {
+			return Integer.parseInt(v);
+		}
+		return DEFAULT_DEPS_CACHE_MAX_ENTRIES;
+	}
+
+	/**
+	 * The maximum number of days an entry is kept in the dependency cache since it
+	 * was last used, 0 means they're kept forever.
+	 */
+	public static int getDependencyCacheMaxAge() {
+		String v = System.getenv(ENV_DEPS_CACHE_MAX_AGE);
+		if (v != null) {
+			return Integer.parseInt(v);
+		}
+		return 0;
+	}
+
+	/**
+	 * The number of seconds that a class path, once it has been checked to make
+	 * sure all its artifacts still exist and are up-to-date, is trusted without
+	 * checking again. 0 means they're checked every time.
+	 */
+	public static int getDependencyValidationWindow() {
+		String v = System.getenv(ENV_DEPS_VALIDATION_WINDOW);
+		if (v != null) {
+			return Integer.parseInt(v);
+		}
+		return DEFAULT_DEPS_VALIDATION_WINDOW;
+	}
+
+	/**
+	 * Returns false if dependencies should always be resolved by the full Maven
+	 * resolver, even when everything they need is available in the local Maven
+	 * repository.
+	 */
+	public static boolean isLocalResolverEnabled() {
+		return "false".equalsIgnoreCase(System.getenv().getOrDefault(ENV_NO_LOCAL_RESOLVER, "false"));
+	}
+
+	/**
+	 * Returns true if each resolution should get a ShrinkWrap resolver of its own,
+	 * like jbang used to do, instead of sharing one resolver session between all
+	 * resolutions of a jbang invocation.
+	 */
+	public static boolean isShrinkWrapResolverEnabled() {
+		return "true".equalsIgnoreCase(System.getenv().getOrDefault(ENV_SHRINKWRAP_RESOLVER, "false"));
+	}
+
+	/**
+	 * Returns false if scripts should always be compiled by running a separate
+	 * javac process, even when the JDK jbang runs on could compile them itself.
+	 */
+	public static boolean isInProcessCompilerEnabled() {
+		return "false".equalsIgnoreCase(System.getenv().getOrDefault(ENV_NO_INPROCESS_COMPILER, "false"));
+	}
+
+	/**
+	 * Returns true if scripts should be compiled by a compile daemon, a background
+	 * process that keeps a warmed-up compiler around, which gets started when it
+	 * isn't running yet.
+	 */
+	public static boolean isCompileDaemonEnabled() {
+		return "true".equalsIgnoreCase(System.getenv().getOrDefault(ENV_COMPILE_DAEMON, "false"));
+	}
+
+	/**
+	 * The number of minutes a compile daemon keeps running without getting any
+	 * requests before it shuts itself down.
+	 */
+	public static int getCompileDaemonIdleTimeout() {
+		String v = System.getenv(ENV_COMPILE_DAEMON_IDLE);
+		if (v != null) {
+			return Integer.parseInt(v);
+		}
+		return DEFAULT_COMPILE_DAEMON_IDLE;
+	}
+
+	public static Path getCompileDaemonDir() {
+		return getCacheDir().resolve("daemons");
+	}
+
+	/**
+	 * The number of minutes a warm JVM keeps running without running any scripts
+	 * before it shuts itself down. Scripts that weren't run for that long get
+	 * unloaded.
+	 */
+	public static int getWarmIdleTimeout() {
+		String v = System.getenv(ENV_WARM_IDLE);
+		if (v != null) {
+			return Integer.parseInt(v);
+		}
+		return DEFAULT_WARM_IDLE;
+	}
+
+	/**
+	 * The number of warm JVMs that can be running at the same time, before
+	 * starting another one the one that was used least recently gets stopped.
+	 */
+	public static int getWarmMax() {
+		String v = System.getenv(ENV_WARM_MAX);
+		if (v != null) {
+			return Math.max(1, Integer.parseInt(v));
+		}
+		return DEFAULT_WARM_MAX;
+	}
+
+	public static Path getWarmRunnerDir() {
+		return getCacheDir().resolve("warm");
+	}
+
+	/**
+	 * The number of seconds a training run for creating a CDS archive is allowed to
+	 * take before it gets stopped.
+	 */
+	public static int getCdsTrainingTimeout() {
+		String v = System.getenv(ENV_CDS_TRAINING_TIMEOUT);
+		if (v != null) {
+			return Integer.parseInt(v);
+		}
+		return DEFAULT_CDS_TRAINING_TIMEOUT;
+	}
+
+	/**
+	 * The CDS archive the launcher script looks for when starting jbang with its
+	 * current JDK, or <code>null</code> when jbang wasn't started by a launcher
+	 * script that supports it (or it was disabled).
+	 */
+	public static Path getLauncherCdsArchive() {
+		String v = System.getenv(ENV_LAUNCHER_CDS);
+		if (v != null && !v.isEmpty()) {
+			return Paths.get(v);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns true if jbang was started by a launcher script that can run a script
+	 * using a launch plan stored by a previous run (and it wasn't disabled).
+	 */
+	public static boolean isLaunchPlansEnabled() {
+		return "true".equalsIgnoreCase(System.getenv().getOrDefault(ENV_LAUNCH_PLANS, "false"));
+	}
+
+	/**
+	 * The number of hours jbang remembers which repository served the artifacts of
+	 * a group and which ones didn't have them. 0 means repositories are always
+	 * tried in the order they were specified.
+	 */
+	public static int getRepositoryRoutesTtl() {
+		String v = System.getenv(ENV_REPO_ROUTES_TTL);
+		if (v != null) {
+			return Integer.parseInt(v);
+		}
+		return DEFAULT_REPO_ROUTES_TTL;
+	}
+
 	public static Path getTrustedSourcesFile() {
 		return getConfigDir().resolve(TRUSTED_SOURCES_JSON);
 	}
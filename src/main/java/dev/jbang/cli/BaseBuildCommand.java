@@ -1,25 +1,41 @@
 package dev.jbang.cli;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
 
 import org.jboss.jandex.ClassInfo;
 import org.jboss.jandex.DotName;
@@ -27,15 +43,22 @@ import org.jboss.jandex.Index;
 import org.jboss.jandex.Indexer;
 import org.jboss.jandex.Type;
 
+import dev.jbang.Settings;
 import dev.jbang.net.JdkManager;
+import dev.jbang.source.BuildFingerprint;
+import dev.jbang.source.ClassStore;
 import dev.jbang.source.JarSource;
+import dev.jbang.source.RefTarget;
 import dev.jbang.source.RunContext;
 import dev.jbang.source.ScriptSource;
 import dev.jbang.source.Source;
 import dev.jbang.spi.IntegrationManager;
 import dev.jbang.spi.IntegrationResult;
+import dev.jbang.util.CdsArchive;
+import dev.jbang.util.CompileDaemon;
 import dev.jbang.util.JarUtil;
 import dev.jbang.util.JavaUtil;
+import dev.jbang.util.MemoryFileManager;
 import dev.jbang.util.TemplateEngine;
 import dev.jbang.util.Util;
 
@@ -68,10 +91,136 @@ public abstract class BaseBuildCommand extends BaseScriptDepsCommand {
 			"--cds" }, description = "If specified Class Data Sharing (CDS) will be used for building and running (requires Java 13+)", negatable = true)
 	Boolean cds;
 
+	@CommandLine.Option(names = {
+			"--cds-training" }, description = "Create the CDS archive with a short training run of the script, which archives all the classes it loads (implies --cds). The training run gets no arguments, so the script should be harmless to run without any.")
+	boolean cdsTraining;
+
+	@CommandLine.Option(names = {
+			"--cds-shared" }, description = "Put the classes of the dependencies in a CDS archive that's shared by all scripts with the same dependencies (implies --cds). The dependencies then come before the script's own classes on the class path.")
+	boolean cdsShared;
+
 	Optional<Boolean> cds() {
 		return Optional.ofNullable(cds);
 	}
 
+	boolean cdsActive(Source src) {
+		return cdsTraining || cdsShared || optionActive(cds(), src.enableCDS());
+	}
+
+	/**
+	 * Returns the class path the script runs with: its jar followed by the given
+	 * class path of its dependencies, or the other way around when the
+	 * dependencies get a shared CDS archive, which has to be a prefix of the class
+	 * path.
+	 */
+	String runtimeClassPath(Source src, String deps) {
+		File jar = src.getJarFile();
+		if (jar == null) {
+			return deps;
+		} else if (deps.trim().isEmpty()) {
+			return jar.getAbsolutePath();
+		} else if (cdsShared) {
+			return deps.trim() + Settings.CP_SEPARATOR + jar.getAbsolutePath();
+		} else {
+			return jar.getAbsolutePath() + Settings.CP_SEPARATOR + deps.trim();
+		}
+	}
+
+	static boolean optionActive(Optional<Boolean> master, boolean local) {
+		return master.map(Boolean::booleanValue).orElse(local);
+	}
+
+	/**
+	 * Makes sure the CDS archives of the script were created for the given Java
+	 * command and class path, (re)creating them when necessary. Normally that's a
+	 * single archive of the script's jar and its dependencies. With
+	 * <code>--cds-shared</code> the classes of the dependencies go into an archive
+	 * that's shared by all scripts with the same dependencies and the script's own
+	 * classes into an archive that's layered on top of it. Returns the archive
+	 * arguments to pass to the JVM or <code>null</code> if there are no archives
+	 * that can be used.
+	 *
+	 * @param classpath The class path the script runs with, see
+	 *                  {@link #runtimeClassPath(Source, String)}
+	 */
+	List<String> cdsArguments(Source src, RunContext ctx, String javacmd, String classpath,
+			String requestedJavaVersion) {
+		File jar = src.getJarFile();
+		if (jar == null || !jar.exists()) {
+			return null;
+		}
+		String deps = ctx.resolveClassPath(src).trim();
+		CdsArchive base = null;
+		if (cdsShared && !deps.isEmpty() && classpath.startsWith(deps + Settings.CP_SEPARATOR)) {
+			base = CdsArchive.forDependencies(javacmd, deps);
+			if (base != null && !base.update(javacmd, deps, null, null, false)) {
+				base = null;
+			}
+		}
+
+		String mainClass = main != null ? main : ctx.getMainClassOr(src);
+		boolean training = cdsTraining && mainClass != null;
+		List<String> run = null;
+		if (mainClass != null && (training || base != null)) {
+			run = new ArrayList<>();
+			run.addAll(ctx.getRuntimeOptionsOr(src));
+			run.addAll(ctx.getAutoDetectedModuleArguments(src, requestedJavaVersion));
+			for (Map.Entry<String, String> entry : ctx.getProperties().entrySet()) {
+				run.add("-D" + entry.getKey() + "=" + entry.getValue());
+			}
+			run.add("-classpath");
+			run.add(classpath);
+			if (training) {
+				// Never with the user's arguments, the script is about to run with those
+				// for real (or it's just being built) and shouldn't act on them twice
+				run.add(mainClass);
+			} else {
+				// Only loads the main class, which is enough for most scripts
+				run.add("--dry-run");
+				run.add(mainClass);
+			}
+		}
+
+		CdsArchive archive = CdsArchive.forJar(jar);
+		if (base != null && !archive.isUpToDate(javacmd, classpath, base, training)) {
+			// Only when the archive gets created, the jar or its dependencies changed
+			reportOverlaps(jar, deps);
+		}
+		String archives;
+		if (archive.update(javacmd, classpath, base, run, training)) {
+			archives = base != null ? base.getFile() + Settings.CP_SEPARATOR + archive.getFile()
+					: archive.getFile().toString();
+		} else if (base != null) {
+			archives = base.getFile().toString();
+		} else {
+			return null;
+		}
+		debug("CDS: Using shared archive classes from " + archives);
+		return Collections.singletonList("-XX:SharedArchiveFile=" + archives);
+	}
+
+	/**
+	 * Warns about classes and resources of the script's jar that its dependencies
+	 * have as well, with the dependencies first on the class path those of the
+	 * dependencies get used
+	 */
+	private void reportOverlaps(File jar, String deps) {
+		try {
+			List<String> overlaps = CdsArchive.findOverlaps(jar, Arrays.asList(deps.split(Settings.CP_SEPARATOR)));
+			if (!overlaps.isEmpty()) {
+				int max = 10;
+				String names = String.join(", ", overlaps.subList(0, Math.min(max, overlaps.size())));
+				if (overlaps.size() > max) {
+					names += " and " + (overlaps.size() - max) + " more";
+				}
+				warn("With --cds-shared the dependencies come first on the class path, they hide these "
+						+ "classes and resources of " + jar.getName() + ": " + names);
+			}
+		} catch (IOException e) {
+			Util.verboseMsg("CDS: Unable to compare the contents of " + jar + " with its dependencies", e);
+		}
+	}
+
 	@CommandLine.Option(names = {
 			"-n", "--native" }, description = "Build using native-image", defaultValue = "false")
 	boolean nativeImage;
@@ -103,7 +252,7 @@ public abstract class BaseBuildCommand extends BaseScriptDepsCommand {
 			// We already have a Jar, check if we can still use it
 			JarSource jarSrc = src.asJarSource();
 			if (jarSrc == null
-					|| !jarSrc.isUpToDate()
+					|| !isUpToDate(src, ctx, jarSrc, requestedJavaVersion)
 					|| JavaUtil.javaVersion(requestedJavaVersion) < JavaUtil.javaVersion(jarSrc.getJavaVersion())) {
 				buildRequired = true;
 			} else {
@@ -113,10 +262,9 @@ public abstract class BaseBuildCommand extends BaseScriptDepsCommand {
 			buildRequired = true;
 		}
 		if (buildRequired) {
-			// set up temporary folder for compilation
+			// temporary folder for compilation, only created if it's needed
 			File tmpJarDir = new File(outjar.getParentFile(), outjar.getName() + ".tmp");
 			Util.deletePath(tmpJarDir.toPath(), true);
-			tmpJarDir.mkdirs();
 			// do the actual building
 			try {
 				integrationResult = buildJar(src, ctx, tmpJarDir, outjar, requestedJavaVersion);
@@ -137,31 +285,100 @@ public abstract class BaseBuildCommand extends BaseScriptDepsCommand {
 		return result;
 	}
 
+	/**
+	 * Checks the build fingerprint of the script's jar, only when there's none the
+	 * class path of the jar itself is checked
+	 */
+	private static boolean isUpToDate(ScriptSource src, RunContext ctx, JarSource jarSrc,
+			String requestedJavaVersion) {
+		Boolean upToDate = BuildFingerprint.isUpToDate(src, ctx, JavaUtil.javaVersion(requestedJavaVersion),
+				resolveInJavaHome("javac", requestedJavaVersion));
+		return upToDate != null ? upToDate : jarSrc.isUpToDate();
+	}
+
 	// build with javac and then jar... todo: split up in more testable chunks
 	static private IntegrationResult buildJar(ScriptSource src, RunContext ctx, File tmpJarDir, File outjar,
 			String requestedJavaVersion)
 			throws IOException {
-		IntegrationResult integrationResult;
+		IntegrationResult integrationResult = new IntegrationResult(null, null, null);
 		List<String> optionList = new ArrayList<>();
-		optionList.add(resolveInJavaHome("javac", requestedJavaVersion));
 		optionList.addAll(src.getCompileOptions());
 		String path = ctx.resolveClassPath(src);
 		if (!path.trim().isEmpty()) {
 			optionList.addAll(Arrays.asList("-classpath", path));
 		}
-		optionList.addAll(Arrays.asList("-d", tmpJarDir.getAbsolutePath()));
+		// Taken before building, so changes made while building trigger a new build
+		BuildFingerprint fingerprint = BuildFingerprint.create(src, ctx, JavaUtil.javaVersion(requestedJavaVersion),
+				resolveInJavaHome("javac", requestedJavaVersion), ctx.getClassPath().getArtifacts());
 
 		// add source files to compile
-		optionList.add(src.getResourceRef().getFile().getPath());
-		optionList.addAll(
+		List<String> sourceFiles = new ArrayList<>();
+		sourceFiles.add(src.getResourceRef().getFile().getPath());
+		sourceFiles.addAll(
 				src
 					.getAllSources()
 					.stream()
 					.map(x -> x.getResourceRef().getFile().getPath())
 					.collect(Collectors.toList()));
 
+		Util.infoMsg("Building jar...");
+		// When possible the compiler output is kept in memory and written straight
+		// to the jar, only falling back to a temporary folder when needed
+		Map<String, byte[]> contents = null;
+		Boolean compiled = null;
+		if (!optionList.contains("-d") && !optionList.contains("-s")) {
+			// Only the sources that changed since the previous build get recompiled
+			contents = new TreeMap<>();
+			String jdk = JavaUtil.javaVersion(requestedJavaVersion) + " "
+					+ resolveInJavaHome("javac", requestedJavaVersion);
+			compiled = ClassStore	.forScript(src)
+									.compile(jdk, optionList, sourceFiles,
+											(options, files, output, origins) -> compileInMemory(options, files,
+													requestedJavaVersion, output, origins),
+											contents);
+		}
+		if (compiled == null) {
+			contents = null;
+			tmpJarDir.mkdirs();
+			optionList.addAll(Arrays.asList("-d", tmpJarDir.getAbsolutePath()));
+			compiled = compileInProcess(optionList, sourceFiles, requestedJavaVersion, null, null);
+		}
+		if (compiled == null) {
+			List<String> cmd = new ArrayList<>();
+			cmd.add(resolveInJavaHome("javac", requestedJavaVersion));
+			cmd.addAll(optionList);
+			cmd.addAll(sourceFiles);
+			Util.verboseMsg("compile: " + String.join(" ", cmd));
+
+			Process process = new ProcessBuilder(cmd).inheritIO().start();
+			try {
+				process.waitFor();
+			} catch (InterruptedException e) {
+				throw new ExitException(1, e);
+			}
+			compiled = process.exitValue() == 0;
+		}
+
+		if (!compiled) {
+			throw new ExitException(1, "Error during compile");
+		}
+
+		// Integrations work on the classes on disk
+		if (contents != null && IntegrationManager.hasIntegrations(ctx.getClassPath().getArtifacts())) {
+			writeContents(contents, tmpJarDir.toPath());
+			contents = null;
+		}
+
 		// add additional files
-		src.copyFilesTo(tmpJarDir.toPath());
+		if (contents != null) {
+			for (RefTarget file : src.getAllFiles()) {
+				Path target = file.to(Paths.get(""));
+				Util.verboseMsg("Adding " + file.getSource().getFile() + " as " + target);
+				contents.put(toEntryName(target), Files.readAllBytes(file.getSource().getFile().toPath()));
+			}
+		} else {
+			src.copyFilesTo(tmpJarDir.toPath());
+		}
 
 		Template pomTemplate = TemplateEngine.instance().getTemplate("pom.qute.xml");
 
@@ -181,117 +398,167 @@ public abstract class BaseBuildCommand extends BaseScriptDepsCommand {
 										.data("dependencies", ctx.getClassPath().getArtifacts())
 										.render();
 
-			pomPath = new File(tmpJarDir, "META-INF/maven/" + group.replace(".", "/") + "/pom.xml").toPath();
-			Files.createDirectories(pomPath.getParent());
-			Util.writeString(pomPath, pomfile);
-		}
-
-		Util.infoMsg("Building jar...");
-		Util.verboseMsg("compile: " + String.join(" ", optionList));
-
-		Process process = new ProcessBuilder(optionList).inheritIO().start();
-		try {
-			process.waitFor();
-		} catch (InterruptedException e) {
-			throw new ExitException(1, e);
-		}
-
-		if (process.exitValue() != 0) {
-			throw new ExitException(1, "Error during compile");
+			String pomName = "META-INF/maven/" + group.replace(".", "/") + "/pom.xml";
+			if (contents != null) {
+				contents.put(pomName, pomfile.getBytes(StandardCharsets.UTF_8));
+			} else {
+				pomPath = new File(tmpJarDir, pomName).toPath();
+				Files.createDirectories(pomPath.getParent());
+				Util.writeString(pomPath, pomfile);
+			}
 		}
 
 		ctx.setBuildJdk(JavaUtil.javaVersion(requestedJavaVersion));
-		integrationResult = IntegrationManager.runIntegration(src.getAllRepositories(),
-				ctx.getClassPath().getArtifacts(),
-				tmpJarDir.toPath(), pomPath,
-				src, ctx.isNativeImage());
+		if (contents == null) {
+			integrationResult = IntegrationManager.runIntegration(src.getAllRepositories(),
+					ctx.getClassPath().getArtifacts(),
+					tmpJarDir.toPath(), pomPath,
+					src, ctx.isNativeImage());
+		}
 		if (integrationResult.mainClass != null) {
 			ctx.setMainClass(integrationResult.mainClass);
+		} else if (contents != null) {
+			Map<String, byte[]> classes = contents;
+			String classfile = findMainClassFile(src, classes.keySet());
+			detectMainClass(src, ctx, new ByteArrayInputStream(classes.get(classfile)));
 		} else {
-			try {
-				// using Files.walk method with try-with-resources
-				try (Stream<Path> paths = Files.walk(tmpJarDir.toPath())) {
-					List<Path> items = paths.filter(Files::isRegularFile)
-											.filter(f -> !f.toFile().getName().contains("$"))
-											.filter(f -> f.toFile().getName().endsWith(".class"))
+			// using Files.walk method with try-with-resources
+			try (Stream<Path> paths = Files.walk(tmpJarDir.toPath())) {
+				Path root = tmpJarDir.toPath();
+				List<String> items = paths	.filter(Files::isRegularFile)
+											.map(f -> toEntryName(root.relativize(f)))
 											.collect(Collectors.toList());
-
-					if (items.size() > 1) { // todo: this feels like a very sketchy way to find the proper class
-											// name
-						// but it works.
-						String mainname = src.getResourceRef().getFile().getName().replace(".java", ".class");
-						items = items	.stream()
-										.filter(f -> f.toFile().getName().equalsIgnoreCase(mainname))
-										.collect(Collectors.toList());
-					}
-
-					if (items.size() != 1) {
-						throw new ExitException(1,
-								"Could not locate unique class. Found " + items.size() + " candidates.");
-					} else {
-						Path classfile = items.get(0);
-						// TODO: could we use jandex to find the right main class more sanely ?
-						// String mainClass = findMainClass(tmpJarDir.toPath(), classfile);
-
-						Indexer indexer = new Indexer();
-						Index index;
-						try (InputStream stream = new FileInputStream(classfile.toFile())) {
-							indexer.index(stream);
-							index = indexer.complete();
-						}
-
-						Collection<ClassInfo> clazz = index.getKnownClasses();
-
-						Optional<ClassInfo> main = clazz.stream()
-														.filter(pubClass -> pubClass.method("main",
-																STRINGARRAYTYPE) != null)
-														.findFirst();
-
-						if (main.isPresent()) {
-							ctx.setMainClass(main.get().name().toString());
-						}
-
-						if (src.isAgent()) {
-
-							Optional<ClassInfo> agentmain = clazz	.stream()
-																	.filter(pubClass -> pubClass.method("agentmain",
-																			STRINGTYPE,
-																			INSTRUMENTATIONTYPE) != null
-																			||
-																			pubClass.method("agentmain",
-																					STRINGTYPE) != null)
-																	.findFirst();
-
-							if (agentmain.isPresent()) {
-								ctx.setAgentMainClass(agentmain.get().name().toString());
-							}
-
-							Optional<ClassInfo> premain = clazz	.stream()
-																.filter(pubClass -> pubClass.method("premain",
-																		STRINGTYPE,
-																		INSTRUMENTATIONTYPE) != null
-																		||
-																		pubClass.method("premain",
-																				STRINGTYPE) != null)
-																.findFirst();
-
-							if (premain.isPresent()) {
-								ctx.setPreMainClass(premain.get().name().toString());
-							}
-						}
-
-					}
+				String classfile = findMainClassFile(src, items);
+				try (InputStream stream = new FileInputStream(new File(tmpJarDir, classfile))) {
+					detectMainClass(src, ctx, stream);
 				}
 			} catch (IOException e) {
 				throw new ExitException(1, e);
 			}
 		}
 		ctx.setRuntimeOptions(integrationResult.javaArgs);
-		createJarFile(src, ctx, tmpJarDir, outjar);
+		if (contents != null) {
+			outjar.getParentFile().mkdirs();
+			createJarFile(src, ctx, contents, outjar);
+		} else {
+			createJarFile(src, ctx, tmpJarDir, outjar);
+		}
+		fingerprint.save(outjar);
 		return integrationResult;
 	}
 
+	private static String toEntryName(Path path) {
+		return StreamSupport.stream(path.spliterator(), false)
+							.map(Path::toString)
+							.collect(Collectors.joining("/"));
+	}
+
+	private static void writeContents(Map<String, byte[]> contents, Path dir) throws IOException {
+		for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+			Path file = dir.resolve(entry.getKey());
+			Files.createDirectories(file.getParent());
+			Files.write(file, entry.getValue());
+		}
+	}
+
+	/**
+	 * Returns the name of the compiled class that should contain the main method
+	 * (and any agent methods) out of the given names of all the files that were
+	 * built.
+	 */
+	static String findMainClassFile(ScriptSource src, Collection<String> names) {
+		List<String> items = names	.stream()
+									.filter(f -> !getFileName(f).contains("$"))
+									.filter(f -> getFileName(f).endsWith(".class"))
+									.collect(Collectors.toList());
+
+		if (items.size() > 1) { // todo: this feels like a very sketchy way to find the proper class
+								// name
+			// but it works.
+			String mainname = src.getResourceRef().getFile().getName().replace(".java", ".class");
+			items = items	.stream()
+							.filter(f -> getFileName(f).equalsIgnoreCase(mainname))
+							.collect(Collectors.toList());
+		}
+
+		if (items.size() != 1) {
+			throw new ExitException(1,
+					"Could not locate unique class. Found " + items.size() + " candidates.");
+		}
+		return items.get(0);
+	}
+
+	private static String getFileName(String name) {
+		return name.substring(name.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * Sets the main class (and the agent classes) in the context if the given class
+	 * has the necessary methods
+	 */
+	static void detectMainClass(ScriptSource src, RunContext ctx, InputStream classfile) throws IOException {
+		// TODO: could we use jandex to find the right main class more sanely ?
+		// String mainClass = findMainClass(tmpJarDir.toPath(), classfile);
+
+		Indexer indexer = new Indexer();
+		indexer.index(classfile);
+		Index index = indexer.complete();
+
+		Collection<ClassInfo> clazz = index.getKnownClasses();
+
+		Optional<ClassInfo> main = clazz.stream()
+										.filter(pubClass -> pubClass.method("main",
+												STRINGARRAYTYPE) != null)
+										.findFirst();
+
+		if (main.isPresent()) {
+			ctx.setMainClass(main.get().name().toString());
+		}
+
+		if (src.isAgent()) {
+
+			Optional<ClassInfo> agentmain = clazz	.stream()
+													.filter(pubClass -> pubClass.method("agentmain",
+															STRINGTYPE,
+															INSTRUMENTATIONTYPE) != null
+															||
+															pubClass.method("agentmain",
+																	STRINGTYPE) != null)
+													.findFirst();
+
+			if (agentmain.isPresent()) {
+				ctx.setAgentMainClass(agentmain.get().name().toString());
+			}
+
+			Optional<ClassInfo> premain = clazz	.stream()
+												.filter(pubClass -> pubClass.method("premain",
+														STRINGTYPE,
+														INSTRUMENTATIONTYPE) != null
+														||
+														pubClass.method("premain",
+																STRINGTYPE) != null)
+												.findFirst();
+
+			if (premain.isPresent()) {
+				ctx.setPreMainClass(premain.get().name().toString());
+			}
+		}
+	}
+
 	static void createJarFile(ScriptSource src, RunContext ctx, File path, File output) throws IOException {
+		FileOutputStream target = new FileOutputStream(output);
+		JarUtil.jar(target, path.listFiles(), null, null, createManifest(src, ctx));
+		target.close();
+	}
+
+	static void createJarFile(ScriptSource src, RunContext ctx, Map<String, byte[]> contents, File output)
+			throws IOException {
+		try (FileOutputStream target = new FileOutputStream(output)) {
+			JarUtil.jar(target, contents, createManifest(src, ctx));
+		}
+	}
+
+	private static Manifest createManifest(ScriptSource src, RunContext ctx) {
 		String mainclass = ctx.getMainClassOr(src);
 		Manifest manifest = new Manifest();
 		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
@@ -327,6 +594,12 @@ public abstract class BaseBuildCommand extends BaseScriptDepsCommand {
 				String classpath = ctx.getClassPath().getManifestPath();
 				if (!classpath.isEmpty()) {
 					manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classpath);
+					String gavs = ctx.getClassPath().getManifestGavs();
+					if (gavs != null) {
+						manifest.getMainAttributes().putValue(Source.ATTR_JBANG_CLASS_PATH_GAVS, gavs);
+						String timestamps = ctx.getClassPath().getManifestTimestamps();
+						manifest.getMainAttributes().putValue(Source.ATTR_JBANG_CLASS_PATH_TIMESTAMPS, timestamps);
+					}
 				}
 			}
 		}
@@ -339,15 +612,15 @@ public abstract class BaseBuildCommand extends BaseScriptDepsCommand {
 			manifest.getMainAttributes()
 					.putValue(Source.ATTR_JBANG_JAVA_OPTIONS, runtimeOpts);
 		}
+		if (!src.allowWarm()) {
+			manifest.getMainAttributes().putValue(Source.ATTR_JBANG_NO_WARM, "true");
+		}
 		int buildJdk = ctx.getBuildJdk();
 		if (buildJdk > 0) {
 			String val = buildJdk >= 9 ? Integer.toString(buildJdk) : "1." + buildJdk;
 			manifest.getMainAttributes().putValue(Source.ATTR_BUILD_JDK, val);
 		}
-
-		FileOutputStream target = new FileOutputStream(output);
-		JarUtil.jar(target, path.listFiles(), null, null, manifest);
-		target.close();
+		return manifest;
 	}
 
 	static private void buildNative(Source src, RunContext ctx, File outjar, String requestedJavaVersion)
@@ -403,6 +676,101 @@ public abstract class BaseBuildCommand extends BaseScriptDepsCommand {
 		return mainClass.toString();
 	}
 
+	/**
+	 * Compiles the given source files without writing anything to disk, using the
+	 * compile daemon when it's enabled and otherwise compiling in-process. Returns
+	 * <code>null</code> if neither is possible.
+	 */
+	static Boolean compileInMemory(List<String> options, List<String> sourceFiles, String requestedJavaVersion,
+			Map<String, byte[]> output, Map<String, URI> origins) throws IOException {
+		if (Settings.isCompileDaemonEnabled()) {
+			Boolean compiled = CompileDaemon.compile(resolveInJavaHome("java", requestedJavaVersion),
+					JavaUtil.javaVersion(requestedJavaVersion), options, sourceFiles, output, origins,
+					BaseBuildCommand::reportDiagnostic);
+			if (compiled != null) {
+				return compiled;
+			}
+			output.clear();
+			origins.clear();
+		}
+		return compileInProcess(options, sourceFiles, requestedJavaVersion, output, origins);
+	}
+
+	/**
+	 * Compiles the given source files using the compiler of the JDK that jbang
+	 * itself is running on, which saves starting a separate javac process.
+	 * Diagnostics are reported the same way as jbang's own messages.
+	 *
+	 * @param output  If not <code>null</code> the compiler output is not written to
+	 *                disk but added to this map instead, by path
+	 * @param origins If not <code>null</code> the location of the source file of
+	 *                each path in the output gets added to this map
+	 *
+	 * @return whether the compilation succeeded or <code>null</code> if it can't be
+	 *         done in-process, because the running JDK isn't the requested version,
+	 *         doesn't have a compiler or doesn't support the options
+	 */
+	static Boolean compileInProcess(List<String> options, List<String> sourceFiles, String requestedJavaVersion,
+			Map<String, byte[]> output, Map<String, URI> origins) throws IOException {
+		if (!Settings.isInProcessCompilerEnabled()) {
+			return null;
+		}
+		int runningVersion = JavaUtil.parseJavaVersion(System.getProperty("java.version"));
+		if (runningVersion != JavaUtil.javaVersion(requestedJavaVersion)) {
+			Util.verboseMsg("Not compiling in-process because jbang runs on Java " + runningVersion);
+			return null;
+		}
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			Util.verboseMsg("Not compiling in-process because jbang doesn't run on a JDK");
+			return null;
+		}
+
+		Util.verboseMsg("compile (in-process): " + String.join(" ", options) + " " + String.join(" ", sourceFiles));
+		DiagnosticListener<JavaFileObject> listener = BaseBuildCommand::reportDiagnostic;
+		try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(listener, null, null);
+				MemoryFileManager memoryManager = new MemoryFileManager(fileManager)) {
+			Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromStrings(sourceFiles);
+			// Anything javac itself prints (like the output of -version) goes where
+			// the external process would have printed it
+			Writer out = new OutputStreamWriter(System.err);
+			JavaCompiler.CompilationTask task = compiler.getTask(out, output != null ? memoryManager : fileManager,
+					listener, options, null, units);
+			boolean result = task.call();
+			out.flush();
+			if (output != null) {
+				output.putAll(memoryManager.getOutput());
+				if (origins != null) {
+					origins.putAll(memoryManager.getOrigins());
+				}
+			}
+			return result;
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			// Most likely an option that only the javac command understands
+			Util.verboseMsg("Not compiling in-process", e);
+			return null;
+		}
+	}
+
+	private static void reportDiagnostic(Diagnostic<? extends JavaFileObject> diagnostic) {
+		reportDiagnostic(diagnostic.getKind(), CompileDaemon.formatDiagnostic(diagnostic));
+	}
+
+	private static void reportDiagnostic(Diagnostic.Kind kind, String msg) {
+		switch (kind) {
+		case ERROR:
+			Util.errorMsg(msg);
+			break;
+		case WARNING:
+		case MANDATORY_WARNING:
+			Util.warnMsg(msg);
+			break;
+		default:
+			Util.infoMsg(msg);
+			break;
+		}
+	}
+
 	protected static String resolveInJavaHome(String cmd, String requestedVersion) {
 		Path jdkHome = JdkManager.getCurrentJdk(requestedVersion);
 		if (jdkHome != null) {
@@ -1,29 +1,317 @@
 package dev.jbang.cli;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import dev.jbang.Settings;
+import dev.jbang.catalog.Alias;
+import dev.jbang.catalog.Catalog;
+import dev.jbang.net.JdkManager;
 import dev.jbang.source.RunContext;
 import dev.jbang.source.Source;
+import dev.jbang.spi.IntegrationManager;
+import dev.jbang.util.Util;
 
+import picocli.CommandLine;
 import picocli.CommandLine.Command;
 
 @Command(name = "build", description = "Compiles and stores script in the cache.")
 public class Build extends BaseBuildCommand {
 
+	@CommandLine.Parameters(index = "1..*", arity = "0..*", paramLabel = "scriptOrFile", description = "More scripts to build, arguments can also be glob patterns (like 'scripts/*.java') or catalog files (jbang-catalog.json) of which all aliases will be built")
+	List<String> moreScripts = new ArrayList<>();
+
+	@CommandLine.Option(names = {
+			"--jobs" }, description = "The number of scripts to build at the same time when building more than one. Defaults to the number of processors.")
+	Integer jobs;
+
 	@Override
 	public Integer doCall() throws IOException {
 		if (insecure) {
 			enableInsecure();
 		}
 
+		List<String> scripts = new ArrayList<>();
+		scripts.add(scriptOrFile);
+		scripts.addAll(moreScripts);
+		Map<String, Alias> resources = expand(scripts);
+		if (resources.size() == 1 && resources.containsKey(scriptOrFile) && resources.get(scriptOrFile) == null) {
+			RunContext ctx = createContext();
+			Source src = Source.forResource(scriptOrFile, ctx);
+
+			src = buildIfNeeded(src, ctx);
+			createCDSArchive(src, ctx);
+
+			return EXIT_OK;
+		}
+		return buildAll(resources);
+	}
+
+	private RunContext createContext() {
 		RunContext ctx = RunContext.create(null, dependencyInfoMixin.getProperties(),
 				dependencyInfoMixin.getDependencies(), dependencyInfoMixin.getClasspaths(), forcejsh);
 		ctx.setJavaVersion(javaVersion);
 		ctx.setNativeImage(nativeImage);
-		Source src = Source.forResource(scriptOrFile, ctx);
+		return ctx;
+	}
+
+	/**
+	 * Creates the CDS archive for the script's jar when CDS is enabled, so the
+	 * first run can already make use of it
+	 */
+	private void createCDSArchive(Source src, RunContext ctx) {
+		if (!cdsActive(src) || ctx.isForceJsh() || src.isJShell() || src.getJarFile() == null
+				|| !src.getJarFile().exists()) {
+			return;
+		}
+		String requestedJavaVersion = ctx.getJavaVersion() != null ? ctx.getJavaVersion() : src.getJavaVersion();
+		// Exactly the class path the script will run with, or the archive won't match
+		String classpath = runtimeClassPath(src, ctx.resolveClassPath(src));
+		cdsArguments(src, ctx, resolveInJavaHome("java", requestedJavaVersion), classpath, requestedJavaVersion);
+	}
+
+	/**
+	 * Turns the given arguments into a map of scripts, expanding any glob patterns
+	 * and catalogs. The aliases of catalogs are mapped to their Alias object, all
+	 * other scripts to <code>null</code>
+	 */
+	static Map<String, Alias> expand(List<String> args) {
+		Map<String, Alias> result = new LinkedHashMap<>();
+		for (String arg : args) {
+			if (arg.endsWith(Catalog.JBANG_CATALOG_JSON)) {
+				Catalog catalog = Catalog.getByRef(arg);
+				new TreeSet<>(catalog.aliases.keySet()).forEach(
+						name -> result.putIfAbsent(name + "@" + arg, catalog.aliases.get(name)));
+			} else if (!Util.isURL(arg) && (arg.contains("*") || arg.contains("?"))) {
+				List<String> files = Util.explode(arg, Util.getCwd(), arg);
+				Collections.sort(files);
+				files.forEach(f -> result.putIfAbsent(Util.getCwd().resolve(f).toString(), null));
+			} else {
+				result.putIfAbsent(arg, null);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Builds all the given scripts in a single JVM. Their dependencies get resolved
+	 * concurrently first, after which the JDKs they need are installed one at a
+	 * time and the scripts are built concurrently. A summary of the results gets
+	 * printed at the end.
+	 */
+	private Integer buildAll(Map<String, Alias> resources) throws IOException {
+		long start = System.nanoTime();
+		Map<String, BuildResult> results = new LinkedHashMap<>();
+		List<BuildResult> concurrent = new ArrayList<>();
+		List<BuildResult> serial = new ArrayList<>();
+		Set<String> files = new TreeSet<>();
+		Map<String, String> properties = createContext().getProperties();
+
+		for (Map.Entry<String, Alias> entry : resources.entrySet()) {
+			BuildResult result = new BuildResult(entry.getKey());
+			results.put(entry.getKey(), result);
+			try {
+				result.ctx = createContext();
+				result.src = forResource(entry.getKey(), entry.getValue(), result.ctx);
+				if (!needsJar(result.src, result.ctx)) {
+					result.skipped = true;
+				} else if (!files.add(result.src.getResourceRef().getFile().getAbsolutePath())) {
+					// Two aliases for the same script, no need to build it twice
+					result.skipped = true;
+				} else if (result.ctx.getProperties().equals(properties)) {
+					concurrent.add(result);
+				} else {
+					// Properties end up in the system properties while building, so
+					// scripts that have their own can't be built at the same time
+					serial.add(result);
+				}
+			} catch (Exception e) {
+				result.error = e;
+			}
+		}
+
+		List<BuildResult> toBuild = new ArrayList<>(concurrent);
+		toBuild.addAll(serial);
+		int workers = jobs != null && jobs > 0 ? jobs : Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			resolveDependencies(toBuild, executor);
+			for (BuildResult result : toBuild) {
+				if (!prepare(result)) {
+					concurrent.remove(result);
+					serial.remove(result);
+				} else if (concurrent.contains(result)
+						&& IntegrationManager.hasIntegrations(result.ctx.getClassPath().getArtifacts())) {
+					// Integrations change the global state of the JVM (standard out, system
+					// properties and the context class loader) while they run
+					concurrent.remove(result);
+					serial.add(result);
+				}
+			}
+
+			Util.infoMsg("Building " + toBuild.size() + " scripts using " + workers + " workers...");
+			List<Future<?>> futures = new ArrayList<>();
+			for (BuildResult result : concurrent) {
+				futures.add(executor.submit(result::build));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (Exception e) {
+			throw new ExitException(EXIT_INTERNAL_ERROR, "Building scripts was interrupted", e);
+		} finally {
+			executor.shutdown();
+		}
+		serial.forEach(BuildResult::build);
+
+		return printSummary(results, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	/**
+	 * Returns the Source for the given script or, when an Alias is given, for the
+	 * script the alias refers to. The arguments and properties of the alias get
+	 * applied to the context the same way as when running the alias.
+	 */
+	private static Source forResource(String resource, Alias alias, RunContext ctx) {
+		if (alias == null) {
+			return Source.forResource(resource, ctx);
+		}
+		if (ctx.getProperties().isEmpty()) {
+			ctx.setProperties(alias.properties);
+		}
+		ctx.setAlias(alias);
+		Source src = Source.forResource(alias.resolve(), ctx);
+		if (alias.arguments != null && !alias.arguments.isEmpty()) {
+			ctx.setArguments(alias.arguments);
+		}
+		return src;
+	}
+
+	/**
+	 * Resolves the class paths of the scripts using the given workers, all through
+	 * the resolver session that's shared by the whole jbang invocation. Scripts
+	 * with the same dependencies are resolved one after the other by the same
+	 * worker, so only the first of them actually resolves them and the others find
+	 * them in the dependency cache. Any failure is recorded for the script that
+	 * has it.
+	 */
+	private void resolveDependencies(List<BuildResult> results, ExecutorService executor)
+			throws InterruptedException {
+		Map<List<String>, List<BuildResult>> byDeps = new LinkedHashMap<>();
+		for (BuildResult result : results) {
+			try {
+				List<String> deps = result.ctx.collectAllDependenciesFor(result.src);
+				byDeps.computeIfAbsent(deps, d -> new ArrayList<>()).add(result);
+			} catch (Exception e) {
+				result.error = e;
+			}
+		}
+		if (Settings.isShrinkWrapResolverEnabled()) {
+			// ShrinkWrap passes its configuration through system properties, which
+			// can't be shared between threads
+			byDeps.values().forEach(Build::resolveClassPaths);
+			return;
+		}
+		List<Future<?>> futures = new ArrayList<>();
+		for (List<BuildResult> group : byDeps.values()) {
+			futures.add(executor.submit(() -> resolveClassPaths(group)));
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				// Can't happen, failures are recorded by resolveClassPaths()
+				Util.verboseMsg("Unexpected error resolving dependencies", e.getCause());
+			}
+		}
+	}
+
+	private static void resolveClassPaths(List<BuildResult> results) {
+		for (BuildResult result : results) {
+			try {
+				result.ctx.resolveClassPath(result.src);
+			} catch (Exception e) {
+				result.error = e;
+			}
+		}
+	}
 
-		buildIfNeeded(src, ctx);
+	/**
+	 * Installs the JDK the script needs (if necessary) so that doesn't happen while
+	 * building concurrently
+	 */
+	private boolean prepare(BuildResult result) {
+		if (result.error != null) {
+			return false;
+		}
+		try {
+			String requestedJavaVersion = result.ctx.getJavaVersion() != null ? result.ctx.getJavaVersion()
+					: result.src.getJavaVersion();
+			JdkManager.getCurrentJdk(requestedJavaVersion);
+			return true;
+		} catch (Exception e) {
+			result.error = e;
+			return false;
+		}
+	}
+
+	private Integer printSummary(Map<String, BuildResult> results, long millis) {
+		List<BuildResult> failed = results	.values()
+											.stream()
+											.filter(r -> r.error != null)
+											.collect(Collectors.toList());
+		Util.infoMsg("Built " + results.size() + " scripts in " + formatMillis(millis)
+				+ (failed.isEmpty() ? "" : " (" + failed.size() + " failed)") + ":");
+		for (BuildResult result : results.values()) {
+			String status = result.error != null ? "FAILED " : result.skipped ? "SKIPPED" : "OK     ";
+			String line = "  " + status + " " + String.format("%6s", formatMillis(result.millis)) + "  "
+					+ result.resource;
+			if (result.error != null) {
+				line += ": " + result.error.getMessage();
+			}
+			Util.infoMsg(line);
+		}
+		return failed.isEmpty() ? EXIT_OK : EXIT_GENERIC_ERROR;
+	}
 
-		return EXIT_OK;
+	private static String formatMillis(long millis) {
+		return String.format("%.1fs", millis / 1000.0);
+	}
+
+	private class BuildResult {
+		final String resource;
+		RunContext ctx;
+		Source src;
+		boolean skipped;
+		long millis;
+		Exception error;
+
+		BuildResult(String resource) {
+			this.resource = resource;
+		}
+
+		void build() {
+			long start = System.nanoTime();
+			try {
+				createCDSArchive(buildIfNeeded(src, ctx), ctx);
+			} catch (Exception e) {
+				Util.verboseMsg("Failed to build " + resource, e);
+				error = e;
+			} finally {
+				millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			}
+		}
 	}
 }
@@ -2,10 +2,21 @@ package dev.jbang.cli;
 
 import static dev.jbang.cli.BaseCommand.EXIT_OK;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.EnumSet;
 import java.util.Optional;
 
+import dev.jbang.Bundle;
+import dev.jbang.Settings;
+import dev.jbang.dependencies.DependencyCache;
+import dev.jbang.dependencies.RepositoryRoutes;
+import dev.jbang.util.Util;
+
 import picocli.CommandLine;
 
 @CommandLine.Command(name = "cache", description = "Manage compiled scripts in the local cache.")
@@ -26,6 +37,10 @@ public class Cache {
 					"--script" }, description = "clear script cache only", negatable = true) Boolean scripts,
 			@CommandLine.Option(names = {
 					"--stdin" }, description = "clear stdin cache only", negatable = true) Boolean stdins,
+			@CommandLine.Option(names = {
+					"--cds" }, description = "clear CDS archive cache only", negatable = true) Boolean cds,
+			@CommandLine.Option(names = {
+					"--plans" }, description = "clear launch plan cache only", negatable = true) Boolean plans,
 			@CommandLine.Option(names = { "--all" }, description = "clear all caches") boolean all) {
 		EnumSet<dev.jbang.Cache.CacheClass> classes = EnumSet.noneOf(dev.jbang.Cache.CacheClass.class);
 
@@ -38,13 +53,17 @@ public class Cache {
 				&& projects == null
 				&& scripts == null
 				&& stdins == null
-				&& deps == null) {
+				&& deps == null
+				&& cds == null
+				&& plans == null) {
 			// add the default (safe) set
 			classes.add(dev.jbang.Cache.CacheClass.urls);
 			classes.add(dev.jbang.Cache.CacheClass.jars);
 			classes.add(dev.jbang.Cache.CacheClass.scripts);
 			classes.add(dev.jbang.Cache.CacheClass.stdins);
 			classes.add(dev.jbang.Cache.CacheClass.deps);
+			classes.add(dev.jbang.Cache.CacheClass.cds);
+			classes.add(dev.jbang.Cache.CacheClass.plans);
 		}
 
 		// we only toggle on or off those that are actually present
@@ -55,12 +74,65 @@ public class Cache {
 		toggleCache(projects, dev.jbang.Cache.CacheClass.projects, classes);
 		toggleCache(scripts, dev.jbang.Cache.CacheClass.scripts, classes);
 		toggleCache(stdins, dev.jbang.Cache.CacheClass.stdins, classes);
+		toggleCache(cds, dev.jbang.Cache.CacheClass.cds, classes);
+		toggleCache(plans, dev.jbang.Cache.CacheClass.plans, classes);
 
 		dev.jbang.Cache.CacheClass[] ccs = classes.toArray(new dev.jbang.Cache.CacheClass[0]);
 		dev.jbang.Cache.clearCache(ccs);
 		return EXIT_OK;
 	}
 
+	@CommandLine.Command(name = "stats", description = "Show the size of the dependency cache and how many of its entries were evicted.")
+	public Integer stats() {
+		int maxEntries = Settings.getDependencyCacheMaxEntries();
+		int maxAge = Settings.getDependencyCacheMaxAge();
+		System.out.println("Dependency cache: " + Settings.getCacheDir(dev.jbang.Cache.CacheClass.deps));
+		System.out.println("Entries: " + DependencyCache.getEntryCount()
+				+ (maxEntries > 0 ? " (max " + maxEntries + ")" : ""));
+		System.out.println("Max age: " + (maxAge > 0 ? maxAge + " days" : "unlimited"));
+		long evicted = DependencyCache.getEvictedCount();
+		System.out.println("Evicted: " + evicted
+				+ (evicted > 0 ? " (last eviction " + new Date(DependencyCache.getLastEviction()) + ")" : ""));
+		return EXIT_OK;
+	}
+
+	@CommandLine.Command(name = "routes", description = "Show which repositories served the artifacts of each group, which ones didn't have them and how fast each repository responds.")
+	public Integer routes(
+			@CommandLine.Option(names = {
+					"--reset" }, description = "forget everything that was learned about the repositories") boolean reset)
+			throws IOException {
+		if (reset) {
+			RepositoryRoutes.reset();
+			Util.infoMsg("Repository routes cleared");
+			return EXIT_OK;
+		}
+		RepositoryRoutes routes = RepositoryRoutes.load();
+		System.out.println("Repository routes: " + RepositoryRoutes.getRoutesFile());
+		System.out.println("Repositories:");
+		routes	.getRepositories()
+				.forEach((url, latency) -> System.out.println("  " + url + " "
+						+ latency.getMillis() + "ms (" + latency.getSamples() + " requests)"));
+		System.out.println("Groups:");
+		routes.getGroups().forEach((groupId, route) -> {
+			System.out.println("  " + groupId + (route.getServed() != null ? " -> " + route.getServed() : ""));
+			route.getMissing().forEach(url -> System.out.println("      not in " + url));
+		});
+		return EXIT_OK;
+	}
+
+	@CommandLine.Command(name = "import", description = "Import a bundle created by 'jbang export bundle' so its script can be run without having to resolve or compile anything, even offline.")
+	public Integer importBundle(
+			@CommandLine.Parameters(paramLabel = "bundle", index = "0", description = "The bundle to import", arity = "1") Path bundle)
+			throws IOException {
+		bundle = Util.getCwd().resolve(bundle);
+		if (!Files.isRegularFile(bundle)) {
+			throw new ExitException(BaseCommand.EXIT_INVALID_INPUT, "Bundle not found: " + bundle);
+		}
+		File jar = Bundle.install(bundle);
+		Util.infoMsg("Imported " + jar.getName() + " from " + bundle);
+		return EXIT_OK;
+	}
+
 	private void toggleCache(Boolean b, dev.jbang.Cache.CacheClass cache, EnumSet<dev.jbang.Cache.CacheClass> classes) {
 		if (Optional.ofNullable(b).isPresent()) {
 			if (b) {
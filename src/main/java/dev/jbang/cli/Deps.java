@@ -0,0 +1,66 @@
+package dev.jbang.cli;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import dev.jbang.dependencies.DependencyUtil;
+import dev.jbang.dependencies.JitPackUtil;
+import dev.jbang.dependencies.LockFile;
+import dev.jbang.dependencies.MavenRepo;
+import dev.jbang.dependencies.ModularClassPath;
+import dev.jbang.source.RunContext;
+import dev.jbang.source.ScriptSource;
+import dev.jbang.source.Source;
+import dev.jbang.util.Util;
+
+import picocli.CommandLine;
+
+@CommandLine.Command(name = "deps", description = "Manage the dependencies of scripts.", subcommands = {
+		DepsLock.class })
+public class Deps {
+}
+
+@CommandLine.Command(name = "lock", description = "Resolve the dependencies of a script and pin the result in a lock file next to it. "
+		+ "As long as the dependencies of the script don't change the class path will be built from the lock file "
+		+ "without resolving the dependencies again.")
+class DepsLock extends BaseScriptCommand {
+
+	@Override
+	public Integer doCall() throws IOException {
+		if (insecure) {
+			enableInsecure();
+		}
+
+		RunContext ctx = RunContext.create(null, null, null, null, forcejsh);
+		Source src = Source.forResource(scriptOrFile, ctx);
+		ScriptSource ss = src.asScriptSource();
+		if (ss == null || ss.getResourceRef().isURL()) {
+			throw new ExitException(EXIT_INVALID_INPUT, "Only local scripts can be locked: " + scriptOrFile);
+		}
+
+		List<String> deps = ctx.collectAllDependenciesFor(ss);
+		if (deps.isEmpty()) {
+			info("Script has no dependencies, nothing to lock");
+			return EXIT_OK;
+		}
+
+		// The lock file gets the same repositories the dependencies are resolved with
+		List<MavenRepo> repos = new ArrayList<>(ss.getAllRepositories());
+		if (repos.isEmpty()) {
+			repos.add(DependencyUtil.toMavenRepo("mavencentral"));
+		}
+		if (deps.stream().anyMatch(d -> !JitPackUtil.ensureGAV(d).equals(d))
+				&& repos.stream().noneMatch(r -> DependencyUtil.REPO_JITPACK.equals(r.getUrl()))) {
+			repos.add(DependencyUtil.toMavenRepo(DependencyUtil.ALIAS_JITPACK));
+		}
+		ModularClassPath mcp = new DependencyUtil().resolveDependencies(deps, repos, Util.isOffline(),
+				Util.isFresh(), !Util.isQuiet());
+
+		Path script = ss.getResourceRef().getFile().toPath();
+		LockFile.create(deps, repos, mcp.getArtifacts()).writeFor(script);
+		info("Locked " + mcp.getArtifacts().size() + " artifact(s) in " + LockFile.getLockFileFor(script));
+		return EXIT_OK;
+	}
+}
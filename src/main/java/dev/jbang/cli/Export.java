@@ -19,9 +19,13 @@ import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
+import dev.jbang.Bundle;
 import dev.jbang.Settings;
+import dev.jbang.catalog.CatalogUtil;
+import dev.jbang.dependencies.DependencyUtil;
 import dev.jbang.source.RunContext;
 import dev.jbang.source.Source;
+import dev.jbang.util.JavaUtil;
 import dev.jbang.util.TemplateEngine;
 import dev.jbang.util.Util;
 
@@ -30,7 +34,7 @@ import picocli.CommandLine;
 import picocli.CommandLine.Command;
 
 @Command(name = "export", description = "Export the result of a build.", subcommands = { ExportPortable.class,
-		ExportLocal.class, ExportMavenPublish.class })
+		ExportLocal.class, ExportMavenPublish.class, ExportBundle.class })
 public class Export {
 
 	static int handle(ExportMixin exportMixin,
@@ -279,4 +283,63 @@ class ExportMavenPublish extends BaseCommand implements Exporter {
 	public Integer doCall() throws IOException {
 		return handle(exportMixin, this);
 	}
-}
\ No newline at end of file
+}
+
+@Command(name = "bundle", description = "Exports a bundle with the jar, all its dependencies and optionally a JDK that can be imported on a machine without network access using 'jbang cache import'")
+class ExportBundle extends BaseCommand implements Exporter {
+
+	@CommandLine.Mixin
+	ExportMixin exportMixin;
+
+	@CommandLine.Option(names = {
+			"--with-jdk" }, description = "Include the managed JDK needed to run the script in the bundle", defaultValue = "false")
+	boolean withJdk;
+
+	public int apply(ExportMixin exportMixin, Source src, RunContext ctx) throws IOException {
+		if (exportMixin.nativeImage) {
+			Util.warnMsg("Cannot export native images as a bundle.");
+			return EXIT_INVALID_INPUT;
+		}
+		File jar = src.getJarFile();
+		if (jar == null || jar.equals(src.getResourceRef().getFile())) {
+			Util.warnMsg("Only scripts can be exported as a bundle.");
+			return EXIT_INVALID_INPUT;
+		}
+
+		Path outputPath;
+		if (exportMixin.outputFile != null) {
+			outputPath = exportMixin.getFileOutputPath(ctx);
+		} else {
+			outputPath = Util.getCwd().resolve(CatalogUtil.nameFromRef(ctx.getOriginalRef()) + Bundle.BUNDLE_EXT);
+		}
+
+		if (outputPath.toFile().exists()) {
+			if (exportMixin.force) {
+				outputPath.toFile().delete();
+			} else {
+				Util.warnMsg("Cannot export as " + outputPath + " already exists. Use --force to overwrite.");
+				return EXIT_INVALID_INPUT;
+			}
+		}
+
+		String depsKey = DependencyUtil.getCacheKey(ctx.collectAllDependenciesFor(src.asScriptSource()), true);
+		Integer jdk = null;
+		if (withJdk) {
+			// The jar can only be run by a JDK at least as new as the one it was built with
+			jdk = JavaUtil.minRequestedVersion(src.asJarSource().getJavaVersion());
+			if (jdk <= 0) {
+				jdk = JavaUtil.javaVersion(
+						exportMixin.javaVersion != null ? exportMixin.javaVersion : src.getJavaVersion());
+			}
+		}
+
+		Bundle.write(outputPath, jar, depsKey, ctx.getClassPath(), jdk);
+		Util.infoMsg("Exported to " + outputPath);
+		return EXIT_OK;
+	}
+
+	@Override
+	public Integer doCall() throws IOException {
+		return handle(exportMixin, this);
+	}
+}
@@ -16,10 +16,14 @@ import java.util.stream.Collectors;
 import org.apache.commons.text.StringEscapeUtils;
 
 import dev.jbang.Settings;
+import dev.jbang.dependencies.DependencyCache;
+import dev.jbang.source.BuildFingerprint;
 import dev.jbang.source.RunContext;
 import dev.jbang.source.Source;
 import dev.jbang.util.JavaUtil;
+import dev.jbang.util.LaunchPlan;
 import dev.jbang.util.Util;
+import dev.jbang.util.WarmRunner;
 
 import picocli.CommandLine;
 
@@ -60,6 +64,15 @@ public class Run extends BaseBuildCommand {
 	@CommandLine.Option(names = { "--interactive" }, description = "activate interactive mode")
 	boolean interactive;
 
+	@CommandLine.Option(names = {
+			"--warm" }, description = "Run the script in a warm JVM that keeps running in the background, which saves starting a new JVM every time (not on Windows). There's one for each directory and set of environment variables, all scripts running in it share its system properties and static state.")
+	boolean warm;
+
+	// The files the command line for running in a warm JVM relies on
+	private List<File> warmFiles = new ArrayList<>();
+	// Set when the warm JVM was only just started and this run doesn't use it yet
+	private boolean warmStarting;
+
 	@CommandLine.Parameters(index = "1..*", arity = "0..*", description = "Parameters to pass on to the script")
 	List<String> userParams = new ArrayList<>();
 
@@ -69,6 +82,7 @@ public class Run extends BaseBuildCommand {
 			enableInsecure();
 		}
 
+		long started = System.currentTimeMillis();
 		RunContext ctx = RunContext.create(userParams, dependencyInfoMixin.getProperties(),
 				dependencyInfoMixin.getDependencies(), dependencyInfoMixin.getClasspaths(), forcejsh);
 		ctx.setJavaVersion(javaVersion);
@@ -76,13 +90,54 @@ public class Run extends BaseBuildCommand {
 		Source src = Source.forResource(scriptOrFile, ctx);
 		src = prepareArtifacts(src, ctx);
 
-		String cmdline = generateOSCommandLine(src, ctx);
+		List<String> fullArgs = warm ? generateWarmCommandLineList(src, ctx) : null;
+		if (fullArgs == null) {
+			fullArgs = generateCommandLineList(src, ctx);
+		}
+		String cmdline = generateOSCommandLine(fullArgs);
 		debug("run: " + cmdline);
 		out.println(cmdline);
 
+		saveLaunchPlan(src, ctx, fullArgs, started);
+
 		return EXIT_EXECUTE;
 	}
 
+	/**
+	 * Stores a launch plan for running a local script or jar the normal way, so the
+	 * launcher can run it again without starting jbang
+	 */
+	private void saveLaunchPlan(Source src, RunContext ctx, List<String> fullArgs, long started) {
+		if (!Settings.isLaunchPlansEnabled() || warmStarting || nativeImage || interactive || ctx.isForceJsh()
+				|| src.isJShell()
+				|| javaAgentSlots != null || Util.isURL(scriptOrFile)
+				|| !Util.getCwd().resolve(scriptOrFile).toFile().isFile()) {
+			return;
+		}
+		List<File> inputs = new ArrayList<>();
+		if (src.isJar()) {
+			inputs.add(src.getResourceRef().getFile());
+		} else {
+			List<File> files = src.getJarFile() != null ? BuildFingerprint.getInputFiles(src.getJarFile()) : null;
+			if (files == null) {
+				return;
+			}
+			inputs.addAll(files);
+			inputs.add(src.getJarFile());
+		}
+		for (String entry : ctx.resolveClassPath(src).split(Settings.CP_SEPARATOR)) {
+			if (!entry.trim().isEmpty()) {
+				inputs.add(new File(entry.trim()));
+			}
+		}
+		if (!ctx.getClassPath().getArtifacts().isEmpty()) {
+			// The dependencies might resolve to a different class path next time
+			inputs.add(DependencyCache.getResolvedStampFile().toFile());
+		}
+		inputs.addAll(warmFiles);
+		LaunchPlan.save(ctx.getArguments(), fullArgs, inputs, started);
+	}
+
 	Source prepareArtifacts(Source src, RunContext ctx) throws IOException {
 		src = buildIfNeeded(src, ctx);
 
@@ -109,7 +164,10 @@ public class Run extends BaseBuildCommand {
 	}
 
 	String generateOSCommandLine(Source src, RunContext ctx) throws IOException {
-		List<String> fullArgs = generateCommandLineList(src, ctx);
+		return generateOSCommandLine(generateCommandLineList(src, ctx));
+	}
+
+	private String generateOSCommandLine(List<String> fullArgs) throws IOException {
 		String args = String.join(" ", escapeOSArguments(fullArgs));
 		// This avoids long classpath problem on Windows.
 		// @file is only available from java 9 onwards.
@@ -132,6 +190,56 @@ public class Run extends BaseBuildCommand {
 		}
 	}
 
+	/**
+	 * Returns the command line for running the script in a warm JVM, or
+	 * <code>null</code> if it can't be run that way (yet)
+	 */
+	List<String> generateWarmCommandLineList(Source src, RunContext ctx) throws IOException {
+		String requestedJavaVersion = javaVersion != null ? javaVersion : src.getJavaVersion();
+		String reason = null;
+		if (Util.isWindows()) {
+			reason = "that's not supported on Windows";
+		} else if (nativeImage || interactive || ctx.isForceJsh() || src.isJShell()) {
+			reason = "it doesn't run on a JVM of its own";
+		} else if (!src.allowWarm()) {
+			reason = "it has a //NOWARM directive";
+		} else if (debug() || enableFlightRecording() || enableAssertions || enableSystemAssertions
+				|| javaAgentSlots != null || !ctx.getProperties().isEmpty()
+				|| !ctx.getRuntimeOptionsOr(src).isEmpty()
+				|| !ctx.getAutoDetectedModuleArguments(src, requestedJavaVersion).isEmpty()) {
+			reason = "it needs JVM options";
+		} else if (!WarmRunner.isSupported(JavaUtil.javaVersion(requestedJavaVersion))) {
+			reason = "its Java version can't intercept System.exit()";
+		}
+		if (reason != null) {
+			info("Not running in a warm JVM because " + reason);
+			return null;
+		}
+
+		if (main != null) {
+			ctx.setMainClass(main);
+		}
+		String mainClass = ctx.getMainClassOr(src);
+		if (mainClass == null || src.getJarFile() == null) {
+			return null;
+		}
+		String classpath = ctx.resolveClassPath(src).trim();
+		classpath = classpath.isEmpty() ? src.getJarFile().getAbsolutePath()
+				: src.getJarFile().getAbsolutePath() + Settings.CP_SEPARATOR + classpath;
+
+		int version = JavaUtil.javaVersion(requestedJavaVersion);
+		List<String> fullArgs = WarmRunner.command(resolveInJavaHome("java", requestedJavaVersion), version,
+				classpath, mainClass);
+		if (fullArgs == null) {
+			info("Starting a warm JVM in the background, it will be used the next time");
+			warmStarting = true;
+			return null;
+		}
+		warmFiles = WarmRunner.getFiles(version);
+		fullArgs.addAll(ctx.getArguments());
+		return fullArgs;
+	}
+
 	String generateCommandLine(Source src, RunContext ctx) throws IOException {
 		List<String> fullArgs = generateCommandLineList(src, ctx);
 		return String.join(" ", escapeOSArguments(fullArgs));
@@ -232,26 +340,15 @@ public class Run extends BaseBuildCommand {
 					Util.verboseMsg("Flight recording enabled with:" + jfropt);
 				}
 
-				if (src.getJarFile() != null) {
-					if (classpath.trim().isEmpty()) {
-						classpath = src.getJarFile().getAbsolutePath();
-					} else {
-						classpath = src.getJarFile().getAbsolutePath() + Settings.CP_SEPARATOR + classpath.trim();
-					}
-				}
+				classpath = runtimeClassPath(src, classpath);
 				if (!classpath.trim().isEmpty()) {
 					optionalArgs.add("-classpath");
 					optionalArgs.add(classpath);
 				}
-
-				if (optionActive(cds(), src.enableCDS())) {
-					String cdsJsa = src.getJarFile().getAbsolutePath() + ".jsa";
-					if (src.isCreatedJar()) {
-						debug("CDS: Archiving Classes At Exit at " + cdsJsa);
-						optionalArgs.add("-XX:ArchiveClassesAtExit=" + cdsJsa);
-					} else {
-						debug("CDS: Using shared archive classes from " + cdsJsa);
-						optionalArgs.add("-XX:SharedArchiveFile=" + cdsJsa);
+				if (cdsActive(src)) {
+					List<String> cdsArgs = cdsArguments(src, ctx, javacmd, classpath, requestedJavaVersion);
+					if (cdsArgs != null) {
+						optionalArgs.addAll(cdsArgs);
 					}
 				}
 			}
@@ -318,10 +415,6 @@ public class Run extends BaseBuildCommand {
 		return fullArgs;
 	}
 
-	static boolean optionActive(Optional<Boolean> master, boolean local) {
-		return master.map(Boolean::booleanValue).orElse(local);
-	}
-
 	private void addPropertyFlags(Map<String, String> properties, String def, List<String> result) {
 		properties.forEach((k, e) -> {
 			result.add(def + k + "=" + e);
@@ -14,13 +14,17 @@ public class ArtifactInfo {
 	private final File file;
 	private final long timestamp;
 
-	ArtifactInfo(MavenCoordinate coordinate, File file) {
+	public ArtifactInfo(MavenCoordinate coordinate, File file) {
 		this.coordinate = coordinate;
 		this.file = file;
 		this.timestamp = file.exists() ? file.lastModified() : 0;
 	}
 
-	ArtifactInfo(MavenCoordinate coordinate, File file, long cachedTimestamp) {
+	/**
+	 * Creates an artifact with the timestamp its file had when it was resolved,
+	 * without looking at the file itself
+	 */
+	public ArtifactInfo(MavenCoordinate coordinate, File file, long cachedTimestamp) {
 		this.coordinate = coordinate;
 		this.file = file;
 		this.timestamp = cachedTimestamp;
@@ -0,0 +1,499 @@
+package dev.jbang.dependencies;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
+import org.apache.maven.settings.Mirror;
+import org.apache.maven.settings.Profile;
+import org.apache.maven.settings.Proxy;
+import org.apache.maven.settings.Server;
+import org.eclipse.aether.DefaultRepositoryCache;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryException;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.ArtifactType;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.artifact.DefaultArtifactType;
+import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.connector.basic.BasicRepositoryConnectorFactory;
+import org.eclipse.aether.graph.DefaultDependencyNode;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.graph.DependencyVisitor;
+import org.eclipse.aether.graph.Exclusion;
+import org.eclipse.aether.impl.DefaultServiceLocator;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactDescriptorException;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.resolution.DependencyRequest;
+import org.eclipse.aether.resolution.VersionRangeRequest;
+import org.eclipse.aether.resolution.VersionRangeResolutionException;
+import org.eclipse.aether.resolution.VersionRangeResult;
+import org.eclipse.aether.spi.connector.RepositoryConnectorFactory;
+import org.eclipse.aether.spi.connector.transport.TransporterFactory;
+import org.eclipse.aether.transport.file.FileTransporterFactory;
+import org.eclipse.aether.transport.http.HttpTransporterFactory;
+import org.eclipse.aether.util.artifact.JavaScopes;
+import org.eclipse.aether.util.repository.AuthenticationBuilder;
+import org.eclipse.aether.util.repository.DefaultAuthenticationSelector;
+import org.eclipse.aether.util.repository.DefaultMirrorSelector;
+import org.eclipse.aether.util.repository.DefaultProxySelector;
+import org.jboss.shrinkwrap.resolver.api.maven.PackagingType;
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinate;
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinates;
+import org.jboss.shrinkwrap.resolver.impl.maven.bootstrap.MavenSettingsBuilder;
+
+import dev.jbang.Settings;
+import dev.jbang.cli.ExitException;
+import dev.jbang.util.Util;
+
+/**
+ * Thread-safe dependency resolver that talks to the Maven resolver directly
+ * instead of going through ShrinkWrap. All configuration (local repository,
+ * remote repositories, offline mode) is kept in its own session so no JVM-wide
+ * system properties get touched.
+ *
+ * All resolvers created during a single jbang invocation share the same
+ * repository system and session, so POMs, version metadata and artifact
+ * locations that were looked up once are served from the session's in-memory
+ * cache the next time they're needed, no matter which part of jbang asks for
+ * them (the script, its agents, additional class path entries, resources...).
+ *
+ * Repositories are tried in the order that is most likely to succeed first for
+ * each artifact, see {@link RepositoryRoutes}.
+ *
+ * POMs of the dependency graph get fetched level by level using a bounded
+ * worker pool before the graph is collected, the artifacts themselves are then
+ * downloaded by the basic repository connector using the same number of
+ * threads. Downloads go through the resolver's own HTTP transport, which takes
+ * the proxies and credentials from settings.xml straight from the session.
+ */
+public class ArtifactResolver {
+
+	private static Context shared;
+
+	private final RepositorySystem system;
+	private final DefaultRepositorySystemSession session;
+	private final List<RemoteRepository> repositories;
+	private final ExecutorService executor;
+	private final RepositoryRoutes routes;
+
+	private ArtifactResolver(Context context, List<MavenRepo> repos) {
+		system = context.system;
+		session = context.session;
+		executor = context.executor;
+		routes = context.routes;
+		repositories = newRepositories(system, session, context.settings, repos);
+	}
+
+	public static ArtifactResolver create(List<MavenRepo> repos, boolean offline, int threads) {
+		return new ArtifactResolver(getContext(offline, Math.max(1, threads)), repos);
+	}
+
+	private static synchronized Context getContext(boolean offline, int threads) {
+		File localRepo = Settings.getLocalMavenRepo();
+		RepositoryLayers layers = RepositoryLayers.get();
+		if (shared == null || !shared.matches(localRepo, layers, offline, threads)
+				|| !shared.routes.isFor(RepositoryRoutes.getRoutesFile())) {
+			reset();
+			shared = new Context(localRepo, layers, offline, threads);
+		}
+		return shared;
+	}
+
+	/**
+	 * Throws away the session shared by all resolvers, the next resolver that gets
+	 * created will start out with empty caches.
+	 */
+	public static synchronized void reset() {
+		if (shared != null) {
+			shared.executor.shutdownNow();
+			shared = null;
+		}
+	}
+
+	DefaultRepositorySystemSession getSession() {
+		return session;
+	}
+
+	/**
+	 * Resolves the given coordinates as a single dependency graph.
+	 *
+	 * @param bom          optional POM whose dependency management gets applied to
+	 *                     the graph, can be <code>null</code>
+	 * @param coords       the dependencies to resolve
+	 * @param transitively if <code>false</code> only the given coordinates get
+	 *                     resolved
+	 * @return the resolved artifacts in class path order
+	 */
+	public List<ArtifactInfo> resolve(MavenCoordinate bom, List<MavenCoordinate> coords, boolean transitively) {
+		try {
+			List<Dependency> managed = Collections.emptyList();
+			if (bom != null) {
+				ArtifactDescriptorResult bomResult = readArtifactDescriptor(toArtifact(bom));
+				managed = bomResult.getManagedDependencies();
+			}
+
+			List<Dependency> dependencies = new ArrayList<>();
+			for (MavenCoordinate coord : coords) {
+				dependencies.add(applyManagement(new Dependency(toArtifact(coord), ""), managed, false));
+			}
+
+			List<ArtifactResult> results;
+			if (transitively) {
+				prefetch(dependencies, managed);
+				CollectRequest collectRequest = new CollectRequest(dependencies, managed, repositories);
+				DependencyNode root = system.collectDependencies(session, collectRequest).getRoot();
+				root.accept(new RoutingVisitor());
+				results = system.resolveDependencies(session, new DependencyRequest(root, null))
+								.getArtifactResults();
+			} else {
+				List<ArtifactRequest> requests = new ArrayList<>();
+				for (Dependency dep : dependencies) {
+					Artifact artifact = resolveVersion(dep.getArtifact());
+					requests.add(new ArtifactRequest(artifact, route(artifact), null));
+				}
+				results = system.resolveArtifacts(session, requests);
+			}
+			for (ArtifactResult result : results) {
+				routes.served(result.getArtifact().getGroupId(), result.getRepository());
+			}
+
+			return results	.stream()
+							.map(ArtifactResult::getArtifact)
+							.map(a -> new ArtifactInfo(toCoordinate(a), a.getFile()))
+							.distinct()
+							.collect(Collectors.toList());
+		} catch (RepositoryException | InterruptedException e) {
+			throw new ExitException(1, "Could not resolve dependency", e);
+		} finally {
+			routes.save();
+		}
+	}
+
+	/**
+	 * Walks the dependency graph breadth first reading the descriptors (POMs) of
+	 * each level concurrently. This only warms up the local repository and the
+	 * session's cache, the actual graph is built by the collector afterwards,
+	 * which is why any failures here are ignored. To not download POMs the
+	 * collector won't need the walk applies exclusions and mediates conflicts
+	 * like the collector does: the nearest version of an artifact wins and for
+	 * equally near ones the first declared.
+	 */
+	private void prefetch(List<Dependency> dependencies, List<Dependency> managed) throws InterruptedException {
+		Set<String> seen = new HashSet<>();
+		List<PrefetchNode> level = dependencies	.stream()
+												.map(dep -> new PrefetchNode(dep, Collections.emptyList()))
+												.collect(Collectors.toList());
+		boolean root = true;
+		while (!level.isEmpty()) {
+			List<PrefetchNode> fetched = new ArrayList<>();
+			List<Future<ArtifactDescriptorResult>> futures = new ArrayList<>();
+			for (PrefetchNode node : level) {
+				Artifact artifact = node.dependency.getArtifact();
+				if (!seen.add(getConflictKey(artifact)) || isRange(artifact.getVersion())) {
+					continue;
+				}
+				fetched.add(node);
+				futures.add(executor.submit(() -> readArtifactDescriptor(artifact)));
+			}
+			List<PrefetchNode> next = new ArrayList<>();
+			for (int i = 0; i < futures.size(); i++) {
+				PrefetchNode node = fetched.get(i);
+				List<Exclusion> exclusions = new ArrayList<>(node.exclusions);
+				exclusions.addAll(node.dependency.getExclusions());
+				try {
+					for (Dependency dep : futures.get(i).get().getDependencies()) {
+						if (isFollowed(dep, root) && !isExcluded(dep.getArtifact(), exclusions)) {
+							next.add(new PrefetchNode(applyManagement(dep, managed, true), exclusions));
+						}
+					}
+				} catch (ExecutionException e) {
+					Util.verboseMsg("Could not prefetch dependency descriptor", e.getCause());
+				}
+			}
+			level = next;
+			root = false;
+		}
+	}
+
+	/**
+	 * A dependency found while prefetching together with the exclusions of all the
+	 * dependencies on its path from the root
+	 */
+	private static class PrefetchNode {
+		final Dependency dependency;
+		final List<Exclusion> exclusions;
+
+		PrefetchNode(Dependency dependency, List<Exclusion> exclusions) {
+			this.dependency = dependency;
+			this.exclusions = exclusions;
+		}
+	}
+
+	private ArtifactDescriptorResult readArtifactDescriptor(Artifact artifact)
+			throws ArtifactDescriptorException {
+		ArtifactDescriptorResult result = system.readArtifactDescriptor(session,
+				new ArtifactDescriptorRequest(artifact, route(artifact), null));
+		routes.served(artifact.getGroupId(), result.getRepository());
+		return result;
+	}
+
+	/**
+	 * Returns the repositories in the order they should be tried for the given
+	 * artifact, see {@link RepositoryRoutes}
+	 */
+	private List<RemoteRepository> route(Artifact artifact) {
+		return routes.order(artifact.getGroupId(), repositories);
+	}
+
+	/**
+	 * Puts the repositories of each node of a collected graph in the order they
+	 * should be tried when downloading the node's artifact
+	 */
+	private class RoutingVisitor implements DependencyVisitor {
+		@Override
+		public boolean visitEnter(DependencyNode node) {
+			if (node.getArtifact() != null && node instanceof DefaultDependencyNode) {
+				((DefaultDependencyNode) node).setRepositories(
+						routes.order(node.getArtifact().getGroupId(), node.getRepositories()));
+			}
+			return true;
+		}
+
+		@Override
+		public boolean visitLeave(DependencyNode node) {
+			return true;
+		}
+	}
+
+	/**
+	 * Turns a version range into the highest matching version, the collector does
+	 * this for us when resolving transitively.
+	 */
+	private Artifact resolveVersion(Artifact artifact) throws VersionRangeResolutionException {
+		if (!isRange(artifact.getVersion())) {
+			return artifact;
+		}
+		VersionRangeResult range = system.resolveVersionRange(session,
+				new VersionRangeRequest(artifact, repositories, null));
+		if (range.getHighestVersion() == null) {
+			throw new VersionRangeResolutionException(range);
+		}
+		return artifact.setVersion(range.getHighestVersion().toString());
+	}
+
+	private static boolean isFollowed(Dependency dep, boolean root) {
+		String scope = dep.getScope();
+		if (JavaScopes.TEST.equals(scope) || JavaScopes.PROVIDED.equals(scope)
+				|| JavaScopes.SYSTEM.equals(scope)) {
+			return false;
+		}
+		return root || !dep.isOptional();
+	}
+
+	private static boolean isExcluded(Artifact artifact, List<Exclusion> exclusions) {
+		for (Exclusion exclusion : exclusions) {
+			if (matches(exclusion.getGroupId(), artifact.getGroupId())
+					&& matches(exclusion.getArtifactId(), artifact.getArtifactId())
+					&& matches(exclusion.getClassifier(), artifact.getClassifier())
+					&& matches(exclusion.getExtension(), artifact.getExtension())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean matches(String pattern, String value) {
+		return "*".equals(pattern) || pattern.equals(value);
+	}
+
+	/**
+	 * Returns the key the collector uses to find conflicting versions of the same
+	 * artifact
+	 */
+	private static String getConflictKey(Artifact artifact) {
+		return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getClassifier() + ":"
+				+ artifact.getExtension();
+	}
+
+	private static boolean isRange(String version) {
+		return version.isEmpty() || version.startsWith("[") || version.startsWith("(");
+	}
+
+	/**
+	 * Applies the version from the dependency management to the given dependency.
+	 * Just like Maven does it direct dependencies only get a version when they
+	 * don't declare one themselves.
+	 */
+	private static Dependency applyManagement(Dependency dep, List<Dependency> managed, boolean transitive) {
+		Artifact artifact = dep.getArtifact();
+		for (Dependency m : managed) {
+			Artifact ma = m.getArtifact();
+			if (ma.getGroupId().equals(artifact.getGroupId())
+					&& ma.getArtifactId().equals(artifact.getArtifactId())
+					&& ma.getClassifier().equals(artifact.getClassifier())
+					&& ma.getExtension().equals(artifact.getExtension())) {
+				if (transitive || artifact.getVersion().isEmpty()) {
+					return dep.setArtifact(artifact.setVersion(ma.getVersion()));
+				}
+			}
+		}
+		return dep;
+	}
+
+	private Artifact toArtifact(MavenCoordinate coord) {
+		String typeId = coord.getType().getId();
+		ArtifactType type = session.getArtifactTypeRegistry().get(typeId);
+		if (type == null) {
+			type = new DefaultArtifactType(typeId);
+		}
+		String classifier = coord.getClassifier().isEmpty() ? type.getClassifier() : coord.getClassifier();
+		String version = coord.getVersion() == null ? "" : coord.getVersion();
+		return new DefaultArtifact(coord.getGroupId(), coord.getArtifactId(), classifier, type.getExtension(),
+				version, type);
+	}
+
+	private static MavenCoordinate toCoordinate(Artifact artifact) {
+		String type = artifact.getProperty("type", artifact.getExtension());
+		return MavenCoordinates.createCoordinate(artifact.getGroupId(), artifact.getArtifactId(),
+				artifact.getBaseVersion(), PackagingType.of(type), artifact.getClassifier());
+	}
+
+	private static RepositorySystem newRepositorySystem() {
+		DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
+		locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
+		locator.addService(TransporterFactory.class, FileTransporterFactory.class);
+		locator.addService(TransporterFactory.class, HttpTransporterFactory.class);
+		return locator.getService(RepositorySystem.class);
+	}
+
+	private static DefaultRepositorySystemSession newSession(RepositorySystem system,
+			org.apache.maven.settings.Settings settings, File localRepo, boolean offline, int threads) {
+		DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
+		session.setLocalRepositoryManager(system.newLocalRepositoryManager(session, new LocalRepository(localRepo)));
+		session.setCache(new DefaultRepositoryCache());
+		session.setOffline(offline);
+		// a snapshot of the properties so POMs can refer to things like
+		// ${os.detected.classifier}
+		session.setSystemProperties(System.getProperties());
+		session.setConfigProperty("aether.connector.basic.threads", threads);
+
+		DefaultMirrorSelector mirrors = new DefaultMirrorSelector();
+		for (Mirror mirror : settings.getMirrors()) {
+			mirrors.add(mirror.getId(), mirror.getUrl(), mirror.getLayout(), false, mirror.getMirrorOf(),
+					mirror.getMirrorOfLayouts());
+		}
+		session.setMirrorSelector(mirrors);
+
+		DefaultProxySelector proxies = new DefaultProxySelector();
+		for (Proxy proxy : settings.getProxies()) {
+			if (proxy.isActive()) {
+				AuthenticationBuilder auth = new AuthenticationBuilder()
+																		.addUsername(proxy.getUsername())
+																		.addPassword(proxy.getPassword());
+				proxies.add(new org.eclipse.aether.repository.Proxy(proxy.getProtocol(), proxy.getHost(),
+						proxy.getPort(), auth.build()), proxy.getNonProxyHosts());
+			}
+		}
+		session.setProxySelector(proxies);
+
+		DefaultAuthenticationSelector auths = new DefaultAuthenticationSelector();
+		for (Server server : settings.getServers()) {
+			auths.add(server.getId(), new AuthenticationBuilder()
+																	.addUsername(server.getUsername())
+																	.addPassword(server.getPassword())
+																	.addPrivateKey(server.getPrivateKey(),
+																			server.getPassphrase())
+																	.build());
+		}
+		session.setAuthenticationSelector(auths);
+
+		return session;
+	}
+
+	private static List<RemoteRepository> newRepositories(RepositorySystem system,
+			DefaultRepositorySystemSession session, org.apache.maven.settings.Settings settings,
+			List<MavenRepo> repos) {
+		Map<String, RemoteRepository> result = new HashMap<>();
+		Set<String> order = new LinkedHashSet<>();
+		for (MavenRepo repo : repos) {
+			String id = repo.getId() == null ? repo.getUrl() : repo.getId();
+			result.put(id, new RemoteRepository.Builder(id, "default", repo.getUrl()).build());
+			order.add(id);
+		}
+		for (Profile profile : settings.getProfiles()) {
+			boolean active = settings.getActiveProfiles().contains(profile.getId())
+					|| (profile.getActivation() != null && profile.getActivation().isActiveByDefault());
+			if (active) {
+				for (org.apache.maven.settings.Repository repo : profile.getRepositories()) {
+					result.putIfAbsent(repo.getId(),
+							new RemoteRepository.Builder(repo.getId(), repo.getLayout(), repo.getUrl()).build());
+					order.add(repo.getId());
+				}
+			}
+		}
+		List<RemoteRepository> ordered = order.stream().map(result::get).collect(Collectors.toList());
+		// applies the mirrors, proxies and authentication from the session
+		return system.newResolutionRepositories(session, ordered);
+	}
+
+	/**
+	 * The state that gets shared by all resolvers as long as they use the same
+	 * local repository (and layers), offline mode and number of threads.
+	 */
+	private static class Context {
+		final File localRepo;
+		final RepositoryLayers layers;
+		final boolean offline;
+		final int threads;
+		final RepositorySystem system;
+		final org.apache.maven.settings.Settings settings;
+		final DefaultRepositorySystemSession session;
+		final ExecutorService executor;
+		final RepositoryRoutes routes;
+
+		Context(File localRepo, RepositoryLayers layers, boolean offline, int threads) {
+			this.localRepo = localRepo;
+			this.layers = layers;
+			this.offline = offline;
+			this.threads = threads;
+			system = newRepositorySystem();
+			settings = new MavenSettingsBuilder().buildDefaultSettings();
+			session = newSession(system, settings, localRepo, offline, threads);
+			if (!layers.isEmpty()) {
+				session.setWorkspaceReader(layers);
+			}
+			routes = RepositoryRoutes.load();
+			session.setTransferListener(routes.listener());
+			executor = Executors.newFixedThreadPool(threads, r -> {
+				Thread t = new Thread(r, "jbang-resolver");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+
+		boolean matches(File localRepo, RepositoryLayers layers, boolean offline, int threads) {
+			return this.localRepo.equals(localRepo) && this.layers.equals(layers) && this.offline == offline
+					&& this.threads == threads;
+		}
+	}
+}
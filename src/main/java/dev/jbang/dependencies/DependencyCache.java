@@ -5,14 +5,23 @@ import static dev.jbang.util.Util.warnMsg;
 import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
-import java.io.Writer;
 import java.lang.reflect.Type;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
-import java.util.Collection;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinate;
 import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinates;
@@ -24,75 +33,597 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonSerializer;
 import com.google.gson.reflect.TypeToken;
 
+import dev.jbang.Cache;
 import dev.jbang.Settings;
 import dev.jbang.util.Util;
 
+/**
+ * Keeps track of the resolved class paths for sets of dependencies. Each entry
+ * is stored in its own small file in the "deps" cache folder, named after the
+ * hash of the dependencies, so looking up or adding a single entry never needs
+ * to read or write any of the others. A reverse index, mapping artifact files
+ * back to their coordinates, is only built when it's first needed and kept in
+ * the "paths" sub folder until entries get added or removed. Each addition or
+ * removal bumps a generation counter stored next to it, the index is only valid
+ * for the generation it was built for.
+ *
+ * The cache is bounded, entries that haven't been used for a while get evicted
+ * (see <code>Settings.getDependencyCacheMaxEntries()</code> and
+ * <code>Settings.getDependencyCacheMaxAge()</code>).
+ */
 public class DependencyCache {
-	private static Map<String, List<ArtifactInfo>> depCache = null;
-
-	private static Map<String, List<ArtifactInfo>> getCache() {
-		if (depCache == null) {
-			// Use cached classpath from previous run if present if
-			if (Files.isRegularFile(Settings.getCacheDependencyFile())) {
-				try (Reader out = Files.newBufferedReader(Settings.getCacheDependencyFile())) {
-					JsonDeserializer<ArtifactInfo> serializer = (json, typeOfT, context) -> {
-						JsonObject jsonObject = json.getAsJsonObject();
-						MavenCoordinate gav = MavenCoordinates.createCoordinate(jsonObject.get("gav").getAsString());
-						File file = new File(jsonObject.get("file").getAsString());
-						long ts = jsonObject.has("ts") ? jsonObject.get("ts").getAsLong() : 0;
-						return new ArtifactInfo(gav, file, ts);
-					};
-					Gson parser = new GsonBuilder()
-													.setPrettyPrinting()
-													.registerTypeAdapter(ArtifactInfo.class, serializer)
-													.create();
-
-					Type empMapType = new TypeToken<Map<String, List<ArtifactInfo>>>() {
-					}.getType();
-					depCache = parser.fromJson(out, empMapType);
-				} catch (IOException e) {
-					Util.errorMsg("Issue writing to dependency cache", e);
-					depCache = new HashMap<>();
-				}
+	private static final String ENTRY_EXT = ".json";
+	private static final String LOCK_FILE = ".lock";
+	private static final String PATHS_DIR = "paths";
+	private static final String PATHS_INDEX = "index.json";
+	private static final String PATHS_GENERATION = "generation";
+	private static final String STATS_FILE = ".stats";
+	private static final String RESOLVED_STAMP = ".resolved";
+	private static final String VALIDATED_DIR = "validated";
+	private static final long SCAN_INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+	private static Map<String, List<ArtifactInfo>> depCache = new HashMap<>();
+	private static Map<File, ArtifactInfo> pathCache = null;
+	private static long pathCacheGeneration = -1;
+	private static Set<String> validated = new HashSet<>();
+	private static boolean migrated = false;
+
+	private static class Entry {
+		String deps;
+		List<ArtifactInfo> artifacts;
+
+		Entry(String deps, List<ArtifactInfo> artifacts) {
+			this.deps = deps;
+			this.artifacts = artifacts;
+		}
+	}
+
+	private static class PathIndex {
+		// The generation of the cache when the index was built, null for indexes
+		// written by older versions
+		Long generation;
+		List<ArtifactInfo> artifacts;
+
+		PathIndex(long generation, List<ArtifactInfo> artifacts) {
+			this.generation = generation;
+			this.artifacts = artifacts;
+		}
+	}
+
+	private static class Stats {
+		long evicted;
+		long lastEviction;
+		// An estimate of the number of entries, -1 if unknown
+		long entries = -1;
+		long lastScan;
+	}
+
+	private static Gson getParser() {
+		JsonSerializer<ArtifactInfo> serializer = (src, typeOfSrc, context) -> {
+			JsonObject json = new JsonObject();
+			json.addProperty("gav", src.getCoordinate().toCanonicalForm());
+			json.addProperty("file", src.getFile().getPath());
+			json.addProperty("ts", src.getTimestamp());
+			return json;
+		};
+		JsonDeserializer<ArtifactInfo> deserializer = (json, typeOfT, context) -> {
+			JsonObject jsonObject = json.getAsJsonObject();
+			MavenCoordinate gav = MavenCoordinates.createCoordinate(jsonObject.get("gav").getAsString());
+			File file = new File(jsonObject.get("file").getAsString());
+			long ts = jsonObject.has("ts") ? jsonObject.get("ts").getAsLong() : 0;
+			return new ArtifactInfo(gav, file, ts);
+		};
+		return new GsonBuilder()
+								.setPrettyPrinting()
+								.registerTypeAdapter(ArtifactInfo.class, serializer)
+								.registerTypeAdapter(ArtifactInfo.class, deserializer)
+								.create();
+	}
+
+	static Path getCacheDir() {
+		return Settings.getCacheDir(Cache.CacheClass.deps);
+	}
+
+	static Path getEntryFile(String depsHash) {
+		return getCacheDir().resolve(Util.getStableID(depsHash) + ENTRY_EXT);
+	}
+
+	static Path getPathIndexFile() {
+		return getCacheDir().resolve(PATHS_DIR).resolve(PATHS_INDEX);
+	}
+
+	static Path getGenerationFile() {
+		return getCacheDir().resolve(PATHS_DIR).resolve(PATHS_GENERATION);
+	}
+
+	/**
+	 * Returns the file that gets touched each time a class path is resolved and
+	 * stored in the cache. Whatever was derived from class paths found in the cache
+	 * earlier can't be relied on anymore when it's newer.
+	 */
+	public static Path getResolvedStampFile() {
+		return getCacheDir().resolve(RESOLVED_STAMP);
+	}
+
+	private static List<ArtifactInfo> getEntry(String depsHash) {
+		migrate();
+		if (!depCache.containsKey(depsHash)) {
+			Entry entry = readEntry(getEntryFile(depsHash));
+			// The file name is a hash so make sure it's really our entry
+			if (entry != null && depsHash.equals(entry.deps)) {
+				depCache.put(depsHash, entry.artifacts);
+				touch(getEntryFile(depsHash));
 			} else {
-				depCache = new HashMap<>();
+				depCache.put(depsHash, null);
 			}
 		}
-		return depCache;
+		return depCache.get(depsHash);
 	}
 
-	public static void cache(String depsHash, List<ArtifactInfo> artifacts) {
-		// Add classpath to cache
+	private static ArtifactInfo getPathEntry(File artifactPath) {
+		migrate();
+		if (pathCache == null) {
+			pathCache = readPathIndex();
+		}
+		if (!pathCache.containsKey(artifactPath) && pathCacheGeneration != getGeneration()) {
+			// Another process added or removed entries since, so the artifact might be
+			// in one of those
+			pathCache = buildPathIndex();
+		}
+		return pathCache.get(artifactPath);
+	}
+
+	/**
+	 * Returns the reverse index stored in the "paths" sub folder, or builds a new
+	 * one if it doesn't exist or entries were added or removed since it was built.
+	 * Touching or rewriting an entry doesn't change the generation.
+	 */
+	private static Map<File, ArtifactInfo> readPathIndex() {
+		Path file = getPathIndexFile();
+		if (Files.isRegularFile(file)) {
+			try (Reader in = Files.newBufferedReader(file)) {
+				PathIndex index = getParser().fromJson(in, PathIndex.class);
+				long generation = getGeneration();
+				if (index != null && index.artifacts != null && index.generation != null
+						&& index.generation == generation) {
+					Map<File, ArtifactInfo> result = new HashMap<>();
+					index.artifacts.forEach(art -> result.put(art.getFile(), art));
+					pathCacheGeneration = generation;
+					return result;
+				}
+			} catch (IOException | RuntimeException e) {
+				Util.verboseMsg("Ignoring unreadable dependency cache index " + file, e);
+			}
+		}
+		return buildPathIndex();
+	}
 
-		Map<String, List<ArtifactInfo>> cache = getCache();
-		cache.put(depsHash, artifacts);
-
-		try (Writer out = Files.newBufferedWriter(Settings.getCacheDependencyFile())) {
-			JsonSerializer<ArtifactInfo> serializer = (src, typeOfSrc, context) -> {
-				JsonObject json = new JsonObject();
-				json.addProperty("gav", src.getCoordinate().toCanonicalForm());
-				json.addProperty("file", src.getFile().getPath());
-				json.addProperty("ts", src.getTimestamp());
-				return json;
-			};
-			Gson parser = new GsonBuilder()
-											.setPrettyPrinting()
-											.registerTypeAdapter(ArtifactInfo.class, serializer)
-											.create();
-
-			parser.toJson(cache, out);
+	/**
+	 * Builds the reverse index by reading all entries and stores it for the next
+	 * time it's needed.
+	 */
+	private static Map<File, ArtifactInfo> buildPathIndex() {
+		Map<File, ArtifactInfo> result = new HashMap<>();
+		Path file = getPathIndexFile();
+		// Taken before reading the entries, so when entries get added or removed in
+		// the meantime the index gets rebuilt the next time
+		long generation = getGeneration();
+		pathCacheGeneration = generation;
+		for (Path entryFile : listEntryFiles()) {
+			Entry entry = readEntry(entryFile);
+			if (entry != null) {
+				entry.artifacts.forEach(art -> result.putIfAbsent(art.getFile(), art));
+			}
+		}
+		try {
+			Files.createDirectories(file.getParent());
+			Util.writeStringAtomically(file,
+					getParser().toJson(new PathIndex(generation, new ArrayList<>(result.values()))));
+		} catch (IOException e) {
+			Util.verboseMsg("Could not write dependency cache index", e);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of times entries were added to or removed from the cache,
+	 * as far as it's been counted
+	 */
+	private static long getGeneration() {
+		Path file = getGenerationFile();
+		if (Files.isRegularFile(file)) {
+			try {
+				return Long.parseLong(Util.readString(file).trim());
+			} catch (IOException | NumberFormatException e) {
+				Util.verboseMsg("Ignoring unreadable dependency cache generation " + file, e);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Increments the generation, must only be called while holding the lock, after
+	 * adding or removing entries
+	 */
+	private static void bumpGeneration() {
+		long generation = getGeneration();
+		try {
+			Files.createDirectories(getGenerationFile().getParent());
+			Util.writeStringAtomically(getGenerationFile(), Long.toString(generation + 1));
+		} catch (IOException e) {
+			// An index could be used that misses entries, so rather have none at all
+			Util.verboseMsg("Could not write dependency cache generation", e);
+			try {
+				Files.deleteIfExists(getPathIndexFile());
+			} catch (IOException ex) {
+				Util.errorMsg("Could not remove dependency cache index " + getPathIndexFile(), ex);
+			}
+		}
+		if (pathCache != null && pathCacheGeneration == generation) {
+			// We made the change, so our own index is still up-to-date
+			pathCacheGeneration = generation + 1;
+		}
+	}
+
+	private static Entry readEntry(Path file) {
+		if (Files.isRegularFile(file)) {
+			try (Reader in = Files.newBufferedReader(file)) {
+				return getParser().fromJson(in, Entry.class);
+			} catch (IOException | RuntimeException e) {
+				Util.verboseMsg("Ignoring unreadable dependency cache entry " + file, e);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Writes the given entry, returns true if it's a new one.
+	 */
+	private static boolean writeEntry(String depsHash, List<ArtifactInfo> artifacts) {
+		// Entries are written atomically so concurrent jbang processes never see
+		// partially written files, if several of them write the same entry the
+		// last one wins, which is fine because they're all equally valid
+		Path entryFile = getEntryFile(depsHash);
+		boolean added = !Files.exists(entryFile);
+		try {
+			Util.writeStringAtomically(entryFile, getParser().toJson(new Entry(depsHash, artifacts)));
 		} catch (IOException e) {
 			Util.errorMsg("Issue writing to dependency cache", e);
+			return false;
+		}
+		return added;
+	}
+
+	private static Path getValidationStampFile(String key) {
+		return getCacheDir().resolve(VALIDATED_DIR).resolve(Util.getStableID(key));
+	}
+
+	/**
+	 * Determines if the class path identified by the given key was found to be
+	 * valid recently enough to still trust it, either in this process or by the
+	 * time stamp left behind by earlier runs.
+	 */
+	static synchronized boolean isRecentlyValidated(String key) {
+		if (validated.contains(key)) {
+			return true;
+		}
+		long window = TimeUnit.SECONDS.toMillis(Settings.getDependencyValidationWindow());
+		if (window > 0) {
+			try {
+				long stamp = Files.getLastModifiedTime(getValidationStampFile(key)).toMillis();
+				if (System.currentTimeMillis() - stamp < window) {
+					validated.add(key);
+					return true;
+				}
+			} catch (IOException e) {
+				// No stamp, so never validated
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remembers that the class path identified by the given key was just found to
+	 * be valid.
+	 */
+	static synchronized void markValidated(String key) {
+		validated.add(key);
+		if (Settings.getDependencyValidationWindow() > 0) {
+			Path file = getValidationStampFile(key);
+			try {
+				writeStamp(file);
+			} catch (IOException e) {
+				Util.verboseMsg("Could not write validation stamp " + file, e);
+			}
+		}
+	}
+
+	private static void writeStamp(Path file) throws IOException {
+		if (Files.exists(file)) {
+			touch(file);
+		} else {
+			Files.createDirectories(file.getParent());
+			Files.createFile(file);
+		}
+	}
+
+	/**
+	 * The last modified time of an entry is used as its last access time, which is
+	 * what eviction uses to determine which entries were least recently used.
+	 */
+	private static void touch(Path file) {
+		try {
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// Not important enough to fail for, it might have just been evicted
+			Util.verboseMsg("Could not update access time of " + file, e);
+		}
+	}
+
+	/**
+	 * Runs <code>evict()</code> when it might actually have something to do: when
+	 * the number of entries, as counted in the statistics file, exceeds the maximum
+	 * or when the last time it ran was more than a day ago. This way adding an
+	 * entry doesn't need to look at all the other ones.
+	 *
+	 * @param added Whether a new entry was just added
+	 */
+	private static void evictIfNeeded(boolean added) {
+		int maxEntries = Settings.getDependencyCacheMaxEntries();
+		Stats stats = readStats();
+		if (added && stats.entries >= 0) {
+			stats.entries++;
+		}
+		boolean overLimit = maxEntries > 0 && (stats.entries < 0 || stats.entries > maxEntries);
+		if (overLimit || System.currentTimeMillis() - stats.lastScan > SCAN_INTERVAL) {
+			evict(maxEntries, Settings.getDependencyCacheMaxAge());
+		} else if (added) {
+			// Concurrent processes might miss each other's updates, which is fine
+			// because the count gets corrected by the next scan
+			writeStats(stats);
+		}
+	}
+
+	/**
+	 * Removes the entries that haven't been used for longer than the maximum age
+	 * and, if there are more entries than the maximum allowed, the least recently
+	 * used ones. To avoid having to do this for every single new entry that gets
+	 * added, in the latter case the cache is trimmed to 90% of its maximum size.
+	 *
+	 * @param maxEntries The maximum number of entries, 0 for no maximum
+	 * @param maxAgeDays The maximum age in days, 0 for no maximum
+	 * @return The number of evicted entries
+	 */
+	static synchronized int evict(int maxEntries, int maxAgeDays) {
+		removeExpiredValidationStamps();
+		if (maxEntries <= 0 && maxAgeDays <= 0) {
+			updateStats(0, -1);
+			return 0;
+		}
+		AtomicInteger count = new AtomicInteger();
+		try {
+			withLock(() -> {
+				Map<Path, Long> times = new HashMap<>();
+				for (Path file : listEntryFiles()) {
+					try {
+						times.put(file, Files.getLastModifiedTime(file).toMillis());
+					} catch (IOException e) {
+						// Probably removed in the meantime
+					}
+				}
+				List<Path> files = new ArrayList<>(times.keySet());
+				files.sort(Comparator.comparing(times::get));
+
+				long cutoff = maxAgeDays > 0 ? System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAgeDays)
+						: Long.MIN_VALUE;
+				int target = maxEntries > 0 && files.size() > maxEntries ? maxEntries - maxEntries / 10
+						: Integer.MAX_VALUE;
+				int remaining = files.size();
+				for (Path file : files) {
+					if (times.get(file) >= cutoff && remaining <= target) {
+						break;
+					}
+					Entry entry = readEntry(file);
+					if (entry != null) {
+						depCache.remove(entry.deps);
+						if (entry.artifacts != null) {
+							ModuleDescriptorCache.removeArguments(ModularClassPath.getKey(entry.artifacts));
+						}
+					}
+					try {
+						Files.deleteIfExists(file);
+						remaining--;
+						count.incrementAndGet();
+					} catch (IOException e) {
+						Util.verboseMsg("Could not evict dependency cache entry " + file, e);
+					}
+				}
+
+				if (count.get() > 0) {
+					// The reverse index gets rebuilt when it's needed again
+					bumpGeneration();
+					pathCache = null;
+					Util.verboseMsg("Evicted " + count.get() + " entries from the dependency cache");
+				}
+				updateStats(count.get(), remaining);
+			});
+		} catch (IOException e) {
+			Util.errorMsg("Could not lock dependency cache", e);
+		}
+		return count.get();
+	}
+
+	private static void removeExpiredValidationStamps() {
+		Path dir = getCacheDir().resolve(VALIDATED_DIR);
+		if (Files.isDirectory(dir)) {
+			long cutoff = System.currentTimeMillis()
+					- TimeUnit.SECONDS.toMillis(Settings.getDependencyValidationWindow());
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+				for (Path file : files) {
+					if (Files.getLastModifiedTime(file).toMillis() < cutoff) {
+						Files.deleteIfExists(file);
+					}
+				}
+			} catch (IOException e) {
+				Util.verboseMsg("Could not remove expired validation stamps", e);
+			}
+		}
+	}
+
+	private static List<Path> listEntryFiles() {
+		List<Path> result = new ArrayList<>();
+		Path dir = getCacheDir();
+		if (Files.isDirectory(dir)) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + ENTRY_EXT)) {
+				files.forEach(result::add);
+			} catch (IOException e) {
+				Util.errorMsg("Issue reading from dependency cache", e);
+			}
+		}
+		return result;
+	}
+
+	private static Stats readStats() {
+		Path file = getCacheDir().resolve(STATS_FILE);
+		if (Files.isRegularFile(file)) {
+			try (Reader in = Files.newBufferedReader(file)) {
+				Stats stats = new Gson().fromJson(in, Stats.class);
+				if (stats != null) {
+					return stats;
+				}
+			} catch (IOException | RuntimeException e) {
+				Util.verboseMsg("Ignoring unreadable dependency cache statistics " + file, e);
+			}
+		}
+		return new Stats();
+	}
+
+	private static void updateStats(int evicted, long entries) {
+		Stats stats = readStats();
+		stats.evicted += evicted;
+		if (evicted > 0) {
+			stats.lastEviction = System.currentTimeMillis();
+		}
+		stats.entries = entries;
+		stats.lastScan = System.currentTimeMillis();
+		writeStats(stats);
+	}
+
+	private static void writeStats(Stats stats) {
+		try {
+			Util.writeStringAtomically(getCacheDir().resolve(STATS_FILE), new Gson().toJson(stats));
+		} catch (IOException e) {
+			Util.verboseMsg("Could not write dependency cache statistics", e);
+		}
+	}
+
+	/**
+	 * Returns the number of entries currently in the cache
+	 */
+	public static synchronized int getEntryCount() {
+		return listEntryFiles().size();
+	}
+
+	/**
+	 * Returns the total number of entries that have been evicted from the cache
+	 */
+	public static synchronized long getEvictedCount() {
+		return readStats().evicted;
+	}
+
+	/**
+	 * Returns the time of the last eviction in milliseconds since the epoch, or 0
+	 * if nothing was ever evicted
+	 */
+	public static synchronized long getLastEviction() {
+		return readStats().lastEviction;
+	}
+
+	/**
+	 * Runs the given code while holding an exclusive lock on the cache folder, for
+	 * operations that touch more than a single entry.
+	 */
+	@SuppressWarnings("try") // the lock only needs to be held, it's never used
+	static synchronized void withLock(Runnable code) throws IOException {
+		Path lockFile = getCacheDir().resolve(LOCK_FILE);
+		Files.createDirectories(lockFile.getParent());
+		try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				FileLock ignored = channel.lock()) {
+			code.run();
+		}
+	}
+
+	/**
+	 * Converts the old single-file JSON cache (if it exists) to separate entries
+	 * and removes it afterwards.
+	 */
+	private static void migrate() {
+		if (migrated) {
+			return;
+		}
+		migrated = true;
+		Path legacyFile = Settings.getCacheDependencyFile();
+		if (Files.isRegularFile(legacyFile)) {
+			try {
+				withLock(() -> {
+					// Another process might have beaten us to it
+					if (!Files.isRegularFile(legacyFile)) {
+						return;
+					}
+					Util.verboseMsg("Migrating dependency cache " + legacyFile);
+					try (Reader in = Files.newBufferedReader(legacyFile)) {
+						Type empMapType = new TypeToken<Map<String, List<ArtifactInfo>>>() {
+						}.getType();
+						Map<String, List<ArtifactInfo>> legacy = getParser().fromJson(in, empMapType);
+						if (legacy != null) {
+							legacy.forEach(DependencyCache::writeEntry);
+							bumpGeneration();
+						}
+					} catch (IOException | RuntimeException e) {
+						Util.verboseMsg("Ignoring unreadable dependency cache " + legacyFile, e);
+					}
+					try {
+						Files.deleteIfExists(legacyFile);
+					} catch (IOException e) {
+						Util.errorMsg("Could not delete old dependency cache " + legacyFile, e);
+					}
+				});
+			} catch (IOException e) {
+				Util.errorMsg("Could not lock dependency cache", e);
+			}
+		}
+	}
+
+	public static synchronized void cache(String depsHash, List<ArtifactInfo> artifacts) {
+		// Add classpath to cache
+		migrate();
+		depCache.put(depsHash, artifacts);
+		if (pathCache != null) {
+			artifacts.forEach(art -> pathCache.putIfAbsent(art.getFile(), art));
+		}
+		// A single atomic write, only counting it needs the lock
+		boolean added = writeEntry(depsHash, artifacts);
+		if (added) {
+			try {
+				withLock(DependencyCache::bumpGeneration);
+			} catch (IOException e) {
+				Util.errorMsg("Could not lock dependency cache", e);
+			}
+		}
+		evictIfNeeded(added);
+		try {
+			writeStamp(getResolvedStampFile());
+		} catch (IOException e) {
+			Util.verboseMsg("Could not write " + getResolvedStampFile(), e);
 		}
 	}
 
-	public static List<ArtifactInfo> findDependenciesByHash(String depsHash) {
-		Map<String, List<ArtifactInfo>> cache = getCache();
-		if (cache.containsKey(depsHash)) {
+	public static synchronized List<ArtifactInfo> findDependenciesByHash(String depsHash) {
+		List<ArtifactInfo> cachedCP = getEntry(depsHash);
+		if (cachedCP != null) {
 			// Make sure that local dependencies have not been wiped since resolving them
 			// (like by deleting .m2) and are up-to-date
-			List<ArtifactInfo> cachedCP = cache.get(depsHash);
-			boolean allValid = cachedCP.stream().allMatch(ArtifactInfo::isUpToDate);
+			boolean allValid = new ModularClassPath(cachedCP).isValid();
 			if (allValid) {
 				return cachedCP;
 			} else {
@@ -102,18 +633,16 @@ public class DependencyCache {
 		return null;
 	}
 
-	public static ArtifactInfo findArtifactByPath(File artifactPath) {
-		Map<String, List<ArtifactInfo>> cache = getCache();
-		Optional<ArtifactInfo> result = cache	.values()
-												.stream()
-												.flatMap(Collection::stream)
-												.filter(art -> art.getFile().equals(artifactPath))
-												.findFirst();
-		return result.orElse(null);
+	public static synchronized ArtifactInfo findArtifactByPath(File artifactPath) {
+		return getPathEntry(artifactPath);
 	}
 
-	public static void clear() {
-		depCache = null;
+	public static synchronized void clear() {
+		depCache = new HashMap<>();
+		pathCache = null;
+		pathCacheGeneration = -1;
+		validated = new HashSet<>();
+		migrated = false;
 	}
 
 }
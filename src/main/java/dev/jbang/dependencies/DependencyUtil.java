@@ -29,6 +29,7 @@ import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinates;
 
 import dev.jbang.Settings;
 import dev.jbang.cli.ExitException;
+import dev.jbang.util.Util;
 
 public class DependencyUtil {
 
@@ -54,6 +55,20 @@ public class DependencyUtil {
 	public static final Pattern gavPattern = Pattern.compile(
 			"^(?<groupid>[^:]*):(?<artifactid>[^:]*)(:(?<version>[^:@]*))?(:(?<classifier>[^@]*))?(@(?<type>.*))?$");
 
+	/**
+	 * Returns the key under which the class path for the given dependencies gets
+	 * stored in the dependency cache
+	 */
+	public static String getCacheKey(List<String> deps, boolean transitivity) {
+		String depsHash = deps	.stream()
+								.map(JitPackUtil::ensureGAV)
+								.collect(Collectors.joining(CP_SEPARATOR));
+		if (!transitivity) { // the cached key need to be different for non-transivity
+			depsHash = "notransitivity-" + depsHash;
+		}
+		return depsHash;
+	}
+
 	public ModularClassPath resolveDependencies(List<String> deps, List<MavenRepo> repos,
 			boolean offline, boolean updateCache, boolean loggingEnabled) {
 		return resolveDependencies(deps, repos, offline, updateCache, loggingEnabled, true);
@@ -89,10 +104,7 @@ public class DependencyUtil {
 			repos.add(toMavenRepo(ALIAS_JITPACK));
 		}
 
-		String depsHash = String.join(CP_SEPARATOR, depIds);
-		if (!transitivity) { // the cached key need to be different for non-transivity
-			depsHash = "notransitivity-" + depsHash;
-		}
+		String depsHash = getCacheKey(depIds, transitivity);
 
 		List<ArtifactInfo> cachedDeps = null;
 		if (!updateCache) {
@@ -107,8 +119,8 @@ public class DependencyUtil {
 		}
 
 		try {
-			List<ArtifactInfo> artifacts = resolveDependenciesViaAether(depIds, repos, offline, loggingEnabled,
-					transitivity);
+			List<ArtifactInfo> artifacts = resolveDependenciesViaAether(depIds, repos, offline, updateCache,
+					loggingEnabled, transitivity);
 
 			ModularClassPath classPath = new ModularClassPath(artifacts);
 
@@ -130,11 +142,101 @@ public class DependencyUtil {
 		}
 	}
 
+	/**
+	 * Builds the class path straight from a lock file. Only the locked artifacts
+	 * that are missing from the local Maven repository get downloaded, without
+	 * resolving any of their dependencies. The checksums of all artifacts are then
+	 * verified against the ones in the lock file, not just those of the downloaded
+	 * ones, because an artifact in the local repository might have been replaced
+	 * since the lock file was created.
+	 */
+	public ModularClassPath resolveDependencies(LockFile lock, List<MavenRepo> repos, boolean offline,
+			boolean loggingEnabled) {
+		List<LockFile.LockedArtifact> missing = lock.getArtifacts()
+													.stream()
+													.filter(a -> !a.getFile().exists())
+													.collect(Collectors.toList());
+		if (!missing.isEmpty()) {
+			if (loggingEnabled) {
+				infoMsg("Fetching " + missing.size() + " locked artifact(s)...");
+			}
+			List<MavenRepo> allRepos = new ArrayList<>(repos);
+			for (String url : lock.getRepositoryUrls()) {
+				if (allRepos.stream().noneMatch(r -> url.equals(r.getUrl()))) {
+					allRepos.add(new MavenRepo(null, url));
+				}
+			}
+			if (allRepos.isEmpty()) {
+				allRepos.add(toMavenRepo("mavencentral"));
+			}
+			List<String> depIds = missing	.stream()
+											.map(a -> toDepId(a.getCoordinate()))
+											.collect(Collectors.toList());
+			resolveDependenciesViaAether(depIds, allRepos, offline, loggingEnabled, false);
+			for (LockFile.LockedArtifact a : missing) {
+				if (!a.getFile().exists()) {
+					throw new ExitException(1, "Could not resolve locked dependency " + a.getCoordinate());
+				}
+			}
+		}
+		for (LockFile.LockedArtifact a : lock.getArtifacts()) {
+			if (a.getSha256() != null && !a.getSha256().equals(LockFile.sha256(a.getFile()))) {
+				throw new ExitException(1, "Checksum of " + a.getFile() + " doesn't match the one for "
+						+ a.getCoordinate() + " in the lock file");
+			}
+		}
+		return new ModularClassPath(lock.getArtifacts()
+										.stream()
+										.map(a -> new ArtifactInfo(a.getCoordinate(), a.getFile()))
+										.collect(Collectors.toList()));
+	}
+
 	public List<ArtifactInfo> resolveDependenciesViaAether(List<String> depIds, List<MavenRepo> customRepos,
 			boolean offline, boolean loggingEnabled, boolean transitively) {
+		return resolveDependenciesViaAether(depIds, customRepos, offline, false, loggingEnabled, transitively);
+	}
+
+	/**
+	 * Resolves the dependencies, from the local Maven repository alone when
+	 * possible. When <code>updateCache</code> is set (<code>--fresh</code>) the
+	 * full resolver is always used.
+	 */
+	List<ArtifactInfo> resolveDependenciesViaAether(List<String> depIds, List<MavenRepo> customRepos,
+			boolean offline, boolean updateCache, boolean loggingEnabled, boolean transitively) {
+
+		if (Settings.isLocalResolverEnabled() && !updateCache) {
+			List<ArtifactInfo> artifacts = resolveDependenciesLocally(depIds, customRepos, transitively);
+			if (artifacts != null) {
+				return artifacts;
+			}
+		}
+
+		// ShrinkWrap can't be told about read-only repository layers, those always
+		// need the shared resolver
+		if (!Settings.isShrinkWrapResolverEnabled() || !RepositoryLayers.get().isEmpty()) {
+			return resolveDependenciesConcurrently(depIds, customRepos, offline, loggingEnabled, transitively,
+					Settings.getResolverThreads());
+		}
+		return resolveDependenciesViaShrinkWrap(depIds, customRepos, offline, loggingEnabled, transitively);
+	}
+
+	/**
+	 * Resolves the dependencies with a ShrinkWrap resolver system of their own,
+	 * which is only used when <code>JBANG_SHRINKWRAP_RESOLVER</code> is set. Unlike
+	 * {@link #resolveDependenciesConcurrently} nothing is shared with other
+	 * resolutions and the local repository is passed on through a system property.
+	 */
+	public List<ArtifactInfo> resolveDependenciesViaShrinkWrap(List<String> depIds, List<MavenRepo> customRepos,
+			boolean offline, boolean loggingEnabled, boolean transitively) {
+		depIds = new ArrayList<>(depIds);
 
+		// Artifacts must come from the repositories, never from jbang's own class path.
+		// Otherwise any artifact jbang itself depends on (commons-text, picocli...)
+		// resolves to whatever jar jbang was started with, which isn't what the
+		// repositories (or the concurrent resolver) would return for it.
 		ConfigurableMavenResolverSystem resolver = Maven.configureResolver()
 														.withMavenCentralRepo(false)
+														.withClassPathResolution(false)
 														.workOffline(offline);
 
 		customRepos.stream().forEach(mavenRepo -> {
@@ -160,49 +262,138 @@ public class DependencyUtil {
 			}
 		}
 
-		final PomEquippedResolveStage ps = pomResolve;
+		List<String> coords = depIds.stream()
+									.map(it -> {
+										MavenCoordinate artifact = depIdToArtifact(it);
+										if (PackagingType.POM.equals(artifact.getType())) {
+											// proactively avoiding that we break users in future
+											// when we support more than one BOM POM
+											throw new ExitException(1, "POM imports as found in " + it
+													+ " is only supported as the first import.");
+										}
+										return artifact.toCanonicalForm();
+									})
+									.collect(Collectors.toList());
 
-		return depIds.stream().flatMap(it -> {
+		if (coords.isEmpty()) {
+			return Collections.emptyList();
+		}
 
-			MavenCoordinate artifact = depIdToArtifact(it);
+		if (loggingEnabled) {
+			infoHeader();
+			infoMsgFmt("    Resolving %s...", String.join(", ", depIds));
+		}
 
-			if (PackagingType.POM.equals(artifact.getType())) {
-				// proactively avoiding that we break users in future
-				// when we support more than one BOM POM
-				throw new ExitException(1, "POM imports as found in " + it + " is only supported as the first import.");
+		List<MavenResolvedArtifact> artifacts;
+		try {
+			// All dependencies get resolved as a single graph so shared transitive
+			// dependencies are only resolved once and version conflicts get mediated
+			// the same way Maven does it (nearest wins)
+			MavenStrategyStage resolve;
+			if (pomResolve != null) {
+				resolve = pomResolve.resolve(coords);
+			} else {
+				resolve = resolver.resolve(coords);
 			}
 
-			if (loggingEnabled) {
-				infoHeader();
-				infoMsgFmt("    Resolving %s...", it);
+			MavenFormatStage stage;
+			if (transitively) {
+				stage = resolve.withTransitivity();
+			} else {
+				stage = resolve.withoutTransitivity();
 			}
+			artifacts = stage.asList(MavenResolvedArtifact.class); // , RUNTIME);
 
-			List<MavenResolvedArtifact> artifacts;
-			try {
-				MavenStrategyStage resolve;
-				MavenFormatStage stage = null;
-				if (ps != null) {
-					resolve = ps.resolve(artifact.toCanonicalForm());
-				} else {
-					resolve = resolver.resolve(artifact.toCanonicalForm());
-				}
+		} catch (RuntimeException e) {
+			throw new ExitException(1, "Could not resolve dependency", e);
+		}
+
+		if (loggingEnabled)
+			infoMsgFmt("Done\n");
+
+		return artifacts.stream()
+						.map(xx -> new ArtifactInfo(xx.getCoordinate(), xx.asFile()))
+						.distinct()
+						.collect(Collectors.toList());
+	}
 
-				if (transitively) {
-					stage = resolve.withTransitivity();
-				} else {
-					stage = resolve.withoutTransitivity();
+	/**
+	 * Resolves the dependencies using only the artifacts and POMs that are already
+	 * in the local Maven repository, see {@link LocalRepoResolver}. Returns
+	 * <code>null</code> if that's not possible and the full resolver is needed.
+	 */
+	public List<ArtifactInfo> resolveDependenciesLocally(List<String> depIds, List<MavenRepo> customRepos,
+			boolean transitively) {
+		MavenCoordinate bom = null;
+		List<MavenCoordinate> coords = new ArrayList<>();
+		for (String depId : depIds) {
+			MavenCoordinate artifact = depIdToArtifact(depId);
+			if (PackagingType.POM.equals(artifact.getType())) {
+				if (bom != null || !coords.isEmpty()) {
+					// let the full resolver report the problem
+					return null;
 				}
-				artifacts = stage.asList(MavenResolvedArtifact.class); // , RUNTIME);
+				bom = artifact;
+			} else {
+				coords.add(artifact);
+			}
+		}
+		if (coords.isEmpty()) {
+			return null;
+		}
+		List<ArtifactInfo> artifacts = new LocalRepoResolver(Settings.getLocalMavenRepo(), RepositoryLayers.get(),
+				customRepos).resolve(bom,
+						coords, transitively);
+		if (artifacts != null) {
+			Util.verboseMsg("Resolved " + String.join(", ", depIds) + " using the local repository");
+		}
+		return artifacts;
+	}
 
-			} catch (RuntimeException e) {
-				throw new ExitException(1, "Could not resolve dependency", e);
+	/**
+	 * Resolves the dependencies using the thread-safe {@link ArtifactResolver}
+	 * which downloads POMs and artifacts using the given number of threads (1
+	 * resolves them one at a time) and doesn't depend on any system properties.
+	 * This is what jbang uses by default. Everything that was looked up before
+	 * during this jbang invocation is served from memory.
+	 */
+	public List<ArtifactInfo> resolveDependenciesConcurrently(List<String> depIds, List<MavenRepo> customRepos,
+			boolean offline, boolean loggingEnabled, boolean transitively, int threads) {
+		MavenCoordinate bom = null;
+		List<MavenCoordinate> coords = new ArrayList<>();
+		for (String depId : depIds) {
+			MavenCoordinate artifact = depIdToArtifact(depId);
+			if (PackagingType.POM.equals(artifact.getType())) {
+				if (bom != null || !coords.isEmpty()) {
+					throw new ExitException(1, "POM imports as found in " + depId
+							+ " is only supported as the first import.");
+				}
+				if (loggingEnabled) {
+					infoMsg("Loading " + artifact);
+				}
+				bom = artifact;
+			} else {
+				coords.add(artifact);
 			}
+		}
 
-			if (loggingEnabled)
-				infoMsgFmt("Done\n");
+		if (coords.isEmpty()) {
+			return Collections.emptyList();
+		}
 
-			return artifacts.stream().map(xx -> new ArtifactInfo(xx.getCoordinate(), xx.asFile()));
-		}).collect(Collectors.toList());
+		if (loggingEnabled) {
+			infoHeader();
+			List<String> ids = bom == null ? depIds : depIds.subList(1, depIds.size());
+			infoMsgFmt("    Resolving %s...", String.join(", ", ids));
+		}
+
+		List<ArtifactInfo> artifacts = ArtifactResolver	.create(customRepos, offline, threads)
+														.resolve(bom, coords, transitively);
+
+		if (loggingEnabled)
+			infoMsgFmt("Done\n");
+
+		return artifacts;
 	}
 
 	public String decodeEnv(String value) {
@@ -252,6 +443,22 @@ public class DependencyUtil {
 		return MavenCoordinates.createCoordinate(groupId, artifactId, version, PackagingType.of(type), classifier);
 	}
 
+	/**
+	 * The inverse of <code>depIdToArtifact()</code>, turns the coordinate into
+	 * groupId:artifactId:version[:classifier][@type]
+	 */
+	public static String toDepId(MavenCoordinate mc) {
+		StringBuilder depId = new StringBuilder();
+		depId.append(mc.getGroupId()).append(':').append(mc.getArtifactId()).append(':').append(mc.getVersion());
+		if (mc.getClassifier() != null && !mc.getClassifier().isEmpty()) {
+			depId.append(':').append(mc.getClassifier());
+		}
+		if (!PackagingType.JAR.equals(mc.getType())) {
+			depId.append('@').append(mc.getType().getId());
+		}
+		return depId.toString();
+	}
+
 	public String formatVersion(String version) {
 		// replace + with open version range for maven
 		if (version != null && version.endsWith("+")) {
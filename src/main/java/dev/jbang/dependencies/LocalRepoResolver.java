@@ -0,0 +1,471 @@
+package dev.jbang.dependencies;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.Repository;
+import org.apache.maven.model.building.DefaultModelBuilderFactory;
+import org.apache.maven.model.building.DefaultModelBuildingRequest;
+import org.apache.maven.model.building.FileModelSource;
+import org.apache.maven.model.building.ModelBuilder;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.apache.maven.model.building.ModelBuildingRequest;
+import org.apache.maven.model.building.ModelCache;
+import org.apache.maven.model.building.ModelSource2;
+import org.apache.maven.model.resolution.ModelResolver;
+import org.apache.maven.model.resolution.UnresolvableModelException;
+import org.apache.maven.settings.Mirror;
+import org.apache.maven.settings.Profile;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.util.repository.DefaultMirrorSelector;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.InvalidVersionSpecificationException;
+import org.jboss.shrinkwrap.resolver.api.maven.PackagingType;
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinate;
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinates;
+import org.jboss.shrinkwrap.resolver.impl.maven.bootstrap.MavenSettingsBuilder;
+
+import dev.jbang.util.Util;
+
+/**
+ * Resolves dependencies using nothing but what is already available in the
+ * local Maven repository, without starting the Maven resolver. POMs are read
+ * straight from the repository layout and turned into effective models using
+ * Maven's model builder, after which the transitive closure is computed the
+ * same way the Maven resolver does it: "test" and "provided" scoped and
+ * optional dependencies are not followed, exclusions are honored, the
+ * dependency management of an imported BOM gets applied to the transitive
+ * dependencies and version conflicts are mediated by picking the nearest
+ * version.
+ *
+ * Whenever something can't be decided locally, like a missing artifact, a
+ * version range or SNAPSHOT that would need remote metadata or a relocated
+ * artifact, <code>resolve()</code> returns <code>null</code> and the full
+ * resolver should be used instead. The same goes for a BOM that manages the
+ * scope or optional flag of a dependency in the graph, what ends up on the
+ * class path then depends on details of the full resolver that aren't worth
+ * copying here.
+ */
+class LocalRepoResolver {
+	private static final String REMOTE_REPOSITORIES = "_remote.repositories";
+	private static final String CENTRAL_ID = "central";
+	private static final String CENTRAL_URL = "https://repo.maven.apache.org/maven2";
+
+	// type -> { extension, classifier } as registered by the Maven resolver
+	private static final Map<String, String[]> types = new HashMap<>();
+
+	static {
+		types.put("jar", new String[] { "jar", "" });
+		types.put("maven-plugin", new String[] { "jar", "" });
+		types.put("ejb", new String[] { "jar", "" });
+		types.put("ejb-client", new String[] { "jar", "client" });
+		types.put("test-jar", new String[] { "jar", "tests" });
+		types.put("javadoc", new String[] { "jar", "javadoc" });
+		types.put("java-source", new String[] { "jar", "sources" });
+	}
+
+	private final File localRepo;
+	private final RepositoryLayers layers;
+	private final DefaultMirrorSelector mirrors = new DefaultMirrorSelector();
+	private final Set<String> repoIds = new HashSet<>();
+	private final Properties systemProperties = new Properties();
+	private final ModelBuilder modelBuilder = new DefaultModelBuilderFactory().newInstance();
+	private final ModelCache modelCache = new LocalModelCache();
+	private final Map<String, Model> models = new HashMap<>();
+	private final Map<File, Properties> remotes = new HashMap<>();
+	private final GenericVersionScheme versionScheme = new GenericVersionScheme();
+
+	LocalRepoResolver(File localRepo, RepositoryLayers layers, List<MavenRepo> repos) {
+		this.localRepo = localRepo;
+		this.layers = layers;
+		systemProperties.putAll(System.getProperties());
+
+		org.apache.maven.settings.Settings settings = new MavenSettingsBuilder().buildDefaultSettings();
+		for (Mirror mirror : settings.getMirrors()) {
+			mirrors.add(mirror.getId(), mirror.getUrl(), mirror.getLayout(), false, mirror.getMirrorOf(),
+					mirror.getMirrorOfLayouts());
+		}
+		for (MavenRepo repo : repos) {
+			repoIds.add(getRepositoryId(repo.getId() == null ? repo.getUrl() : repo.getId(), repo.getUrl()));
+		}
+		for (Profile profile : settings.getProfiles()) {
+			boolean active = settings.getActiveProfiles().contains(profile.getId())
+					|| (profile.getActivation() != null && profile.getActivation().isActiveByDefault());
+			if (active) {
+				for (org.apache.maven.settings.Repository repo : profile.getRepositories()) {
+					repoIds.add(getRepositoryId(repo.getId(), repo.getUrl()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Resolves the given coordinates as a single dependency graph.
+	 *
+	 * @param bom          optional POM whose dependency management gets applied to
+	 *                     the graph, can be <code>null</code>
+	 * @param coords       the dependencies to resolve
+	 * @param transitively if <code>false</code> only the given coordinates get
+	 *                     resolved
+	 * @return the resolved artifacts in class path order or <code>null</code> if
+	 *         they can't be resolved using the local repository alone
+	 */
+	List<ArtifactInfo> resolve(MavenCoordinate bom, List<MavenCoordinate> coords, boolean transitively) {
+		try {
+			Map<String, Dependency> managed = new HashMap<>();
+			if (bom != null) {
+				Model model = getModel(bom.getGroupId(), bom.getArtifactId(), bom.getVersion(), repoIds);
+				if (model.getDependencyManagement() != null) {
+					for (Dependency dep : model.getDependencyManagement().getDependencies()) {
+						managed.putIfAbsent(getKey(dep), dep);
+					}
+				}
+			}
+
+			List<Node> direct = new ArrayList<>();
+			for (MavenCoordinate coord : coords) {
+				Dependency dep = new Dependency();
+				dep.setGroupId(coord.getGroupId());
+				dep.setArtifactId(coord.getArtifactId());
+				dep.setVersion(coord.getVersion());
+				dep.setType(coord.getType().getId());
+				dep.setClassifier(coord.getClassifier());
+				if (dep.getVersion() == null || dep.getVersion().isEmpty()) {
+					Dependency m = managed.get(getKey(dep));
+					if (m == null) {
+						throw new NotLocalException("No version for " + coord);
+					}
+					dep.setVersion(m.getVersion());
+				}
+				direct.add(new Node(null, dep, repoIds));
+			}
+			List<Node> roots = selectSiblings(direct);
+
+			if (transitively) {
+				Map<String, Node> winners = new HashMap<>();
+				Deque<Node> queue = new ArrayDeque<>(roots);
+				while (!queue.isEmpty()) {
+					Node node = queue.poll();
+					// Breadth first means the first one we encounter is the nearest
+					if (winners.putIfAbsent(node.getKey(), node) != null) {
+						continue;
+					}
+					if (node.parent != null) {
+						node.parent.children.add(node);
+					}
+					queue.addAll(selectSiblings(getChildren(node, managed)));
+				}
+			}
+
+			List<ArtifactInfo> artifacts = new ArrayList<>();
+			for (Node root : roots) {
+				collect(root, artifacts);
+			}
+			return artifacts;
+		} catch (NotLocalException e) {
+			Util.verboseMsg("Can't resolve dependencies using the local repository: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private List<Node> getChildren(Node node, Map<String, Dependency> managed) throws NotLocalException {
+		Model model = getModel(node.groupId, node.artifactId, node.version, node.repoIds);
+		if (model.getDistributionManagement() != null && model.getDistributionManagement().getRelocation() != null) {
+			throw new NotLocalException(node + " has been relocated");
+		}
+
+		Set<String> childRepoIds = new HashSet<>(node.repoIds);
+		for (Repository repo : model.getRepositories()) {
+			childRepoIds.add(getRepositoryId(repo.getId(), repo.getUrl()));
+		}
+
+		List<Node> children = new ArrayList<>();
+		for (Dependency dep : model.getDependencies()) {
+			String scope = dep.getScope() == null ? "compile" : dep.getScope();
+			if ("test".equals(scope) || "provided".equals(scope) || dep.isOptional() || node.isExcluded(dep)) {
+				continue;
+			}
+			Dependency m = managed.get(getKey(dep));
+			if (m != null && (m.getScope() != null || m.getOptional() != null)) {
+				throw new NotLocalException("Scope or optional flag of " + getKey(dep) + " is managed");
+			}
+			if (m != null) {
+				dep = dep.clone();
+				if (m.getVersion() != null) {
+					dep.setVersion(m.getVersion());
+				}
+				for (Exclusion exclusion : m.getExclusions()) {
+					dep.addExclusion(exclusion);
+				}
+			}
+			children.add(new Node(node, dep, childRepoIds));
+		}
+		return children;
+	}
+
+	/**
+	 * When the same artifact is declared more than once by the same parent the
+	 * highest version wins
+	 */
+	private List<Node> selectSiblings(List<Node> nodes) throws NotLocalException {
+		Map<String, Node> selected = new HashMap<>();
+		for (Node node : nodes) {
+			Node other = selected.get(node.getKey());
+			if (other == null || compareVersions(node.version, other.version) > 0) {
+				selected.put(node.getKey(), node);
+			}
+		}
+		return nodes.stream().filter(n -> selected.get(n.getKey()) == n).collect(Collectors.toList());
+	}
+
+	private int compareVersions(String v1, String v2) throws NotLocalException {
+		try {
+			return versionScheme.parseVersion(v1).compareTo(versionScheme.parseVersion(v2));
+		} catch (InvalidVersionSpecificationException e) {
+			throw new NotLocalException(e.getMessage());
+		}
+	}
+
+	private void collect(Node node, List<ArtifactInfo> artifacts) throws NotLocalException {
+		File file = getFile(node.groupId, node.artifactId, node.version, node.classifier, node.extension);
+		if (!isAvailable(file, node.repoIds)) {
+			throw new NotLocalException(node + " is not available");
+		}
+		artifacts.add(new ArtifactInfo(MavenCoordinates.createCoordinate(node.groupId, node.artifactId, node.version,
+				PackagingType.of(node.type), node.classifier), file));
+		for (Node child : node.children) {
+			collect(child, artifacts);
+		}
+	}
+
+	private Model getModel(String groupId, String artifactId, String version, Set<String> repoIds)
+			throws NotLocalException {
+		String gav = groupId + ":" + artifactId + ":" + version;
+		File pom = getFile(groupId, artifactId, version, "", "pom");
+		if (!isAvailable(pom, repoIds)) {
+			throw new NotLocalException("POM for " + gav + " is not available");
+		}
+		Model model = models.get(gav);
+		if (model == null) {
+			DefaultModelBuildingRequest request = new DefaultModelBuildingRequest();
+			request.setValidationLevel(ModelBuildingRequest.VALIDATION_LEVEL_MINIMAL);
+			request.setProcessPlugins(false);
+			request.setTwoPhaseBuilding(false);
+			request.setSystemProperties(systemProperties);
+			request.setModelCache(modelCache);
+			request.setModelResolver(new LocalModelResolver(repoIds));
+			request.setModelSource(new FileModelSource(pom));
+			try {
+				model = modelBuilder.build(request).getEffectiveModel();
+			} catch (ModelBuildingException e) {
+				throw new NotLocalException("POM for " + gav + " can't be read: " + e.getMessage());
+			}
+			models.put(gav, model);
+		}
+		return model;
+	}
+
+	private File getFile(String groupId, String artifactId, String version, String classifier, String extension) {
+		String path = RepositoryLayers.getPath(groupId, artifactId, version, classifier, extension);
+		File file = layers.find(path);
+		return file != null ? file : new File(localRepo, path);
+	}
+
+	/**
+	 * Returns true if the file exists and the Maven resolver would consider it to
+	 * be available for the given repositories. Files downloaded from other
+	 * repositories don't count (the resolver would try to download them again),
+	 * installed files and files the resolver doesn't know anything about do.
+	 */
+	private boolean isAvailable(File file, Set<String> ids) {
+		if (!file.isFile()) {
+			return false;
+		}
+		if (!file.toPath().startsWith(localRepo.toPath())) {
+			// Files from read-only layers are always used as-is
+			return true;
+		}
+		Properties props = remotes.computeIfAbsent(file.getParentFile(), this::readRemoteRepositories);
+		String prefix = file.getName() + ">";
+		if (props.containsKey(prefix) || ids.stream().anyMatch(id -> props.containsKey(prefix + id))) {
+			return true;
+		}
+		return props.stringPropertyNames().stream().noneMatch(k -> k.startsWith(prefix));
+	}
+
+	private Properties readRemoteRepositories(File dir) {
+		Properties props = new Properties();
+		File file = new File(dir, REMOTE_REPOSITORIES);
+		if (file.isFile()) {
+			try (InputStream in = Files.newInputStream(file.toPath())) {
+				props.load(in);
+			} catch (IOException e) {
+				Util.verboseMsg("Unable to read " + file, e);
+			}
+		}
+		return props;
+	}
+
+	private String getRepositoryId(String id, String url) {
+		RemoteRepository mirror = mirrors.getMirror(new RemoteRepository.Builder(id, "default", url).build());
+		return mirror != null ? mirror.getId() : id;
+	}
+
+	private static String getKey(Dependency dep) {
+		String[] type = types.getOrDefault(dep.getType(), new String[] { dep.getType(), "" });
+		String classifier = dep.getClassifier() == null || dep.getClassifier().isEmpty() ? type[1]
+				: dep.getClassifier();
+		return dep.getGroupId() + ":" + dep.getArtifactId() + ":" + type[0] + ":" + classifier;
+	}
+
+	private static boolean isLocalVersion(String version) {
+		return version != null && !version.isEmpty() && !version.contains("${")
+				&& !version.startsWith("[") && !version.startsWith("(")
+				&& !version.endsWith("SNAPSHOT") && !"LATEST".equals(version) && !"RELEASE".equals(version);
+	}
+
+	private static class Node {
+		final Node parent;
+		final String groupId;
+		final String artifactId;
+		final String version;
+		final String type;
+		final String classifier;
+		final String extension;
+		final List<Exclusion> exclusions;
+		final Set<String> repoIds;
+		final List<Node> children = new ArrayList<>();
+
+		Node(Node parent, Dependency dep, Set<String> repoIds) throws NotLocalException {
+			this.parent = parent;
+			this.groupId = dep.getGroupId();
+			this.artifactId = dep.getArtifactId();
+			this.version = dep.getVersion();
+			this.type = dep.getType();
+			this.repoIds = repoIds;
+			String[] t = types.get(type);
+			if (t == null || "system".equals(dep.getScope())) {
+				throw new NotLocalException("Unsupported dependency " + dep);
+			}
+			if (!isLocalVersion(version)) {
+				throw new NotLocalException("Version of " + dep + " needs remote metadata");
+			}
+			this.extension = t[0];
+			this.classifier = dep.getClassifier() == null || dep.getClassifier().isEmpty() ? t[1]
+					: dep.getClassifier();
+			if (parent == null) {
+				exclusions = dep.getExclusions();
+			} else {
+				exclusions = new ArrayList<>(parent.exclusions);
+				exclusions.addAll(dep.getExclusions());
+			}
+		}
+
+		String getKey() {
+			return groupId + ":" + artifactId + ":" + extension + ":" + classifier;
+		}
+
+		boolean isExcluded(Dependency dep) {
+			return exclusions	.stream()
+								.anyMatch(e -> matches(e.getGroupId(), dep.getGroupId())
+										&& matches(e.getArtifactId(), dep.getArtifactId()));
+		}
+
+		private static boolean matches(String pattern, String value) {
+			return "*".equals(pattern) || pattern.equals(value);
+		}
+
+		@Override
+		public String toString() {
+			return groupId + ":" + artifactId + ":" + version;
+		}
+	}
+
+	/**
+	 * Finds parent POMs and imported BOMs in the local repository
+	 */
+	private class LocalModelResolver implements ModelResolver {
+		private final Set<String> ids;
+
+		LocalModelResolver(Set<String> ids) {
+			this.ids = new HashSet<>(ids);
+			this.ids.add(getRepositoryId(CENTRAL_ID, CENTRAL_URL));
+		}
+
+		@Override
+		public ModelSource2 resolveModel(String groupId, String artifactId, String version)
+				throws UnresolvableModelException {
+			if (!isLocalVersion(version)) {
+				throw new UnresolvableModelException("Version needs remote metadata", groupId, artifactId,
+						version);
+			}
+			File pom = getFile(groupId, artifactId, version, "", "pom");
+			if (!isAvailable(pom, ids)) {
+				throw new UnresolvableModelException("Not available in the local repository", groupId, artifactId,
+						version);
+			}
+			return new FileModelSource(pom);
+		}
+
+		@Override
+		public ModelSource2 resolveModel(Parent parent) throws UnresolvableModelException {
+			return resolveModel(parent.getGroupId(), parent.getArtifactId(), parent.getVersion());
+		}
+
+		@Override
+		public ModelSource2 resolveModel(Dependency dependency) throws UnresolvableModelException {
+			return resolveModel(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion());
+		}
+
+		@Override
+		public void addRepository(Repository repository) {
+			addRepository(repository, false);
+		}
+
+		@Override
+		public void addRepository(Repository repository, boolean replace) {
+			ids.add(getRepositoryId(repository.getId(), repository.getUrl()));
+		}
+
+		@Override
+		public ModelResolver newCopy() {
+			return new LocalModelResolver(ids);
+		}
+	}
+
+	private static class LocalModelCache implements ModelCache {
+		private final Map<String, Object> cache = new HashMap<>();
+
+		@Override
+		public void put(String groupId, String artifactId, String version, String tag, Object data) {
+			cache.put(groupId + ":" + artifactId + ":" + version + ":" + tag, data);
+		}
+
+		@Override
+		public Object get(String groupId, String artifactId, String version, String tag) {
+			return cache.get(groupId + ":" + artifactId + ":" + version + ":" + tag);
+		}
+	}
+
+	private static class NotLocalException extends Exception {
+		NotLocalException(String message) {
+			super(message, null, false, false);
+		}
+	}
+}
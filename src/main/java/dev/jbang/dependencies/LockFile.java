@@ -0,0 +1,200 @@
+package dev.jbang.dependencies;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinate;
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinates;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import dev.jbang.Settings;
+import dev.jbang.cli.BaseCommand;
+import dev.jbang.cli.ExitException;
+import dev.jbang.util.Util;
+
+/**
+ * A lock file pins the fully resolved list of artifacts for the dependencies of
+ * a script. It's stored next to the script (eg. "hello.java.lock") and contains
+ * the coordinates, the repository each artifact was found in and its SHA-256
+ * checksum. As long as the dependencies of the script don't change, the class
+ * path can be built straight from the lock file without having to consult any
+ * Maven repositories.
+ */
+public class LockFile {
+	public static final String LOCK_EXT = ".lock";
+
+	private static final String REMOTE_REPOSITORIES = "_remote.repositories";
+
+	List<String> dependencies;
+	List<LockedArtifact> artifacts;
+
+	public static class LockedArtifact {
+		String gav;
+		String repository;
+		String sha256;
+
+		LockedArtifact(String gav, String repository, String sha256) {
+			this.gav = gav;
+			this.repository = repository;
+			this.sha256 = sha256;
+		}
+
+		public MavenCoordinate getCoordinate() {
+			return MavenCoordinates.createCoordinate(gav);
+		}
+
+		public String getRepository() {
+			return repository;
+		}
+
+		public String getSha256() {
+			return sha256;
+		}
+
+		/**
+		 * Returns the location of the artifact in the read-only repository layers or,
+		 * if it isn't found there, in the local Maven repository
+		 */
+		public File getFile() {
+			MavenCoordinate mc = getCoordinate();
+			String path = RepositoryLayers.getPath(mc.getGroupId(), mc.getArtifactId(), mc.getVersion(),
+					mc.getClassifier(), mc.getType().getExtension());
+			File file = RepositoryLayers.get().find(path);
+			return file != null ? file : new File(Settings.getLocalMavenRepo(), path);
+		}
+	}
+
+	LockFile(List<String> dependencies, List<LockedArtifact> artifacts) {
+		this.dependencies = dependencies;
+		this.artifacts = artifacts;
+	}
+
+	public List<String> getDependencies() {
+		return dependencies;
+	}
+
+	public List<LockedArtifact> getArtifacts() {
+		return artifacts;
+	}
+
+	/**
+	 * Returns true if this lock file was created for the given list of dependencies
+	 */
+	public boolean matches(List<String> deps) {
+		return Objects.equals(dependencies, deps);
+	}
+
+	public static Path getLockFileFor(Path script) {
+		return script.resolveSibling(script.getFileName().toString() + LOCK_EXT);
+	}
+
+	/**
+	 * Reads the lock file for the given script. Returns <code>null</code> if the
+	 * script doesn't have a lock file.
+	 */
+	public static LockFile readFor(Path script) {
+		Path lockFile = getLockFileFor(script);
+		if (!Files.isRegularFile(lockFile)) {
+			return null;
+		}
+		try (Reader in = Files.newBufferedReader(lockFile)) {
+			LockFile lock = new Gson().fromJson(in, LockFile.class);
+			if (lock == null || lock.dependencies == null || lock.artifacts == null) {
+				throw new JsonParseException("missing dependencies or artifacts");
+			}
+			return lock;
+		} catch (IOException | JsonParseException e) {
+			throw new ExitException(BaseCommand.EXIT_INVALID_INPUT, "Invalid lock file " + lockFile, e);
+		}
+	}
+
+	public void writeFor(Path script) throws IOException {
+		Gson parser = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
+		Util.writeStringAtomically(getLockFileFor(script), parser.toJson(this));
+	}
+
+	/**
+	 * Creates a lock file for the given dependencies and the artifacts they were
+	 * resolved to. The repository of each artifact is looked up in the metadata
+	 * Maven keeps in the local repository.
+	 */
+	public static LockFile create(List<String> deps, List<MavenRepo> repos, List<ArtifactInfo> artifacts) {
+		List<LockedArtifact> locked = artifacts	.stream()
+												.map(a -> new LockedArtifact(a.getCoordinate().toCanonicalForm(),
+														findRepository(a.getFile(), repos),
+														sha256(a.getFile())))
+												.collect(Collectors.toList());
+		return new LockFile(new ArrayList<>(deps), locked);
+	}
+
+	static String findRepository(File artifact, List<MavenRepo> repos) {
+		Path remotes = artifact.toPath().resolveSibling(REMOTE_REPOSITORIES);
+		if (!Files.isRegularFile(remotes)) {
+			return null;
+		}
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(remotes);
+		} catch (IOException e) {
+			Util.verboseMsg("Unable to read " + remotes, e);
+			return null;
+		}
+		// Lines look like "artifact-1.0.jar>repo-id="
+		String prefix = artifact.getName() + ">";
+		return lines.stream()
+					.filter(l -> l.startsWith(prefix))
+					.map(l -> l.substring(prefix.length()).replaceFirst("=.*$", ""))
+					.flatMap(id -> repos.stream()
+										.filter(r -> id.equals(r.getId() == null ? r.getUrl() : r.getId()))
+										.map(MavenRepo::getUrl))
+					.findFirst()
+					.orElse(null);
+	}
+
+	/**
+	 * Returns the SHA-256 checksum of the given file as a hex string
+	 */
+	public static String sha256(File file) {
+		try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()),
+				MessageDigest.getInstance("SHA-256"))) {
+			byte[] buf = new byte[8192];
+			while (in.read(buf) != -1) {
+				// just reading the file updates the digest
+			}
+			StringBuilder sb = new StringBuilder();
+			for (byte b : ((DigestInputStream) in).getMessageDigest().digest()) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (IOException | NoSuchAlgorithmException e) {
+			throw new ExitException(BaseCommand.EXIT_GENERIC_ERROR, "Unable to calculate checksum of " + file, e);
+		}
+	}
+
+	/**
+	 * Returns the URLs of all the repositories mentioned in this lock file
+	 */
+	List<String> getRepositoryUrls() {
+		List<String> urls = artifacts	.stream()
+										.map(LockedArtifact::getRepository)
+										.filter(Objects::nonNull)
+										.distinct()
+										.collect(Collectors.toList());
+		return Collections.unmodifiableList(urls);
+	}
+}
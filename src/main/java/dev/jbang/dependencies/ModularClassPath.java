@@ -7,18 +7,15 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-import org.codehaus.plexus.languages.java.jpms.JavaModuleDescriptor;
-import org.codehaus.plexus.languages.java.jpms.LocationManager;
-import org.codehaus.plexus.languages.java.jpms.ResolvePathsRequest;
-import org.codehaus.plexus.languages.java.jpms.ResolvePathsResult;
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinates;
 
 import dev.jbang.util.JavaUtil;
 import dev.jbang.util.Util;
@@ -31,7 +28,10 @@ public class ModularClassPath {
 	private List<String> classPaths;
 	private String classPath;
 	private String manifestPath;
+	private Optional<String> manifestGavs;
 	private Optional<Boolean> javafx = Optional.empty();
+	private List<String> moduleArguments;
+	private Boolean valid;
 
 	public ModularClassPath(List<ArtifactInfo> artifacts) {
 		this.artifacts = artifacts;
@@ -69,6 +69,44 @@ public class ModularClassPath {
 		return manifestPath;
 	}
 
+	/**
+	 * Returns the coordinates of the artifacts in the same order as the entries
+	 * returned by <code>getManifestPath()</code>, or <code>null</code> if any of
+	 * the artifacts has no known coordinates.
+	 */
+	public String getManifestGavs() {
+		if (manifestGavs == null) {
+			manifestGavs = Optional.ofNullable(
+					getManifestValues(art -> art.getCoordinate() != null ? art.getCoordinate().toCanonicalForm()
+							: null));
+		}
+
+		return manifestGavs.orElse(null);
+	}
+
+	/**
+	 * Returns the timestamps the artifacts had when they were resolved, in the same
+	 * order as the entries returned by <code>getManifestPath()</code>
+	 */
+	public String getManifestTimestamps() {
+		return getManifestValues(art -> Long.toString(art.getTimestamp()));
+	}
+
+	private String getManifestValues(Function<ArtifactInfo, String> value) {
+		Set<URI> seen = new HashSet<>();
+		List<String> values = new ArrayList<>();
+		for (ArtifactInfo art : artifacts) {
+			if (seen.add(art.getFile().getAbsoluteFile().toURI())) {
+				String v = value.apply(art);
+				if (v == null) {
+					return null;
+				}
+				values.add(v);
+			}
+		}
+		return String.join(" ", values);
+	}
+
 	boolean hasJavaFX() {
 		if (!javafx.isPresent()) {
 			javafx = Optional.of(
@@ -79,69 +117,59 @@ public class ModularClassPath {
 
 	public List<String> getAutoDectectedModuleArguments(String requestedVersion) {
 		if (hasJavaFX() && supportsModules(requestedVersion)) {
-			List<String> commandArguments = new ArrayList<>();
-
-			List<File> fileList = artifacts	.stream()
-											.map(ArtifactInfo::getFile)
-											.collect(Collectors.toList());
-
-			ResolvePathsRequest<File> result = ResolvePathsRequest	.ofFiles(fileList)
-																	.setModuleDescriptor(
-																			JavaModuleDescriptor.newModule("bogus")
-																								.build());
-
-			LocationManager lm = new LocationManager();
-
-			try {
-				ResolvePathsResult<File> resolvePathsResult = lm.resolvePaths(result);
-
-				List<String> modulePaths = new ArrayList<>();
-				Map<String, JavaModuleDescriptor> pathElements = new HashMap<>();
-
-				resolvePathsResult	.getModulepathElements()
-									.keySet()
-									.forEach(file -> modulePaths.add(file.getPath()));
-
-				resolvePathsResult.getPathElements().forEach((key, value) -> pathElements.put(key.getPath(), value));
-
-				pathElements.forEach((k, v) -> {
-					if (v != null && v.name() != null && v.name().startsWith(JAVAFX_PREFIX)) {
-						// only JavaFX jars are required in the module-path
-						modulePaths.add(k);
-					} else {
-						// classpathElements.add(k);
+			if (moduleArguments == null) {
+				// The key holds the timestamps the artifacts had when they were resolved,
+				// so it can only be trusted when they still have them
+				String key = isValid() ? getKey(artifacts) : null;
+				moduleArguments = key != null ? ModuleDescriptorCache.findArguments(key) : null;
+				if (moduleArguments == null) {
+					try {
+						moduleArguments = getJavaFXModuleArguments();
+						if (key != null) {
+							ModuleDescriptorCache.cacheArguments(key, moduleArguments);
+						}
+					} catch (IOException io) {
+						Util.errorMsg("Error processing javafx modules", io);
+						return Collections.emptyList();
 					}
-				});
-
-				if (!modulePaths.isEmpty()) {
-					commandArguments.add("--module-path");
-					String modulePath = String.join(File.pathSeparator, modulePaths);
-					commandArguments.add(modulePath);
 				}
-
-				String modules = pathElements	.values()
-												.stream()
-												.filter(Objects::nonNull)
-												.map(JavaModuleDescriptor::name)
-												.filter(Objects::nonNull)
-												.filter(module -> module.startsWith(JAVAFX_PREFIX)
-														&& !module.endsWith("Empty"))
-												.collect(Collectors.joining(","));
-				if (!modules.trim().isEmpty()) {
-					commandArguments.add("--add-modules");
-					commandArguments.add(modules);
-				}
-
-			} catch (IOException io) {
-				Util.errorMsg("Error processing javafx modules", io);
-				return Collections.emptyList();
 			}
-			return commandArguments;
+			return moduleArguments;
 		} else {
 			return Collections.emptyList();
 		}
 	}
 
+	private List<String> getJavaFXModuleArguments() throws IOException {
+		List<String> commandArguments = new ArrayList<>();
+		List<String> modulePaths = new ArrayList<>();
+		Set<String> modules = new LinkedHashSet<>();
+
+		for (File file : artifacts.stream().map(ArtifactInfo::getFile).distinct().collect(Collectors.toList())) {
+			String module = ModuleDescriptorCache.getModuleInfo(file).getName();
+			if (module != null && module.startsWith(JAVAFX_PREFIX)) {
+				// only JavaFX jars are required in the module-path
+				modulePaths.add(file.getPath());
+				if (!module.endsWith("Empty")) {
+					modules.add(module);
+				}
+			}
+		}
+
+		if (!modulePaths.isEmpty()) {
+			commandArguments.add("--module-path");
+			String modulePath = String.join(File.pathSeparator, modulePaths);
+			commandArguments.add(modulePath);
+		}
+
+		if (!modules.isEmpty()) {
+			commandArguments.add("--add-modules");
+			commandArguments.add(String.join(",", modules));
+		}
+
+		return commandArguments;
+	}
+
 	protected boolean supportsModules(String requestedVersion) {
 		return JavaUtil.javaVersion(requestedVersion) >= 9;
 	}
@@ -151,26 +179,88 @@ public class ModularClassPath {
 	}
 
 	/**
-	 * Determines if all artifacts actually exist and are up-to-date
+	 * Determines if all artifacts actually exist and are up-to-date. Checking each
+	 * and every artifact can be expensive, so once a class path has been found to
+	 * be valid that result is trusted for a while (see
+	 * <code>Settings.getDependencyValidationWindow()</code>), unless
+	 * <code>--fresh</code> was specified.
 	 */
 	public boolean isValid() {
-		return artifacts.stream().allMatch(ArtifactInfo::isUpToDate);
+		if (valid == null) {
+			String key = getKey(artifacts);
+			if (!Util.isFresh() && DependencyCache.isRecentlyValidated(key)) {
+				valid = true;
+			} else {
+				valid = artifacts.stream().allMatch(ArtifactInfo::isUpToDate);
+				if (valid) {
+					DependencyCache.markValidated(key);
+				}
+			}
+		}
+		return valid;
+	}
+
+	/**
+	 * Returns a string identifying the given artifacts by their paths and the
+	 * timestamps they had when they were resolved
+	 */
+	static String getKey(List<ArtifactInfo> artifacts) {
+		return artifacts.stream()
+						.map(it -> it.getFile().getPath() + "=" + it.getTimestamp())
+						.collect(Collectors.joining(CP_SEPARATOR));
 	}
 
 	/**
 	 * Returns a ModularClassPath with the artifacts from the given MANIFEST class
 	 * path string
 	 * 
-	 * @param classPath A class path string as found in a Jar MANIFEST
+	 * @param classPath  A class path string as found in a Jar MANIFEST
+	 * @param gavs       The (optional) list of coordinates for the class path
+	 *                   entries as returned by <code>getManifestGavs()</code>
+	 * @param timestamps The (optional) list of timestamps for the class path
+	 *                   entries as returned by <code>getManifestTimestamps()</code>
 	 */
-	public static ModularClassPath fromManifestClasspath(String classPath) {
-		List<ArtifactInfo> arts = Stream.of(classPath.split(" "))
-										.map(File::new)
-										.map(jar -> {
-											ArtifactInfo art = DependencyCache.findArtifactByPath(jar);
-											return art != null ? art : new ArtifactInfo(null, jar);
-										})
-										.collect(Collectors.toList());
+	public static ModularClassPath fromManifestClasspath(String classPath, String gavs, String timestamps) {
+		String[] paths = classPath.split(" ");
+		String[] coords = gavs != null ? gavs.split(" ") : null;
+		if (coords != null && coords.length != paths.length) {
+			coords = null;
+		}
+		long[] stamps = parseTimestamps(timestamps, paths.length);
+		List<ArtifactInfo> arts = new ArrayList<>(paths.length);
+		for (int i = 0; i < paths.length; i++) {
+			File jar = new File(paths[i]);
+			ArtifactInfo art;
+			if (coords != null && stamps != null) {
+				// Everything we need is in the manifest, no need to look at the jar itself
+				art = new ArtifactInfo(MavenCoordinates.createCoordinate(coords[i]), jar, stamps[i]);
+			} else {
+				art = DependencyCache.findArtifactByPath(jar);
+				if (art == null) {
+					art = new ArtifactInfo(coords != null ? MavenCoordinates.createCoordinate(coords[i]) : null, jar);
+				}
+			}
+			arts.add(art);
+		}
 		return new ModularClassPath(arts);
 	}
+
+	private static long[] parseTimestamps(String timestamps, int count) {
+		if (timestamps == null) {
+			return null;
+		}
+		String[] values = timestamps.split(" ");
+		if (values.length != count) {
+			return null;
+		}
+		long[] result = new long[count];
+		try {
+			for (int i = 0; i < count; i++) {
+				result[i] = Long.parseLong(values[i]);
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return result;
+	}
 }
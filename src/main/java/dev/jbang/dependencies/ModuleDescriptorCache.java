@@ -0,0 +1,189 @@
+package dev.jbang.dependencies;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.languages.java.jpms.JavaModuleDescriptor;
+import org.codehaus.plexus.languages.java.jpms.LocationManager;
+import org.codehaus.plexus.languages.java.jpms.ResolvePathRequest;
+import org.codehaus.plexus.languages.java.jpms.ResolvePathResult;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import dev.jbang.util.Util;
+
+/**
+ * Remembers the module information of jars so the module path for a class path
+ * can be determined without opening each and every jar on every launch. The
+ * module of a jar is stored in the "modules" sub folder of the "deps" cache, in
+ * a file named after the hash of the jar's path, together with the jar's last
+ * modified time so a changed jar gets looked at again.
+ *
+ * The module arguments computed for an entire class path are stored the same
+ * way, so in the end a launch only needs to read a single small file. The class
+ * path is identified by the timestamps its artifacts had when they were
+ * resolved, so looking them up doesn't look at the jars at all. They get
+ * evicted together with the dependency cache entry of the class path.
+ */
+public class ModuleDescriptorCache {
+	private static final String MODULES_DIR = "modules";
+	private static final String ENTRY_EXT = ".json";
+	private static final String ARGS_EXT = ".args.json";
+
+	private static Map<File, ModuleInfo> moduleCache = new HashMap<>();
+	private static Map<String, List<String>> argsCache = new HashMap<>();
+
+	/**
+	 * The module information of a single jar
+	 */
+	public static class ModuleInfo {
+		String file;
+		long ts;
+		String name;
+		boolean automatic;
+
+		ModuleInfo(File file, long ts, String name, boolean automatic) {
+			this.file = file.getPath();
+			this.ts = ts;
+			this.name = name;
+			this.automatic = automatic;
+		}
+
+		/**
+		 * Returns the name of the module or <code>null</code> if the jar isn't a module
+		 * at all
+		 */
+		public String getName() {
+			return name;
+		}
+
+		public boolean isAutomatic() {
+			return automatic;
+		}
+	}
+
+	private static class Args {
+		String classPath;
+		List<String> args;
+
+		Args(String classPath, List<String> args) {
+			this.classPath = classPath;
+			this.args = args;
+		}
+	}
+
+	private static Gson getParser() {
+		return new GsonBuilder().setPrettyPrinting().create();
+	}
+
+	static Path getCacheDir() {
+		return DependencyCache.getCacheDir().resolve(MODULES_DIR);
+	}
+
+	static Path getModuleFile(File jar) {
+		return getCacheDir().resolve(Util.getStableID(jar.getPath()) + ENTRY_EXT);
+	}
+
+	static Path getArgsFile(String classPath) {
+		return getCacheDir().resolve(Util.getStableID(classPath) + ARGS_EXT);
+	}
+
+	/**
+	 * Returns the module information for the given jar, only opening the jar if
+	 * it's not known yet or if it changed since the last time.
+	 */
+	public static synchronized ModuleInfo getModuleInfo(File jar) throws IOException {
+		long ts = jar.lastModified();
+		ModuleInfo info = moduleCache.get(jar);
+		if (info == null || info.ts != ts) {
+			info = read(getModuleFile(jar), ModuleInfo.class);
+			// The file name is a hash so make sure it's really our entry
+			if (info == null || !jar.getPath().equals(info.file) || info.ts != ts) {
+				info = readModuleInfo(jar, ts);
+				write(getModuleFile(jar), info);
+			}
+			moduleCache.put(jar, info);
+		}
+		return info;
+	}
+
+	private static ModuleInfo readModuleInfo(File jar, long ts) throws IOException {
+		Util.verboseMsg("Reading module information from " + jar);
+		ResolvePathResult result = new LocationManager().resolvePath(ResolvePathRequest.ofFile(jar));
+		JavaModuleDescriptor descriptor = result.getModuleDescriptor();
+		if (descriptor == null || descriptor.name() == null) {
+			return new ModuleInfo(jar, ts, null, false);
+		}
+		return new ModuleInfo(jar, ts, descriptor.name(), descriptor.isAutomatic());
+	}
+
+	/**
+	 * Returns the module arguments that were previously stored for the given class
+	 * path or <code>null</code> if there are none.
+	 *
+	 * @param classPath A string identifying the class path, it should contain the
+	 *                  timestamps of the jars as well
+	 */
+	static synchronized List<String> findArguments(String classPath) {
+		if (!argsCache.containsKey(classPath)) {
+			Args entry = read(getArgsFile(classPath), Args.class);
+			if (entry != null && classPath.equals(entry.classPath) && entry.args != null) {
+				argsCache.put(classPath, entry.args);
+			}
+		}
+		return argsCache.get(classPath);
+	}
+
+	static synchronized void cacheArguments(String classPath, List<String> args) {
+		argsCache.put(classPath, args);
+		write(getArgsFile(classPath), new Args(classPath, args));
+	}
+
+	/**
+	 * Removes the module arguments stored for the given class path, if any
+	 */
+	static synchronized void removeArguments(String classPath) {
+		argsCache.remove(classPath);
+		try {
+			Files.deleteIfExists(getArgsFile(classPath));
+		} catch (IOException e) {
+			Util.verboseMsg("Unable to remove module cache entry " + getArgsFile(classPath), e);
+		}
+	}
+
+	private static <T> T read(Path file, Type type) {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (Reader in = Files.newBufferedReader(file)) {
+			return getParser().fromJson(in, type);
+		} catch (IOException | JsonParseException e) {
+			// A broken entry is treated as a missing one, it will get overwritten
+			Util.verboseMsg("Ignoring invalid module cache entry " + file, e);
+			return null;
+		}
+	}
+
+	private static void write(Path file, Object entry) {
+		try {
+			Util.writeStringAtomically(file, getParser().toJson(entry));
+		} catch (IOException e) {
+			// Not being able to cache only costs us some speed
+			Util.verboseMsg("Unable to write module cache entry " + file, e);
+		}
+	}
+
+	public static synchronized void clear() {
+		moduleCache = new HashMap<>();
+		argsCache = new HashMap<>();
+	}
+}
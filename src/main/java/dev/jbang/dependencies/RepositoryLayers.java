@@ -0,0 +1,111 @@
+package dev.jbang.dependencies;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.WorkspaceReader;
+import org.eclipse.aether.repository.WorkspaceRepository;
+
+import dev.jbang.Settings;
+
+/**
+ * An ordered list of read-only local Maven repositories (for example ones that
+ * were baked into a container image) that sit in front of the regular,
+ * writable, local repository. Artifacts found in one of the layers are used
+ * right where they are, they never get copied or downloaded into the writable
+ * repository.
+ *
+ * The layers are plugged into the Maven resolver as its workspace, which is
+ * always consulted before the local repository.
+ */
+public class RepositoryLayers implements WorkspaceReader {
+	private final List<File> layers;
+	private final WorkspaceRepository repository = new WorkspaceRepository("jbang-layers");
+
+	RepositoryLayers(List<File> layers) {
+		this.layers = Collections.unmodifiableList(new ArrayList<>(layers));
+	}
+
+	/**
+	 * Returns the layers as configured by <code>JBANG_REPO_LAYERS</code>
+	 */
+	public static RepositoryLayers get() {
+		return new RepositoryLayers(Settings.getLocalMavenRepoLayers());
+	}
+
+	public List<File> getLayers() {
+		return layers;
+	}
+
+	public boolean isEmpty() {
+		return layers.isEmpty();
+	}
+
+	/**
+	 * Returns the given file (a path relative to the root of a repository) from the
+	 * first layer that has it or <code>null</code> if none of them do.
+	 */
+	public File find(String path) {
+		for (File layer : layers) {
+			File file = new File(layer, path);
+			if (file.isFile()) {
+				return file;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the location of an artifact relative to the root of a repository
+	 */
+	public static String getPath(String groupId, String artifactId, String version, String classifier,
+			String extension) {
+		String name = artifactId + "-" + version
+				+ (classifier == null || classifier.isEmpty() ? "" : "-" + classifier) + "." + extension;
+		return groupId.replace('.', File.separatorChar) + File.separator + artifactId + File.separator + version
+				+ File.separator + name;
+	}
+
+	@Override
+	public WorkspaceRepository getRepository() {
+		return repository;
+	}
+
+	@Override
+	public File findArtifact(Artifact artifact) {
+		return find(getPath(artifact.getGroupId(), artifact.getArtifactId(), artifact.getBaseVersion(),
+				artifact.getClassifier(), artifact.getExtension()));
+	}
+
+	@Override
+	public List<String> findVersions(Artifact artifact) {
+		List<String> versions = new ArrayList<>();
+		String dir = artifact.getGroupId().replace('.', File.separatorChar) + File.separator
+				+ artifact.getArtifactId();
+		for (File layer : layers) {
+			File[] versionDirs = new File(layer, dir).listFiles(File::isDirectory);
+			if (versionDirs != null) {
+				for (File versionDir : versionDirs) {
+					String version = versionDir.getName();
+					if (!versions.contains(version) && findArtifact(artifact.setVersion(version)) != null) {
+						versions.add(version);
+					}
+				}
+			}
+		}
+		return versions;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof RepositoryLayers && layers.equals(((RepositoryLayers) o).layers);
+	}
+
+	@Override
+	public int hashCode() {
+		return layers.hashCode();
+	}
+}
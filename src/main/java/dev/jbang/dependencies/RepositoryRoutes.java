@@ -0,0 +1,336 @@
+package dev.jbang.dependencies;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.ArtifactRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.ArtifactTransferException;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.aether.transfer.TransferListener;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import dev.jbang.Settings;
+import dev.jbang.util.Util;
+
+/**
+ * Remembers, per group id, which remote repository served its artifacts and
+ * which repositories didn't have them, as well as how long each repository
+ * takes to respond. That information is used to put the repositories in the
+ * order they are most likely to succeed (and fastest) for each artifact, so
+ * Maven doesn't have to go through the same misses over and over again.
+ *
+ * The information expires after a while (see
+ * <code>Settings.getRepositoryRoutesTtl()</code>) and is stored in the
+ * "routes.json" file of the "deps" cache folder.
+ *
+ * All methods are thread-safe, the resolver records what it finds from several
+ * threads at once while reading dependency descriptors.
+ */
+public class RepositoryRoutes {
+	private static final String ROUTES_FILE = "routes.json";
+
+	// The weight of a new latency sample in the running average
+	private static final int LATENCY_WEIGHT = 4;
+
+	private Map<String, Route> groups = new TreeMap<>();
+	private Map<String, Latency> repositories = new TreeMap<>();
+
+	private transient Path file;
+	private transient List<Consumer<RepositoryRoutes>> pending = new ArrayList<>();
+
+	public static class Route {
+		String served;
+		long servedAt;
+		Map<String, Long> missing = new TreeMap<>();
+
+		/**
+		 * Returns the URL of the repository that last served an artifact of this group,
+		 * if any
+		 */
+		public String getServed() {
+			return served;
+		}
+
+		/**
+		 * Returns the URLs of the repositories that didn't have some artifact of this
+		 * group
+		 */
+		public List<String> getMissing() {
+			return new ArrayList<>(missing.keySet());
+		}
+	}
+
+	public static class Latency {
+		long millis;
+		int samples;
+
+		public long getMillis() {
+			return millis;
+		}
+
+		public int getSamples() {
+			return samples;
+		}
+	}
+
+	public static Path getRoutesFile() {
+		return DependencyCache.getCacheDir().resolve(ROUTES_FILE);
+	}
+
+	/**
+	 * Reads the routing information from the cache, returns an empty table if
+	 * there's nothing there (yet).
+	 */
+	public static RepositoryRoutes load() {
+		Path file = getRoutesFile();
+		RepositoryRoutes routes = read(file);
+		routes.file = file;
+		routes.prune();
+		return routes;
+	}
+
+	private static RepositoryRoutes read(Path file) {
+		RepositoryRoutes routes = null;
+		if (Files.isRegularFile(file)) {
+			try (Reader in = Files.newBufferedReader(file)) {
+				routes = new Gson().fromJson(in, RepositoryRoutes.class);
+			} catch (IOException | JsonParseException e) {
+				// It's only used for speeding things up so we just start over
+				Util.verboseMsg("Ignoring invalid repository routes " + file, e);
+			}
+		}
+		if (routes == null) {
+			routes = new RepositoryRoutes();
+		}
+		if (routes.groups == null) {
+			routes.groups = new TreeMap<>();
+		}
+		if (routes.repositories == null) {
+			routes.repositories = new TreeMap<>();
+		}
+		routes.pending = new ArrayList<>();
+		return routes;
+	}
+
+	/**
+	 * Removes the routing information of all repositories
+	 */
+	public static void reset() throws IOException {
+		Files.deleteIfExists(getRoutesFile());
+	}
+
+	boolean isFor(Path file) {
+		return file.equals(this.file);
+	}
+
+	public synchronized Map<String, Route> getGroups() {
+		return new TreeMap<>(groups);
+	}
+
+	public synchronized Map<String, Latency> getRepositories() {
+		return new TreeMap<>(repositories);
+	}
+
+	/**
+	 * Returns the given repositories in the order they should be tried for an
+	 * artifact of the given group: first the one that served the group before, then
+	 * the ones we know nothing bad about and finally the ones that are known not to
+	 * have the group's artifacts. Within each of those the fastest repositories go
+	 * first, repositories that we don't have any timings for keep their original
+	 * order.
+	 */
+	public synchronized List<RemoteRepository> order(String groupId, List<RemoteRepository> repos) {
+		if (repos.size() < 2 || Settings.getRepositoryRoutesTtl() <= 0) {
+			return repos;
+		}
+		Route route = findRoute(groupId);
+		List<RemoteRepository> result = new ArrayList<>(repos);
+		result.sort(Comparator	.comparingInt((RemoteRepository r) -> rank(route, normalize(r.getUrl())))
+								.thenComparingLong(r -> {
+									Latency l = repositories.get(normalize(r.getUrl()));
+									return l != null ? l.millis : Long.MAX_VALUE;
+								}));
+		return result;
+	}
+
+	private static int rank(Route route, String url) {
+		if (route == null) {
+			return 1;
+		} else if (url.equals(route.served)) {
+			return 0;
+		} else if (route.missing.containsKey(url)) {
+			return 2;
+		} else {
+			return 1;
+		}
+	}
+
+	/**
+	 * Finds the route for the given group or, if there is none, for the closest
+	 * group it's a sub group of (eg. "org.acme" for "org.acme.tools")
+	 */
+	private Route findRoute(String groupId) {
+		String id = groupId;
+		while (true) {
+			Route route = groups.get(id);
+			if (route != null) {
+				return route;
+			}
+			int dot = id.lastIndexOf('.');
+			if (dot < 0) {
+				return null;
+			}
+			id = id.substring(0, dot);
+		}
+	}
+
+	/**
+	 * Records that an artifact of the given group was found in the given repository
+	 */
+	public synchronized void served(String groupId, ArtifactRepository repo) {
+		if (repo instanceof RemoteRepository) {
+			String url = normalize(((RemoteRepository) repo).getUrl());
+			long now = System.currentTimeMillis();
+			update(routes -> {
+				Route route = routes.groups.computeIfAbsent(groupId, g -> new Route());
+				route.served = url;
+				route.servedAt = now;
+				route.missing.remove(url);
+			});
+		}
+	}
+
+	/**
+	 * Records that an artifact of the given group could not be found in the given
+	 * repository
+	 */
+	public synchronized void missing(String groupId, String repoUrl) {
+		String url = normalize(repoUrl);
+		long now = System.currentTimeMillis();
+		update(routes -> {
+			Route route = routes.groups.computeIfAbsent(groupId, g -> new Route());
+			if (!url.equals(route.served)) {
+				route.missing.put(url, now);
+			}
+		});
+	}
+
+	/**
+	 * Records the time it took the given repository to respond to a request
+	 */
+	public synchronized void latency(String repoUrl, long millis) {
+		String url = normalize(repoUrl);
+		update(routes -> {
+			Latency l = routes.repositories.computeIfAbsent(url, u -> new Latency());
+			if (l.samples == 0) {
+				l.millis = millis;
+			} else {
+				l.millis = (l.millis * (LATENCY_WEIGHT - 1) + millis) / LATENCY_WEIGHT;
+			}
+			l.samples++;
+		});
+	}
+
+	private synchronized void update(Consumer<RepositoryRoutes> change) {
+		if (Settings.getRepositoryRoutesTtl() > 0) {
+			change.accept(this);
+			pending.add(change);
+		}
+	}
+
+	/**
+	 * Writes all the information that was gathered since the last time to the
+	 * cache, merging it with whatever other processes might have written in the
+	 * mean time.
+	 */
+	public synchronized void save() {
+		if (pending.isEmpty() || file == null) {
+			return;
+		}
+		try {
+			DependencyCache.withLock(() -> {
+				RepositoryRoutes current = read(file);
+				pending.forEach(change -> change.accept(current));
+				current.prune();
+				try {
+					Util.writeStringAtomically(file,
+							new GsonBuilder().setPrettyPrinting().create().toJson(current));
+				} catch (IOException e) {
+					Util.verboseMsg("Unable to write repository routes " + file, e);
+				}
+				groups = current.groups;
+				repositories = current.repositories;
+			});
+		} catch (IOException e) {
+			Util.verboseMsg("Could not lock dependency cache", e);
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Removes all information that's older than allowed
+	 */
+	private void prune() {
+		long oldest = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(Settings.getRepositoryRoutesTtl());
+		groups.values().forEach(route -> {
+			if (route.servedAt < oldest) {
+				route.served = null;
+			}
+			route.missing.values().removeIf(at -> at < oldest);
+		});
+		groups.values().removeIf(route -> route.served == null && route.missing.isEmpty());
+	}
+
+	/**
+	 * Returns a listener that records the latencies and misses of all the transfers
+	 * in a resolver session
+	 */
+	public TransferListener listener() {
+		return new AbstractTransferListener() {
+			@Override
+			public void transferStarted(TransferEvent event) {
+				record(event);
+			}
+
+			@Override
+			public void transferFailed(TransferEvent event) {
+				// Both "not found" and unreachable repositories count as a miss, the
+				// repository only gets moved to the back so nothing is lost if the
+				// problem was temporary
+				if (event.getException() instanceof ArtifactTransferException) {
+					record(event);
+					ArtifactTransferException e = (ArtifactTransferException) event.getException();
+					Artifact artifact = e.getArtifact();
+					RemoteRepository repository = e.getRepository();
+					if (artifact != null && repository != null) {
+						missing(artifact.getGroupId(), repository.getUrl());
+					}
+				}
+			}
+
+			private void record(TransferEvent event) {
+				long start = event.getResource().getTransferStartTime();
+				latency(event.getResource().getRepositoryUrl(), System.currentTimeMillis() - start);
+			}
+		};
+	}
+
+	private static String normalize(String url) {
+		return url.endsWith("/") ? url : url + "/";
+	}
+}
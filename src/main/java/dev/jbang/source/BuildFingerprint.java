@@ -0,0 +1,276 @@
+package dev.jbang.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinates;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import dev.jbang.dependencies.ArtifactInfo;
+import dev.jbang.dependencies.LockFile;
+import dev.jbang.dependencies.ModularClassPath;
+import dev.jbang.util.Util;
+
+/**
+ * A fingerprint of everything that goes into building the jar of a script: the
+ * script itself, its sources and files, its lock file, the compile options, the
+ * dependencies, the properties and the JDK it gets built with. It's stored in a
+ * file next to the jar together with the size and modification time of all the
+ * files that went into it. Checking if the jar is up-to-date then only needs to
+ * look at those files, the dependencies don't get resolved again and the files
+ * that didn't change don't get read.
+ *
+ * The artifacts of the dependencies are identified by their path and the
+ * modification time they had when they were resolved, the other files by a hash
+ * of their contents. The artifacts are compared with the class path the
+ * dependency cache holds for the dependencies now, so a class path that got
+ * resolved again triggers a new build. Whether the artifacts still exist and
+ * didn't change is checked the same way the dependency cache does it, a class
+ * path that was found to be valid recently is trusted without looking at its
+ * artifacts again (see <code>Settings.getDependencyValidationWindow()</code>).
+ *
+ * The JDK is identified by its version, its location and its release file,
+ * which holds the vendor and exact version.
+ */
+public class BuildFingerprint {
+	private static final String FINGERPRINT_SUFFIX = ".fingerprint.json";
+
+	private String fingerprint;
+	private Map<String, Input> inputs = new TreeMap<>();
+	private List<Artifact> artifacts = new ArrayList<>();
+
+	private transient boolean rehashed;
+
+	static class Input {
+		long size;
+		long modified;
+		String hash;
+	}
+
+	static class Artifact {
+		String gav;
+		String file;
+		long timestamp;
+
+		Artifact(ArtifactInfo info) {
+			gav = info.getCoordinate() != null ? info.getCoordinate().toCanonicalForm() : null;
+			file = info.getFile().getAbsolutePath();
+			timestamp = info.getTimestamp();
+		}
+
+		ArtifactInfo toArtifactInfo() {
+			return new ArtifactInfo(gav != null ? MavenCoordinates.createCoordinate(gav) : null, new File(file),
+					timestamp);
+		}
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Calculates the fingerprint for building the given script in the given context
+	 * with the given version of Java, using the given Java compiler, and the given
+	 * dependency artifacts
+	 */
+	public static BuildFingerprint create(ScriptSource src, RunContext ctx, int javaVersion, String javac,
+			List<ArtifactInfo> artifacts) {
+		BuildFingerprint result = new BuildFingerprint();
+		result.artifacts = artifacts.stream().map(Artifact::new).collect(Collectors.toList());
+		result.calculate(src, ctx, javaVersion, javac, null);
+		return result;
+	}
+
+	/**
+	 * Returns true if the jar of the given script was built from exactly the same
+	 * inputs as those it would be built from now. Returns <code>null</code> if
+	 * there's no fingerprint for the jar, for example because it was built by an
+	 * older version of jbang.
+	 */
+	public static Boolean isUpToDate(ScriptSource src, RunContext ctx, int javaVersion, String javac) {
+		File jar = src.getJarFile();
+		BuildFingerprint stored = read(jar);
+		if (stored == null) {
+			return null;
+		}
+		if (!jar.exists()) {
+			return false;
+		}
+		BuildFingerprint current = new BuildFingerprint();
+		// Only when the dependencies got resolved again since the jar was built does
+		// the cache have something to say about them, otherwise they're still the
+		// same ones (or they come from the lock file, which is an input itself)
+		List<ArtifactInfo> cached = src.findCachedClassPath(ctx.collectAllDependenciesFor(src));
+		if (cached != null) {
+			current.artifacts = cached.stream().map(Artifact::new).collect(Collectors.toList());
+		} else {
+			current.artifacts = stored.artifacts;
+		}
+		current.calculate(src, ctx, javaVersion, javac, stored);
+		if (!current.fingerprint.equals(stored.fingerprint)) {
+			Util.verboseMsg("Build fingerprint of " + jar + " changed");
+			return false;
+		}
+		List<ArtifactInfo> artifacts = current.artifacts	.stream()
+															.map(Artifact::toArtifactInfo)
+															.collect(Collectors.toList());
+		if (!new ModularClassPath(artifacts).isValid()) {
+			Util.verboseMsg("Dependencies of " + jar + " are missing or changed");
+			return false;
+		}
+		if (current.rehashed) {
+			// Files got touched without changing, no need to read them next time
+			current.save(jar);
+		}
+		JarSource jarSrc = src.asJarSource();
+		if (jarSrc != null) {
+			jarSrc.setUpToDate();
+		}
+		return true;
+	}
+
+	private void calculate(ScriptSource src, RunContext ctx, int javaVersion, String javac,
+			BuildFingerprint previous) {
+		List<String> lines = new ArrayList<>();
+		lines.add("jbang=" + Util.getJbangVersion());
+		lines.add("jdk=" + javaVersion);
+		Path jdkHome = getJdkHome(javac);
+		if (jdkHome != null) {
+			lines.add("jdk-home=" + jdkHome);
+			lines.add("jdk-release=" + hash(jdkHome.resolve("release").toFile(), previous));
+		}
+		lines.add("options=" + String.join(" ", src.getCompileOptions()));
+		new TreeMap<>(ctx.getProperties()).forEach((k, v) -> lines.add("property=" + k + "=" + v));
+		ctx.collectAllDependenciesFor(src).forEach(dep -> lines.add("dep=" + dep));
+		ctx.getAdditionalDependencies().forEach(dep -> lines.add("additional-dep=" + dep));
+		ctx.getAdditionalClasspaths().forEach(cp -> lines.add("additional-cp=" + cp));
+		lines.add("source=" + hash(src.getResourceRef().getFile(), previous));
+		for (ScriptSource source : src.getAllSources()) {
+			lines.add("source=" + hash(source.getResourceRef().getFile(), previous));
+		}
+		if (!src.getResourceRef().isURL() && src.getResourceRef().getFile() != null) {
+			// The class path comes from the lock file when there is one, so creating,
+			// changing or removing it must trigger a new build
+			File lock = LockFile.getLockFileFor(src.getResourceRef().getFile().toPath()).toFile();
+			lines.add("lock=" + hash(lock, previous));
+		}
+		for (RefTarget file : src.getAllFiles()) {
+			lines.add("file=" + file.to(Paths.get("")) + " " + hash(file.getSource().getFile(), previous));
+		}
+		for (Artifact artifact : artifacts) {
+			lines.add("artifact=" + artifact.file + " " + artifact.timestamp);
+		}
+		fingerprint = Util.getStableID(String.join("\n", lines));
+	}
+
+	/**
+	 * Returns the home folder of the JDK the given Java compiler belongs to, after
+	 * following all symbolic links, or <code>null</code> if it can't be found
+	 */
+	static Path getJdkHome(String javac) {
+		Path cmd = Paths.get(javac);
+		if (!cmd.isAbsolute()) {
+			String name = Util.isWindows() && !javac.endsWith(".exe") ? javac + ".exe" : javac;
+			Path dir = Util.searchPath(name);
+			if (dir == null) {
+				return null;
+			}
+			cmd = dir.resolve(name);
+		}
+		try {
+			Path bin = cmd.toRealPath().getParent();
+			return bin != null ? bin.getParent() : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the path and content hash of the given file, the hash is taken from
+	 * the previous fingerprint when the file's size and modification time didn't
+	 * change
+	 */
+	private String hash(File file, BuildFingerprint previous) {
+		String path = file.getAbsolutePath();
+		Input input = new Input();
+		input.size = file.length();
+		input.modified = file.lastModified();
+		Input old = previous != null ? previous.inputs.get(path) : null;
+		if (old != null && old.size == input.size && old.modified == input.modified) {
+			input.hash = old.hash;
+		} else if (file.isFile()) {
+			input.hash = Util.getStableID(file);
+			rehashed |= old != null;
+		} else {
+			input.hash = "missing";
+		}
+		inputs.put(path, input);
+		return path + " " + input.hash;
+	}
+
+	/**
+	 * Returns the script, sources, files and lock file the given jar was built
+	 * from, or <code>null</code> if the jar has no fingerprint. Files that didn't
+	 * exist at the time, like a lock file that wasn't created yet, are included as
+	 * well.
+	 */
+	public static List<File> getInputFiles(File jar) {
+		BuildFingerprint stored = read(jar);
+		if (stored == null) {
+			return null;
+		}
+		return stored.inputs.keySet().stream().map(File::new).collect(Collectors.toList());
+	}
+
+	static Path getFingerprintFile(File jar) {
+		return new File(jar.getParentFile(), jar.getName() + FINGERPRINT_SUFFIX).toPath();
+	}
+
+	static BuildFingerprint read(File jar) {
+		Path file = getFingerprintFile(jar);
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (Reader in = Files.newBufferedReader(file)) {
+			BuildFingerprint result = new Gson().fromJson(in, BuildFingerprint.class);
+			if (result != null && result.fingerprint != null && result.inputs != null && result.artifacts != null) {
+				return result;
+			}
+		} catch (IOException | JsonParseException e) {
+			Util.verboseMsg("Ignoring invalid build fingerprint " + file, e);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the fingerprint of the given jar, if it has one
+	 */
+	public static void delete(File jar) throws IOException {
+		Files.deleteIfExists(getFingerprintFile(jar));
+	}
+
+	/**
+	 * Stores the fingerprint next to the given jar
+	 */
+	public void save(File jar) {
+		Path file = getFingerprintFile(jar);
+		try {
+			Util.writeStringAtomically(file, new GsonBuilder().setPrettyPrinting().create().toJson(this));
+		} catch (IOException e) {
+			// Without it the jar will only be checked the old way
+			Util.verboseMsg("Unable to write build fingerprint " + file, e);
+		}
+	}
+}
@@ -0,0 +1,507 @@
+package dev.jbang.source;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import dev.jbang.Cache;
+import dev.jbang.Settings;
+import dev.jbang.util.Util;
+
+/**
+ * Keeps the classes that were compiled for a script (and all of its sources)
+ * around between builds, so the next build only has to recompile the source
+ * files that changed and the ones that depend on them. For each source file the
+ * store remembers the hash of its content, the classes that were compiled from
+ * it and the classes those refer to.
+ *
+ * The store lives in a ".classes" folder next to the script's jars in the
+ * "jars" cache. Whenever something happens that it can't keep track of (other
+ * compile options, another JDK, annotation processors generating code, a
+ * compile-time constant that changed, a failed build) it starts over with a
+ * full build.
+ *
+ * Several jbang processes can build the same script at the same time, so the
+ * store is locked while compiling, using a lock file next to its folder, and
+ * its index gets read again once the lock is held.
+ */
+public class ClassStore {
+	private static final String INDEX_FILE = "index.json";
+	private static final String CLASSES_DIR = "classes";
+	private static final String LOCK_SUFFIX = ".lock";
+
+	// A file lock is held by the whole process, so threads need their own locks
+	private static final Map<Path, Object> locks = new ConcurrentHashMap<>();
+
+	private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([^;<>()\\[]+)[;<]");
+
+	private String key;
+	private Map<String, Unit> units = new TreeMap<>();
+
+	private transient Path dir;
+
+	static class Unit {
+		String hash;
+		List<String> classes = new ArrayList<>();
+		Set<String> references = new TreeSet<>();
+		String constants;
+	}
+
+	/**
+	 * Compiles the given source files, putting the compiler output and the source
+	 * file each of the outputs came from in the given maps. Returns
+	 * <code>null</code> if it can't compile to memory.
+	 */
+	@FunctionalInterface
+	public interface Compiler {
+		Boolean compile(List<String> options, List<String> sourceFiles, Map<String, byte[]> output,
+				Map<String, URI> origins) throws IOException;
+	}
+
+	private ClassStore(Path dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Returns the class store for the given script, the store is shared by all
+	 * versions of the script, but not by scripts in different locations
+	 */
+	public static ClassStore forScript(ScriptSource src) {
+		File file = src.getResourceRef().getFile().getAbsoluteFile();
+		Path dir = Settings	.getCacheDir(Cache.CacheClass.jars)
+							.resolve(file.getName() + "." + Util.getStableID(file.getPath()) + ".classes");
+		return load(dir);
+	}
+
+	static ClassStore load(Path dir) {
+		ClassStore store = null;
+		Path index = dir.resolve(INDEX_FILE);
+		if (Files.isRegularFile(index)) {
+			try (Reader in = Files.newBufferedReader(index)) {
+				store = new Gson().fromJson(in, ClassStore.class);
+			} catch (IOException | JsonParseException e) {
+				// We'll just do a full build
+				Util.verboseMsg("Ignoring invalid class store " + index, e);
+			}
+		}
+		if (store == null || store.units == null) {
+			store = new ClassStore(dir);
+		}
+		store.dir = dir;
+		return store;
+	}
+
+	public Path getDir() {
+		return dir;
+	}
+
+	/**
+	 * Compiles the given source files, only recompiling the ones that changed (or
+	 * depend on ones that changed) since the previous build, and puts all the
+	 * classes (new and reused) in the output map.
+	 *
+	 * @param jdk Identifies the JDK the sources get compiled with, classes compiled
+	 *            by any other JDK never get reused
+	 * @return whether the compilation succeeded or <code>null</code> if the
+	 *         compiler can't compile to memory
+	 */
+	@SuppressWarnings("try") // the lock only needs to be held, it's never used
+	public Boolean compile(String jdk, List<String> options, List<String> sourceFiles, Compiler compiler,
+			Map<String, byte[]> output) throws IOException {
+		String newKey = Util.getStableID(jdk + "\n" + String.join("\n", options));
+		Map<String, String> hashes = new LinkedHashMap<>();
+		Map<String, String> files = new LinkedHashMap<>();
+		for (String sourceFile : sourceFiles) {
+			String name = toName(Paths.get(sourceFile));
+			hashes.put(name, Util.getStableID(Util.readString(Paths.get(sourceFile))));
+			files.put(name, sourceFile);
+		}
+
+		// Not inside the folder, clearing the store removes that
+		Path lockFile = dir.resolveSibling(dir.getFileName() + LOCK_SUFFIX);
+		synchronized (locks.computeIfAbsent(dir.toAbsolutePath(), d -> new Object())) {
+			Files.createDirectories(lockFile.getParent());
+			try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE);
+					FileLock ignored = channel.lock()) {
+				// Another process might have changed it since it was loaded
+				ClassStore current = load(dir);
+				key = current.key;
+				units = current.units;
+				return compile(newKey, hashes, files, options, sourceFiles, compiler, output);
+			}
+		}
+	}
+
+	private Boolean compile(String newKey, Map<String, String> hashes, Map<String, String> files,
+			List<String> options, List<String> sourceFiles, Compiler compiler, Map<String, byte[]> output)
+			throws IOException {
+		if (Util.isFresh() || !newKey.equals(key) || !isComplete()) {
+			return fullBuild(options, sourceFiles, newKey, hashes, compiler, output);
+		}
+
+		Set<String> changed = hashes.keySet()
+									.stream()
+									.filter(name -> !units.containsKey(name)
+											|| !units.get(name).hash.equals(hashes.get(name)))
+									.collect(Collectors.toCollection(TreeSet::new));
+		Set<String> removed = units	.keySet()
+									.stream()
+									.filter(name -> !hashes.containsKey(name))
+									.collect(Collectors.toCollection(TreeSet::new));
+		Set<String> outdated = new TreeSet<>(changed);
+		outdated.addAll(removed);
+		Set<String> dirty = new TreeSet<>(changed);
+		dirty.addAll(findDependents(outdated));
+		dirty.removeAll(removed);
+
+		if (dirty.size() == hashes.size()) {
+			return fullBuild(options, sourceFiles, newKey, hashes, compiler, output);
+		}
+		if (dirty.isEmpty() && removed.isEmpty()) {
+			Util.verboseMsg("Reusing all classes from " + dir);
+			readClasses(output);
+			return true;
+		}
+
+		Util.verboseMsg("Recompiling " + dirty.size() + " of " + hashes.size() + " source files");
+		// Classes that are going to be recompiled must not be found on the class path
+		Map<String, Unit> previous = new TreeMap<>();
+		outdated.addAll(dirty);
+		for (String name : outdated) {
+			Unit unit = units.remove(name);
+			if (unit != null) {
+				previous.put(name, unit);
+				for (String cls : unit.classes) {
+					Files.deleteIfExists(getClassesDir().resolve(cls));
+				}
+			}
+		}
+		save();
+		if (dirty.isEmpty()) {
+			readClasses(output);
+			return true;
+		}
+
+		List<String> dirtyFiles = dirty.stream().map(files::get).collect(Collectors.toList());
+		Map<String, byte[]> out = new TreeMap<>();
+		Map<String, URI> origins = new TreeMap<>();
+		Boolean ok = compiler.compile(withClassPath(options, getClassesDir()), dirtyFiles, out, origins);
+		if (ok == null) {
+			clear();
+			return null;
+		}
+		if (!ok) {
+			// The reused classes might be what's wrong, so only a full build can tell
+			Util.verboseMsg("Recompiling the changed sources failed, doing a full build");
+			return fullBuild(options, sourceFiles, newKey, hashes, compiler, output);
+		}
+
+		Map<String, Unit> updated = analyze(hashes, dirty, out, origins);
+		if (updated == null) {
+			Util.verboseMsg("Can't keep track of the compiled classes, doing a full build");
+			return fullBuild(options, sourceFiles, newKey, hashes, compiler, output);
+		}
+		for (Map.Entry<String, Unit> entry : updated.entrySet()) {
+			Unit old = previous.get(entry.getKey());
+			if (old != null && !old.constants.equals(entry.getValue().constants)) {
+				Util.verboseMsg("Constants changed in " + entry.getKey() + ", doing a full build");
+				return fullBuild(options, sourceFiles, newKey, hashes, compiler, output);
+			}
+		}
+		commit(updated, out);
+		readClasses(output);
+		return true;
+	}
+
+	private Boolean fullBuild(List<String> options, List<String> sourceFiles, String newKey,
+			Map<String, String> hashes, Compiler compiler, Map<String, byte[]> output) throws IOException {
+		clear();
+		Map<String, byte[]> out = new TreeMap<>();
+		Map<String, URI> origins = new TreeMap<>();
+		Boolean ok = compiler.compile(options, sourceFiles, out, origins);
+		output.putAll(out);
+		if (Boolean.TRUE.equals(ok)) {
+			Map<String, Unit> updated = analyze(hashes, hashes.keySet(), out, origins);
+			if (updated != null) {
+				key = newKey;
+				commit(updated, out);
+			} else {
+				Util.verboseMsg("Can't keep track of the compiled classes, not storing them");
+			}
+		}
+		return ok;
+	}
+
+	/**
+	 * Returns the names of all the sources that (directly or indirectly) refer to
+	 * any of the classes compiled from the given sources
+	 */
+	private Set<String> findDependents(Set<String> names) {
+		Set<String> result = new TreeSet<>();
+		Deque<String> todo = new ArrayDeque<>(names);
+		while (!todo.isEmpty()) {
+			Unit unit = units.get(todo.pop());
+			if (unit == null) {
+				continue;
+			}
+			Set<String> classNames = unit.classes.stream().map(ClassStore::toClassName).collect(Collectors.toSet());
+			for (Map.Entry<String, Unit> entry : units.entrySet()) {
+				if (!result.contains(entry.getKey())
+						&& !Collections.disjoint(entry.getValue().references, classNames)) {
+					result.add(entry.getKey());
+					todo.add(entry.getKey());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Creates the entries for the given sources out of the compiler output, returns
+	 * <code>null</code> if there's output that can't be traced back to one of them
+	 */
+	private static Map<String, Unit> analyze(Map<String, String> hashes, Set<String> names,
+			Map<String, byte[]> out, Map<String, URI> origins) throws IOException {
+		Map<String, Unit> result = new TreeMap<>();
+		Map<String, Set<String>> constants = new TreeMap<>();
+		for (String name : names) {
+			Unit unit = new Unit();
+			unit.hash = hashes.get(name);
+			result.put(name, unit);
+			constants.put(name, new TreeSet<>());
+		}
+		for (Map.Entry<String, byte[]> entry : out.entrySet()) {
+			URI origin = origins.get(entry.getKey());
+			if (!entry.getKey().endsWith(".class") || origin == null || !"file".equals(origin.getScheme())) {
+				return null;
+			}
+			String name = toName(Paths.get(origin));
+			Unit unit = result.get(name);
+			if (unit == null) {
+				return null;
+			}
+			unit.classes.add(entry.getKey());
+			readClassFile(entry.getValue(), unit.references, constants.get(name));
+		}
+		for (Map.Entry<String, Unit> entry : result.entrySet()) {
+			entry.getValue().constants = Util.getStableID(String.join("\n", constants.get(entry.getKey())));
+		}
+		return result;
+	}
+
+	private void commit(Map<String, Unit> updated, Map<String, byte[]> out) throws IOException {
+		for (Unit unit : updated.values()) {
+			for (String cls : unit.classes) {
+				Path file = getClassesDir().resolve(cls);
+				Files.createDirectories(file.getParent());
+				Files.write(file, out.get(cls));
+			}
+		}
+		units.putAll(updated);
+		save();
+	}
+
+	private void readClasses(Map<String, byte[]> output) throws IOException {
+		for (Unit unit : units.values()) {
+			for (String cls : unit.classes) {
+				output.put(cls, Files.readAllBytes(getClassesDir().resolve(cls)));
+			}
+		}
+	}
+
+	private boolean isComplete() {
+		return units.values()
+					.stream()
+					.flatMap(unit -> unit.classes.stream())
+					.allMatch(cls -> Files.isRegularFile(getClassesDir().resolve(cls)));
+	}
+
+	private void save() throws IOException {
+		Files.createDirectories(dir);
+		Util.writeStringAtomically(dir.resolve(INDEX_FILE),
+				new GsonBuilder().setPrettyPrinting().create().toJson(this));
+	}
+
+	/**
+	 * Removes everything from the store
+	 */
+	public void clear() {
+		key = null;
+		units = new TreeMap<>();
+		Util.deletePath(dir, true);
+	}
+
+	private Path getClassesDir() {
+		return dir.resolve(CLASSES_DIR);
+	}
+
+	private static String toName(Path sourceFile) {
+		return sourceFile.toAbsolutePath().normalize().toString();
+	}
+
+	private static String toClassName(String path) {
+		return path.substring(0, path.length() - ".class".length());
+	}
+
+	/**
+	 * Returns the options with the given folder added in front of the class path
+	 */
+	static List<String> withClassPath(List<String> options, Path dir) {
+		List<String> result = new ArrayList<>(options);
+		for (int i = 0; i < result.size() - 1; i++) {
+			String opt = result.get(i);
+			if (opt.equals("-classpath") || opt.equals("-cp") || opt.equals("--class-path")) {
+				result.set(i + 1, dir.toAbsolutePath() + File.pathSeparator + result.get(i + 1));
+				return result;
+			}
+		}
+		// Without a class path javac would have used the default one
+		String classpath = System.getenv("CLASSPATH") != null ? System.getenv("CLASSPATH") : ".";
+		result.add("-classpath");
+		result.add(dir.toAbsolutePath() + File.pathSeparator + classpath);
+		return result;
+	}
+
+	/**
+	 * Adds the names of the classes that the given class file refers to (leaving
+	 * out the ones from the JDK) to the references and the values of the
+	 * compile-time constants it declares to the constants. The latter get inlined
+	 * by the compiler, so classes using them don't refer to their declaring class.
+	 */
+	static void readClassFile(byte[] bytes, Set<String> references, Set<String> constants) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		if (in.readInt() != 0xCAFEBABE) {
+			throw new IOException("Not a class file");
+		}
+		in.readUnsignedShort(); // minor version
+		in.readUnsignedShort(); // major version
+
+		int count = in.readUnsignedShort();
+		int[] tags = new int[count];
+		Object[] values = new Object[count];
+		List<Integer> classes = new ArrayList<>();
+		for (int i = 1; i < count; i++) {
+			tags[i] = in.readUnsignedByte();
+			switch (tags[i]) {
+			case 1: // Utf8
+				values[i] = in.readUTF();
+				break;
+			case 3: // Integer
+				values[i] = in.readInt();
+				break;
+			case 4: // Float
+				values[i] = in.readFloat();
+				break;
+			case 5: // Long
+				values[i++] = in.readLong();
+				break;
+			case 6: // Double
+				values[i++] = in.readDouble();
+				break;
+			case 7: // Class
+				values[i] = in.readUnsignedShort();
+				classes.add(i);
+				break;
+			case 8: // String
+				values[i] = in.readUnsignedShort();
+				break;
+			case 16: // MethodType
+			case 19: // Module
+			case 20: // Package
+				in.readUnsignedShort();
+				break;
+			case 15: // MethodHandle
+				in.readUnsignedByte();
+				in.readUnsignedShort();
+				break;
+			case 9: // Fieldref
+			case 10: // Methodref
+			case 11: // InterfaceMethodref
+			case 12: // NameAndType
+			case 17: // Dynamic
+			case 18: // InvokeDynamic
+				in.readInt();
+				break;
+			default:
+				throw new IOException("Unknown constant pool tag " + tags[i]);
+			}
+		}
+
+		for (int idx : classes) {
+			addReference(references, (String) values[(Integer) values[idx]]);
+		}
+		for (int i = 1; i < count; i++) {
+			if (tags[i] == 1) {
+				Matcher m = DESCRIPTOR_CLASS.matcher((String) values[i]);
+				while (m.find()) {
+					addReference(references, m.group(1));
+				}
+			}
+		}
+
+		in.readUnsignedShort(); // access flags
+		String className = (String) values[(Integer) values[in.readUnsignedShort()]];
+		in.readUnsignedShort(); // super class
+		int interfaces = in.readUnsignedShort();
+		for (int i = 0; i < interfaces; i++) {
+			in.readUnsignedShort();
+		}
+		int fields = in.readUnsignedShort();
+		for (int i = 0; i < fields; i++) {
+			in.readUnsignedShort(); // access flags
+			String field = (String) values[in.readUnsignedShort()];
+			in.readUnsignedShort(); // descriptor
+			int attributes = in.readUnsignedShort();
+			for (int j = 0; j < attributes; j++) {
+				String attribute = (String) values[in.readUnsignedShort()];
+				int length = in.readInt();
+				if ("ConstantValue".equals(attribute)) {
+					int idx = in.readUnsignedShort();
+					Object value = tags[idx] == 8 ? "\"" + values[(Integer) values[idx]] + "\"" : values[idx];
+					constants.add(className + "." + field + "=" + value);
+				} else {
+					in.skipBytes(length);
+				}
+			}
+		}
+	}
+
+	private static void addReference(Set<String> references, String name) {
+		if (name.startsWith("[")) {
+			Matcher m = DESCRIPTOR_CLASS.matcher(name);
+			while (m.find()) {
+				addReference(references, m.group(1));
+			}
+		} else if (!name.startsWith("java/")) {
+			references.add(name);
+		}
+	}
+}
@@ -34,10 +34,14 @@ public class JarSource implements Source {
 
 	// Cached values
 	private String classPath;
+	private String classPathGavs;
+	private String classPathTimestamps;
 	private String mainClass;
 	private List<String> javaRuntimeOptions;
 	private int buildJdk;
+	private boolean allowWarm = true;
 	private ScriptSource scriptSource;
+	private boolean upToDate;
 
 	private JarSource(ResourceRef resourceRef, File jar) {
 		this.resourceRef = resourceRef;
@@ -53,12 +57,16 @@ public class JarSource implements Source {
 					javaRuntimeOptions = Source.quotedStringToList(val);
 				}
 
+				allowWarm = !Boolean.parseBoolean(attrs.getValue(Source.ATTR_JBANG_NO_WARM));
+
 				String ver = attrs.getValue(Source.ATTR_BUILD_JDK);
 				if (ver != null) {
 					buildJdk = JavaUtil.parseJavaVersion(ver);
 				}
 
 				classPath = attrs.getValue(Attributes.Name.CLASS_PATH);
+				classPathGavs = attrs.getValue(Source.ATTR_JBANG_CLASS_PATH_GAVS);
+				classPathTimestamps = attrs.getValue(Source.ATTR_JBANG_CLASS_PATH_TIMESTAMPS);
 			} catch (IOException e) {
 				Util.warnMsg("Problem reading manifest from " + getResourceRef().getFile());
 			}
@@ -93,7 +101,18 @@ public class JarSource implements Source {
 	 * be rebuilt
 	 */
 	public boolean isUpToDate() {
-		return jarFile != null && jarFile.exists() && resolveClassPath(Collections.emptyList()).isValid();
+		if (!upToDate) {
+			upToDate = jarFile != null && jarFile.exists() && resolveClassPath(Collections.emptyList()).isValid();
+		}
+		return upToDate;
+	}
+
+	/**
+	 * Marks the jar as up-to-date, for when that was already determined some other
+	 * way (see <code>BuildFingerprint</code>)
+	 */
+	void setUpToDate() {
+		upToDate = true;
 	}
 
 	@Override
@@ -113,7 +132,8 @@ public class JarSource implements Source {
 		} else if (classPath != null) {
 			ModularClassPath mcp2 = new DependencyUtil().resolveDependencies(additionalDeps,
 					Collections.emptyList(), Util.isOffline(), Util.isFresh(), !Util.isQuiet());
-			ModularClassPath mcp3 = ModularClassPath.fromManifestClasspath(classPath);
+			ModularClassPath mcp3 = ModularClassPath.fromManifestClasspath(classPath, classPathGavs,
+					classPathTimestamps);
 			List<ArtifactInfo> arts = Stream.concat(mcp2.getArtifacts().stream(), mcp3.getArtifacts().stream())
 											.collect(Collectors.toList());
 			mcp = new ModularClassPath(arts);
@@ -141,6 +161,11 @@ public class JarSource implements Source {
 		return javaRuntimeOptions;
 	}
 
+	@Override
+	public boolean allowWarm() {
+		return allowWarm;
+	}
+
 	@Override
 	public boolean isCreatedJar() {
 		return false;
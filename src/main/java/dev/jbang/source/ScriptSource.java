@@ -25,8 +25,11 @@ import dev.jbang.Cache;
 import dev.jbang.Settings;
 import dev.jbang.cli.BaseCommand;
 import dev.jbang.cli.ExitException;
+import dev.jbang.dependencies.ArtifactInfo;
+import dev.jbang.dependencies.DependencyCache;
 import dev.jbang.dependencies.DependencyUtil;
 import dev.jbang.dependencies.Detector;
+import dev.jbang.dependencies.LockFile;
 import dev.jbang.dependencies.MavenRepo;
 import dev.jbang.dependencies.ModularClassPath;
 import dev.jbang.util.JavaUtil;
@@ -185,11 +188,49 @@ public class ScriptSource implements Source {
 	public ModularClassPath resolveClassPath(List<String> dependencies) {
 		ModularClassPath classpath;
 		List<MavenRepo> repositories = getAllRepositories();
-		classpath = new DependencyUtil().resolveDependencies(dependencies, repositories, Util.isOffline(),
-				Util.isFresh(), !Util.isQuiet());
+		LockFile lock = getLockFile();
+		if (lock != null && !dependencies.isEmpty() && lock.matches(dependencies)) {
+			classpath = new DependencyUtil().resolveDependencies(lock, repositories, Util.isOffline(),
+					!Util.isQuiet());
+		} else {
+			if (lock != null && !dependencies.isEmpty()) {
+				Util.verboseMsg("Ignoring lock file because the dependencies don't match " + dependencies);
+			}
+			classpath = new DependencyUtil().resolveDependencies(dependencies, repositories, Util.isOffline(),
+					Util.isFresh(), !Util.isQuiet());
+		}
 		return classpath;
 	}
 
+	/**
+	 * Returns the class path the dependency cache currently holds for the given
+	 * dependencies, without resolving anything. Returns <code>null</code> when the
+	 * class path doesn't come from the cache, because the dependencies are locked,
+	 * or when the cache has no valid entry for them.
+	 */
+	public List<ArtifactInfo> findCachedClassPath(List<String> dependencies) {
+		if (dependencies.isEmpty()) {
+			return Collections.emptyList();
+		}
+		LockFile lock = getLockFile();
+		if (lock != null && lock.matches(dependencies)) {
+			return null;
+		}
+		return DependencyCache.findDependenciesByHash(DependencyUtil.getCacheKey(dependencies, true));
+	}
+
+	/**
+	 * Returns the lock file that was created for this script using
+	 * <code>jbang deps lock</code> or <code>null</code> if there is none. Only
+	 * local scripts can have lock files.
+	 */
+	public LockFile getLockFile() {
+		if (getResourceRef().isURL() || getResourceRef().getFile() == null) {
+			return null;
+		}
+		return LockFile.readFor(getResourceRef().getFile().toPath());
+	}
+
 	public static class KeyValue {
 		final String key;
 		final String value;
@@ -372,6 +413,11 @@ public class ScriptSource implements Source {
 		return !collectRawOptions("CDS").isEmpty();
 	}
 
+	@Override
+	public boolean allowWarm() {
+		return collectRawOptions("NOWARM").isEmpty();
+	}
+
 	@Override
 	public String getJavaVersion() {
 		Optional<String> version = collectAll(ScriptSource::collectJavaVersions).stream()
@@ -21,9 +21,12 @@ import dev.jbang.dependencies.ModularClassPath;
 public interface Source {
 	String ATTR_BUILD_JDK = "Build-Jdk";
 	String ATTR_JBANG_JAVA_OPTIONS = "JBang-Java-Options";
+	String ATTR_JBANG_CLASS_PATH_GAVS = "JBang-Class-Path-GAVs";
+	String ATTR_JBANG_CLASS_PATH_TIMESTAMPS = "JBang-Class-Path-Timestamps";
 	String ATTR_BOOT_CLASS_PATH = "Boot-Class-Path";
 	String ATTR_PREMAIN_CLASS = "Premain-Class";
 	String ATTR_AGENT_CLASS = "Agent-Class";
+	String ATTR_JBANG_NO_WARM = "JBang-No-Warm";
 
 	/**
 	 * Returns the reference to resource to be executed. This contains both the
@@ -82,6 +85,14 @@ public interface Source {
 		return false;
 	}
 
+	/**
+	 * Determines if this Source may be run in a warm JVM, which isn't the case for
+	 * code that changes the global state of the JVM it runs in
+	 */
+	default boolean allowWarm() {
+		return true;
+	}
+
 	/**
 	 * Returns the requested Java version
 	 */
@@ -3,6 +3,7 @@ package dev.jbang.spi;
 import static dev.jbang.cli.BaseCommand.EXIT_UNEXPECTED_STATE;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -23,6 +24,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.jar.JarFile;
 import java.util.stream.Collectors;
 
 import dev.jbang.cli.ExitException;
@@ -41,6 +43,32 @@ public class IntegrationManager {
 	public static final String MAIN_CLASS = "main-class";
 	public static final String JAVA_ARGS = "java-args";
 
+	private static final String INTEGRATION_LIST = "META-INF/jbang-integration.list";
+
+	/**
+	 * Determines if any of the given artifacts contains integration points
+	 */
+	public static boolean hasIntegrations(List<ArtifactInfo> artifacts) {
+		for (ArtifactInfo art : artifacts) {
+			File file = art.getFile();
+			if (file.isDirectory()) {
+				if (new File(file, INTEGRATION_LIST).isFile()) {
+					return true;
+				}
+			} else if (file.isFile()) {
+				try (JarFile jar = new JarFile(file)) {
+					if (jar.getEntry(INTEGRATION_LIST) != null) {
+						return true;
+					}
+				} catch (IOException e) {
+					// Not a valid jar so it can't have integrations either
+					Util.verboseMsg("Could not check " + file + " for integrations", e);
+				}
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Discovers all integration points and runs them.
 	 * <p>
@@ -155,7 +183,7 @@ public class IntegrationManager {
 
 	private static Set<String> loadIntegrationClassNames(URLClassLoader integrationCl) throws IOException {
 		Set<String> classNames = new HashSet<>();
-		Enumeration<URL> files = integrationCl.getResources("META-INF/jbang-integration.list");
+		Enumeration<URL> files = integrationCl.getResources(INTEGRATION_LIST);
 		while (files.hasMoreElements()) {
 			URL res = files.nextElement();
 			try (InputStream in = res.openStream()) {
@@ -0,0 +1,509 @@
+package dev.jbang.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import dev.jbang.Cache;
+import dev.jbang.Settings;
+
+/**
+ * An Application Class Data Sharing (AppCDS) archive. There are two kinds:
+ *
+ * A static archive is created by dumping the classes of all the jars on the
+ * class path, together with the classes of the JDK that get shared by default.
+ * This is what a script's archive normally is, and what the archive of the
+ * dependencies is that scripts with the same dependencies can share.
+ *
+ * A dynamic archive is created by running the application and archiving the
+ * classes it loaded when it exits, either as a training run or by only loading
+ * the main class. It can be layered on top of a shared archive of the
+ * dependencies, it then only contains the script's own classes.
+ *
+ * An archive can only be used with a class path that starts with the exact
+ * class path it was created for. So a shared archive of the dependencies only
+ * works when the dependencies come before the script's jar on the class path.
+ *
+ * Next to each archive a file records the JDK and the class path it was created
+ * for. An archive that doesn't match those anymore is never passed to the JVM,
+ * it gets deleted and created again instead.
+ */
+public class CdsArchive {
+	public static final int MIN_JAVA_VERSION = 13;
+
+	private static final String INFO_SUFFIX = ".json";
+	private static final long LOCK_TIMEOUT = 10 * 60 * 1000;
+
+	private final Path archive;
+	private final boolean shared;
+
+	static class Info {
+		String jdk;
+		String vendor;
+		String javaHome;
+		String classpath;
+		String base;
+		boolean trained;
+
+		boolean matches(Info other) {
+			return Objects.equals(jdk, other.jdk) && Objects.equals(vendor, other.vendor)
+					&& Objects.equals(javaHome, other.javaHome) && Objects.equals(classpath, other.classpath)
+					&& Objects.equals(base, other.base);
+		}
+	}
+
+	CdsArchive(Path archive, boolean shared) {
+		this.archive = archive;
+		this.shared = shared;
+	}
+
+	public static CdsArchive forJar(File jar) {
+		return new CdsArchive(Paths.get(jar.getAbsolutePath() + ".jsa"), false);
+	}
+
+	/**
+	 * Returns the archive for the given class path of dependencies when run with
+	 * the given Java command. Scripts that have the same dependencies share it.
+	 * Returns <code>null</code> if the JDK can't be determined.
+	 */
+	public static CdsArchive forDependencies(String javaCmd, String classpath) {
+		Info info = describe(javaCmd, classpath, null);
+		if (info == null) {
+			return null;
+		}
+		String id = Util.getStableID(info.jdk + "\n" + info.vendor + "\n" + info.javaHome + "\n" + info.classpath);
+		return new CdsArchive(Settings.getCacheDir(Cache.CacheClass.cds).resolve(id + ".jsa"), true);
+	}
+
+	public Path getFile() {
+		return archive;
+	}
+
+	/**
+	 * Returns true if the archive exists and was created for the given Java
+	 * command, class path and base archive (and with a training run if asked for)
+	 */
+	public boolean isUpToDate(String javaCmd, String classpath, CdsArchive base, boolean training) {
+		Info current = describe(javaCmd, classpath, base);
+		Info stored = readInfo();
+		return current != null && stored != null && stored.matches(current) && Files.isRegularFile(archive)
+				&& (!training || stored.trained);
+	}
+
+	/**
+	 * Makes sure there's an archive that was created for the given Java command and
+	 * class path (and base archive, if any), creating it when there's none or when
+	 * the one that exists was made for a different JDK or class path.
+	 *
+	 * Without a base archive and run arguments a static archive gets created
+	 * containing the classes of all the jars on the class path. Otherwise the run
+	 * arguments (everything to pass to the Java command, including the class path
+	 * and main class) are used to create a dynamic archive, on top of the base
+	 * archive when there is one.
+	 *
+	 * @return true if the archive can be used
+	 */
+	public boolean update(String javaCmd, String classpath, CdsArchive base, List<String> run, boolean training) {
+		Info current = describe(javaCmd, classpath, base);
+		if (current == null) {
+			Util.verboseMsg("CDS: Unable to determine the JDK of " + javaCmd + ", not using CDS");
+			return false;
+		}
+		if (JavaUtil.parseJavaVersion(current.jdk) < MIN_JAVA_VERSION) {
+			Util.warnMsg("CDS requires Java " + MIN_JAVA_VERSION + "+, not using it for Java " + current.jdk);
+			return false;
+		}
+		// Archives can be shared and scripts can be built concurrently, so make sure
+		// an archive doesn't get created twice at the same time
+		synchronized (CdsArchive.class) {
+			Info stored = readInfo();
+			if (stored != null && stored.matches(current) && Files.isRegularFile(archive)
+					&& (!training || stored.trained)) {
+				return true;
+			}
+			if (stored != null) {
+				Util.verboseMsg("CDS: Archive " + archive + " is out of date");
+			}
+			try {
+				delete();
+				if (base != null && run == null) {
+					// Dynamic archives need a main class to run
+					return false;
+				}
+				current.trained = training;
+				return create(javaCmd, classpath, base, run, current, null);
+			} catch (IOException e) {
+				Util.verboseMsg("CDS: Unable to create archive " + archive, e);
+				return false;
+			}
+		}
+	}
+
+	private boolean create(String javaCmd, String classpath, CdsArchive base, List<String> run, Info info,
+			Map<String, String> env) throws IOException {
+		Files.createDirectories(archive.getParent());
+		// Unique names, in case another jbang is creating the same archive
+		Path tmpArchive = Files.createTempFile(archive.getParent(), archive.getFileName().toString(), ".tmp");
+		Path classList = Files.createTempFile(archive.getParent(), archive.getFileName().toString(), ".classlist");
+		Path log = Files.createTempFile(archive.getParent(), archive.getFileName().toString(), ".log");
+		List<String> cmd = new ArrayList<>();
+		cmd.add(javaCmd);
+		if (run != null) {
+			Util.infoMsg(info.trained ? "Creating CDS archive with a training run..." : "Creating CDS archive...");
+			if (base != null) {
+				cmd.add("-XX:SharedArchiveFile=" + base.getFile());
+			}
+			cmd.add("-XX:ArchiveClassesAtExit=" + tmpArchive);
+			cmd.addAll(run);
+		} else {
+			Util.infoMsg(shared ? "Creating shared CDS archive for the dependencies..." : "Creating CDS archive...");
+			Util.writeString(classList, String.join("\n", classList(classpath, Paths.get(info.javaHome))));
+			cmd.add("-Xshare:dump");
+			cmd.add("-XX:SharedClassListFile=" + classList);
+			cmd.add("-XX:SharedArchiveFile=" + tmpArchive);
+			cmd.add("-classpath");
+			cmd.add(classpath);
+		}
+		Util.verboseMsg("CDS: " + String.join(" ", cmd));
+		try {
+			// The JVM writes the archive itself
+			Files.delete(tmpArchive);
+			ProcessBuilder pb = new ProcessBuilder(cmd)	.redirectErrorStream(true)
+														.redirectOutput(log.toFile());
+			if (env != null) {
+				env.forEach((k, v) -> {
+					if (v != null) {
+						pb.environment().put(k, v);
+					} else {
+						pb.environment().remove(k);
+					}
+				});
+			}
+			Process process = pb.start();
+			process.getOutputStream().close();
+			int timeout = Settings.getCdsTrainingTimeout();
+			if (info.trained && !process.waitFor(timeout, TimeUnit.SECONDS)) {
+				// The archive gets written when the JVM exits, also when it's stopped
+				Util.verboseMsg("CDS: Stopping training run after " + timeout + " seconds");
+				process.destroy();
+			}
+			process.waitFor();
+			if (!Files.isRegularFile(tmpArchive)) {
+				Util.warnMsg("Unable to create CDS archive, not using CDS");
+				Util.verboseMsg(Util.readString(log));
+				return false;
+			}
+			Files.move(tmpArchive, archive, StandardCopyOption.REPLACE_EXISTING);
+			Util.writeStringAtomically(getInfoFile(), new GsonBuilder().setPrettyPrinting().create().toJson(info));
+			return true;
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} finally {
+			Files.deleteIfExists(tmpArchive);
+			Files.deleteIfExists(classList);
+			Files.deleteIfExists(log);
+		}
+	}
+
+	/**
+	 * Keeps the archive up to date that the launcher scripts use for starting jbang
+	 * itself. The launcher tells where it looks for the archive for the JDK it
+	 * uses. When that archive doesn't exist or it doesn't match the JDK or
+	 * jbang.jar anymore a new one gets created in the background by a training run
+	 * of jbang, so it doesn't slow down the current command. A lock file next to the
+	 * archive, created before the background process starts and removed by it when
+	 * it's done, makes sure concurrent jbang commands start only one of them.
+	 */
+	public static void updateLauncherArchive() {
+		Path file = Settings.getLauncherCdsArchive();
+		String jar = getJbangJar();
+		if (file == null || jar == null
+				|| JavaUtil.parseJavaVersion(System.getProperty("java.version")) < MIN_JAVA_VERSION) {
+			return;
+		}
+		String javaCmd = getJavaCmd();
+		CdsArchive archive = new CdsArchive(file, true);
+		Info current = describe(javaCmd, jar, null);
+		Info stored = archive.readInfo();
+		if (current == null || (stored != null && stored.matches(current) && Files.isRegularFile(file))) {
+			return;
+		}
+		Path lock = archive.getLockFile();
+		try {
+			Files.createDirectories(file.getParent());
+			if (!lock(lock)) {
+				// Another jbang is already busy creating it
+				return;
+			}
+			List<String> cmd = Arrays.asList(javaCmd, "-classpath", jar, CdsArchive.class.getName(), file.toString());
+			Util.verboseMsg("CDS: Creating launcher archive in the background: " + String.join(" ", cmd));
+			new ProcessBuilder(cmd)	.redirectErrorStream(true)
+									.redirectOutput(archive.getLogFile().toFile())
+									.start();
+		} catch (IOException e) {
+			Util.verboseMsg("CDS: Unable to create launcher archive " + file, e);
+			try {
+				Files.deleteIfExists(lock);
+			} catch (IOException ex) {
+				// It will be considered stale after a while
+			}
+		}
+	}
+
+	/**
+	 * Atomically creates the given lock file, returns false if it already exists
+	 * and isn't stale
+	 */
+	private static boolean lock(Path lock) throws IOException {
+		try {
+			Files.createFile(lock);
+			return true;
+		} catch (FileAlreadyExistsException e) {
+			if (System.currentTimeMillis() - Files.getLastModifiedTime(lock).toMillis() < LOCK_TIMEOUT) {
+				return false;
+			}
+		}
+		// Left behind by a process that didn't finish, only one of the jbangs that
+		// find it gets to replace it
+		Path stale = lock.resolveSibling(lock.getFileName() + ".stale");
+		try {
+			Files.move(lock, stale);
+		} catch (IOException e) {
+			return false;
+		}
+		Files.deleteIfExists(stale);
+		try {
+			Files.createFile(lock);
+			return true;
+		} catch (FileAlreadyExistsException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Creates the launcher archive given as the only argument with a training run
+	 * that runs a small script, using its own jbang directory so it can't affect
+	 * the user's cache or configuration. The lock file was created by
+	 * <code>updateLauncherArchive()</code>, it gets removed when done.
+	 */
+	public static void main(String... args) throws IOException {
+		CdsArchive archive = new CdsArchive(Paths.get(args[0]), true);
+		Path dir = Files.createTempDirectory("jbang-cds");
+		try {
+			String javaCmd = getJavaCmd();
+			String jar = getJbangJar();
+			Path script = dir.resolve("hello.java");
+			Util.writeString(script,
+					"class hello {\n\tpublic static void main(String... args) {\n\t\tSystem.out.println(\"Hello\");\n\t}\n}\n");
+			Map<String, String> env = new HashMap<>();
+			env.put(Settings.JBANG_DIR, dir.resolve("jbang").toString());
+			env.put(Settings.JBANG_CACHE_DIR, dir.resolve("cache").toString());
+			env.put("JAVA_HOME", System.getProperty("java.home"));
+			env.put(Settings.ENV_LAUNCHER_CDS, null);
+			env.put(Settings.ENV_COMPILE_DAEMON, null);
+			List<String> run = Arrays.asList("-classpath", jar, "dev.jbang.Main", "run", script.toString());
+			Info info = describe(javaCmd, jar, null);
+			if (info != null) {
+				info.trained = true;
+				archive.create(javaCmd, jar, null, run, info, env);
+			}
+		} finally {
+			Util.deletePath(dir, true);
+			Files.deleteIfExists(archive.getLockFile());
+		}
+	}
+
+	private static String getJavaCmd() {
+		return Paths.get(System.getProperty("java.home"), "bin", Util.isWindows() ? "java.exe" : "java").toString();
+	}
+
+	/**
+	 * Returns the path to jbang.jar or <code>null</code> when jbang isn't running
+	 * from a jar
+	 */
+	private static String getJbangJar() {
+		try {
+			File jar = new File(CdsArchive.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			return jar.isFile() ? jar.getPath() : null;
+		} catch (URISyntaxException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The classes to archive: those of the jars on the class path and the ones the
+	 * JDK shares by default, which would otherwise not be shared anymore
+	 */
+	private static List<String> classList(String classpath, Path javaHome) throws IOException {
+		List<String> result = new ArrayList<>();
+		for (String jar : classpath.split(File.pathSeparator)) {
+			if (!new File(jar).isFile()) {
+				continue;
+			}
+			try (JarFile jf = new JarFile(jar)) {
+				for (JarEntry entry : Collections.list(jf.entries())) {
+					String name = entry.getName();
+					if (name.endsWith(".class") && !name.startsWith("META-INF/")
+							&& !name.endsWith("module-info.class")) {
+						result.add(name.substring(0, name.length() - ".class".length()));
+					}
+				}
+			}
+		}
+		Path defaultList = javaHome.resolve("lib").resolve("classlist");
+		if (Files.isRegularFile(defaultList)) {
+			try (Stream<String> lines = Files.lines(defaultList)) {
+				result.addAll(lines.filter(l -> !l.startsWith("#")).collect(Collectors.toList()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the names of the classes and resources of the given jar that also
+	 * exist in one of the given dependencies. When the dependencies come first on
+	 * the class path those are the ones that get used instead of the jar's own.
+	 * The manifest and module descriptors are left out, every jar has those.
+	 */
+	public static List<String> findOverlaps(File jar, List<String> dependencies) throws IOException {
+		Set<String> names = new TreeSet<>(entryNames(jar));
+		Set<String> result = new TreeSet<>();
+		for (String dep : dependencies) {
+			File file = new File(dep);
+			if (file.isFile()) {
+				for (String name : entryNames(file)) {
+					if (names.contains(name)) {
+						result.add(name);
+					}
+				}
+			}
+		}
+		return new ArrayList<>(result);
+	}
+
+	private static List<String> entryNames(File jar) throws IOException {
+		try (JarFile jf = new JarFile(jar)) {
+			return Collections	.list(jf.entries())
+								.stream()
+								.filter(e -> !e.isDirectory())
+								.map(JarEntry::getName)
+								.filter(n -> !n.equals(JarFile.MANIFEST_NAME) && !n.endsWith("module-info.class"))
+								.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Describes the JDK of the given Java command (using its "release" file), the
+	 * given class path and base archive, whose files are identified by their path,
+	 * size and modification time. Returns <code>null</code> if the JDK can't be
+	 * determined.
+	 */
+	static Info describe(String javaCmd, String classpath, CdsArchive base) {
+		try {
+			Path cmd = Paths.get(javaCmd);
+			if (!cmd.isAbsolute()) {
+				Path dir = Util.searchPath(javaCmd);
+				if (dir == null) {
+					return null;
+				}
+				cmd = dir.resolve(javaCmd);
+			}
+			Path javaHome = cmd.toRealPath().getParent().getParent();
+			Path release = javaHome.resolve("release");
+			if (!Files.isRegularFile(release)) {
+				return null;
+			}
+			Properties props = new Properties();
+			try (InputStream in = Files.newInputStream(release)) {
+				props.load(in);
+			}
+			Info result = new Info();
+			result.jdk = unquote(props.getProperty("JAVA_RUNTIME_VERSION", props.getProperty("JAVA_VERSION")));
+			result.vendor = unquote(props.getProperty("IMPLEMENTOR"));
+			result.javaHome = javaHome.toString();
+			result.classpath = fingerprint(Arrays.asList(classpath.split(File.pathSeparator)));
+			if (base != null) {
+				result.base = fingerprint(Collections.singletonList(base.getFile().toString()));
+			}
+			return result;
+		} catch (IOException e) {
+			Util.verboseMsg("CDS: Unable to determine the JDK of " + javaCmd, e);
+			return null;
+		}
+	}
+
+	private static String fingerprint(List<String> files) {
+		List<String> entries = new ArrayList<>();
+		for (String entry : files) {
+			File f = new File(entry).getAbsoluteFile();
+			entries.add(f + " " + f.length() + " " + f.lastModified());
+		}
+		return Util.getStableID(String.join("\n", entries));
+	}
+
+	private static String unquote(String value) {
+		if (value != null && value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+			return value.substring(1, value.length() - 1);
+		}
+		return value;
+	}
+
+	Info readInfo() {
+		Path file = getInfoFile();
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (Reader in = Files.newBufferedReader(file)) {
+			return new Gson().fromJson(in, Info.class);
+		} catch (IOException | JsonParseException e) {
+			Util.verboseMsg("CDS: Ignoring invalid archive information " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Removes the archive and the information about it
+	 */
+	public void delete() throws IOException {
+		Files.deleteIfExists(getInfoFile());
+		Files.deleteIfExists(archive);
+	}
+
+	Path getInfoFile() {
+		return archive.resolveSibling(archive.getFileName() + INFO_SUFFIX);
+	}
+
+	private Path getLockFile() {
+		return archive.resolveSibling(archive.getFileName() + ".lock");
+	}
+
+	private Path getLogFile() {
+		return archive.resolveSibling(archive.getFileName() + ".log");
+	}
+}
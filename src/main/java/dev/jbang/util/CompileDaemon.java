@@ -0,0 +1,457 @@
+package dev.jbang.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import dev.jbang.Settings;
+
+/**
+ * A background process that keeps a warmed-up Java compiler around, so repeated
+ * builds don't each have to pay for starting and warming up a new one. There's
+ * one daemon per user and JDK version, it listens on a local socket and shuts
+ * itself down after not getting any requests for a while.
+ *
+ * Its port, together with a secret that clients must send with their requests,
+ * is written to a file in the "daemons" folder of the cache that only the user
+ * can read. Removing that file stops the daemon.
+ *
+ * Every request gets its own file manager so nothing (like the class path or
+ * opened jars) is shared between requests, only the compiler itself is. The
+ * compiler output is sent back instead of being written to disk.
+ *
+ * NB: the daemon itself runs with nothing but jbang's own classes on its class
+ * path, so the code it runs must only use the JDK (and the in-memory file
+ * manager).
+ */
+public class CompileDaemon {
+	private static final int STATUS_FAILED = 0;
+	private static final int STATUS_OK = 1;
+	private static final int STATUS_UNSUPPORTED = 2;
+
+	private static final int CONNECT_TIMEOUT = 1000;
+	private static final int POLL_INTERVAL = 1000;
+
+	// Options whose value is a list of paths
+	private static final Set<String> PATH_OPTIONS = new HashSet<>(Arrays.asList("-classpath", "-cp",
+			"--class-path", "-sourcepath", "--source-path", "-processorpath", "--processor-path", "--module-path",
+			"-p", "--processor-module-path", "--upgrade-module-path"));
+
+	private final Path infoFile;
+	private final long idleMillis;
+	private final String secret;
+	private final JavaCompiler compiler;
+	private final AtomicInteger active = new AtomicInteger();
+	private volatile long lastActivity = System.currentTimeMillis();
+
+	private CompileDaemon(Path infoFile, long idleMillis, JavaCompiler compiler) {
+		this.infoFile = infoFile;
+		this.idleMillis = idleMillis;
+		this.compiler = compiler;
+		this.secret = newSecret();
+	}
+
+	/**
+	 * Runs the daemon, takes the path of the file to write the connection
+	 * information to and the number of idle minutes after which to shut down
+	 */
+	public static void main(String... args) throws IOException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			System.err.println("No Java compiler available");
+			System.exit(1);
+		}
+		long idleMillis = TimeUnit.MINUTES.toMillis(Long.parseLong(args[1]));
+		new CompileDaemon(Paths.get(args[0]), idleMillis, compiler).serve();
+		System.exit(0);
+	}
+
+	private void serve() throws IOException {
+		ExecutorService executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "jbang-compile");
+			t.setDaemon(true);
+			return t;
+		});
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			server.setSoTimeout(POLL_INTERVAL);
+			writeInfo(infoFile, server.getLocalPort(), secret);
+			System.err.println("Compile daemon listening on port " + server.getLocalPort());
+			while (true) {
+				try {
+					Socket socket = server.accept();
+					active.incrementAndGet();
+					executor.execute(() -> handle(socket));
+				} catch (SocketTimeoutException e) {
+					// Time to see if we're still needed
+				}
+				if (!isCurrent()) {
+					System.err.println("Connection information was removed, shutting down");
+					break;
+				}
+				if (active.get() == 0 && System.currentTimeMillis() - lastActivity > idleMillis) {
+					System.err.println("Idle for too long, shutting down");
+					break;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			if (isCurrent()) {
+				Files.deleteIfExists(infoFile);
+			}
+		}
+	}
+
+	/**
+	 * Returns a random secret that clients must send with their requests
+	 */
+	static String newSecret() {
+		byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the connection information to the given file, in a way that only the
+	 * user can read it
+	 */
+	static void writeInfo(Path infoFile, int port, String secret) throws IOException {
+		StringBuilder info = new StringBuilder();
+		info.append("port=").append(port).append('\n');
+		info.append("secret=").append(secret).append('\n');
+		info.append("java=").append(System.getProperty("java.version")).append('\n');
+		Files.createDirectories(infoFile.getParent());
+		// Temporary files are only readable by their owner
+		Path tmp = Files.createTempFile(infoFile.getParent(), infoFile.getFileName().toString(), ".tmp");
+		try {
+			Files.write(tmp, info.toString().getBytes(StandardCharsets.UTF_8));
+			try {
+				Files.move(tmp, infoFile, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, infoFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Returns whether the connection information in the file is still ours, it
+	 * won't be when the file got removed or another daemon took over.
+	 */
+	private boolean isCurrent() {
+		return isCurrent(infoFile, secret);
+	}
+
+	static boolean isCurrent(Path infoFile, String secret) {
+		Properties info = readInfo(infoFile);
+		return info != null && secret.equals(info.getProperty("secret"));
+	}
+
+	private void handle(Socket socket) {
+		try (Socket s = socket;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+			// Check the length first, we don't want to read just anything
+			if (in.readInt() != secret.length() || !secret.equals(readChars(in, secret.length()))) {
+				return;
+			}
+			List<String> options = readStrings(in);
+			List<String> sourceFiles = readStrings(in);
+			compile(options, sourceFiles, out);
+		} catch (IOException e) {
+			System.err.println("Failed to handle request: " + e);
+		} finally {
+			lastActivity = System.currentTimeMillis();
+			active.decrementAndGet();
+		}
+	}
+
+	private void compile(List<String> options, List<String> sourceFiles, DataOutputStream out) throws IOException {
+		List<Diagnostic.Kind> kinds = new ArrayList<>();
+		List<String> messages = new ArrayList<>();
+		DiagnosticListener<JavaFileObject> listener = d -> {
+			kinds.add(d.getKind());
+			messages.add(formatDiagnostic(d));
+		};
+		StringWriter text = new StringWriter();
+		int status;
+		Map<String, byte[]> output = null;
+		Map<String, URI> origins = null;
+		try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(listener, null, null);
+				MemoryFileManager memoryManager = new MemoryFileManager(fileManager)) {
+			Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromStrings(sourceFiles);
+			boolean result = compiler.getTask(text, memoryManager, listener, options, null, units).call();
+			status = result ? STATUS_OK : STATUS_FAILED;
+			output = memoryManager.getOutput();
+			origins = memoryManager.getOrigins();
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			status = STATUS_UNSUPPORTED;
+		}
+
+		out.writeByte(status);
+		writeString(out, text.toString());
+		out.writeInt(kinds.size());
+		for (int i = 0; i < kinds.size(); i++) {
+			writeString(out, kinds.get(i).name());
+			writeString(out, messages.get(i));
+		}
+		if (output == null) {
+			out.writeInt(0);
+		} else {
+			out.writeInt(output.size());
+			for (Map.Entry<String, byte[]> entry : output.entrySet()) {
+				URI origin = origins.get(entry.getKey());
+				writeString(out, entry.getKey());
+				writeString(out, origin != null ? origin.toString() : "");
+				out.writeInt(entry.getValue().length);
+				out.write(entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Formats a compiler diagnostic as "file:line: message"
+	 */
+	public static String formatDiagnostic(Diagnostic<? extends JavaFileObject> diagnostic) {
+		StringBuilder msg = new StringBuilder();
+		if (diagnostic.getSource() != null) {
+			msg.append(diagnostic.getSource().getName());
+			if (diagnostic.getLineNumber() != Diagnostic.NOPOS) {
+				msg.append(':').append(diagnostic.getLineNumber());
+			}
+			msg.append(": ");
+		}
+		msg.append(diagnostic.getMessage(null));
+		return msg.toString();
+	}
+
+	/**
+	 * Compiles the given source files using the compile daemon for the given Java
+	 * version. When the daemon isn't running it gets started in the background, to
+	 * be used by the next build.
+	 *
+	 * @param javaCmd     The java command to start the daemon with
+	 * @param javaVersion The version of the JDK to compile with
+	 * @param output      The compiler output gets added to this map, by path
+	 * @param origins     The location of the source file of each path in the output
+	 *                    gets added to this map
+	 * @param reporter    Gets called for each diagnostic the compiler reported
+	 *
+	 * @return whether the compilation succeeded or <code>null</code> if the daemon
+	 *         isn't available or can't compile using the given options
+	 */
+	public static Boolean compile(String javaCmd, int javaVersion, List<String> options, List<String> sourceFiles,
+			Map<String, byte[]> output, Map<String, URI> origins, BiConsumer<Diagnostic.Kind, String> reporter)
+			throws IOException {
+		Path infoFile = getInfoFile(javaVersion);
+		Properties info = readInfo(infoFile);
+		if (info == null || JavaUtil.parseJavaVersion(info.getProperty("java")) != javaVersion) {
+			start(javaCmd, infoFile);
+			return null;
+		}
+
+		// The daemon doesn't run in our working directory
+		List<String> opts = absolutePaths(options);
+		List<String> files = new ArrayList<>();
+		for (String file : sourceFiles) {
+			files.add(Paths.get(file).toAbsolutePath().toString());
+		}
+		Util.verboseMsg("compile (daemon): " + String.join(" ", opts) + " " + String.join(" ", files));
+		try (Socket socket = new Socket()) {
+			int port = Integer.parseInt(info.getProperty("port"));
+			socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			writeString(out, info.getProperty("secret", ""));
+			writeStrings(out, opts);
+			writeStrings(out, files);
+			out.flush();
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			int status = in.readUnsignedByte();
+			String text = readString(in);
+			if (!text.isEmpty()) {
+				System.err.print(text);
+			}
+			int diagnostics = in.readInt();
+			for (int i = 0; i < diagnostics; i++) {
+				Diagnostic.Kind kind = Diagnostic.Kind.valueOf(readString(in));
+				reporter.accept(kind, readString(in));
+			}
+			int outputs = in.readInt();
+			for (int i = 0; i < outputs; i++) {
+				String path = readString(in);
+				String origin = readString(in);
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				output.put(path, bytes);
+				if (!origin.isEmpty()) {
+					origins.put(path, URI.create(origin));
+				}
+			}
+			if (status == STATUS_UNSUPPORTED) {
+				Util.verboseMsg("The compile daemon doesn't support the compile options");
+				return null;
+			}
+			return status == STATUS_OK;
+		} catch (ConnectException | NumberFormatException e) {
+			// It must have died without cleaning up after itself
+			Util.verboseMsg("Compile daemon not available, restarting it", e);
+			start(javaCmd, infoFile);
+			return null;
+		} catch (IOException e) {
+			Util.verboseMsg("Compile daemon failed", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stops the compile daemon for the given Java version, if it's running
+	 */
+	public static void stop(int javaVersion) throws IOException {
+		Files.deleteIfExists(getInfoFile(javaVersion));
+	}
+
+	/**
+	 * Returns whether the compile daemon for the given Java version is running
+	 */
+	public static boolean isRunning(int javaVersion) {
+		return readInfo(getInfoFile(javaVersion)) != null;
+	}
+
+	private static void start(String javaCmd, Path infoFile) throws IOException {
+		String classpath = getClassPath();
+		if (classpath == null) {
+			return;
+		}
+		Files.createDirectories(infoFile.getParent());
+		File log = new File(infoFile.getParent().toFile(), infoFile.getFileName() + ".log");
+		List<String> cmd = Arrays.asList(javaCmd, "-cp", classpath, CompileDaemon.class.getName(),
+				infoFile.toString(), Integer.toString(Settings.getCompileDaemonIdleTimeout()));
+		Util.verboseMsg("Starting compile daemon: " + String.join(" ", cmd));
+		new ProcessBuilder(cmd)	.redirectErrorStream(true)
+								.redirectOutput(log)
+								.start();
+	}
+
+	/**
+	 * Returns the class path to start a process with jbang's own classes, or
+	 * <code>null</code> if it can't be determined
+	 */
+	static String getClassPath() {
+		try {
+			return new File(CompileDaemon.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+		} catch (URISyntaxException e) {
+			Util.verboseMsg("Can't determine the location of jbang's classes", e);
+			return null;
+		}
+	}
+
+	private static Path getInfoFile(int javaVersion) {
+		return Settings.getCompileDaemonDir().resolve(javaVersion + ".properties");
+	}
+
+	static Properties readInfo(Path infoFile) {
+		if (!Files.isRegularFile(infoFile)) {
+			return null;
+		}
+		Properties info = new Properties();
+		try (InputStream in = Files.newInputStream(infoFile)) {
+			info.load(in);
+		} catch (IOException e) {
+			return null;
+		}
+		return info;
+	}
+
+	/**
+	 * Returns the options with all relative paths in their values made absolute
+	 */
+	static List<String> absolutePaths(List<String> options) {
+		List<String> result = new ArrayList<>(options);
+		for (int i = 0; i < result.size() - 1; i++) {
+			if (PATH_OPTIONS.contains(result.get(i))) {
+				List<String> paths = new ArrayList<>();
+				for (String path : result.get(i + 1).split(File.pathSeparator)) {
+					paths.add(path.isEmpty() ? path : Paths.get(path).toAbsolutePath().toString());
+				}
+				result.set(i + 1, String.join(File.pathSeparator, paths));
+			}
+		}
+		return result;
+	}
+
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static void writeStrings(DataOutputStream out, List<String> strs) throws IOException {
+		out.writeInt(strs.size());
+		for (String str : strs) {
+			writeString(out, str);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return readChars(in, in.readInt());
+	}
+
+	private static String readChars(DataInputStream in, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static List<String> readStrings(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		List<String> result = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			result.add(readString(in));
+		}
+		return result;
+	}
+}
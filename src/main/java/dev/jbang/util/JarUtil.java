@@ -6,6 +6,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
@@ -136,6 +140,44 @@ public final class JarUtil {
 		jout.close();
 	}
 
+	/**
+	 * Creates a Jar archive with the given contents, the keys of the map being the
+	 * paths of the entries (using '/' as separator). Entries for the folders are
+	 * added as well.
+	 *
+	 * @param out      The output stream to which the generated Jar archive is
+	 *                 written.
+	 * @param contents The contents of the files to put in the archive
+	 * @param man      The manifest to use for the Jar archive. If null, then no
+	 *                 manifest will be included.
+	 * @throws IOException
+	 */
+	public static void jar(OutputStream out, Map<String, byte[]> contents, Manifest man) throws IOException {
+		JarOutputStream jout = man == null ? new JarOutputStream(out) : new JarOutputStream(out, man);
+		long now = System.currentTimeMillis();
+		Set<String> dirs = new HashSet<>();
+		for (String name : new TreeMap<>(contents).keySet()) {
+			for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+				String dir = name.substring(0, i + 1);
+				if (dirs.add(dir)) {
+					ZipEntry entry = new ZipEntry(dir);
+					entry.setTime(now);
+					entry.setMethod(ZipOutputStream.STORED);
+					entry.setSize(0L);
+					entry.setCrc(0L);
+					jout.putNextEntry(entry);
+					jout.closeEntry();
+				}
+			}
+			ZipEntry entry = new ZipEntry(name);
+			entry.setTime(now);
+			jout.putNextEntry(entry);
+			jout.write(contents.get(name));
+			jout.closeEntry();
+		}
+		jout.finish();
+	}
+
 	/**
 	 * This simple convenience class is used by the jar method to reduce the number
 	 * of arguments needed. It holds all non-changing attributes needed for the
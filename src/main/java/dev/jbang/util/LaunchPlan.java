@@ -0,0 +1,256 @@
+package dev.jbang.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import dev.jbang.Cache;
+import dev.jbang.Settings;
+
+/**
+ * A launch plan is a small bash script that the <code>jbang</code> launcher
+ * script sources before starting jbang. It checks that nothing the command line
+ * for running a script depends on has changed since it was generated and if so
+ * runs that command line right away, without starting jbang at all.
+ *
+ * A plan gets stored for the arguments that came before the arguments meant for
+ * the script itself, in a file named after a hash of the current directory and
+ * those arguments. It checks:
+ * <ul>
+ * <li>the current directory and the arguments themselves,
+ * <li>the value of <code>JAVA_HOME</code> and of all the <code>JBANG_*</code>
+ * environment variables,
+ * <li>that the java command, looked up in the <code>PATH</code> when it isn't
+ * absolute, still leads to the same file after following all symbolic links,
+ * <li>that the script and its sources, the jar, the dependencies, the java
+ * command and any CDS archives still exist and weren't modified after the run
+ * that created the plan started,
+ * <li>that the files that didn't exist back then, like a lock file that wasn't
+ * created yet, still don't exist.
+ * </ul>
+ * The launcher itself checks that the plan is newer than jbang.jar. When any of
+ * that doesn't match the launcher just starts jbang as usual, which creates a
+ * new plan.
+ */
+public class LaunchPlan {
+	private static final String PLAN_SUFFIX = ".sh";
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private static final String ENV_JAVA_HOME = "JAVA_HOME";
+
+	private static List<String> launcherArguments;
+
+	/**
+	 * Remembers the arguments jbang got from the launcher script, before they got
+	 * turned into a command line for picocli
+	 */
+	public static void setLauncherArguments(String... args) {
+		launcherArguments = Arrays.asList(args);
+	}
+
+	/**
+	 * Stores a launch plan for running the given command. Nothing gets stored when
+	 * the launcher didn't ask for it or when the launcher arguments don't end with
+	 * the given user arguments (which will then also be left off the command).
+	 *
+	 * @param userArgs The arguments for the script
+	 * @param command  The full command line for running the script
+	 * @param inputs   The files the command line was generated from, those that
+	 *                 don't exist must still not exist when the plan gets used
+	 * @param started  The time the run that generated the command line started,
+	 *                 files modified after it can't be relied on
+	 */
+	public static void save(List<String> userArgs, List<String> command, Collection<File> inputs, long started) {
+		if (!Settings.isLaunchPlansEnabled() || Util.isWindows() || Util.isFresh() || launcherArguments == null) {
+			return;
+		}
+		List<String> args = launcherArguments;
+		int prefix = args.size() - userArgs.size();
+		if (prefix <= 0 || !args.subList(prefix, args.size()).equals(userArgs)
+				|| command.size() <= userArgs.size()
+				|| !command.subList(command.size() - userArgs.size(), command.size()).equals(userArgs)) {
+			return;
+		}
+		args = args.subList(0, prefix);
+		if (args.stream().anyMatch(a -> a.startsWith("@"))) {
+			// Argument files could change without us knowing
+			return;
+		}
+		command = command.subList(0, command.size() - userArgs.size());
+
+		Path java = getRealCommand(command.get(0));
+		if (java == null) {
+			Util.verboseMsg("Not storing a launch plan, unable to find " + command.get(0));
+			return;
+		}
+		List<File> files = new ArrayList<>();
+		List<File> absent = new ArrayList<>();
+		for (File file : inputs) {
+			(file.exists() ? files : absent).add(file);
+		}
+		files.add(java.toFile());
+		for (String arg : command) {
+			if (arg.startsWith("-XX:SharedArchiveFile=")) {
+				for (String archive : arg.substring(arg.indexOf('=') + 1).split(File.pathSeparator)) {
+					files.add(new File(archive));
+				}
+			}
+		}
+		for (File file : files) {
+			if (!file.exists() || file.lastModified() >= started) {
+				Util.verboseMsg("Not storing a launch plan, " + file + " is missing or was just modified");
+				return;
+			}
+		}
+
+		Path cwd = getCwd();
+		Path plan = getFile(cwd, args);
+		try {
+			Util.writeStringAtomically(plan, generate(cwd, args, command, java, files, absent));
+			plan.toFile().setLastModified(started);
+		} catch (IOException e) {
+			Util.verboseMsg("Unable to write launch plan " + plan, e);
+		}
+	}
+
+	static String generate(Path cwd, List<String> args, List<String> command, Path java, List<File> files,
+			List<File> absent) {
+		StringBuilder result = new StringBuilder();
+		result.append("# Generated by jbang, runs the command below when nothing it depends on changed\n");
+		result.append("[[ $# -ge ").append(args.size());
+		for (int i = 0; i < args.size(); i++) {
+			result.append(" && \"$").append(i + 1 > 9 ? "{" + (i + 1) + "}" : i + 1).append("\" == ");
+			result.append(quote(args.get(i)));
+		}
+		result.append(" ]] || return 1\n");
+		result.append("[[ \"$PWD\" -ef ").append(quote(cwd.toString())).append(" ]] || return 1\n");
+
+		Map<String, String> env = getEnvironment();
+		result.append("[[ \"${!JBANG_*}\" == ");
+		result.append(
+				quote(env.keySet().stream().filter(k -> k.startsWith("JBANG_")).collect(Collectors.joining(" "))));
+		result.append(" ]] || return 1\n");
+		env.forEach((k, v) -> result.append("[[ \"${")
+									.append(k)
+									.append("-}\" == ")
+									.append(quote(v))
+									.append(" ]] || return 1\n"));
+
+		// Whatever the java command leads to, like a symbolic link to the default
+		// JDK or the first one on the PATH, must still be the same file
+		String cmd = command.get(0);
+		result.append("[[ ");
+		result.append(new File(cmd).isAbsolute() ? quote(cmd) : "\"$(type -P " + quote(cmd) + ")\"");
+		result.append(" -ef ").append(quote(java.toString())).append(" ]] || return 1\n");
+
+		result.append("for f in");
+		files.forEach(f -> result.append(" ").append(quote(f.getAbsolutePath())));
+		result.append("; do\n");
+		result.append("  [[ -e \"$f\" && \"$launchPlan\" -nt \"$f\" ]] || return 1\n");
+		result.append("done\n");
+		if (!absent.isEmpty()) {
+			result.append("for f in");
+			absent.forEach(f -> result.append(" ").append(quote(f.getAbsolutePath())));
+			result.append("; do\n");
+			result.append("  [[ ! -e \"$f\" ]] || return 1\n");
+			result.append("done\n");
+		}
+
+		result.append("exec");
+		command.forEach(c -> result.append(" ").append(quote(c)));
+		result.append(" \"${@:").append(args.size() + 1).append("}\"\n");
+		return result.toString();
+	}
+
+	/**
+	 * The environment variables a launch plan checks, <code>JAVA_HOME</code> and
+	 * all <code>JBANG_*</code> ones except those the launcher only sets when
+	 * starting jbang
+	 */
+	static Map<String, String> getEnvironment() {
+		Map<String, String> result = new TreeMap<>();
+		System.getenv().forEach((k, v) -> {
+			if (k.startsWith("JBANG_") && !k.equals(Settings.ENV_LAUNCH_PLANS)
+					&& !k.equals(Settings.ENV_LAUNCHER_CDS)) {
+				result.put(k, v);
+			}
+		});
+		result.put(ENV_JAVA_HOME, System.getenv().getOrDefault(ENV_JAVA_HOME, ""));
+		return result;
+	}
+
+	/**
+	 * Returns the file the given command runs in the end, looking it up in the
+	 * <code>PATH</code> when it isn't absolute and following all symbolic links.
+	 * Returns <code>null</code> when it can't be found.
+	 */
+	static Path getRealCommand(String command) {
+		Path file = Paths.get(command);
+		if (!file.isAbsolute()) {
+			Path dir = Util.searchPath(command);
+			if (dir == null) {
+				return null;
+			}
+			file = dir.resolve(command);
+		}
+		try {
+			return file.toRealPath();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The current directory the way the launcher script sees it, it can differ from
+	 * the one Java reports when it's reached through a symbolic link
+	 */
+	static Path getCwd() {
+		Path cwd = Util.getCwd();
+		String pwd = System.getenv("PWD");
+		try {
+			if (pwd != null && Files.isSameFile(Paths.get(pwd), cwd)) {
+				return Paths.get(pwd);
+			}
+		} catch (IOException e) {
+			// Use the one Java reports
+		}
+		return cwd;
+	}
+
+	/**
+	 * The file the launcher script looks for, its name must be derived in exactly
+	 * the same way as the launcher does it: the 64 bit FNV-1a hash of the UTF-8
+	 * bytes of the current directory followed by each of the arguments, each
+	 * preceded by a newline. A plan checks the directory and arguments itself, so
+	 * two of them ending up with the same name only means one replaces the other.
+	 */
+	static Path getFile(Path cwd, List<String> args) {
+		long hash = fnv1a(FNV_OFFSET_BASIS, cwd.toString());
+		for (String arg : args) {
+			hash = fnv1a(hash, "\n" + arg);
+		}
+		return Settings.getCacheDir(Cache.CacheClass.plans).resolve(String.format("%016x", hash) + PLAN_SUFFIX);
+	}
+
+	private static long fnv1a(long hash, String str) {
+		for (byte b : str.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private static String quote(String str) {
+		return "'" + str.replace("'", "'\\''") + "'";
+	}
+}
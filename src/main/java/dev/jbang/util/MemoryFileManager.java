@@ -0,0 +1,164 @@
+package dev.jbang.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * A file manager for the Java compiler that keeps everything it outputs (the
+ * compiled classes but also any files generated by annotation processors) in
+ * memory instead of writing it to disk. The result can be retrieved with
+ * <code>getOutput()</code>, a map of paths (relative to the root of the output,
+ * using '/' as separator) to their contents.
+ */
+public class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+	private final Map<String, MemoryFileObject> output = new TreeMap<>();
+	private final Map<String, URI> origins = new TreeMap<>();
+
+	public MemoryFileManager(StandardJavaFileManager fileManager) {
+		super(fileManager);
+	}
+
+	/**
+	 * Returns the output of the compiler, in the order of their paths
+	 */
+	public Map<String, byte[]> getOutput() {
+		Map<String, byte[]> result = new TreeMap<>();
+		output.forEach((path, file) -> result.put(path, file.getBytes()));
+		return result;
+	}
+
+	/**
+	 * Returns, for each output path, the location of the source file the compiler
+	 * said it was generated from. Outputs that don't have a source file (like
+	 * resources created by annotation processors) are not included.
+	 */
+	public Map<String, URI> getOrigins() {
+		return new TreeMap<>(origins);
+	}
+
+	private static boolean isOutput(Location location) {
+		return location == StandardLocation.CLASS_OUTPUT || location == StandardLocation.SOURCE_OUTPUT;
+	}
+
+	@Override
+	public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+			FileObject sibling) throws IOException {
+		if (!isOutput(location)) {
+			return super.getJavaFileForOutput(location, className, kind, sibling);
+		}
+		String path = className.replace('.', '/') + kind.extension;
+		if (sibling != null) {
+			synchronized (this) {
+				origins.put(path, sibling.toUri());
+			}
+		}
+		return getOutputFile(path, kind);
+	}
+
+	@Override
+	public FileObject getFileForOutput(Location location, String packageName, String relativeName,
+			FileObject sibling) throws IOException {
+		if (!isOutput(location)) {
+			return super.getFileForOutput(location, packageName, relativeName, sibling);
+		}
+		return getOutputFile(toPath(packageName, relativeName), JavaFileObject.Kind.OTHER);
+	}
+
+	@Override
+	public JavaFileObject getJavaFileForInput(Location location, String className, JavaFileObject.Kind kind)
+			throws IOException {
+		if (!isOutput(location)) {
+			return super.getJavaFileForInput(location, className, kind);
+		}
+		return output.get(className.replace('.', '/') + kind.extension);
+	}
+
+	@Override
+	public FileObject getFileForInput(Location location, String packageName, String relativeName)
+			throws IOException {
+		if (!isOutput(location)) {
+			return super.getFileForInput(location, packageName, relativeName);
+		}
+		return output.get(toPath(packageName, relativeName));
+	}
+
+	@Override
+	public boolean isSameFile(FileObject a, FileObject b) {
+		if (a instanceof MemoryFileObject || b instanceof MemoryFileObject) {
+			return a.equals(b);
+		}
+		return super.isSameFile(a, b);
+	}
+
+	@Override
+	public String inferBinaryName(JavaFileManager.Location location, JavaFileObject file) {
+		if (file instanceof MemoryFileObject) {
+			String path = ((MemoryFileObject) file).path;
+			return path.substring(0, path.length() - file.getKind().extension.length()).replace('/', '.');
+		}
+		return super.inferBinaryName(location, file);
+	}
+
+	private static String toPath(String packageName, String relativeName) {
+		return packageName.isEmpty() ? relativeName : packageName.replace('.', '/') + "/" + relativeName;
+	}
+
+	private synchronized MemoryFileObject getOutputFile(String path, JavaFileObject.Kind kind) {
+		return output.computeIfAbsent(path, p -> new MemoryFileObject(p, kind));
+	}
+
+	private static class MemoryFileObject extends SimpleJavaFileObject {
+		final String path;
+		private byte[] bytes = new byte[0];
+
+		MemoryFileObject(String path, Kind kind) {
+			super(URI.create("mem:///" + path), kind);
+			this.path = path;
+		}
+
+		byte[] getBytes() {
+			return bytes;
+		}
+
+		@Override
+		public String getName() {
+			return path;
+		}
+
+		@Override
+		public InputStream openInputStream() {
+			return new ByteArrayInputStream(bytes);
+		}
+
+		@Override
+		public OutputStream openOutputStream() {
+			return new ByteArrayOutputStream() {
+				@Override
+				public void close() throws IOException {
+					super.close();
+					bytes = toByteArray();
+				}
+			};
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return new String(bytes, Charset.defaultCharset());
+		}
+	}
+}
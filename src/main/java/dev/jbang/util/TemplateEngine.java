@@ -111,7 +111,7 @@ public class TemplateEngine {
 
 	}
 
-	public static TemplateEngine instance() {
+	public static synchronized TemplateEngine instance() {
 		if (instance == null) {
 			instance = new TemplateEngine();
 		}
@@ -16,6 +16,7 @@ import java.net.URLDecoder;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
@@ -25,6 +26,7 @@ import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -328,6 +330,27 @@ public class Util {
 		Files.write(toPath, scriptText.getBytes());
 	}
 
+	/**
+	 * Writes the text to a temporary file next to the target first and then renames
+	 * it, this way other processes either see the old file or the new one, but
+	 * never a partially written file.
+	 **/
+	static public void writeStringAtomically(Path toPath, String text) throws IOException {
+		Path dir = toPath.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path tmp = Files.createTempFile(dir, toPath.getFileName().toString(), ".tmp");
+		try {
+			Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+			try {
+				Files.move(tmp, toPath, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, toPath, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
 	private static final Pattern mainClassPattern = Pattern.compile(
 			"(?sm)class *(\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*) .*static void main");
 
@@ -0,0 +1,845 @@
+package dev.jbang.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import dev.jbang.Settings;
+
+/**
+ * A background JVM that runs scripts, so scripts that get run very often don't
+ * each have to pay for starting and warming up a new JVM. There's one per user,
+ * JDK version, working directory and environment, it listens on a local socket
+ * and shuts itself down after not running any scripts for a while. The
+ * connection information is stored the same way as for the
+ * <code>CompileDaemon</code>. Only a limited number of them keep running, when
+ * another one is needed the one that was used least recently gets stopped. To
+ * know when they were last used they keep touching their log files.
+ *
+ * Scripts are run by a small bash client (<code>warm-client.sh</code>) that
+ * sends the class path, main class, arguments and its environment and then
+ * forwards its stdin, stdout and stderr over separate connections. A JVM can't
+ * change its environment, so there's a warm JVM for each environment and when
+ * the client's environment isn't the warm JVM's after all the client runs the
+ * script the normal way. Each run gets a thread group of its own with a
+ * non-daemon main thread. Like a JVM would, the run ends when the main thread
+ * and all the other non-daemon threads the script started are done, or when the
+ * script calls <code>System.exit()</code>, after which the exit code is sent
+ * back. Any threads of the script that are still running then get interrupted,
+ * since they would have died with a JVM of their own. When the client goes away
+ * while the script is running the script gets interrupted too.
+ *
+ * Each class path gets its own class loader, with only the JDK's classes as its
+ * parent, which is kept around as long as the script keeps getting run and as
+ * long as none of the jars changed. Everything else (system properties, the
+ * environment, static state of the JDK) is shared between all scripts, which is
+ * why scripts can opt out with a <code>//NOWARM</code> directive.
+ *
+ * Trapping <code>System.exit()</code> needs a security manager, which Java 24
+ * and later don't support anymore (JEP 486), so no warm JVM gets started for
+ * those. When installing it fails on an older JDK that gets recorded in the
+ * info file, so it doesn't get started over and over again.
+ *
+ * NB: like the compile daemon, this runs with nothing but jbang's own classes
+ * on its class path, so the code it runs must only use the JDK.
+ */
+public class WarmRunner {
+	private static final String CLIENT_SCRIPT = "warm-client.sh";
+
+	private static final int CONNECT_TIMEOUT = 1000;
+	private static final int POLL_INTERVAL = 1000;
+	private static final int STREAM_TIMEOUT = 10000;
+	private static final int MAX_STRING_LENGTH = 1024 * 1024;
+	private static final int JOIN_INTERVAL = 100;
+
+	// Set by the shell or by the launcher when starting jbang, they don't end up
+	// in the environment of the scripts jbang runs
+	private static final List<String> IGNORED_ENV = Arrays.asList("_", "SHLVL", "PWD", "OLDPWD", "CLICOLOR_FORCE",
+			Settings.ENV_LAUNCHER_CDS, Settings.ENV_LAUNCH_PLANS);
+	private static final Pattern SHELL_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+	// JEP 486 permanently disabled the security manager in Java 24
+	private static final int MAX_JAVA_VERSION = 23;
+
+	// The script (and any threads it started) the current thread is running for
+	private static final InheritableThreadLocal<Request> current = new InheritableThreadLocal<>();
+
+	private final Path infoFile;
+	private final long idleMillis;
+	private final String secret;
+	private final Map<String, CompletableFuture<Connection>> streams = new ConcurrentHashMap<>();
+	private final Map<String, Loader> loaders = new HashMap<>();
+	private final List<Loader> retired = new ArrayList<>();
+	private final AtomicInteger active = new AtomicInteger();
+	private volatile long lastActivity = System.currentTimeMillis();
+
+	private static class Connection {
+		final Socket socket;
+		final InputStream in;
+
+		Connection(Socket socket, InputStream in) {
+			this.socket = socket;
+			this.in = in;
+		}
+	}
+
+	private static class Request {
+		final OutputStream out;
+		final OutputStream err;
+		final InputStream in;
+		final ThreadGroup group;
+		volatile int status;
+		volatile Integer exitStatus;
+		volatile boolean abandoned;
+		boolean done;
+
+		Request(OutputStream out, OutputStream err, InputStream in, ThreadGroup group) {
+			this.out = out;
+			this.err = err;
+			this.in = in;
+			this.group = group;
+		}
+	}
+
+	private static class Loader {
+		final String stamp;
+		final URLClassLoader classLoader;
+		int active;
+		long lastUsed = System.currentTimeMillis();
+
+		Loader(String stamp, URLClassLoader classLoader) {
+			this.stamp = stamp;
+			this.classLoader = classLoader;
+		}
+	}
+
+	private WarmRunner(Path infoFile, long idleMillis) {
+		this.infoFile = infoFile;
+		this.idleMillis = idleMillis;
+		this.secret = CompileDaemon.newSecret();
+	}
+
+	/**
+	 * Runs the warm JVM, takes the path of the file to write the connection
+	 * information to and the number of idle minutes after which to shut down
+	 */
+	// The security manager is deprecated for removal, but it's the only way to
+	// intercept System.exit() on the Java versions this gets started for
+	@SuppressWarnings("removal")
+	public static void main(String... args) throws IOException {
+		try {
+			System.setSecurityManager(new ExitTrap());
+		} catch (UnsupportedOperationException | SecurityException e) {
+			System.err.println("Unable to intercept System.exit() on this JVM: " + e);
+			Util.writeStringAtomically(Paths.get(args[0]),
+					"java=" + System.getProperty("java.version") + "\nunsupported=true\n");
+			System.exit(1);
+		}
+		System.setOut(new PrintStream(new RoutedOutputStream(System.out, r -> r.out), true));
+		System.setErr(new PrintStream(new RoutedOutputStream(System.err, r -> r.err), true));
+		System.setIn(new RoutedInputStream(System.in));
+		long idleMillis = TimeUnit.MINUTES.toMillis(Long.parseLong(args[1]));
+		new WarmRunner(Paths.get(args[0]), idleMillis).serve();
+		System.exit(0);
+	}
+
+	private void serve() throws IOException {
+		ExecutorService executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "jbang-warm");
+			t.setDaemon(true);
+			return t;
+		});
+		File log = getLogFile(infoFile);
+		long touched = 0;
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			server.setSoTimeout(POLL_INTERVAL);
+			CompileDaemon.writeInfo(infoFile, server.getLocalPort(), secret);
+			System.err.println("Warm JVM listening on port " + server.getLocalPort());
+			while (true) {
+				try {
+					Socket socket = server.accept();
+					active.incrementAndGet();
+					executor.execute(() -> handle(socket));
+				} catch (SocketTimeoutException e) {
+					// Time to see if we're still needed
+				}
+				evictLoaders();
+				if (lastActivity > touched) {
+					touched = lastActivity;
+					log.setLastModified(touched);
+				}
+				if (!CompileDaemon.isCurrent(infoFile, secret)) {
+					System.err.println("Connection information was removed, shutting down");
+					break;
+				}
+				if (active.get() == 0 && System.currentTimeMillis() - lastActivity > idleMillis) {
+					System.err.println("Idle for too long, shutting down");
+					break;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			if (CompileDaemon.isCurrent(infoFile, secret)) {
+				Files.deleteIfExists(infoFile);
+			}
+		}
+	}
+
+	private void handle(Socket socket) {
+		boolean keep = false;
+		try {
+			Connection conn = new Connection(socket, new BufferedInputStream(socket.getInputStream()));
+			// Check the secret first, we don't want to read just anything
+			if (!secret.equals(readString(conn.in, secret.length() + 1))) {
+				return;
+			}
+			String kind = readString(conn.in, MAX_STRING_LENGTH);
+			String id = readString(conn.in, MAX_STRING_LENGTH);
+			if (kind.equals("run")) {
+				run(conn, id);
+			} else if (kind.equals("out") || kind.equals("err") || kind.equals("in")) {
+				streams.computeIfAbsent(kind + " " + id, k -> new CompletableFuture<>()).complete(conn);
+				keep = true;
+			}
+		} catch (EOFException e) {
+			// Closed without sending a request, like when checking if we're running
+		} catch (IOException e) {
+			System.err.println("Failed to handle request: " + e);
+		} finally {
+			if (!keep) {
+				close(socket);
+			}
+			lastActivity = System.currentTimeMillis();
+			active.decrementAndGet();
+		}
+	}
+
+	private void run(Connection control, String id) throws IOException {
+		String classpath = readString(control.in, MAX_STRING_LENGTH);
+		String mainClass = readString(control.in, MAX_STRING_LENGTH);
+		int count = Integer.parseInt(readString(control.in, MAX_STRING_LENGTH));
+		List<String> args = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			args.add(readString(control.in, MAX_STRING_LENGTH));
+		}
+		Map<String, String> vars = new HashMap<>();
+		count = Integer.parseInt(readString(control.in, MAX_STRING_LENGTH));
+		for (int i = 0; i < count; i++) {
+			String[] var = readString(control.in, MAX_STRING_LENGTH).split("=", 2);
+			vars.put(var[0], var.length > 1 ? var[1] : "");
+		}
+		Map<String, String> env = getEnvironment(vars);
+		Map<String, String> own = getEnvironment(System.getenv());
+		Set<String> differences = new TreeSet<>(own.keySet());
+		differences.addAll(env.keySet());
+		differences.removeIf(k -> Objects.equals(own.get(k), env.get(k)));
+		boolean sameEnv = differences.isEmpty();
+		if (!sameEnv) {
+			System.err.println("Not running " + mainClass + ", the environment differs in " + differences);
+		}
+		control.socket.getOutputStream().write((sameEnv ? "ok\n" : "cold\n").getBytes(StandardCharsets.UTF_8));
+		control.socket.getOutputStream().flush();
+		if (!sameEnv) {
+			return;
+		}
+		Connection out = null;
+		Connection err = null;
+		Connection in = null;
+		try {
+			out = awaitStream("out", id);
+			err = awaitStream("err", id);
+			in = awaitStream("in", id);
+			Request request = new Request(new BufferedOutputStream(out.socket.getOutputStream()),
+					new BufferedOutputStream(err.socket.getOutputStream()), in.in, newThreadGroup(id));
+			watch(control, request);
+			int status = execute(classpath, mainClass, args, request);
+			close(out.socket);
+			close(err.socket);
+			control.socket.getOutputStream().write((status + "\n").getBytes(StandardCharsets.UTF_8));
+			control.socket.getOutputStream().flush();
+		} finally {
+			for (Connection conn : Arrays.asList(out, err, in)) {
+				if (conn != null) {
+					close(conn.socket);
+				}
+			}
+		}
+	}
+
+	// Daemon thread groups get destroyed once their last thread ends, before Java
+	// 19 other thread groups would be kept around forever
+	@SuppressWarnings("removal")
+	private static ThreadGroup newThreadGroup(String id) {
+		ThreadGroup group = new ThreadGroup("jbang-warm-" + id) {
+			@Override
+			public void uncaughtException(Thread t, Throwable e) {
+				// That's just how a thread ends that called System.exit()
+				if (!(e instanceof ExitTrappedException)) {
+					super.uncaughtException(t, e);
+				}
+			}
+		};
+		group.setDaemon(true);
+		return group;
+	}
+
+	private Connection awaitStream(String kind, String id) throws IOException {
+		String key = kind + " " + id;
+		try {
+			return streams	.computeIfAbsent(key, k -> new CompletableFuture<>())
+							.get(STREAM_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			throw new IOException("No " + kind + " connection for " + id, e);
+		} finally {
+			streams.remove(key);
+		}
+	}
+
+	/**
+	 * Interrupts the script when the client goes away before it finished
+	 */
+	private void watch(Connection control, Request request) {
+		Thread watcher = new Thread(() -> {
+			try {
+				control.in.read();
+			} catch (IOException e) {
+				// Closed because the script finished
+			}
+			synchronized (request) {
+				if (!request.done) {
+					request.abandoned = true;
+					request.group.interrupt();
+				}
+			}
+		}, "jbang-warm-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	private int execute(String classpath, String mainClass, List<String> args, Request request)
+			throws IOException {
+		Loader loader = acquireLoader(classpath);
+		try {
+			Thread main = new Thread(request.group, () -> invokeMain(loader, mainClass, args, request), "main");
+			main.setDaemon(false);
+			main.setContextClassLoader(loader.classLoader);
+			main.start();
+			awaitThreads(request);
+		} finally {
+			synchronized (request) {
+				request.done = true;
+			}
+			request.group.interrupt();
+			flush(request.out);
+			flush(request.err);
+			releaseLoader(loader);
+		}
+		return request.exitStatus != null ? request.exitStatus : request.status;
+	}
+
+	/**
+	 * Runs the main method of the script on the current thread, which must be the
+	 * main thread of the run
+	 */
+	private static void invokeMain(Loader loader, String mainClass, List<String> args, Request request) {
+		// Inherited by all threads the script starts
+		current.set(request);
+		try {
+			Class<?> cls = Class.forName(mainClass, true, loader.classLoader);
+			Method main = cls.getMethod("main", String[].class);
+			if (!Modifier.isStatic(main.getModifiers())) {
+				throw new NoSuchMethodException(mainClass + ".main(String[]) is not static");
+			}
+			main.setAccessible(true);
+			main.invoke(null, (Object) args.toArray(new String[0]));
+		} catch (InvocationTargetException e) {
+			if (!(e.getCause() instanceof ExitTrappedException)) {
+				System.err.print("Exception in thread \"main\" ");
+				trimStackTrace(e.getCause());
+				e.getCause().printStackTrace();
+				request.status = 1;
+			}
+		} catch (ReflectiveOperationException | LinkageError e) {
+			System.err.println("Error: Could not run main class " + mainClass + ": " + e);
+			request.status = 1;
+		} catch (ExitTrappedException e) {
+			// Exited while initializing the main class
+		} finally {
+			System.out.flush();
+			System.err.flush();
+		}
+	}
+
+	/**
+	 * Waits until the main thread and all other non-daemon threads of the run are
+	 * done, unless the script exits or the client goes away before that
+	 */
+	private static void awaitThreads(Request request) {
+		while (request.exitStatus == null && !request.abandoned) {
+			Thread[] threads = new Thread[request.group.activeCount() + 1];
+			int count = request.group.enumerate(threads);
+			Thread busy = null;
+			for (int i = 0; i < count && busy == null; i++) {
+				if (!threads[i].isDaemon()) {
+					busy = threads[i];
+				}
+			}
+			if (busy == null) {
+				return;
+			}
+			try {
+				busy.join(JOIN_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private static void flush(OutputStream out) {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			// The client went away
+		}
+	}
+
+	/**
+	 * Leaves off the frames of the warm JVM itself, so the stack trace looks like
+	 * the one the script would have printed when run the normal way
+	 */
+	private static void trimStackTrace(Throwable t) {
+		StackTraceElement[] trace = t.getStackTrace();
+		int end = trace.length;
+		for (int i = 0; i < trace.length; i++) {
+			if (trace[i].getClassName().equals(WarmRunner.class.getName())) {
+				end = i;
+				break;
+			}
+		}
+		while (end > 0 && (trace[end - 1].getClassName().startsWith("jdk.internal.reflect.")
+				|| trace[end - 1].getClassName().startsWith("sun.reflect.")
+				|| trace[end - 1].getClassName().equals(Method.class.getName()))) {
+			end--;
+		}
+		if (end < trace.length) {
+			t.setStackTrace(Arrays.copyOf(trace, end));
+		}
+	}
+
+	private synchronized Loader acquireLoader(String classpath) throws IOException {
+		String stamp = stamp(classpath);
+		Loader loader = loaders.get(classpath);
+		if (loader != null && !loader.stamp.equals(stamp)) {
+			// Something got rebuilt, the next run gets a fresh class loader
+			loaders.remove(classpath);
+			retired.add(loader);
+			loader = null;
+		}
+		if (loader == null) {
+			List<URL> urls = new ArrayList<>();
+			for (String entry : classpath.split(File.pathSeparator)) {
+				if (!entry.isEmpty()) {
+					urls.add(new File(entry).toURI().toURL());
+				}
+			}
+			// Only the JDK's classes, not ours
+			ClassLoader parent = ClassLoader.getSystemClassLoader().getParent();
+			loader = new Loader(stamp, new URLClassLoader(urls.toArray(new URL[0]), parent));
+			loaders.put(classpath, loader);
+		}
+		loader.active++;
+		return loader;
+	}
+
+	private synchronized void releaseLoader(Loader loader) {
+		loader.active--;
+		loader.lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Closes the class loaders of scripts that haven't been run for a while or that
+	 * were rebuilt since
+	 */
+	private synchronized void evictLoaders() {
+		long now = System.currentTimeMillis();
+		loaders.values().removeIf(loader -> {
+			if (loader.active == 0 && now - loader.lastUsed > idleMillis) {
+				retired.add(loader);
+				return true;
+			}
+			return false;
+		});
+		for (Iterator<Loader> it = retired.iterator(); it.hasNext();) {
+			Loader loader = it.next();
+			if (loader.active == 0) {
+				it.remove();
+				try {
+					loader.classLoader.close();
+				} catch (IOException e) {
+					System.err.println("Failed to close class loader: " + e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a string that changes whenever any of the class path entries change
+	 */
+	private static String stamp(String classpath) {
+		StringBuilder result = new StringBuilder();
+		for (String entry : classpath.split(File.pathSeparator)) {
+			File file = new File(entry);
+			result.append(file.length()).append(':').append(file.lastModified()).append(';');
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Returns the command that runs the given main class in the warm JVM for the
+	 * given Java version, the current directory and environment, the arguments for
+	 * the script still need to be added to it. When the warm JVM isn't running it
+	 * gets started in the background, to be used by the next run, and
+	 * <code>null</code> is returned.
+	 *
+	 * @param javaCmd     The java command to start the warm JVM with, which is also
+	 *                    used to run the script when it's not running after all
+	 * @param javaVersion The version of the JDK the script needs
+	 */
+	public static List<String> command(String javaCmd, int javaVersion, String classpath, String mainClass)
+			throws IOException {
+		Path infoFile = getInfoFile(javaVersion);
+		Properties info = CompileDaemon.readInfo(infoFile);
+		if (info == null || isUnsupported(info) || JavaUtil.parseJavaVersion(info.getProperty("java")) != javaVersion
+				|| !isListening(info)) {
+			start(javaCmd, javaVersion, infoFile);
+			return null;
+		}
+		return new ArrayList<>(Arrays.asList("bash", getClientScript().toString(), infoFile.toString(), classpath,
+				mainClass, javaCmd));
+	}
+
+	/**
+	 * Returns whether scripts can be run in a warm JVM for the given Java version,
+	 * which isn't the case for Java 24 and later or when a warm JVM for the version
+	 * failed to start before because it couldn't intercept
+	 * <code>System.exit()</code>
+	 */
+	public static boolean isSupported(int javaVersion) {
+		if (javaVersion > MAX_JAVA_VERSION) {
+			return false;
+		}
+		Properties info = CompileDaemon.readInfo(getInfoFile(javaVersion));
+		return info == null || !isUnsupported(info);
+	}
+
+	private static boolean isUnsupported(Properties info) {
+		return "true".equals(info.getProperty("unsupported"));
+	}
+
+	/**
+	 * Returns the files that the command returned by <code>command()</code> relies
+	 * on, when they change the command can't be used anymore
+	 */
+	public static List<File> getFiles(int javaVersion) {
+		return Arrays.asList(getInfoFile(javaVersion).toFile(),
+				Settings.getWarmRunnerDir().resolve(CLIENT_SCRIPT).toFile());
+	}
+
+	/**
+	 * Stops the warm JVM for the given Java version, the current directory and
+	 * environment, if it's running
+	 */
+	public static void stop(int javaVersion) throws IOException {
+		Files.deleteIfExists(getInfoFile(javaVersion));
+	}
+
+	/**
+	 * Returns whether the warm JVM for the given Java version, the current
+	 * directory and environment is running
+	 */
+	public static boolean isRunning(int javaVersion) {
+		Properties info = CompileDaemon.readInfo(getInfoFile(javaVersion));
+		return info != null && !isUnsupported(info);
+	}
+
+	private static boolean isListening(Properties info) {
+		try (Socket socket = new Socket()) {
+			int port = Integer.parseInt(info.getProperty("port"));
+			socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+			return true;
+		} catch (IOException | NumberFormatException e) {
+			// It must have died without cleaning up after itself
+			Util.verboseMsg("Warm JVM not available, restarting it", e);
+			return false;
+		}
+	}
+
+	private static void start(String javaCmd, int javaVersion, Path infoFile) throws IOException {
+		String classpath = CompileDaemon.getClassPath();
+		if (classpath == null) {
+			return;
+		}
+		Files.createDirectories(infoFile.getParent());
+		stopLeastRecentlyUsed(infoFile);
+		File log = getLogFile(infoFile);
+		List<String> cmd = new ArrayList<>();
+		cmd.add(javaCmd);
+		if (javaVersion >= 12) {
+			// Needed to intercept System.exit()
+			cmd.add("-Djava.security.manager=allow");
+		}
+		cmd.addAll(Arrays.asList("-cp", classpath, WarmRunner.class.getName(), infoFile.toString(),
+				Integer.toString(Settings.getWarmIdleTimeout())));
+		Util.verboseMsg("Starting warm JVM: " + String.join(" ", cmd));
+		ProcessBuilder pb = new ProcessBuilder(cmd)	.directory(Util.getCwd().toFile())
+													.redirectErrorStream(true)
+													.redirectOutput(log);
+		IGNORED_ENV.forEach(pb.environment()::remove);
+		pb.start();
+	}
+
+	/**
+	 * Stops the warm JVMs that were used least recently, so the one for the given
+	 * info file can be started without more than the maximum number of them
+	 * running
+	 */
+	private static void stopLeastRecentlyUsed(Path infoFile) throws IOException {
+		List<Path> others;
+		try (Stream<Path> files = Files.list(infoFile.getParent())) {
+			others = files	.filter(f -> f.getFileName().toString().endsWith(".properties") && !f.equals(infoFile))
+							.filter(f -> {
+								Properties info = CompileDaemon.readInfo(f);
+								return info != null && !isUnsupported(info);
+							})
+							.sorted(Comparator.comparingLong(WarmRunner::lastUsed))
+							.collect(Collectors.toList());
+		}
+		for (int i = 0; i <= others.size() - Settings.getWarmMax(); i++) {
+			Util.verboseMsg("Stopping least recently used warm JVM " + others.get(i).getFileName());
+			// It shuts itself down when it notices its connection information is gone
+			Files.deleteIfExists(others.get(i));
+		}
+	}
+
+	private static long lastUsed(Path infoFile) {
+		return Math.max(infoFile.toFile().lastModified(), getLogFile(infoFile).lastModified());
+	}
+
+	private static File getLogFile(Path infoFile) {
+		return new File(infoFile.getParent().toFile(), infoFile.getFileName() + ".log");
+	}
+
+	private static Path getInfoFile(int javaVersion) {
+		StringBuilder key = new StringBuilder(Util.getCwd().toAbsolutePath().toString());
+		getEnvironment(System.getenv()).forEach((k, v) -> key.append('\n').append(k).append('=').append(v));
+		return Settings	.getWarmRunnerDir()
+						.resolve(javaVersion + "-" + Util.getStableID(key.toString()) + ".properties");
+	}
+
+	/**
+	 * Returns the given environment without the variables that don't matter to the
+	 * scripts, sorted by name
+	 */
+	static Map<String, String> getEnvironment(Map<String, String> env) {
+		Map<String, String> result = new TreeMap<>(env);
+		result.keySet().removeAll(IGNORED_ENV);
+		// the shell doesn't export variables whose names aren't identifiers
+		result.keySet().removeIf(name -> !SHELL_NAME.matcher(name).matches());
+		return result;
+	}
+
+	/**
+	 * Returns the client script, writing it when it's missing or outdated
+	 */
+	private static Path getClientScript() throws IOException {
+		Path script = Settings.getWarmRunnerDir().resolve(CLIENT_SCRIPT);
+		String contents;
+		try (InputStream in = WarmRunner.class.getResourceAsStream("/" + CLIENT_SCRIPT)) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				bytes.write(buf, 0, n);
+			}
+			contents = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		}
+		if (!Files.isRegularFile(script) || !contents.equals(Util.readString(script))) {
+			Util.writeStringAtomically(script, contents);
+		}
+		return script;
+	}
+
+	/**
+	 * Reads a string terminated by a NUL character
+	 */
+	private static String readString(InputStream in, int maxLength) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != 0) {
+			if (b < 0) {
+				throw new EOFException("Unexpected end of request");
+			}
+			if (bytes.size() == maxLength) {
+				throw new IOException("Request too long");
+			}
+			bytes.write(b);
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Nothing we can do about it
+		}
+	}
+
+	/**
+	 * Turns calls to <code>System.exit()</code> made by scripts into the exit code
+	 * of their run, everything else is allowed
+	 */
+	@SuppressWarnings("removal") // see main()
+	private static class ExitTrap extends SecurityManager {
+		@Override
+		public void checkPermission(Permission perm) {
+			if (perm instanceof RuntimePermission && perm.getName().equals("setSecurityManager")
+					&& current.get() != null) {
+				throw new SecurityException("Scripts running in a warm JVM can't replace the security manager");
+			}
+		}
+
+		@Override
+		public void checkPermission(Permission perm, Object context) {
+			checkPermission(perm);
+		}
+
+		@Override
+		public void checkExit(int status) {
+			Request request = current.get();
+			if (request != null) {
+				request.exitStatus = status;
+				synchronized (request) {
+					if (!request.done) {
+						// Takes down all other threads of the script, like exiting a JVM would
+						request.group.interrupt();
+					}
+				}
+				throw new ExitTrappedException();
+			}
+		}
+	}
+
+	private static class ExitTrappedException extends SecurityException {
+	}
+
+	/**
+	 * Sends everything written to it to the output of the script the current thread
+	 * runs for
+	 */
+	private static class RoutedOutputStream extends OutputStream {
+		private final OutputStream fallback;
+		private final Function<Request, OutputStream> route;
+
+		RoutedOutputStream(OutputStream fallback, Function<Request, OutputStream> route) {
+			this.fallback = fallback;
+			this.route = route;
+		}
+
+		private OutputStream target() {
+			Request request = current.get();
+			return request != null ? route.apply(request) : fallback;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			target().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			target().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			target().flush();
+		}
+	}
+
+	/**
+	 * Reads from the input of the script the current thread runs for
+	 */
+	private static class RoutedInputStream extends InputStream {
+		private final InputStream fallback;
+
+		RoutedInputStream(InputStream fallback) {
+			this.fallback = fallback;
+		}
+
+		private InputStream source() {
+			Request request = current.get();
+			return request != null ? request.in : fallback;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return source().read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return source().read(b, off, len);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return source().available();
+		}
+	}
+}
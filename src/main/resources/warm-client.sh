@@ -0,0 +1,65 @@
+#!/usr/bin/env bash
+
+#
+# Runs a script in a warm JVM kept around by jbang (see dev.jbang.util.WarmRunner),
+# or the normal way when it isn't running.
+#
+# Usage: warm-client.sh <connection info file> <class path> <main class> <java command> [<arguments>...]
+#
+
+info=$1
+classpath=$2
+main=$3
+java=$4
+shift 4
+
+unset port secret
+if [[ -r "$info" ]]; then
+  while IFS='=' read -r key value; do
+    case "$key" in
+      port) port=$value;;
+      secret) secret=$value;;
+    esac
+  done < "$info"
+fi
+
+unset reply
+if [[ -n "$port" ]] && { exec 3<>"/dev/tcp/127.0.0.1/$port"; } 2>/dev/null; then
+  ## the request goes over the first connection, together with the environment, which has to be the
+  ## same as the warm JVM's for it to run the script (it replies with "ok" when it is)
+  vars=()
+  for name in $(compgen -e); do vars+=("$name=${!name}"); done
+  id="$$-$RANDOM"
+  printf '%s\0' "$secret" run "$id" "$classpath" "$main" "$#" "$@" "${#vars[@]}" "${vars[@]}" >&3
+  read -r reply <&3
+fi
+
+if [[ "$reply" == "ok" ]]; then
+  ## the script's stdout, stderr and stdin each get a connection of their own and the exit code
+  ## comes back over the first one
+  exec 4<>"/dev/tcp/127.0.0.1/$port" 5<>"/dev/tcp/127.0.0.1/$port" 6<>"/dev/tcp/127.0.0.1/$port"
+  printf '%s\0' "$secret" out "$id" >&4
+  printf '%s\0' "$secret" err "$id" >&5
+  printf '%s\0' "$secret" in "$id" >&6
+  ## background jobs get /dev/null as their stdin unless it's redirected explicitly,
+  ## and each must only hold on to its own connection or the other ends never see EOF
+  exec 7<&0
+  cat <&4 3>&- 5>&- 6>&- 7<&- &
+  outPid=$!
+  cat <&5 >&2 3>&- 4>&- 6>&- 7<&- &
+  errPid=$!
+  cat <&7 >&6 3>&- 4>&- 5>&- &
+  inPid=$!
+  exec 4<&- 5<&- 6>&- 7<&-
+  read -r code <&3
+  wait $outPid $errPid
+  kill $inPid 2>/dev/null
+  if [[ -z "$code" ]]; then
+    echo "[jbang] Lost the connection to the warm JVM" 1>&2
+    exit 1
+  fi
+  exit $code
+fi
+
+exec 3<&-
+exec "$java" -classpath "$classpath" "$main" "$@"
@@ -84,13 +84,35 @@ if "!JAVA_EXEC!"=="" (
   )
 )
 
+rem use the CDS archive jbang keeps for itself for this JDK, but only when it's newer than jbang.jar
+rem (jbang creates or updates it in the background when needed). The options make sure the JVM
+rem won't fail or write to stdout when the archive can't be used after all.
+set JBANG_LAUNCHER_CDS=
+set CDS_OPTS=
+if not "%JBANG_NO_LAUNCHER_CDS%"=="true" (
+  set javaPath=!JAVA_EXEC:"=!
+  if "!javaPath!"=="java.exe" ( for %%i in (java.exe) do set javaPath=%%~$PATH:i )
+  if not "!javaPath!"=="" (
+    set cdsKey=!javaPath:\=_!
+    set cdsKey=!cdsKey::=_!
+    set cdsKey=!cdsKey: =_!
+    set cdsKey=!cdsKey:.=_!
+    set JBANG_LAUNCHER_CDS=%TDIR%\cds\jbang-!cdsKey!.jsa
+    if exist "!JBANG_LAUNCHER_CDS!" (
+      rem xcopy /D only counts jbang.jar as a file to copy when it's newer than the archive
+      xcopy /L /D /Y "%jarPath%" "!JBANG_LAUNCHER_CDS!" < nul 2> nul | findstr /b /c:"0 " > nul
+      if !ERRORLEVEL! EQU 0 ( set CDS_OPTS=-XX:+IgnoreUnrecognizedVMOptions "-XX:SharedArchiveFile=!JBANG_LAUNCHER_CDS!" -Xlog:disable -Xlog:all=warning:stderr )
+    )
+  )
+)
+
 if not exist "%TDIR%" ( mkdir "%TDIR%" )
 set tmpfile=%TDIR%\%RANDOM%.jbang.tmp
 rem execute jbang and pipe to temporary random file
 set JBANG_USES_POWERSHELL=
 set "CMD=!JAVA_EXEC!"
 SETLOCAL DISABLEDELAYEDEXPANSION
-%CMD% > "%tmpfile%" %JBANG_JAVA_OPTIONS% -classpath "%jarPath%" dev.jbang.Main %*
+%CMD% > "%tmpfile%" %CDS_OPTS% %JBANG_JAVA_OPTIONS% -classpath "%jarPath%" dev.jbang.Main %*
 set ERROR=%ERRORLEVEL%
 rem catch errorlevel straight after; rem or FOR /F swallow would have swallowed the errorlevel
 
@@ -136,8 +136,21 @@ if ($JAVA_EXEC -eq "") {
   }
 }
 
+# use the CDS archive jbang keeps for itself for this JDK, but only when it's newer than jbang.jar
+# (jbang creates or updates it in the background when needed). The options make sure the JVM
+# won't fail or write to stdout when the archive can't be used after all.
+$cdsOpts=@()
+$env:JBANG_LAUNCHER_CDS=""
+$javaCmd=Get-Command $JAVA_EXEC -ErrorAction SilentlyContinue
+if ($env:JBANG_NO_LAUNCHER_CDS -ne "true" -and $javaCmd) {
+  $env:JBANG_LAUNCHER_CDS="$TDIR\cds\jbang-$($javaCmd.Source -replace '[^A-Za-z0-9]','_').jsa"
+  if ((Test-Path $env:JBANG_LAUNCHER_CDS) -and (Get-Item $env:JBANG_LAUNCHER_CDS).LastWriteTime -gt (Get-Item $jarPath).LastWriteTime) {
+    $cdsOpts=@("-XX:+IgnoreUnrecognizedVMOptions", "-XX:SharedArchiveFile=$env:JBANG_LAUNCHER_CDS", "-Xlog:disable", "-Xlog:all=warning:stderr")
+  }
+}
+
 $env:JBANG_USES_POWERSHELL="true"
-$output = & $JAVA_EXEC $env:JBANG_JAVA_OPTIONS -classpath "$jarPath" dev.jbang.Main $args
+$output = & $JAVA_EXEC $cdsOpts $env:JBANG_JAVA_OPTIONS -classpath "$jarPath" dev.jbang.Main $args
 $err=$LASTEXITCODE
 
 $erroractionpreference=$old_erroractionpreference
@@ -129,6 +129,7 @@ class TestArguments extends BaseTest {
 		assertThat(Files.isDirectory(dir.resolve("jars")), is(false));
 		assertThat(Files.isDirectory(dir.resolve("jdks")), is(false));
 		assertThat(Files.notExists(Settings.getCacheDependencyFile()), is(true));
+		assertThat(Files.isDirectory(dir.resolve("deps")), is(false));
 	}
 
 }
@@ -0,0 +1,415 @@
+package dev.jbang.cli;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.io.FileMatchers.anExistingFileOrDirectory;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import dev.jbang.BaseTest;
+import dev.jbang.Settings;
+import dev.jbang.catalog.Catalog;
+import dev.jbang.dependencies.DependencyCache;
+import dev.jbang.source.ClassStore;
+import dev.jbang.source.ScriptSource;
+import dev.jbang.util.CompileDaemon;
+import dev.jbang.util.JavaUtil;
+import dev.jbang.util.Util;
+
+public class TestBuild extends BaseTest {
+
+	@Test
+	void testCompileInProcess() throws IOException {
+		String src = examplesTestFolder.resolve("helloworld.java").toString();
+		Util.setVerbose(true);
+		try {
+			ExecutionResult result = checkedRun(null, "build", src);
+			assertThat(result.exitCode, equalTo(BaseCommand.EXIT_OK));
+			assertThat(result.err, containsString("compile (in-process):"));
+		} finally {
+			Util.setVerbose(false);
+		}
+	}
+
+	@Test
+	void testCompileExternal() throws IOException {
+		String src = examplesTestFolder.resolve("helloworld.java").toString();
+		environmentVariables.set(Settings.ENV_NO_INPROCESS_COMPILER, "true");
+		Util.setVerbose(true);
+		try {
+			ExecutionResult result = checkedRun(null, "build", src);
+			assertThat(result.exitCode, equalTo(BaseCommand.EXIT_OK));
+			assertThat(result.err, not(containsString("compile (in-process):")));
+			assertThat(result.err, containsString("compile: "));
+		} finally {
+			Util.setVerbose(false);
+			environmentVariables.clear(Settings.ENV_NO_INPROCESS_COMPILER);
+		}
+	}
+
+	@Test
+	void testCompileInProcessReportsErrors() throws IOException {
+		Path src = cwdDir.resolve("broken.java");
+		Util.writeString(src, "class broken {\n\tpublic static void main(String... args) {\n\t\tnope();\n\t}\n}\n");
+		PrintStream originalErr = System.err;
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(err, true));
+		try {
+			ExitException e = assertThrows(ExitException.class, () -> checkedRun(null, "build", src.toString()));
+			assertThat(e.getMessage(), containsString("Error during compile"));
+		} finally {
+			System.setErr(originalErr);
+		}
+		assertThat(err.toString(), containsString("[jbang] [ERROR] " + src + ":3: cannot find symbol"));
+	}
+
+	@Test
+	void testBuildJarFromMemory() throws IOException {
+		String src = examplesTestFolder.resolve("res/resource.java").toString();
+		ExecutionResult result = checkedRun(null, "build", src);
+		assertThat(result.exitCode, equalTo(BaseCommand.EXIT_OK));
+
+		File jar = ScriptSource.prepareScript(src).getJarFile();
+		assertThat(new File(jar.getParentFile(), jar.getName() + ".tmp"), not(anExistingFileOrDirectory()));
+		try (JarFile jf = new JarFile(jar)) {
+			List<String> names = Collections.list(jf.entries())
+											.stream()
+											.map(JarEntry::getName)
+											.collect(Collectors.toList());
+			assertThat(names, hasItems("resource.class", "resource.properties", "renamed.properties",
+					"META-INF/", "META-INF/application.properties", "META-INF/maven/g/a/v/pom.xml"));
+			assertThat(jf.getManifest().getMainAttributes().getValue(Attributes.Name.MAIN_CLASS),
+					equalTo("resource"));
+		}
+	}
+
+	@Test
+	void testIncrementalBuild() throws IOException {
+		Util.writeString(cwdDir.resolve("Used.java"),
+				"class Used {\n\tstatic String name() {\n\t\treturn \"used\";\n\t}\n}\n");
+		Util.writeString(cwdDir.resolve("Unused.java"), "class Unused {\n}\n");
+		Util.writeString(cwdDir.resolve("Constants.java"), "class Constants {\n\tstatic final int ANSWER = 42;\n}\n");
+		Path main = cwdDir.resolve("incremental.java");
+		String mainSrc = "//SOURCES Used.java Unused.java Constants.java\n"
+				+ "class incremental {\n\tpublic static void main(String... args) {\n"
+				+ "\t\tSystem.out.println(Used.name() + Constants.ANSWER);\n\t}\n}\n";
+		Util.writeString(main, mainSrc);
+
+		Util.setVerbose(true);
+		try {
+			ExecutionResult result = checkedRun(null, "build", main.toString());
+			assertThat(result.err, not(containsString("Recompiling")));
+
+			// Only the main script changed
+			Util.writeString(main, mainSrc + "// changed\n");
+			result = checkedRun(null, "build", main.toString());
+			assertThat(result.err, containsString("Recompiling 1 of 4 source files"));
+			assertJarClasses(main, "incremental.class", "Used.class", "Unused.class", "Constants.class");
+
+			// A source the main script depends on changed
+			Util.writeString(cwdDir.resolve("Used.java"),
+					"class Used {\n\tstatic String name() {\n\t\treturn \"changed\";\n\t}\n}\n");
+			Util.writeString(main, mainSrc + "// changed again\n");
+			result = checkedRun(null, "build", main.toString());
+			assertThat(result.err, containsString("Recompiling 2 of 4 source files"));
+			assertJarClasses(main, "incremental.class", "Used.class", "Unused.class", "Constants.class");
+
+			// Constants get inlined so changing them means rebuilding everything
+			Util.writeString(cwdDir.resolve("Constants.java"),
+					"class Constants {\n\tstatic final int ANSWER = 43;\n}\n");
+			Util.writeString(main, mainSrc + "// changed once more\n");
+			result = checkedRun(null, "build", main.toString());
+			assertThat(result.err, containsString("Constants changed in"));
+			assertJarClasses(main, "incremental.class", "Used.class", "Unused.class", "Constants.class");
+		} finally {
+			Util.setVerbose(false);
+		}
+	}
+
+	@Test
+	void testIncrementalBuildFallbacks() throws IOException {
+		Util.writeString(cwdDir.resolve("Unused.java"), "class Unused {\n}\n");
+		Path main = cwdDir.resolve("fallbacks.java");
+		Util.writeString(main, "//SOURCES Unused.java\n"
+				+ "class fallbacks {\n\tpublic static void main(String... args) {\n\t}\n}\n");
+		List<String> sourceFiles = new ArrayList<>();
+		sourceFiles.add(main.toString());
+		sourceFiles.add(cwdDir.resolve("Unused.java").toString());
+		List<Integer> compiled = new ArrayList<>();
+		ClassStore.Compiler compiler = (options, files, output, origins) -> {
+			compiled.add(files.size());
+			// Pretend that recompiling only the changed sources fails
+			return files.size() == sourceFiles.size()
+					&& BaseBuildCommand.compileInProcess(options, files, null, output, origins);
+		};
+
+		ScriptSource src = ScriptSource.prepareScript(main.toString());
+		Map<String, byte[]> output = new HashMap<>();
+		assertThat(ClassStore.forScript(src).compile("17 javac", new ArrayList<>(), sourceFiles, compiler, output),
+				equalTo(true));
+		assertThat(compiled, equalTo(Arrays.asList(2)));
+
+		// Classes compiled by another JDK never get reused
+		assertThat(ClassStore.forScript(src).compile("11 javac", new ArrayList<>(), sourceFiles, compiler, output),
+				equalTo(true));
+		assertThat(compiled, equalTo(Arrays.asList(2, 2)));
+
+		// A failed incremental build gets retried as a full build
+		Util.writeString(cwdDir.resolve("Unused.java"), "class Unused {\n\tint changed;\n}\n");
+		assertThat(ClassStore.forScript(src).compile("11 javac", new ArrayList<>(), sourceFiles, compiler, output),
+				equalTo(true));
+		assertThat(compiled, equalTo(Arrays.asList(2, 2, 1, 2)));
+		assertThat(output.keySet(), hasItems("fallbacks.class", "Unused.class"));
+	}
+
+	@Test
+	void testClassStoreChangedByOtherBuild() throws IOException {
+		Path main = cwdDir.resolve("shared.java");
+		Util.writeString(main, "class shared {\n\tpublic static void main(String... args) {\n\t}\n}\n");
+		List<String> sourceFiles = Arrays.asList(main.toString());
+		List<Integer> compiled = new ArrayList<>();
+		ClassStore.Compiler compiler = (options, files, output, origins) -> {
+			compiled.add(files.size());
+			return BaseBuildCommand.compileInProcess(options, files, null, output, origins);
+		};
+
+		// Both loaded before either compiled, like two jbang processes would
+		ScriptSource src = ScriptSource.prepareScript(main.toString());
+		ClassStore first = ClassStore.forScript(src);
+		ClassStore second = ClassStore.forScript(src);
+		Map<String, byte[]> output = new HashMap<>();
+		assertThat(first.compile("17 javac", new ArrayList<>(), sourceFiles, compiler, output), equalTo(true));
+		output.clear();
+		assertThat(second.compile("17 javac", new ArrayList<>(), sourceFiles, compiler, output), equalTo(true));
+		assertThat(compiled, equalTo(Arrays.asList(1)));
+		assertThat(output.keySet(), hasItems("shared.class"));
+	}
+
+	@Test
+	void testBuildFingerprint() throws IOException {
+		Path part = cwdDir.resolve("Part.java");
+		Util.writeString(part, "class Part {\n\tstatic String name() {\n\t\treturn \"part\";\n\t}\n}\n");
+		Path main = cwdDir.resolve("fingerprinted.java");
+		Util.writeString(main, "//SOURCES Part.java\n"
+				+ "class fingerprinted {\n\tpublic static void main(String... args) {\n"
+				+ "\t\tSystem.out.println(Part.name());\n\t}\n}\n");
+
+		ExecutionResult result = checkedRun(null, "build", main.toString());
+		assertThat(result.err, containsString("Building jar"));
+		File jar = ScriptSource.prepareScript(main.toString()).getJarFile();
+		assertThat(new File(jar.getParentFile(), jar.getName() + ".fingerprint.json"), anExistingFileOrDirectory());
+
+		// Nothing changed
+		result = checkedRun(null, "build", main.toString());
+		assertThat(result.err, not(containsString("Building jar")));
+
+		// Touched but not changed
+		assertThat(part.toFile().setLastModified(part.toFile().lastModified() + 10_000), equalTo(true));
+		result = checkedRun(null, "build", main.toString());
+		assertThat(result.err, not(containsString("Building jar")));
+
+		// Only one of the sources changed
+		Util.writeString(part, "class Part {\n\tstatic String name() {\n\t\treturn \"changed\";\n\t}\n}\n");
+		result = checkedRun(null, "build", main.toString());
+		assertThat(result.err, containsString("Building jar"));
+	}
+
+	@Test
+	void testBuildMultiple() throws IOException {
+		for (String name : new String[] { "one", "two", "three" }) {
+			Util.writeString(cwdDir.resolve("multi_" + name + ".java"), "class multi_" + name
+					+ " {\n\tpublic static void main(String... args) {\n\t\tSystem.out.println(\"" + name
+					+ "\");\n\t}\n}\n");
+		}
+		Util.writeString(cwdDir.resolve("multi_broken.java"), "class multi_broken {\n\tnope\n}\n");
+		String hello = examplesTestFolder.resolve("helloworld.java").toString();
+
+		ExecutionResult result = checkedRun(null, "build", "--jobs", "2", "multi_*.java", hello);
+		assertThat(result.exitCode, equalTo(BaseCommand.EXIT_GENERIC_ERROR));
+		assertThat(result.err, containsString("Building 5 scripts using 2 workers"));
+		assertThat(result.err, containsString("Built 5 scripts in"));
+		assertThat(result.err, containsString("(1 failed)"));
+		assertThat(result.err, containsString("FAILED"));
+		assertThat(result.err, containsString("multi_broken.java: Error during compile"));
+		for (String name : new String[] { "one", "two", "three" }) {
+			assertJarClasses(cwdDir.resolve("multi_" + name + ".java"), "multi_" + name + ".class");
+		}
+		assertJarClasses(Paths.get(hello), "helloworld.class");
+	}
+
+	@Test
+	void testBuildMultipleWithDependencies() throws IOException {
+		for (String version : new String[] { "4.5.0", "4.5.1" }) {
+			String name = "deps_" + version.replace('.', '_');
+			Util.writeString(cwdDir.resolve(name + ".java"), "//DEPS info.picocli:picocli:" + version + "\n"
+					+ "class " + name + " {\n\tpublic static void main(String... args) {\n\t}\n}\n");
+		}
+		Util.writeString(cwdDir.resolve("deps_missing.java"), "//DEPS dev.jbang.missing:nothing:1.0\n"
+				+ "class deps_missing {\n\tpublic static void main(String... args) {\n\t}\n}\n");
+		DependencyCache.clear();
+
+		ExecutionResult result = checkedRun(null, "build", "--jobs", "2", "deps_*.java");
+		assertThat(result.exitCode, equalTo(BaseCommand.EXIT_GENERIC_ERROR));
+		assertThat(result.err, containsString("(1 failed)"));
+		assertThat(result.err, containsString("deps_missing.java: Could not resolve dependency"));
+		// Each script gets the version it asked for and only their own class paths
+		// end up in the cache
+		assertThat(DependencyCache.getEntryCount(), equalTo(2));
+		assertJarClasses(cwdDir.resolve("deps_4_5_0.java"), "deps_4_5_0.class");
+		assertJarClasses(cwdDir.resolve("deps_4_5_1.java"), "deps_4_5_1.class");
+	}
+
+	@Test
+	void testBuildCatalog() throws IOException {
+		for (String name : new String[] { "one", "two" }) {
+			Util.writeString(cwdDir.resolve("cat_" + name + ".java"), "class cat_" + name
+					+ " {\n\tpublic static void main(String... args) {\n\t\tSystem.out.println(\"" + name
+					+ "\");\n\t}\n}\n");
+		}
+		Path catalog = cwdDir.resolve(Catalog.JBANG_CATALOG_JSON);
+		Util.writeString(catalog, "{\n\t\"aliases\": {\n"
+				+ "\t\t\"one\": { \"script-ref\": \"cat_one.java\", \"arguments\": [ \"a\" ] },\n"
+				+ "\t\t\"two\": { \"script-ref\": \"cat_two.java\", \"properties\": { \"p\": \"v\" } }\n"
+				+ "\t}\n}\n");
+
+		ExecutionResult result = checkedRun(null, "build", catalog.toString(),
+				examplesTestFolder.resolve("helloworld.java").toString());
+		assertThat(result.exitCode, equalTo(BaseCommand.EXIT_OK));
+		assertThat(result.err, containsString("Built 3 scripts in"));
+		assertThat(result.err, containsString("one@" + catalog));
+		assertThat(result.err, containsString("two@" + catalog));
+		assertThat(result.err, not(containsString("FAILED")));
+		assertJarClasses(cwdDir.resolve("cat_one.java"), "cat_one.class");
+		assertJarClasses(cwdDir.resolve("cat_two.java"), "cat_two.class");
+	}
+
+	@Test
+	void testCompileDaemon() throws Exception {
+		String src = examplesTestFolder.resolve("helloworld.java").toString();
+		int version = JavaUtil.javaVersion(null);
+		environmentVariables.set(Settings.ENV_COMPILE_DAEMON, "true");
+		environmentVariables.set(Settings.ENV_COMPILE_DAEMON_IDLE, "1");
+		Util.setVerbose(true);
+		try {
+			// The first build starts the daemon but doesn't wait for it
+			ExecutionResult result = checkedRun(null, "build", src);
+			assertThat(result.err, containsString("Starting compile daemon"));
+			assertThat(result.err, containsString("compile (in-process):"));
+
+			for (int i = 0; i < 100 && !CompileDaemon.isRunning(version); i++) {
+				Thread.sleep(100);
+			}
+			assertThat(CompileDaemon.isRunning(version), equalTo(true));
+
+			result = checkedRun(null, "build", "--fresh", src);
+			assertThat(result.err, containsString("compile (daemon):"));
+			assertThat(result.err, not(containsString("compile (in-process):")));
+			assertJarClasses(Paths.get(src), "helloworld.class");
+		} finally {
+			CompileDaemon.stop(version);
+			Util.setVerbose(false);
+			Util.setFresh(false);
+			environmentVariables.clear(Settings.ENV_COMPILE_DAEMON, Settings.ENV_COMPILE_DAEMON_IDLE);
+		}
+	}
+
+	private void assertJarClasses(Path src, String... classes) throws IOException {
+		File jar = ScriptSource.prepareScript(src.toString()).getJarFile();
+		try (JarFile jf = new JarFile(jar)) {
+			List<String> names = Collections.list(jf.entries())
+											.stream()
+											.map(JarEntry::getName)
+											.collect(Collectors.toList());
+			assertThat(names, hasItems(classes));
+		}
+	}
+
+	/**
+	 * Compares the time it takes to build a small script and a script with 20
+	 * sources, compiling in-process vs using a separate javac process vs using the
+	 * compile daemon. Only runs when the JBANG_BENCHMARK environment variable is
+	 * set to "true".
+	 */
+	@Test
+	@EnabledIfEnvironmentVariable(named = "JBANG_BENCHMARK", matches = "true")
+	void benchmarkCompile() throws Exception {
+		String small = examplesTestFolder.resolve("helloworld.java").toString();
+
+		List<String> sources = new ArrayList<>();
+		StringBuilder main = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			Util.writeString(cwdDir.resolve("Part" + i + ".java"),
+					"class Part" + i + " {\n\tstatic String name() {\n\t\treturn \"part" + i + "\";\n\t}\n}\n");
+			sources.add("Part" + i + ".java");
+		}
+		main.append("//SOURCES ").append(String.join(" ", sources)).append("\n");
+		main.append("class multi {\n\tpublic static void main(String... args) {\n");
+		for (int i = 0; i < 20; i++) {
+			main.append("\t\tSystem.out.println(Part").append(i).append(".name());\n");
+		}
+		main.append("\t}\n}\n");
+		Path multi = cwdDir.resolve("multi.java");
+		Util.writeString(multi, main.toString());
+
+		int runs = 5;
+		try {
+			for (String src : new String[] { small, multi.toString() }) {
+				long external = time(src, runs, Settings.ENV_NO_INPROCESS_COMPILER);
+				long inProcess = time(src, runs, null);
+				long daemon = time(src, runs, Settings.ENV_COMPILE_DAEMON);
+				System.out.println("Building " + src + ": external javac " + external + "ms, in-process "
+						+ inProcess + "ms, daemon " + daemon + "ms (average of " + runs + " builds)");
+			}
+		} finally {
+			CompileDaemon.stop(JavaUtil.javaVersion(null));
+		}
+	}
+
+	private long time(String src, int runs, String env) throws Exception {
+		if (env != null) {
+			environmentVariables.set(env, "true");
+		}
+		try {
+			// The first build warms up everything that's not related to compiling
+			checkedRun(null, "build", "--fresh", src);
+			if (Settings.ENV_COMPILE_DAEMON.equals(env)) {
+				for (int i = 0; i < 100 && !CompileDaemon.isRunning(JavaUtil.javaVersion(null)); i++) {
+					Thread.sleep(100);
+				}
+				checkedRun(null, "build", "--fresh", src);
+			}
+			long start = System.nanoTime();
+			for (int i = 0; i < runs; i++) {
+				checkedRun(null, "build", "--fresh", src);
+			}
+			return (System.nanoTime() - start) / 1_000_000 / runs;
+		} finally {
+			Util.setFresh(false);
+			if (env != null) {
+				environmentVariables.clear(env);
+			}
+		}
+	}
+}
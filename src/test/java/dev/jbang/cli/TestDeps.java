@@ -0,0 +1,209 @@
+package dev.jbang.cli;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import dev.jbang.BaseTest;
+import dev.jbang.Settings;
+import dev.jbang.dependencies.DependencyCache;
+import dev.jbang.dependencies.DependencyUtil;
+import dev.jbang.dependencies.LockFile;
+import dev.jbang.dependencies.ModularClassPath;
+import dev.jbang.source.RunContext;
+import dev.jbang.source.ScriptSource;
+import dev.jbang.source.Source;
+import dev.jbang.util.Util;
+
+import picocli.CommandLine;
+
+public class TestDeps extends BaseTest {
+
+	Path copyScript() throws IOException {
+		Path src = cwdDir.resolve("quote.java");
+		Files.copy(examplesTestFolder.resolve("quote.java"), src);
+		return src;
+	}
+
+	ModularClassPath resolve(Path src) {
+		RunContext ctx = RunContext.empty();
+		ScriptSource ss = Source.forResource(src.toString(), ctx).asScriptSource();
+		return ss.resolveClassPath(ctx.collectAllDependenciesFor(ss));
+	}
+
+	@Test
+	void testLock() throws IOException {
+		Path src = copyScript();
+		int exitCode = Jbang.getCommandLine().execute("deps", "lock", src.toString());
+		assertThat(exitCode, equalTo(BaseCommand.EXIT_OK));
+
+		LockFile lock = LockFile.readFor(src);
+		assertThat(lock.getDependencies(), contains("info.picocli:picocli:4.5.0"));
+		assertThat(lock.getArtifacts(), hasSize(1));
+		LockFile.LockedArtifact artifact = lock.getArtifacts().get(0);
+		assertThat(artifact.getCoordinate().toCanonicalForm(), equalTo("info.picocli:picocli:jar:4.5.0"));
+		assertThat(artifact.getFile().exists(), is(true));
+		assertThat(artifact.getSha256().length(), equalTo(64));
+	}
+
+	@Test
+	void testLockWithoutJitPack() throws IOException {
+		Path src = copyScript();
+		environmentVariables.set(Settings.JBANG_REPO, jbangTempDir.resolve("repo").toString());
+		try {
+			Jbang.getCommandLine().execute("deps", "lock", src.toString());
+			File jar = LockFile.readFor(src).getArtifacts().get(0).getFile();
+			// Pretend the artifact was downloaded from JitPack for another script
+			Files.write(jar.toPath().resolveSibling("_remote.repositories"),
+					(jar.getName() + ">jitpack=\n").getBytes());
+
+			Jbang.getCommandLine().execute("deps", "lock", src.toString());
+			LockFile.LockedArtifact artifact = LockFile.readFor(src).getArtifacts().get(0);
+			assertThat(artifact.getRepository(), not(equalTo(DependencyUtil.REPO_JITPACK)));
+		} finally {
+			environmentVariables.clear(Settings.JBANG_REPO);
+			DependencyCache.clear();
+		}
+	}
+
+	@Test
+	void testResolveFromLock() throws IOException {
+		Path src = copyScript();
+		Jbang.getCommandLine().execute("deps", "lock", src.toString());
+
+		// Pin a different version than the script asks for, to make sure the
+		// lock file is what the class path gets built from
+		Path lockFile = LockFile.getLockFileFor(src);
+		String lock = Util	.readString(lockFile)
+							.replace("info.picocli:picocli:jar:4.5.0", "info.picocli:picocli:jar:4.5.1")
+							.replaceAll("\"sha256\": \"\\w+\"", "\"sha256\": null");
+		Files.write(lockFile, lock.getBytes());
+
+		DependencyCache.clear();
+		Path repo = jbangTempDir.resolve("repo");
+		environmentVariables.set(Settings.JBANG_REPO, repo.toString());
+		try {
+			ModularClassPath mcp = resolve(src);
+			assertThat(mcp.getClassPaths(), hasSize(1));
+			assertThat(mcp.getClassPaths().get(0), containsString("picocli-4.5.1.jar"));
+			assertThat(mcp.getClassPaths().get(0), containsString(repo.toString()));
+		} finally {
+			environmentVariables.clear(Settings.JBANG_REPO);
+		}
+	}
+
+	String runCommandLine(Path src) throws IOException {
+		Jbang jbang = new Jbang();
+		CommandLine.ParseResult pr = new CommandLine(jbang).parseArgs("run", src.toString());
+		Run run = (Run) pr.subcommand().commandSpec().userObject();
+		RunContext ctx = RunContext.create(run.userParams, run.dependencyInfoMixin.getProperties(),
+				run.dependencyInfoMixin.getDependencies(), run.dependencyInfoMixin.getClasspaths(), run.forcejsh);
+		Source prepared = run.prepareArtifacts(Source.forResource(src.toString(), ctx), ctx);
+		return run.generateCommandLine(prepared, ctx);
+	}
+
+	@Test
+	void testLockChangedAfterBuild() throws IOException {
+		Path src = copyScript();
+		assertThat(runCommandLine(src), containsString("picocli-4.5.0.jar"));
+
+		// Creating a lock file for an already built script must be picked up
+		Jbang.getCommandLine().execute("deps", "lock", src.toString());
+		Path lockFile = LockFile.getLockFileFor(src);
+		String lock = Util	.readString(lockFile)
+							.replace("info.picocli:picocli:jar:4.5.0", "info.picocli:picocli:jar:4.5.1")
+							.replaceAll("\"sha256\": \"\\w+\"", "\"sha256\": null");
+		Files.write(lockFile, lock.getBytes());
+		assertThat(runCommandLine(src), containsString("picocli-4.5.1.jar"));
+
+		// And so must changing it
+		Files.write(lockFile, lock.replace("info.picocli:picocli:jar:4.5.1", "info.picocli:picocli:jar:4.5.0")
+									.getBytes());
+		assertThat(runCommandLine(src), containsString("picocli-4.5.0.jar"));
+	}
+
+	@Test
+	void testClassPathChangedAfterBuild() throws IOException {
+		Path src = copyScript();
+		environmentVariables.set(Settings.JBANG_REPO, jbangTempDir.resolve("repo").toString());
+		try {
+			ExecutionResult result = checkedRun(null, "build", src.toString());
+			assertThat(result.err, containsString("Building jar"));
+			result = checkedRun(null, "build", src.toString());
+			assertThat(result.err, not(containsString("Building jar")));
+
+			// The dependency changed and got resolved again, the jar must be rebuilt
+			File jar = resolve(src).getArtifacts().get(0).getFile();
+			assertThat(jar.setLastModified(jar.lastModified() + 10_000), is(true));
+			Util.setFresh(true);
+			try {
+				resolve(src);
+			} finally {
+				Util.setFresh(false);
+			}
+			result = checkedRun(null, "build", src.toString());
+			assertThat(result.err, containsString("Building jar"));
+		} finally {
+			environmentVariables.clear(Settings.JBANG_REPO);
+			DependencyCache.clear();
+		}
+	}
+
+	@Test
+	void testLockChecksumOfCachedArtifact() throws IOException {
+		Path src = copyScript();
+		Jbang.getCommandLine().execute("deps", "lock", src.toString());
+		Path lockFile = LockFile.getLockFileFor(src);
+		String lock = Util.readString(lockFile).replaceAll("\"sha256\": \"\\w+\"", "\"sha256\": \"1234\"");
+		Files.write(lockFile, lock.getBytes());
+
+		// The artifact is already in the local repository, its checksum still gets
+		// verified
+		ExitException ex = assertThrows(ExitException.class, () -> resolve(src));
+		assertThat(ex.getMessage(), containsString("Checksum"));
+	}
+
+	@Test
+	void testLockIgnoredWhenDependenciesChange() throws IOException {
+		Path src = copyScript();
+		Jbang.getCommandLine().execute("deps", "lock", src.toString());
+		String lock = Util	.readString(LockFile.getLockFileFor(src))
+							.replace("\"info.picocli:picocli:4.5.0\"",
+									"\"info.picocli:picocli:4.0.0\"");
+		Files.write(LockFile.getLockFileFor(src), lock.getBytes());
+
+		List<String> cp = resolve(src).getClassPaths();
+		assertThat(cp, hasSize(1));
+		assertThat(cp.get(0), containsString("picocli-4.5.0.jar"));
+	}
+
+	@Test
+	void testLockChecksumMismatch() throws IOException {
+		Path src = copyScript();
+		Jbang.getCommandLine().execute("deps", "lock", src.toString());
+		Path lockFile = LockFile.getLockFileFor(src);
+		String lock = Util.readString(lockFile).replaceAll("\"sha256\": \"\\w+\"", "\"sha256\": \"1234\"");
+		Files.write(lockFile, lock.getBytes());
+
+		environmentVariables.set(Settings.JBANG_REPO, jbangTempDir.resolve("repo").toString());
+		try {
+			ExitException ex = assertThrows(ExitException.class, () -> resolve(src));
+			assertThat(ex.getMessage(), containsString("Checksum"));
+		} finally {
+			environmentVariables.clear(Settings.JBANG_REPO);
+		}
+	}
+}
@@ -3,27 +3,48 @@ package dev.jbang.cli;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.matchesPattern;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.io.FileMatchers.anExistingDirectory;
 import static org.hamcrest.io.FileMatchers.anExistingFile;
 import static org.hamcrest.io.FileMatchers.anExistingFileOrDirectory;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.jar.Attributes;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Test;
 
 import dev.jbang.BaseTest;
 import dev.jbang.Settings;
+import dev.jbang.dependencies.ArtifactInfo;
+import dev.jbang.dependencies.DependencyCache;
+import dev.jbang.dependencies.DependencyUtil;
+import dev.jbang.net.JdkManager;
+import dev.jbang.source.JarSource;
+import dev.jbang.source.RunContext;
+import dev.jbang.source.Source;
+import dev.jbang.util.JavaUtil;
+import dev.jbang.util.Util;
+
+import picocli.CommandLine;
 
 public class TestExport extends BaseTest {
 
@@ -81,6 +102,9 @@ public class TestExport extends BaseTest {
 
 			String cp = mf.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
 			assertThat(cp, containsString("m2"));
+
+			String gavs = mf.getMainAttributes().getValue(Source.ATTR_JBANG_CLASS_PATH_GAVS);
+			assertThat(gavs, equalTo("log4j:log4j:jar:1.2.17"));
 		}
 		Files.delete(jar.toPath());
 
@@ -139,4 +163,92 @@ public class TestExport extends BaseTest {
 				.forEach(File::delete);
 
 	}
+
+	@Test
+	void testExportBundle() throws IOException {
+		String src = examplesTestFolder.resolve("classpath_log.java").toString();
+
+		// A fake managed JDK, with an executable and a link, to include in the bundle
+		int jdk = JavaUtil.determineJavaVersion();
+		Path jdkDir = JdkManager.getJdkPath(jdk);
+		Files.createDirectories(jdkDir.resolve("bin"));
+		Util.writeString(jdkDir.resolve("bin/java"), "#!/bin/sh");
+		jdkDir.resolve("bin/java").toFile().setExecutable(true);
+		Files.createSymbolicLink(jdkDir.resolve("java"), Paths.get("bin/java"));
+
+		ExecutionResult result = checkedRun(null, "export", "bundle", "--with-jdk", src);
+		assertThat(result.err, matchesPattern("(?s).*Exported to.*classpath_log.bundle.zip.*"));
+		Path bundle = cwdDir.resolve("classpath_log.bundle.zip");
+		assertThat(bundle.toFile(), anExistingFile());
+
+		// Import it as if on a different machine, with empty caches and repository
+		Path repo = jbangTempDir.resolve("otherrepo");
+		environmentVariables.set(Settings.JBANG_CACHE_DIR, jbangTempDir.resolve("othercache").toString());
+		environmentVariables.set(Settings.JBANG_REPO, repo.toString());
+		DependencyCache.clear();
+		try {
+			new Cache().importBundle(bundle);
+			assertThat(repo.resolve("log4j/log4j/1.2.17/log4j-1.2.17.jar").toFile(), anExistingFile());
+			assertThat(JdkManager.getJdkPath(jdk).resolve("bin/java").toFile().canExecute(), is(true));
+			assertThat(Files.isSymbolicLink(JdkManager.getJdkPath(jdk).resolve("java")), is(true));
+			List<ArtifactInfo> cached = DependencyCache.findDependenciesByHash(
+					DependencyUtil.getCacheKey(Collections.singletonList("log4j:log4j:1.2.17"), true));
+			assertThat(cached, notNullValue());
+			assertThat(cached.get(0).getFile().toPath(), equalTo(repo.resolve("log4j/log4j/1.2.17/log4j-1.2.17.jar")));
+
+			// Running it must not need any resolving or compiling
+			Util.setOffline(true);
+			CommandLine.ParseResult pr = new CommandLine(new Jbang()).parseArgs("run", src);
+			Run run = (Run) pr.subcommand().commandSpec().userObject();
+			RunContext ctx = RunContext.create(run.userParams, run.dependencyInfoMixin.getProperties(),
+					run.dependencyInfoMixin.getDependencies(), run.dependencyInfoMixin.getClasspaths(), run.forcejsh);
+			Source source = run.prepareArtifacts(Source.forResource(src, ctx), ctx);
+			assertThat(source, instanceOf(JarSource.class));
+			assertThat(run.generateCommandLine(source, ctx), containsString(repo.resolve("log4j").toString()));
+		} finally {
+			Util.setOffline(false);
+			environmentVariables.clear(Settings.JBANG_REPO);
+			DependencyCache.clear();
+		}
+	}
+
+	@Test
+	void testImportTamperedBundle() throws IOException {
+		String src = examplesTestFolder.resolve("classpath_log.java").toString();
+		checkedRun(null, "export", "bundle", src);
+		Path bundle = cwdDir.resolve("classpath_log.bundle.zip");
+
+		// Replace one of the dependencies with something else
+		Path tampered = cwdDir.resolve("tampered.bundle.zip");
+		try (ZipInputStream in = new ZipInputStream(Files.newInputStream(bundle));
+				ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(tampered))) {
+			ZipEntry entry;
+			while ((entry = in.getNextEntry()) != null) {
+				out.putNextEntry(new ZipEntry(entry.getName()));
+				if (entry.getName().endsWith("log4j-1.2.17.jar")) {
+					out.write("not log4j".getBytes());
+				} else {
+					byte[] buf = new byte[8192];
+					int n;
+					while ((n = in.read(buf)) > 0) {
+						out.write(buf, 0, n);
+					}
+				}
+				out.closeEntry();
+			}
+		}
+
+		Path repo = jbangTempDir.resolve("otherrepo");
+		environmentVariables.set(Settings.JBANG_CACHE_DIR, jbangTempDir.resolve("othercache").toString());
+		environmentVariables.set(Settings.JBANG_REPO, repo.toString());
+		DependencyCache.clear();
+		try {
+			ExitException ex = assertThrows(ExitException.class, () -> new Cache().importBundle(tampered));
+			assertThat(ex.getMessage(), containsString("Checksum"));
+			assertThat(repo.resolve("log4j/log4j/1.2.17/log4j-1.2.17.jar").toFile(), not(anExistingFile()));
+		} finally {
+			environmentVariables.clear(Settings.JBANG_REPO);
+			DependencyCache.clear();
+		}
+	}
 }
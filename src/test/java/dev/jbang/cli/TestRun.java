@@ -13,6 +13,7 @@ import static org.hamcrest.Matchers.hasKey;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.hasXPath;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.matchesPattern;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.startsWith;
@@ -21,22 +22,28 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -49,6 +56,12 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.api.condition.JRE;
+import org.junit.jupiter.api.condition.OS;
 import org.junit.jupiter.api.io.TempDir;
 import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
@@ -61,12 +74,17 @@ import dev.jbang.BaseTest;
 import dev.jbang.Cache;
 import dev.jbang.Settings;
 import dev.jbang.catalog.Catalog;
+import dev.jbang.dependencies.LockFile;
 import dev.jbang.net.TrustedSources;
 import dev.jbang.source.JarSource;
 import dev.jbang.source.RunContext;
 import dev.jbang.source.ScriptSource;
 import dev.jbang.source.Source;
+import dev.jbang.util.CdsArchive;
+import dev.jbang.util.JavaUtil;
+import dev.jbang.util.LaunchPlan;
 import dev.jbang.util.Util;
+import dev.jbang.util.WarmRunner;
 
 import picocli.CommandLine;
 
@@ -934,12 +952,14 @@ public class TestRun extends BaseTest {
 		ctx.setMainClass("fakemain");
 		String commandLine = run.generateCommandLine(src, ctx);
 
-		assertThat(commandLine, containsString("-XX:SharedArchiveFile="));
+		assertThat(commandLine, not(containsString("-XX:SharedArchiveFile=")));
 
 		run.doCall();
 
 		commandLine = run.generateCommandLine(src, ctx);
-		assertThat(commandLine, containsString("-XX:ArchiveClassesAtExit="));
+		assertThat(commandLine, containsString("-XX:SharedArchiveFile="));
+		assertThat(commandLine, not(containsString("-XX:ArchiveClassesAtExit=")));
+		assertThat(Files.exists(CdsArchive.forJar(src.getJarFile()).getFile()), is(true));
 
 		assert (run.cds().isPresent());
 		assert (run.cds().get());
@@ -956,6 +976,449 @@ public class TestRun extends BaseTest {
 		assert (!run.cds().get());
 	}
 
+	@Test
+	void testCDSArchiveInvalidated() throws IOException {
+		String arg = examplesTestFolder.resolve("helloworld.java").toAbsolutePath().toString();
+		ExecutionResult result = checkedRun(null, "build", "--cds", arg);
+		assertThat(result.err, containsString("Creating CDS archive..."));
+
+		File jar = Source.forResource(arg, RunContext.empty()).getJarFile();
+		CdsArchive archive = CdsArchive.forJar(jar);
+		Path info = archive.getFile().resolveSibling(archive.getFile().getFileName() + ".json");
+		assertThat(Files.exists(archive.getFile()), is(true));
+		String json = Util.readString(info);
+		assertThat(json, containsString("\"jdk\""));
+		assertThat(json, containsString("\"trained\": false"));
+
+		result = checkedRun(null, "build", "--cds", arg);
+		assertThat(result.err, not(containsString("Creating CDS archive")));
+
+		// An archive made for another JDK never gets used, it's created again
+		Util.writeString(info, json.replaceFirst("\"jdk\": \"[^\"]*\"", "\"jdk\": \"13.0.0+0\""));
+		result = checkedRun(null, "build", "--cds", arg);
+		assertThat(result.err, containsString("Creating CDS archive..."));
+		assertThat(Util.readString(info), equalTo(json));
+
+		// As does one made for another version of the jar
+		assertThat(jar.setLastModified(jar.lastModified() - 10000), is(true));
+		result = checkedRun(null, "build", "--cds", arg);
+		assertThat(result.err, containsString("Creating CDS archive..."));
+		assertThat(Util.readString(info), not(equalTo(json)));
+	}
+
+	@Test
+	void testCDSTraining() throws IOException {
+		String arg = examplesTestFolder.resolve("helloworld.java").toAbsolutePath().toString();
+		ExecutionResult result = checkedRun(null, "build", "--cds-training", arg);
+		assertThat(result.err, containsString("Creating CDS archive with a training run..."));
+
+		File jar = Source.forResource(arg, RunContext.empty()).getJarFile();
+		CdsArchive archive = CdsArchive.forJar(jar);
+		assertThat(Files.exists(archive.getFile()), is(true));
+		assertThat(Util.readString(archive.getFile().resolveSibling(archive.getFile().getFileName() + ".json")),
+				containsString("\"trained\": true"));
+	}
+
+	@Test
+	void testCDSTrainingWithoutArguments() throws IOException {
+		Path marker = cwdDir.resolve("trained.txt");
+		Path script = cwdDir.resolve("cdsargs.java");
+		writeString(script, "import java.nio.file.*;\n"
+				+ "class cdsargs {\n\tpublic static void main(String... args) throws Exception {\n"
+				+ "\t\tFiles.write(Paths.get(\"" + marker.toString().replace("\\", "\\\\")
+				+ "\"), (String.join(\",\", args) + \"|\").getBytes(),\n"
+				+ "\t\t\t\tStandardOpenOption.CREATE, StandardOpenOption.APPEND);\n\t}\n}\n");
+
+		checkedRun(null, "run", "--cds-training", script.toString(), "secret");
+		assertThat(Util.readString(marker), equalTo("|"));
+	}
+
+	@Test
+	void testCDSKeepsClassPathOrder() throws IOException {
+		writeString(cwdDir.resolve("cdsorder.java"), "//DEPS info.picocli:picocli:4.5.0\n"
+				+ "class cdsorder {\n\tpublic static void main(String... args) {\n"
+				+ "\t\tSystem.out.println(picocli.CommandLine.VERSION);\n\t}\n}\n");
+		String src = cwdDir.resolve("cdsorder.java").toString();
+
+		ExecutionResult result = checkedRun(null, "build", "--cds", src);
+		assertThat(result.err, containsString("Creating CDS archive..."));
+
+		File jar = Source.forResource(src, RunContext.empty()).getJarFile();
+		Path archive = CdsArchive.forJar(jar).getFile();
+		CommandLine.ParseResult pr = new CommandLine(new Jbang()).parseArgs("run", "--cds", src);
+		Run run = (Run) pr.subcommand().commandSpec().userObject();
+		RunContext ctx = RunContext.empty();
+		String commandLine = run.generateCommandLine(run.prepareArtifacts(Source.forResource(src, ctx), ctx), ctx);
+		assertThat(commandLine, containsString("-classpath " + jar.getAbsolutePath() + File.pathSeparator));
+		assertThat(commandLine, containsString("-XX:SharedArchiveFile=" + archive + " "));
+	}
+
+	@Test
+	void testCDSSharedDependencyArchive() throws IOException {
+		for (String name : new String[] { "cdsone", "cdstwo" }) {
+			writeString(cwdDir.resolve(name + ".java"), "//DEPS info.picocli:picocli:4.5.0\n"
+					+ "class " + name + " {\n\tpublic static void main(String... args) {\n"
+					+ "\t\tSystem.out.println(picocli.CommandLine.VERSION);\n\t}\n}\n");
+		}
+		String one = cwdDir.resolve("cdsone.java").toString();
+		String two = cwdDir.resolve("cdstwo.java").toString();
+
+		ExecutionResult result = checkedRun(null, "build", "--cds-shared", one);
+		assertThat(result.err, containsString("Creating shared CDS archive for the dependencies..."));
+		assertThat(result.err, containsString("Creating CDS archive..."));
+		assertThat(result.err, not(containsString("they hide")));
+
+		// The second script only gets its own small archive
+		result = checkedRun(null, "build", "--cds-shared", two);
+		assertThat(result.err, not(containsString("Creating shared CDS archive")));
+		assertThat(result.err, containsString("Creating CDS archive..."));
+
+		File[] shared = Settings.getCacheDir(Cache.CacheClass.cds).toFile().listFiles((d, n) -> n.endsWith(".jsa"));
+		assertThat(shared.length, equalTo(1));
+		for (String src : new String[] { one, two }) {
+			File jar = Source.forResource(src, RunContext.empty()).getJarFile();
+			Path archive = CdsArchive.forJar(jar).getFile();
+			assertThat(Files.size(archive), lessThan(shared[0].length()));
+
+			CommandLine.ParseResult pr = new CommandLine(new Jbang()).parseArgs("run", "--cds-shared", src);
+			Run run = (Run) pr.subcommand().commandSpec().userObject();
+			RunContext ctx = RunContext.empty();
+			String commandLine = run.generateCommandLine(run.prepareArtifacts(Source.forResource(src, ctx), ctx),
+					ctx);
+			assertThat(commandLine,
+					containsString("-XX:SharedArchiveFile=" + shared[0] + File.pathSeparator + archive));
+			assertThat(commandLine, containsString(File.pathSeparator + jar.getAbsolutePath() + " "));
+		}
+	}
+
+	@Test
+	void testCDSSharedReportsHiddenResources() throws IOException {
+		// A class of its own that has the same name as one of picocli's
+		writeString(cwdDir.resolve("CommandLine.java"), "package picocli;\npublic class CommandLine {\n}\n");
+		writeString(cwdDir.resolve("cdshidden.java"), "//DEPS info.picocli:picocli:4.5.0\n"
+				+ "//SOURCES CommandLine.java\n"
+				+ "class cdshidden {\n\tpublic static void main(String... args) {\n\t}\n}\n");
+		String src = cwdDir.resolve("cdshidden.java").toString();
+
+		ExecutionResult result = checkedRun(null, "build", "--cds-shared", src);
+		assertThat(result.err, containsString("they hide these classes and resources of cdshidden.jar: "
+				+ "picocli/CommandLine.class"));
+
+		// Only reported when the archive gets created
+		result = checkedRun(null, "build", "--cds-shared", src);
+		assertThat(result.err, not(containsString("they hide")));
+	}
+
+	@Test
+	@DisabledOnOs(OS.WINDOWS)
+	void testLaunchPlan() throws Exception {
+		environmentVariables.clear("JAVA_HOME");
+		environmentVariables.set(Settings.ENV_LAUNCH_PLANS, "true");
+		try {
+			Path script = cwdDir.resolve("planned.java");
+			writeString(script, "class planned {\n\tpublic static void main(String... args) {\n"
+					+ "\t\tSystem.out.println(\"planned \" + String.join(\",\", args));\n\t}\n}\n");
+			String arg = script.toString();
+			checkedRun(null, "build", arg);
+			// Files modified while jbang is running can't be relied on
+			long past = System.currentTimeMillis() - 10000;
+			assertThat(script.toFile().setLastModified(past), is(true));
+			assertThat(Source.forResource(arg, RunContext.empty()).getJarFile().setLastModified(past), is(true));
+
+			LaunchPlan.setLauncherArguments(arg, "a b");
+			checkedRun(null, "run", arg, "a b");
+			File[] plans = Settings.getCacheDir(Cache.CacheClass.plans).toFile().listFiles();
+			assertThat(plans.length, equalTo(1));
+			assertThat(plans[0].getName(), matchesPattern("[0-9a-f]{16}\\.sh"));
+			assertThat(runLaunchPlan(plans[0], arg, "c d", "e"), equalTo("planned c d,e"));
+			assertThat(runLaunchPlan(plans[0], "other.java", "c d", "e"), equalTo("not planned"));
+
+			// A lock file that didn't exist when the plan was stored changes the class path
+			Path lock = LockFile.getLockFileFor(script);
+			Files.write(lock, "{}".getBytes());
+			assertThat(runLaunchPlan(plans[0], arg, "c d", "e"), equalTo("not planned"));
+			Files.delete(lock);
+			assertThat(runLaunchPlan(plans[0], arg, "c d", "e"), equalTo("planned c d,e"));
+
+			if (Util.searchPath("java") != null) {
+				// The java command from the PATH has to lead to the same file
+				Path java = Util.searchPath("java").resolve("java").toRealPath();
+				Path bin = Files.createDirectories(cwdDir.resolve("bin"));
+				Files.createSymbolicLink(bin.resolve("java"), java);
+				Map<String, String> env = Collections.singletonMap("PATH",
+						bin + File.pathSeparator + System.getenv("PATH"));
+				assertThat(runLaunchPlan(plans[0], env, arg, "c d", "e"), equalTo("planned c d,e"));
+				Files.delete(bin.resolve("java"));
+				Files.createSymbolicLink(bin.resolve("java"), java.getParent().resolve("javac"));
+				assertThat(runLaunchPlan(plans[0], env, arg, "c d", "e"), equalTo("not planned"));
+			}
+
+			assertThat(script.toFile().setLastModified(System.currentTimeMillis()), is(true));
+			assertThat(runLaunchPlan(plans[0], arg, "c d", "e"), equalTo("not planned"));
+		} finally {
+			environmentVariables.clear(Settings.ENV_LAUNCH_PLANS);
+			LaunchPlan.setLauncherArguments();
+		}
+	}
+
+	/**
+	 * Sources the launch plan the way the launcher script does, returns the output
+	 * of the command it runs
+	 */
+	private String runLaunchPlan(File plan, String... args) throws IOException, InterruptedException {
+		return runLaunchPlan(plan, Collections.emptyMap(), args);
+	}
+
+	private String runLaunchPlan(File plan, Map<String, String> env, String... args)
+			throws IOException, InterruptedException {
+		List<String> cmd = new ArrayList<>(Arrays.asList("bash", "-c",
+				"launchPlan=$0; source \"$launchPlan\" \"$@\"; echo not planned", plan.getPath()));
+		cmd.addAll(Arrays.asList(args));
+		ProcessBuilder pb = new ProcessBuilder(cmd).directory(cwdDir.toFile()).redirectErrorStream(true);
+		pb.environment().clear();
+		pb.environment().putAll(System.getenv());
+		pb.environment().remove(Settings.ENV_LAUNCH_PLANS);
+		pb.environment().putAll(env);
+		Process p = pb.start();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+			String output = in.lines().collect(Collectors.joining("\n"));
+			p.waitFor();
+			return output;
+		}
+	}
+
+	@Test
+	@DisabledOnOs(OS.WINDOWS)
+	@EnabledIf("isWarmSupported")
+	void testWarm() throws Exception {
+		Path script = cwdDir.resolve("warmed.java");
+		writeString(script, "class warmed {\n\tstatic int count;\n\tpublic static void main(String... args) {\n"
+				+ "\t\tSystem.out.println(\"warmed \" + String.join(\",\", args) + \" \" + ++count);\n"
+				+ "\t\tif (args.length > 0) System.exit(3);\n\t}\n}\n");
+		String arg = script.toString();
+		int version = JavaUtil.javaVersion(null);
+		try {
+			// The first run only starts the warm JVM
+			assertThat(generateWarmCommandLine(arg), nullValue());
+			for (int i = 0; i < 300 && !WarmRunner.isRunning(version); i++) {
+				Thread.sleep(100);
+			}
+			assertThat(WarmRunner.isRunning(version), is(true));
+
+			List<String> cmd = generateWarmCommandLine(arg);
+			assertThat(cmd.get(0), equalTo("bash"));
+			assertThat(runCommand(cmd), equalTo("0 warmed  1"));
+			// The script's classes stay loaded
+			cmd.add("a b");
+			assertThat(runCommand(cmd), equalTo("3 warmed a b 2"));
+
+			writeString(script, "//NOWARM\n" + new String(Files.readAllBytes(script)));
+			assertThat(generateWarmCommandLine(arg), nullValue());
+		} finally {
+			WarmRunner.stop(version);
+		}
+		assertThat(WarmRunner.isRunning(version), is(false));
+	}
+
+	@Test
+	@DisabledOnOs(OS.WINDOWS)
+	@EnabledIf("isWarmSupported")
+	void testWarmThreads() throws Exception {
+		Path script = cwdDir.resolve("threaded.java");
+		writeString(script, "class threaded {\n\tpublic static void main(String... args) {\n"
+				+ "\t\tnew Thread(() -> {\n"
+				+ "\t\t\ttry {\n\t\t\t\tThread.sleep(500);\n\t\t\t} catch (InterruptedException e) {\n\t\t\t}\n"
+				+ "\t\t\tSystem.out.println(\"late\");\n"
+				+ "\t\t\tif (args.length > 0) System.exit(5);\n"
+				+ "\t\t}).start();\n"
+				+ "\t\tSystem.out.println(\"early\");\n\t}\n}\n");
+		String arg = script.toString();
+		int version = JavaUtil.javaVersion(null);
+		try {
+			assertThat(generateWarmCommandLine(arg), nullValue());
+			for (int i = 0; i < 300 && !WarmRunner.isRunning(version); i++) {
+				Thread.sleep(100);
+			}
+
+			// The run only ends once the thread the script started is done
+			List<String> cmd = generateWarmCommandLine(arg);
+			assertThat(runCommand(cmd), equalTo("0 early\nlate"));
+			// Which can also end it by exiting
+			cmd.add("exit");
+			assertThat(runCommand(cmd), equalTo("5 early\nlate"));
+		} finally {
+			WarmRunner.stop(version);
+		}
+	}
+
+	@Test
+	@DisabledOnOs(OS.WINDOWS)
+	@EnabledIf("isWarmSupported")
+	void testWarmEnvironment() throws Exception {
+		Path script = cwdDir.resolve("warmenv.java");
+		writeString(script, "class warmenv {\n\tstatic int count;\n\tpublic static void main(String... args) {\n"
+				+ "\t\tSystem.out.println(System.getenv(\"WARM_TEST\") + \" \" + ++count);\n\t}\n}\n");
+		String arg = script.toString();
+		int version = JavaUtil.javaVersion(null);
+		try {
+			assertThat(generateWarmCommandLine(arg), nullValue());
+			for (int i = 0; i < 300 && !WarmRunner.isRunning(version); i++) {
+				Thread.sleep(100);
+			}
+
+			List<String> cmd = generateWarmCommandLine(arg);
+			assertThat(runCommand(cmd), equalTo("0 null 1"));
+			assertThat(runCommand(cmd), equalTo("0 null 2"));
+			// Another environment runs the normal way, so the script sees it
+			assertThat(runCommand(cmd, Collections.singletonMap("WARM_TEST", "changed")), equalTo("0 changed 1"));
+			// Unless it's only what the shell changes all the time
+			assertThat(runCommand(cmd, Collections.singletonMap("SHLVL", "42")), equalTo("0 null 3"));
+		} finally {
+			WarmRunner.stop(version);
+		}
+	}
+
+	@Test
+	@DisabledOnOs(OS.WINDOWS)
+	@EnabledIf("isWarmSupported")
+	@EnabledForJreRange(min = JRE.JAVA_12) // for -Djava.security.manager=disallow
+	void testWarmUnsupported() throws Exception {
+		Path script = cwdDir.resolve("cold.java");
+		writeString(script, "class cold {\n\tpublic static void main(String... args) {\n\t}\n}\n");
+		int version = JavaUtil.javaVersion(null);
+		File infoFile = WarmRunner.getFiles(version).get(0);
+		try {
+			// A warm JVM that can't install its security manager records that it failed
+			Process p = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+					"-Djava.security.manager=disallow", "-cp", System.getProperty("java.class.path"),
+					WarmRunner.class.getName(), infoFile.toString(), "1")	.redirectErrorStream(true)
+																			.start();
+			assertThat(p.waitFor(), equalTo(1));
+			assertThat(WarmRunner.isSupported(version), is(false));
+			assertThat(WarmRunner.isRunning(version), is(false));
+
+			// So the script runs the normal way without starting anything
+			assertThat(generateWarmCommandLine(script.toString()), nullValue());
+			assertThat(Util.readString(infoFile.toPath()), containsString("unsupported=true"));
+		} finally {
+			WarmRunner.stop(version);
+		}
+		assertThat(WarmRunner.isSupported(version), is(true));
+	}
+
+	@Test
+	@DisabledOnOs(OS.WINDOWS)
+	@EnabledIf("isWarmSupported")
+	void testWarmMax() throws Exception {
+		Path script = cwdDir.resolve("crowded.java");
+		writeString(script, "class crowded {\n\tpublic static void main(String... args) {\n\t}\n}\n");
+		int version = JavaUtil.javaVersion(null);
+		Path dir = Settings.getWarmRunnerDir();
+		Files.createDirectories(dir);
+		Path oldest = dir.resolve(version + "-oldest.properties");
+		Path recent = dir.resolve(version + "-recent.properties");
+		Path unsupported = dir.resolve(version + "-unsupported.properties");
+		writeString(oldest, "port=1\nsecret=oldest\njava=" + version + "\n");
+		writeString(recent, "port=1\nsecret=recent\njava=" + version + "\n");
+		writeString(unsupported, "java=" + version + "\nunsupported=true\n");
+		oldest.toFile().setLastModified(System.currentTimeMillis() - 60000);
+		// Its log file shows it got used since its connection information was written
+		recent.toFile().setLastModified(System.currentTimeMillis() - 120000);
+		writeString(dir.resolve(recent.getFileName() + ".log"), "");
+
+		environmentVariables.set(Settings.ENV_WARM_MAX, "2");
+		try {
+			assertThat(generateWarmCommandLine(script.toString()), nullValue());
+			for (int i = 0; i < 300 && !WarmRunner.isRunning(version); i++) {
+				Thread.sleep(100);
+			}
+			// Only the one used least recently made room for it
+			assertThat(Files.exists(oldest), is(false));
+			assertThat(Files.exists(recent), is(true));
+			assertThat(Files.exists(unsupported), is(true));
+		} finally {
+			environmentVariables.clear(Settings.ENV_WARM_MAX);
+			WarmRunner.stop(version);
+		}
+	}
+
+	// Java 24 removed the security manager the warm JVM needs
+	static boolean isWarmSupported() {
+		return JavaUtil.javaVersion(null) < 24;
+	}
+
+	private List<String> generateWarmCommandLine(String arg) throws IOException {
+		CommandLine.ParseResult pr = new CommandLine(new Jbang()).parseArgs("run", "--warm", arg);
+		Run run = (Run) pr.subcommand().commandSpec().userObject();
+		RunContext ctx = RunContext.empty();
+		return run.generateWarmCommandLineList(run.prepareArtifacts(Source.forResource(arg, ctx), ctx), ctx);
+	}
+
+	/**
+	 * Runs the given command in the current directory, returns its exit code
+	 * followed by its output
+	 */
+	private String runCommand(List<String> cmd) throws IOException, InterruptedException {
+		return runCommand(cmd, Collections.emptyMap());
+	}
+
+	private String runCommand(List<String> cmd, Map<String, String> env) throws IOException, InterruptedException {
+		ProcessBuilder pb = new ProcessBuilder(cmd).directory(cwdDir.toFile()).redirectErrorStream(true);
+		pb.environment().putAll(env);
+		Process p = pb.start();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+			String output = in.lines().collect(Collectors.joining("\n"));
+			return p.waitFor() + " " + output;
+		}
+	}
+
+	/**
+	 * Compares the time it takes to start a script with and without its CDS
+	 * archive. Only runs when the JBANG_BENCHMARK environment variable is set to
+	 * "true".
+	 */
+	@Test
+	@EnabledIfEnvironmentVariable(named = "JBANG_BENCHMARK", matches = "true")
+	void benchmarkCDSStartup() throws Exception {
+		// A script with lots of classes, archiving the JDK classes it uses alone
+		// doesn't make a difference because the JDK already shares those
+		StringBuilder script = new StringBuilder("class manyclasses {\n\tpublic static void main(String... args) {\n");
+		StringBuilder classes = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			script.append("\t\tnew C").append(i).append("().run();\n");
+			classes	.append("\tstatic class C")
+					.append(i)
+					.append(" implements Runnable {\n\t\tpublic void run() {\n\t\t}\n\t}\n");
+		}
+		script.append("\t}\n").append(classes).append("}\n");
+		Path file = cwdDir.resolve("manyclasses.java");
+		writeString(file, script.toString());
+		String arg = file.toString();
+		CommandLine.ParseResult pr = new CommandLine(new Jbang()).parseArgs("run", "--cds", arg);
+		Run run = (Run) pr.subcommand().commandSpec().userObject();
+		RunContext ctx = RunContext.empty();
+		Source src = run.prepareArtifacts(Source.forResource(arg, ctx), ctx);
+		String withCds = run.generateCommandLine(src, ctx);
+		assertThat(withCds, containsString("-XX:SharedArchiveFile="));
+		String withoutCds = withCds.replaceAll("-XX:SharedArchiveFile=\\S+ ", "");
+
+		int runs = 10;
+		long without = timeStartup(withoutCds, runs);
+		long with = timeStartup(withCds, runs);
+		System.out.println("Starting " + arg + ": without CDS " + without + "ms, with CDS " + with
+				+ "ms (average of " + runs + " runs)");
+	}
+
+	private long timeStartup(String cmdline, int runs) throws Exception {
+		// The first run warms up the file system cache
+		Util.runCommand(cmdline.split(" "));
+		long start = System.nanoTime();
+		for (int i = 0; i < runs; i++) {
+			Util.runCommand(cmdline.split(" "));
+		}
+		return (System.nanoTime() - start) / 1_000_000 / runs;
+	}
+
 	String agent = "//JAVAAGENT Can-Redefine-Classes=false Can-Retransform-Classes\n" +
 			"public class Agent {\n" +
 			"public static void premain(String xyz) { };\n" +
@@ -1206,9 +1669,7 @@ public class TestRun extends BaseTest {
 
 		}
 
-		assertThat("if fails then duplication of deps fixed", ctx.getClassPath().getArtifacts(), hasSize(14));
-		// should be assertThat("if fails then duplication of deps fixed",
-		// script.getClassPath().getArtifacts(), hasSize(7));
+		assertThat(ctx.getClassPath().getArtifacts(), hasSize(7));
 	}
 
 	@Test
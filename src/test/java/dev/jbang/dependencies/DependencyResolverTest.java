@@ -1,24 +1,38 @@
 package dev.jbang.dependencies;
 
 import static dev.jbang.dependencies.DependencyUtil.toMavenRepo;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinate;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
 
 import dev.jbang.BaseTest;
 import dev.jbang.Settings;
@@ -175,6 +189,31 @@ class DependencyResolverTest extends BaseTest {
 
 	}
 
+	@Test
+	void testResolveDependenciesNearestWins() {
+
+		DependencyUtil dr = new DependencyUtil();
+
+		// commons-configuration2 depends on commons-text 1.8 but the direct
+		// dependency on 1.9 is nearer so it should win
+		List<String> deps = Arrays.asList(
+				"org.apache.commons:commons-configuration2:2.7",
+				"org.apache.commons:commons-text:1.9");
+
+		List<ArtifactInfo> artifacts = dr.resolveDependenciesViaAether(deps,
+				Collections.singletonList(toMavenRepo("mavencentral")), false,
+				false, true);
+
+		List<String> texts = artifacts	.stream()
+										.map(ArtifactInfo::getCoordinate)
+										.filter(c -> c.getArtifactId().equals("commons-text"))
+										.map(MavenCoordinate::getVersion)
+										.collect(Collectors.toList());
+
+		assertThat(texts, contains("1.9"));
+		assertEquals(new HashSet<>(artifacts).size(), artifacts.size());
+	}
+
 	@Test
 	void testResolveNativeDependencies() {
 
@@ -216,6 +255,361 @@ class DependencyResolverTest extends BaseTest {
 		assertThat(cp.getClassPath(), containsString("docopt"));
 	}
 
+	@Test
+	void testImportPOMConcurrently() {
+
+		List<String> deps = Arrays.asList("com.microsoft.azure:azure-bom:1.0.0.M1@pom",
+				"com.microsoft.azure:azure");
+
+		environmentVariables.set(Settings.ENV_RESOLVER_THREADS, "4");
+
+		ModularClassPath classpath = new DependencyUtil().resolveDependencies(deps,
+				Collections.emptyList(), false, false, true);
+
+		assertEquals(62, classpath.getArtifacts().size());
+
+	}
+
+	@Test
+	void testResolverSessionIsShared() {
+		List<MavenRepo> central = Collections.singletonList(toMavenRepo("mavencentral"));
+		List<MavenRepo> jitpack = Arrays.asList(toMavenRepo("mavencentral"), toMavenRepo("jitpack"));
+
+		ArtifactResolver first = ArtifactResolver.create(central, false, 1);
+		ArtifactResolver second = ArtifactResolver.create(jitpack, false, 1);
+		assertSame(first.getSession(), second.getSession());
+
+		// a different configuration needs its own session
+		ArtifactResolver offline = ArtifactResolver.create(central, true, 1);
+		assertNotSame(first.getSession(), offline.getSession());
+
+		ArtifactResolver.reset();
+		assertNotSame(offline.getSession(), ArtifactResolver.create(central, true, 1).getSession());
+	}
+
+	@Test
+	void testResolveDependenciesConcurrently() {
+
+		Detector detector = new Detector();
+		detector.detect(new Properties(), Collections.emptyList());
+
+		DependencyUtil dr = new DependencyUtil();
+
+		List<String> deps = Arrays.asList(
+				"org.apache.commons:commons-configuration2:2.7",
+				"org.apache.commons:commons-text:1.9",
+				"com.github.docker-java:docker-java:3.1.5",
+				"log4j:log4j:1.2+");
+		List<MavenRepo> repos = Collections.singletonList(toMavenRepo("mavencentral"));
+
+		environmentVariables.set(Settings.ENV_NO_LOCAL_RESOLVER, "true");
+		try {
+			List<ArtifactInfo> shrinkWrap = dr.resolveDependenciesViaShrinkWrap(deps, repos, false, false, true);
+			List<ArtifactInfo> concurrent = dr.resolveDependenciesConcurrently(deps, repos, false, false, true, 4);
+
+			assertEquals(shrinkWrap, concurrent);
+			assertEquals(shrinkWrap, dr.resolveDependenciesViaAether(deps, repos, false, false, true));
+
+			shrinkWrap = dr.resolveDependenciesViaShrinkWrap(deps, repos, false, false, false);
+			concurrent = dr.resolveDependenciesConcurrently(deps, repos, false, false, false, 4);
+
+			assertEquals(shrinkWrap, concurrent);
+			assertEquals(shrinkWrap, dr.resolveDependenciesViaAether(deps, repos, false, false, false));
+		} finally {
+			environmentVariables.clear(Settings.ENV_NO_LOCAL_RESOLVER);
+		}
+	}
+
+	@Test
+	void testSharedResolverByDefault() {
+		List<MavenRepo> repos = Collections.singletonList(toMavenRepo("mavencentral"));
+		List<String> deps = Collections.singletonList("com.offbytwo:docopt:0.6.0.20150202");
+		String localRepo = System.getProperty("maven.repo.local");
+		System.clearProperty("maven.repo.local");
+		environmentVariables.set(Settings.ENV_NO_LOCAL_RESOLVER, "true");
+		try {
+			new DependencyUtil().resolveDependenciesViaAether(deps, repos, false, false, true);
+			ArtifactResolver first = ArtifactResolver.create(repos, false, 1);
+			new DependencyUtil().resolveDependenciesViaAether(deps, repos, false, false, true);
+			assertSame(first.getSession(), ArtifactResolver.create(repos, false, 1).getSession());
+			assertThat(System.getProperty("maven.repo.local"), nullValue());
+		} finally {
+			environmentVariables.clear(Settings.ENV_NO_LOCAL_RESOLVER);
+			if (localRepo != null) {
+				System.setProperty("maven.repo.local", localRepo);
+			}
+		}
+	}
+
+	/**
+	 * The class paths below are what the ShrinkWrap resolver produces for these
+	 * dependencies, the shared resolver must come up with the exact same ones, no
+	 * matter how many threads it uses.
+	 */
+	@Test
+	void testResolveDependenciesLikeShrinkWrap() {
+		assertResolvesTo(Arrays.asList("com.offbytwo:docopt:0.6.0.20150202"), true,
+				"com.offbytwo:docopt:jar:0.6.0.20150202");
+		assertResolvesTo(Arrays.asList("com.offbytwo:docopt:0.6.0.20150202"), false,
+				"com.offbytwo:docopt:jar:0.6.0.20150202");
+		assertResolvesTo(
+				Arrays.asList("org.apache.commons:commons-configuration2:2.7", "org.apache.commons:commons-text:1.9"),
+				true,
+				"org.apache.commons:commons-configuration2:jar:2.7",
+				"org.apache.commons:commons-lang3:jar:3.9",
+				"commons-logging:commons-logging:jar:1.2",
+				"org.apache.commons:commons-text:jar:1.9");
+		assertResolvesTo(
+				Arrays.asList("org.apache.commons:commons-configuration2:2.7", "org.apache.commons:commons-text:1.9"),
+				false,
+				"org.apache.commons:commons-configuration2:jar:2.7",
+				"org.apache.commons:commons-text:jar:1.9");
+		assertResolvesTo(Arrays.asList("com.fasterxml.jackson.core:jackson-databind:2.12.1"), true,
+				"com.fasterxml.jackson.core:jackson-databind:jar:2.12.1",
+				"com.fasterxml.jackson.core:jackson-annotations:jar:2.12.1",
+				"com.fasterxml.jackson.core:jackson-core:jar:2.12.1");
+		assertResolvesTo(Arrays.asList("com.fasterxml.jackson.core:jackson-databind:2.12.1"), false,
+				"com.fasterxml.jackson.core:jackson-databind:jar:2.12.1");
+		assertResolvesTo(Arrays.asList("com.github.docker-java:docker-java:3.1.5"), true,
+				"com.github.docker-java:docker-java:jar:3.1.5",
+				"com.fasterxml.jackson.jaxrs:jackson-jaxrs-json-provider:jar:2.9.8",
+				"com.fasterxml.jackson.jaxrs:jackson-jaxrs-base:jar:2.9.8",
+				"com.fasterxml.jackson.core:jackson-core:jar:2.9.8",
+				"com.fasterxml.jackson.core:jackson-databind:jar:2.9.8",
+				"com.fasterxml.jackson.module:jackson-module-jaxb-annotations:jar:2.9.8",
+				"com.fasterxml.jackson.core:jackson-annotations:jar:2.9.0",
+				"org.glassfish.jersey.connectors:jersey-apache-connector:jar:2.27",
+				"org.glassfish.jersey.core:jersey-common:jar:2.27",
+				"javax.annotation:javax.annotation-api:jar:1.2",
+				"org.glassfish.hk2:osgi-resource-locator:jar:1.0.1",
+				"javax.ws.rs:javax.ws.rs-api:jar:2.1",
+				"org.apache.httpcomponents:httpcore:jar:4.4.10",
+				"org.apache.httpcomponents:httpclient:jar:4.5.6",
+				"org.glassfish.jersey.core:jersey-client:jar:2.27",
+				"org.glassfish.hk2.external:javax.inject:jar:2.5.0-b42",
+				"org.glassfish.jersey.inject:jersey-hk2:jar:2.27",
+				"org.glassfish.hk2:hk2-locator:jar:2.5.0-b42",
+				"org.glassfish.hk2.external:aopalliance-repackaged:jar:2.5.0-b42",
+				"org.glassfish.hk2:hk2-api:jar:2.5.0-b42",
+				"javax.inject:javax.inject:jar:1",
+				"org.glassfish.hk2:hk2-utils:jar:2.5.0-b42",
+				"org.javassist:javassist:jar:3.22.0-CR2",
+				"com.kohlschutter.junixsocket:junixsocket-common:jar:2.2.0",
+				"com.kohlschutter.junixsocket:junixsocket-native-common:jar:2.2.0",
+				"org.apache.commons:commons-compress:jar:1.18",
+				"commons-codec:commons-codec:jar:1.11",
+				"commons-lang:commons-lang:jar:2.6",
+				"commons-io:commons-io:jar:2.6",
+				"org.slf4j:slf4j-api:jar:1.7.25",
+				"org.slf4j:jcl-over-slf4j:jar:1.7.25",
+				"com.google.guava:guava:jar:19.0",
+				"org.bouncycastle:bcpkix-jdk15on:jar:1.60",
+				"org.bouncycastle:bcprov-jdk15on:jar:1.60",
+				"io.netty:netty-codec-http:jar:4.1.31.Final",
+				"io.netty:netty-codec:jar:4.1.31.Final",
+				"io.netty:netty-handler:jar:4.1.31.Final",
+				"io.netty:netty-buffer:jar:4.1.31.Final",
+				"io.netty:netty-transport:jar:4.1.31.Final",
+				"io.netty:netty-resolver:jar:4.1.31.Final",
+				"io.netty:netty-handler-proxy:jar:4.1.31.Final",
+				"io.netty:netty-codec-socks:jar:4.1.31.Final",
+				"io.netty:netty-transport-native-epoll:jar:linux-x86_64:4.1.31.Final",
+				"io.netty:netty-common:jar:4.1.31.Final",
+				"io.netty:netty-transport-native-unix-common:jar:4.1.31.Final",
+				"io.netty:netty-transport-native-kqueue:jar:osx-x86_64:4.1.31.Final");
+		assertResolvesTo(Arrays.asList("com.github.docker-java:docker-java:3.1.5"), false,
+				"com.github.docker-java:docker-java:jar:3.1.5");
+		assertResolvesTo(Arrays.asList("org.junit:junit-bom:5.7.1@pom", "org.junit.jupiter:junit-jupiter-api"), true,
+				"org.junit.jupiter:junit-jupiter-api:jar:5.7.1",
+				"org.apiguardian:apiguardian-api:jar:1.1.0",
+				"org.opentest4j:opentest4j:jar:1.2.0",
+				"org.junit.platform:junit-platform-commons:jar:1.7.1");
+		assertResolvesTo(Arrays.asList("org.junit:junit-bom:5.7.1@pom", "org.junit.jupiter:junit-jupiter-api"), false,
+				"org.junit.jupiter:junit-jupiter-api:jar:5.7.1");
+	}
+
+	// The javafx-graphics POM adds the artifacts for the current OS with a profile
+	@Test
+	@EnabledOnOs(OS.LINUX)
+	void testResolveJavaFXLikeShrinkWrap() {
+		assertResolvesTo(Arrays.asList("org.openjfx:javafx-graphics:11.0.2:mac", "com.offbytwo:docopt:0.6.0.20150202"),
+				true,
+				"org.openjfx:javafx-graphics:jar:mac:11.0.2",
+				"org.openjfx:javafx-graphics:jar:linux:11.0.2",
+				"org.openjfx:javafx-base:jar:11.0.2",
+				"org.openjfx:javafx-base:jar:linux:11.0.2",
+				"com.offbytwo:docopt:jar:0.6.0.20150202");
+		assertResolvesTo(Arrays.asList("org.openjfx:javafx-graphics:11.0.2:mac", "com.offbytwo:docopt:0.6.0.20150202"),
+				false,
+				"org.openjfx:javafx-graphics:jar:mac:11.0.2",
+				"com.offbytwo:docopt:jar:0.6.0.20150202");
+	}
+
+	private void assertResolvesTo(List<String> deps, boolean transitively, String... expected) {
+		List<MavenRepo> repos = Collections.singletonList(toMavenRepo("mavencentral"));
+		List<ArtifactInfo> artifacts = new DependencyUtil().resolveDependenciesViaShrinkWrap(deps, repos, false,
+				false, transitively);
+		assertEquals(Arrays.asList(expected), toCanonicalForms(artifacts), "Different class path for " + deps);
+
+		artifacts = new DependencyUtil().resolveDependenciesViaAether(deps, repos, false, false, transitively);
+		assertEquals(Arrays.asList(expected), toCanonicalForms(artifacts),
+				"Different shared class path for " + deps);
+
+		artifacts = new DependencyUtil().resolveDependenciesConcurrently(deps, repos, false, false, transitively, 4);
+		assertEquals(Arrays.asList(expected), toCanonicalForms(artifacts),
+				"Different concurrent class path for " + deps);
+	}
+
+	private static List<String> toCanonicalForms(List<ArtifactInfo> artifacts) {
+		return artifacts.stream()
+						.map(a -> a.getCoordinate().toCanonicalForm())
+						.collect(Collectors.toList());
+	}
+
+	@Test
+	void testResolveDependenciesLocally() {
+		List<MavenRepo> repos = Collections.singletonList(toMavenRepo("mavencentral"));
+		List<List<String>> depSets = Arrays.asList(
+				Collections.singletonList("com.offbytwo:docopt:0.6.0.20150202"),
+				Arrays.asList("org.apache.commons:commons-configuration2:2.7", "org.apache.commons:commons-text:1.9"),
+				Collections.singletonList("com.fasterxml.jackson.core:jackson-databind:2.12.1"),
+				Collections.singletonList("com.github.docker-java:docker-java:3.1.5"),
+				Arrays.asList("org.openjfx:javafx-graphics:11.0.2:mac", "com.offbytwo:docopt:0.6.0.20150202"));
+
+		for (List<String> deps : depSets) {
+			for (boolean transitively : Arrays.asList(true, false)) {
+				// first make sure everything is in the local repository
+				List<ArtifactInfo> full = resolveWithoutLocalResolver(deps, repos, transitively);
+				List<ArtifactInfo> local = new DependencyUtil().resolveDependenciesLocally(deps, repos,
+						transitively);
+
+				assertThat("Not resolved locally: " + deps, local, notNullValue());
+				assertEquals(full, local, "Different result for " + deps);
+			}
+		}
+	}
+
+	@Test
+	void testImportPOMLocally() {
+		List<String> deps = Arrays.asList("org.junit:junit-bom:5.7.1@pom", "org.junit.jupiter:junit-jupiter-api");
+		List<MavenRepo> repos = Collections.singletonList(toMavenRepo("mavencentral"));
+
+		List<ArtifactInfo> full = new DependencyUtil().resolveDependenciesConcurrently(new ArrayList<>(deps), repos,
+				false, false, true, 4);
+		List<ArtifactInfo> local = new DependencyUtil().resolveDependenciesLocally(deps, repos, true);
+
+		assertThat(local, notNullValue());
+		assertEquals(full, local);
+	}
+
+	@Test
+	void testResolveDependenciesLocallyFallback() {
+		List<MavenRepo> repos = Collections.singletonList(toMavenRepo("mavencentral"));
+		DependencyUtil dr = new DependencyUtil();
+
+		// version ranges need the remote metadata
+		assertThat(dr.resolveDependenciesLocally(Collections.singletonList("log4j:log4j:1.2+"), repos, true),
+				nullValue());
+		// and so does anything that was never downloaded
+		assertThat(dr.resolveDependenciesLocally(Collections.singletonList("dev.jbang:does-not-exist:1.0"), repos,
+				true), nullValue());
+	}
+
+	@Test
+	void testImportPOMWithManagedScopeLocally() throws IOException {
+		Path repo = jbangTempDir.resolve("scoperepo");
+		writePom(repo, "bom", "pom", "<dependencyManagement><dependencies>"
+				+ dependency("provided-lib", "<scope>provided</scope>")
+				+ dependency("optional-lib", "<optional>true</optional>")
+				+ "</dependencies></dependencyManagement>");
+		writePom(repo, "app", "jar", "<dependencies>" + dependency("provided-lib", "")
+				+ dependency("optional-lib", "") + dependency("plain-lib", "") + "</dependencies>");
+		for (String lib : Arrays.asList("provided-lib", "optional-lib", "plain-lib")) {
+			writePom(repo, lib, "jar", "");
+		}
+		List<String> deps = Arrays.asList("dev.jbang.scope:bom:1.0@pom", "dev.jbang.scope:app:1.0");
+		List<MavenRepo> repos = Collections.singletonList(toMavenRepo("mavencentral"));
+
+		environmentVariables.set(Settings.JBANG_REPO, repo.toString());
+		try {
+			// What the BOM does to the scope is left to the full resolver
+			assertThat(new DependencyUtil().resolveDependenciesLocally(deps, repos, true), nullValue());
+
+			List<ArtifactInfo> withLocal = new DependencyUtil().resolveDependenciesViaAether(new ArrayList<>(deps),
+					repos, true, false, true);
+			environmentVariables.set(Settings.ENV_NO_LOCAL_RESOLVER, "true");
+			List<ArtifactInfo> full = new DependencyUtil().resolveDependenciesViaAether(new ArrayList<>(deps), repos,
+					true, false, true);
+			assertEquals(full, withLocal);
+		} finally {
+			environmentVariables.clear(Settings.JBANG_REPO, Settings.ENV_NO_LOCAL_RESOLVER);
+		}
+	}
+
+	private static String dependency(String artifactId, String extra) {
+		return "<dependency><groupId>dev.jbang.scope</groupId><artifactId>" + artifactId
+				+ "</artifactId><version>1.0</version>" + extra + "</dependency>";
+	}
+
+	private static void writePom(Path repo, String artifactId, String packaging, String body) throws IOException {
+		Path dir = repo.resolve("dev/jbang/scope").resolve(artifactId).resolve("1.0");
+		Files.createDirectories(dir);
+		Files.write(dir.resolve(artifactId + "-1.0.pom"), ("<project><modelVersion>4.0.0</modelVersion>"
+				+ "<groupId>dev.jbang.scope</groupId><artifactId>" + artifactId + "</artifactId><version>1.0</version>"
+				+ "<packaging>" + packaging + "</packaging>" + body + "</project>").getBytes());
+		if ("jar".equals(packaging)) {
+			Files.write(dir.resolve(artifactId + "-1.0.jar"), new byte[0]);
+		}
+	}
+
+	@Test
+	void testRepositoryLayers() throws IOException {
+		List<String> deps = Collections.singletonList("com.offbytwo:docopt:0.6.0.20150202");
+		List<MavenRepo> repos = Collections.singletonList(toMavenRepo("mavencentral"));
+
+		// bake a read-only layer with the artifact and its parent POM
+		Path m2 = Settings.getLocalMavenRepo().toPath();
+		resolveWithoutLocalResolver(deps, repos, true);
+		Path layer = jbangTempDir.resolve("layer");
+		for (String dir : Arrays.asList("com/offbytwo/docopt/0.6.0.20150202", "org/sonatype/oss/oss-parent/7")) {
+			Files.createDirectories(layer.resolve(dir));
+			try (Stream<Path> files = Files.list(m2.resolve(dir))) {
+				for (Path file : files.collect(Collectors.toList())) {
+					Files.copy(file, layer.resolve(dir).resolve(file.getFileName()));
+				}
+			}
+		}
+		Path emptyRepo = jbangTempDir.resolve("repo");
+
+		environmentVariables.set(Settings.JBANG_REPO, emptyRepo.toString());
+		environmentVariables.set(Settings.ENV_REPO_LAYERS, layer.toString());
+		try {
+			for (boolean local : Arrays.asList(true, false)) {
+				List<ArtifactInfo> artifacts = local
+						? new DependencyUtil().resolveDependenciesLocally(deps, repos, true)
+						: resolveWithoutLocalResolver(deps, repos, true);
+				assertThat(artifacts, notNullValue());
+				assertThat(artifacts.size(), equalTo(1));
+				// used in place, without copying anything into the writable repository
+				assertThat(artifacts.get(0).getFile().toPath().startsWith(layer), is(true));
+				assertThat(Files.exists(emptyRepo.resolve("com/offbytwo")), is(false));
+			}
+		} finally {
+			environmentVariables.clear(Settings.JBANG_REPO, Settings.ENV_REPO_LAYERS);
+		}
+	}
+
+	private List<ArtifactInfo> resolveWithoutLocalResolver(List<String> deps, List<MavenRepo> repos,
+			boolean transitively) {
+		environmentVariables.set(Settings.ENV_NO_LOCAL_RESOLVER, "true");
+		try {
+			return new DependencyUtil().resolveDependenciesViaAether(new ArrayList<>(deps), repos, false, false,
+					transitively);
+		} finally {
+			environmentVariables.clear(Settings.ENV_NO_LOCAL_RESOLVER);
+		}
+	}
+
 	/*
 	 * @Ignore("BOM import not yet figured out with shrinkwrap")
 	 */
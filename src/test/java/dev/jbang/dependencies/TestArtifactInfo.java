@@ -3,16 +3,31 @@ package dev.jbang.dependencies;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.hamcrest.io.FileMatchers.aFileWithSize;
+import static org.hamcrest.io.FileMatchers.anExistingFile;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 import org.hamcrest.MatcherAssert;
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinates;
 import org.junit.jupiter.api.Test;
 
+import com.google.gson.Gson;
+
 import dev.jbang.BaseTest;
 import dev.jbang.Settings;
+import dev.jbang.util.Util;
 
 public class TestArtifactInfo extends BaseTest {
 
@@ -30,14 +45,288 @@ public class TestArtifactInfo extends BaseTest {
 
 		DependencyCache.cache("wonka", classpath.getArtifacts());
 
-		MatcherAssert.assertThat(Settings.getCacheDependencyFile().toFile(), aFileWithSize(greaterThan(10L)));
+		MatcherAssert.assertThat(DependencyCache.getEntryFile("wonka").toFile(), aFileWithSize(greaterThan(10L)));
 
 		List<ArtifactInfo> wonka = DependencyCache.findDependenciesByHash("wonka");
 
 		assertThat(wonka, notNullValue());
-		assertThat(wonka, hasSize(6));
+		assertThat(wonka, hasSize(4));
+
+		assertThat(wonka, contains(classpath.getArtifacts().toArray()));
+
+		DependencyCache.clear();
+
+		wonka = DependencyCache.findDependenciesByHash("wonka");
 
 		assertThat(wonka, contains(classpath.getArtifacts().toArray()));
 
+		// The reverse index is only built when it's needed
+		assertThat(DependencyCache.getPathIndexFile().toFile(), not(anExistingFile()));
+
+		ArtifactInfo art = DependencyCache.findArtifactByPath(classpath.getArtifacts().get(0).getFile());
+
+		assertThat(art, equalTo(classpath.getArtifacts().get(0)));
+		assertThat(DependencyCache.getPathIndexFile().toFile(), anExistingFile());
+
+		DependencyCache.clear();
+
+		art = DependencyCache.findArtifactByPath(classpath.getArtifacts().get(1).getFile());
+
+		assertThat(art, equalTo(classpath.getArtifacts().get(1)));
+	}
+
+	@Test
+	public void testFromManifestClasspath() {
+
+		DependencyCache.clear();
+
+		List<String> deps = Arrays.asList(
+				"org.apache.commons:commons-configuration2:2.7",
+				"org.apache.commons:commons-text:1.8");
+
+		DependencyUtil dr = new DependencyUtil();
+		ModularClassPath classpath = dr.resolveDependencies(deps, Collections.emptyList(), false, false, true);
+
+		// Coordinates and timestamps taken directly from the manifest
+		String timestamps = classpath.getManifestTimestamps();
+		ModularClassPath mcp = ModularClassPath.fromManifestClasspath(classpath.getManifestPath(),
+				classpath.getManifestGavs(), timestamps);
+
+		assertThat(mcp.getArtifacts(), contains(classpath.getArtifacts().toArray()));
+		assertThat(mcp.isValid(), is(true));
+
+		// A jar that changed since the manifest was written must be noticed
+		mcp = ModularClassPath.fromManifestClasspath(classpath.getManifestPath(), classpath.getManifestGavs(),
+				timestamps.replaceFirst("^\\d+", "1"));
+
+		assertThat(mcp.getArtifacts().get(0).isUpToDate(), is(false));
+		assertThat(mcp.isValid(), is(false));
+
+		// Coordinates looked up in the dependency cache's path index
+		DependencyCache.clear();
+		mcp = ModularClassPath.fromManifestClasspath(classpath.getManifestPath(), null, null);
+
+		assertThat(mcp.getArtifacts(), contains(classpath.getArtifacts().toArray()));
+	}
+
+	@Test
+	public void testDependencyCacheMigration() throws IOException {
+
+		DependencyCache.clear();
+
+		File jar = jbangTempDir.resolve("dummy.jar").toFile();
+		Files.write(jar.toPath(), "dummy".getBytes());
+		String legacy = "{ \"wonka\": [ { \"gav\": \"dummy:dummy:jar:1.0\", \"file\": "
+				+ new Gson().toJson(jar.getPath()) + ", \"ts\": " + jar.lastModified() + " } ] }";
+		Files.write(Settings.getCacheDependencyFile(), legacy.getBytes());
+
+		List<ArtifactInfo> wonka = DependencyCache.findDependenciesByHash("wonka");
+
+		assertThat(wonka, hasSize(1));
+		assertThat(wonka.get(0).getCoordinate().toCanonicalForm(), equalTo("dummy:dummy:jar:1.0"));
+		assertThat(Files.exists(Settings.getCacheDependencyFile()), is(false));
+		assertThat(Files.isRegularFile(DependencyCache.getEntryFile("wonka")), is(true));
+	}
+
+	@Test
+	public void testDependencyCacheEviction() throws IOException {
+
+		DependencyCache.clear();
+
+		File shared = jbangTempDir.resolve("shared.jar").toFile();
+		Files.write(shared.toPath(), "shared".getBytes());
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 12; i++) {
+			File jar = jbangTempDir.resolve("dummy" + i + ".jar").toFile();
+			Files.write(jar.toPath(), "dummy".getBytes());
+			DependencyCache.cache("entry" + i, Arrays.asList(
+					new ArtifactInfo(MavenCoordinates.createCoordinate("dummy:dummy" + i + ":1.0"), jar),
+					new ArtifactInfo(MavenCoordinates.createCoordinate("dummy:shared:1.0"), shared)));
+			// make sure the entries have distinct and increasing access times
+			Files.setLastModifiedTime(DependencyCache.getEntryFile("entry" + i),
+					FileTime.fromMillis(now - TimeUnit.MINUTES.toMillis(60 - i)));
+		}
+
+		// Using the oldest entry makes it the most recently used one
+		DependencyCache.clear();
+		assertThat(DependencyCache.findDependenciesByHash("entry0"), hasSize(2));
+
+		// Exceeding the maximum trims the cache to 90% of its size
+		assertThat(DependencyCache.evict(10, 0), equalTo(3));
+		assertThat(DependencyCache.getEntryCount(), equalTo(9));
+		assertThat(DependencyCache.getEvictedCount(), equalTo(3L));
+
+		DependencyCache.clear();
+		assertThat(DependencyCache.findDependenciesByHash("entry0"), notNullValue());
+		for (int i = 1; i <= 3; i++) {
+			assertThat(DependencyCache.findDependenciesByHash("entry" + i), nullValue());
+			File jar = jbangTempDir.resolve("dummy" + i + ".jar").toFile();
+			assertThat(DependencyCache.findArtifactByPath(jar), nullValue());
+		}
+		assertThat(DependencyCache.findArtifactByPath(shared), notNullValue());
+
+		// Entries that weren't used for too long get evicted as well
+		Files.setLastModifiedTime(DependencyCache.getEntryFile("entry4"),
+				FileTime.fromMillis(now - TimeUnit.DAYS.toMillis(10)));
+		assertThat(DependencyCache.evict(0, 5), equalTo(1));
+		assertThat(DependencyCache.getEntryCount(), equalTo(8));
+		assertThat(DependencyCache.getEvictedCount(), equalTo(4L));
+	}
+
+	@Test
+	public void testDependencyCachePathIndex() throws IOException {
+
+		DependencyCache.clear();
+
+		File one = jbangTempDir.resolve("one.jar").toFile();
+		File two = jbangTempDir.resolve("two.jar").toFile();
+		Files.write(one.toPath(), "one".getBytes());
+		Files.write(two.toPath(), "two".getBytes());
+		DependencyCache.cache("one", Collections.singletonList(
+				new ArtifactInfo(MavenCoordinates.createCoordinate("dummy:one:1.0"), one)));
+		DependencyCache.clear();
+		assertThat(DependencyCache.findArtifactByPath(one), notNullValue());
+		Path index = DependencyCache.getPathIndexFile();
+		FileTime built = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+		Files.setLastModifiedTime(index, built);
+
+		// Other files in the cache folder and unknown paths don't make it rebuild
+		Files.write(DependencyCache.getCacheDir().resolve("other.txt"), "other".getBytes());
+		DependencyCache.clear();
+		assertThat(DependencyCache.findArtifactByPath(one), notNullValue());
+		assertThat(DependencyCache.findArtifactByPath(two), nullValue());
+		assertThat(Files.getLastModifiedTime(index), equalTo(built));
+
+		// Adding an entry does
+		DependencyCache.cache("two", Collections.singletonList(
+				new ArtifactInfo(MavenCoordinates.createCoordinate("dummy:two:1.0"), two)));
+		DependencyCache.clear();
+		assertThat(DependencyCache.findArtifactByPath(two), notNullValue());
+		assertThat(Files.getLastModifiedTime(index), not(equalTo(built)));
+	}
+
+	@Test
+	public void testDependencyCacheEvictionOnCache() throws IOException {
+
+		DependencyCache.clear();
+		environmentVariables.set(Settings.ENV_DEPS_CACHE_MAX_ENTRIES, "5");
+		environmentVariables.set(Settings.ENV_DEPS_CACHE_MAX_AGE, "5");
+		try {
+			long old = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(10);
+			for (int i = 0; i < 5; i++) {
+				File jar = jbangTempDir.resolve("dummy" + i + ".jar").toFile();
+				Files.write(jar.toPath(), "dummy".getBytes());
+				DependencyCache.cache("entry" + i, Collections.singletonList(
+						new ArtifactInfo(MavenCoordinates.createCoordinate("dummy:dummy" + i + ":1.0"), jar)));
+				Files.setLastModifiedTime(DependencyCache.getEntryFile("entry" + i), FileTime.fromMillis(old));
+			}
+
+			// Below the maximum, adding entries doesn't look at the other ones
+			assertThat(DependencyCache.getEntryCount(), equalTo(5));
+			assertThat(DependencyCache.getEvictedCount(), equalTo(0L));
+
+			// Going over it does
+			File jar = jbangTempDir.resolve("dummy5.jar").toFile();
+			Files.write(jar.toPath(), "dummy".getBytes());
+			DependencyCache.cache("entry5", Collections.singletonList(
+					new ArtifactInfo(MavenCoordinates.createCoordinate("dummy:dummy5:1.0"), jar)));
+			assertThat(DependencyCache.getEntryCount(), equalTo(1));
+			assertThat(DependencyCache.getEvictedCount(), equalTo(5L));
+		} finally {
+			environmentVariables.clear(Settings.ENV_DEPS_CACHE_MAX_ENTRIES);
+			environmentVariables.clear(Settings.ENV_DEPS_CACHE_MAX_AGE);
+		}
+	}
+
+	@Test
+	public void testDependencyCacheValidationWindow() throws IOException {
+
+		DependencyCache.clear();
+
+		File jar = jbangTempDir.resolve("dummy.jar").toFile();
+		Files.write(jar.toPath(), "dummy".getBytes());
+		DependencyCache.cache("wonka", Collections.singletonList(
+				new ArtifactInfo(MavenCoordinates.createCoordinate("dummy:dummy:1.0"), jar)));
+
+		// The first lookup does a full validation
+		DependencyCache.clear();
+		assertThat(DependencyCache.findDependenciesByHash("wonka"), hasSize(1));
+
+		// After which the result is trusted for a while, even in other processes
+		Files.delete(jar.toPath());
+		DependencyCache.clear();
+		assertThat(DependencyCache.findDependenciesByHash("wonka"), hasSize(1));
+
+		// Unless we ask for fresh results
+		try {
+			Util.setFresh(true);
+			DependencyCache.clear();
+			assertThat(DependencyCache.findDependenciesByHash("wonka"), nullValue());
+		} finally {
+			Util.setFresh(false);
+		}
+
+		// Or the window is disabled
+		environmentVariables.set(Settings.ENV_DEPS_VALIDATION_WINDOW, "0");
+		DependencyCache.clear();
+		assertThat(DependencyCache.findDependenciesByHash("wonka"), nullValue());
+	}
+
+	@Test
+	public void testModuleDescriptorCache() throws IOException {
+
+		ModuleDescriptorCache.clear();
+
+		File jar = jbangTempDir.resolve("org/openjfx/javafx-fake/1.0/javafx-fake-1.0.jar").toFile();
+		writeModuleJar(jar, "javafx.fake");
+
+		ModuleDescriptorCache.ModuleInfo info = ModuleDescriptorCache.getModuleInfo(jar);
+		assertThat(info.getName(), equalTo("javafx.fake"));
+		assertThat(info.isAutomatic(), is(true));
+		assertThat(Files.isRegularFile(ModuleDescriptorCache.getModuleFile(jar)), is(true));
+
+		// The stored result is used as long as the jar doesn't change
+		ModuleDescriptorCache.clear();
+		Path entry = ModuleDescriptorCache.getModuleFile(jar);
+		String json = new String(Files.readAllBytes(entry));
+		Files.write(entry, json.replace("javafx.fake", "javafx.cached").getBytes());
+		assertThat(ModuleDescriptorCache.getModuleInfo(jar).getName(), equalTo("javafx.cached"));
+
+		writeModuleJar(jar, "javafx.changed");
+		jar.setLastModified(jar.lastModified() + 2000);
+		assertThat(ModuleDescriptorCache.getModuleInfo(jar).getName(), equalTo("javafx.changed"));
+
+		ModularClassPath mcp = new ModularClassPath(Collections.singletonList(new ArtifactInfo(null, jar))) {
+			@Override
+			protected boolean supportsModules(String requestedVersion) {
+				return true;
+			}
+		};
+		List<String> args = Arrays.asList("--module-path", jar.getPath(), "--add-modules", "javafx.changed");
+		assertThat(mcp.getAutoDectectedModuleArguments(null), equalTo(args));
+
+		// The arguments for the class path get stored as well
+		ModuleDescriptorCache.clear();
+		String key = jar.getPath() + "=" + jar.lastModified();
+		assertThat(ModuleDescriptorCache.findArguments(key), equalTo(args));
+
+		// And they get evicted together with the dependency cache entry
+		DependencyCache.cache("fx", Collections.singletonList(
+				new ArtifactInfo(MavenCoordinates.createCoordinate("org.openjfx:javafx-fake:1.0"), jar)));
+		Files.setLastModifiedTime(DependencyCache.getEntryFile("fx"),
+				FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(10)));
+		assertThat(DependencyCache.evict(0, 5), equalTo(1));
+		assertThat(Files.exists(ModuleDescriptorCache.getArgsFile(key)), is(false));
+		assertThat(ModuleDescriptorCache.findArguments(key), nullValue());
+	}
+
+	private static void writeModuleJar(File jar, String moduleName) throws IOException {
+		jar.getParentFile().mkdirs();
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().putValue("Automatic-Module-Name", moduleName);
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+			// just the manifest
+		}
 	}
 }
@@ -0,0 +1,146 @@
+package dev.jbang.dependencies;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinates;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.Gson;
+
+import dev.jbang.BaseTest;
+import dev.jbang.Settings;
+
+/**
+ * Hammers the dependency cache from several JVMs at the same time, each of them
+ * writing its own entries and one shared entry while a migration of an old
+ * style cache is in progress, or writing entries while the others evict them.
+ */
+public class TestDependencyCacheConcurrency extends BaseTest {
+
+	static final int PROCESSES = 4;
+	static final int ENTRIES = 25;
+	static final int EVICTED_ENTRIES = 100;
+	static final int SHARED_ARTIFACTS = 10;
+
+	@Test
+	void testConcurrentProcesses() throws IOException, InterruptedException {
+		DependencyCache.clear();
+
+		File jar = jbangTempDir.resolve("dummy.jar").toFile();
+		Files.write(jar.toPath(), "dummy".getBytes());
+		String legacy = "{ \"legacy\": [ { \"gav\": \"dummy:dummy:jar:1.0\", \"file\": "
+				+ new Gson().toJson(jar.getPath()) + ", \"ts\": " + jar.lastModified() + " } ] }";
+		Files.write(Settings.getCacheDependencyFile(), legacy.getBytes());
+
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		List<Process> processes = new ArrayList<>();
+		for (int i = 0; i < PROCESSES; i++) {
+			ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					TestDependencyCacheConcurrency.class.getName(), "p" + i, jar.getPath());
+			pb.environment().put(Settings.JBANG_DIR, jbangTempDir.toString());
+			pb.environment().put(Settings.JBANG_CACHE_DIR, jbangTempDir.resolve("cache").toString());
+			pb.redirectErrorStream(true);
+			pb.redirectOutput(jbangTempDir.resolve("p" + i + ".log").toFile());
+			processes.add(pb.start());
+		}
+		for (Process p : processes) {
+			assertThat(p.waitFor(), equalTo(0));
+		}
+
+		DependencyCache.clear();
+		for (int i = 0; i < PROCESSES; i++) {
+			for (int j = 0; j < ENTRIES; j++) {
+				assertThat(DependencyCache.findDependenciesByHash("p" + i + "-" + j), hasSize(1));
+			}
+		}
+		assertThat(DependencyCache.findDependenciesByHash("shared"), hasSize(1));
+		assertThat(DependencyCache.findDependenciesByHash("legacy"), hasSize(1));
+		assertThat(Files.exists(Settings.getCacheDependencyFile()), is(false));
+
+		try (Stream<Path> files = Files.list(DependencyCache.getCacheDir())) {
+			List<String> leftovers = files	.map(f -> f.getFileName().toString())
+											.filter(n -> n.endsWith(".tmp"))
+											.collect(Collectors.toList());
+			assertThat(leftovers, empty());
+		}
+	}
+
+	@Test
+	void testConcurrentEviction() throws IOException, InterruptedException {
+		DependencyCache.clear();
+		for (int i = 0; i < SHARED_ARTIFACTS; i++) {
+			Files.write(jbangTempDir.resolve("dummy" + i + ".jar"), "dummy".getBytes());
+		}
+
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		List<Process> processes = new ArrayList<>();
+		for (int i = 0; i < PROCESSES; i++) {
+			ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					TestDependencyCacheConcurrency.class.getName(), "e" + i, jbangTempDir.toString(), "evict");
+			pb.environment().put(Settings.JBANG_DIR, jbangTempDir.toString());
+			pb.environment().put(Settings.JBANG_CACHE_DIR, jbangTempDir.resolve("cache").toString());
+			pb.environment().put(Settings.ENV_DEPS_CACHE_MAX_ENTRIES, "5");
+			pb.redirectErrorStream(true);
+			pb.redirectOutput(jbangTempDir.resolve("e" + i + ".log").toFile());
+			processes.add(pb.start());
+		}
+		for (Process p : processes) {
+			assertThat(p.waitFor(), equalTo(0));
+		}
+	}
+
+	/**
+	 * Entry point for the child processes started by the tests above
+	 */
+	public static void main(String... args) throws IOException {
+		String id = args[0];
+		if (args.length > 2) {
+			// The entries of all processes share a few artifacts, so the reverse index
+			// keeps getting rebuilt while entries get evicted and added again
+			for (int i = 0; i < EVICTED_ENTRIES; i++) {
+				String key = id + "-" + i;
+				File jar = new File(args[1], "dummy" + i % SHARED_ARTIFACTS + ".jar");
+				DependencyCache.cache(key, Collections.singletonList(
+						new ArtifactInfo(MavenCoordinates.createCoordinate("dummy:dummy:" + i % SHARED_ARTIFACTS),
+								jar)));
+				// The reverse index must always contain the artifacts of the existing entries
+				DependencyCache.withLock(() -> {
+					DependencyCache.clear();
+					if (DependencyCache.findDependenciesByHash(key) != null
+							&& DependencyCache.findArtifactByPath(jar) == null) {
+						System.err.println("Missing cache index in iteration " + key);
+						System.exit(1);
+					}
+				});
+			}
+			return;
+		}
+		File jar = new File(args[1]);
+		List<ArtifactInfo> artifacts = Collections.singletonList(
+				new ArtifactInfo(MavenCoordinates.createCoordinate("dummy:dummy:1.0"), jar));
+		for (int i = 0; i < ENTRIES; i++) {
+			DependencyCache.cache(id + "-" + i, artifacts);
+			DependencyCache.cache("shared", artifacts);
+			// Make sure we read back from disk
+			DependencyCache.clear();
+			if (DependencyCache.findDependenciesByHash(id + "-" + i) == null
+					|| DependencyCache.findDependenciesByHash("shared") == null
+					|| DependencyCache.findDependenciesByHash("legacy") == null) {
+				System.err.println("Missing or corrupt cache entry in iteration " + i);
+				System.exit(1);
+			}
+		}
+	}
+}
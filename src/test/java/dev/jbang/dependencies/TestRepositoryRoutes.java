@@ -0,0 +1,77 @@
+package dev.jbang.dependencies;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.jupiter.api.Test;
+
+import dev.jbang.BaseTest;
+import dev.jbang.Settings;
+
+public class TestRepositoryRoutes extends BaseTest {
+
+	static final RemoteRepository CENTRAL = repo("central", "https://repo1.maven.org/maven2/");
+	static final RemoteRepository JITPACK = repo("jitpack", "https://jitpack.io");
+	static final RemoteRepository GOOGLE = repo("google", "https://maven.google.com/");
+	static final List<RemoteRepository> REPOS = Arrays.asList(CENTRAL, JITPACK, GOOGLE);
+
+	@Test
+	void testRouting() throws IOException {
+		RepositoryRoutes routes = RepositoryRoutes.load();
+
+		// Without any information the original order is kept
+		assertThat(ids(routes.order("com.github.acme", REPOS)), contains("central", "jitpack", "google"));
+
+		routes.missing("com.github.acme", CENTRAL.getUrl());
+		routes.served("com.github.acme", JITPACK);
+		assertThat(ids(routes.order("com.github.acme", REPOS)), contains("jitpack", "google", "central"));
+		// sub groups follow their parent group
+		assertThat(ids(routes.order("com.github.acme.tools", REPOS)), contains("jitpack", "google", "central"));
+
+		// Faster repositories go first
+		routes.latency(GOOGLE.getUrl(), 10);
+		routes.latency(CENTRAL.getUrl() + "/", 100);
+		assertThat(ids(routes.order("org.acme", REPOS)), contains("google", "central", "jitpack"));
+
+		// Everything survives a restart
+		routes.save();
+		assertThat(Files.isRegularFile(RepositoryRoutes.getRoutesFile()), is(true));
+		routes = RepositoryRoutes.load();
+		assertThat(ids(routes.order("com.github.acme", REPOS)), contains("jitpack", "google", "central"));
+		assertThat(ids(routes.order("org.acme", REPOS)), contains("google", "central", "jitpack"));
+		assertThat(routes.getGroups().get("com.github.acme").getMissing(), contains("https://repo1.maven.org/maven2/"));
+
+		RepositoryRoutes.reset();
+		routes = RepositoryRoutes.load();
+		assertThat(routes.getGroups().entrySet(), empty());
+		assertThat(ids(routes.order("com.github.acme", REPOS)), contains("central", "jitpack", "google"));
+	}
+
+	@Test
+	void testRoutingDisabled() {
+		RepositoryRoutes routes = RepositoryRoutes.load();
+		routes.served("com.github.acme", GOOGLE);
+
+		environmentVariables.set(Settings.ENV_REPO_ROUTES_TTL, "0");
+		try {
+			assertThat(ids(routes.order("com.github.acme", REPOS)), contains("central", "jitpack", "google"));
+		} finally {
+			environmentVariables.clear(Settings.ENV_REPO_ROUTES_TTL);
+		}
+	}
+
+	private static RemoteRepository repo(String id, String url) {
+		return new RemoteRepository.Builder(id, "default", url).build();
+	}
+
+	private static List<String> ids(List<RemoteRepository> repos) {
+		return repos.stream().map(RemoteRepository::getId).collect(Collectors.toList());
+	}
+}